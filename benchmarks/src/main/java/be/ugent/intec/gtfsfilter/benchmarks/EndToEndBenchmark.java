@@ -0,0 +1,112 @@
+package be.ugent.intec.gtfsfilter.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.ugent.intec.gtfsfilter.FilterJob;
+import be.ugent.intec.gtfsfilter.Main;
+import be.ugent.intec.gtfsfilter.streaming.StreamingGtfsFilter;
+
+/**
+ * A whole run of the application on a generated feed: read, filter on
+ * location, timespan and transport type as one job, and write, both in
+ * memory and with the streaming filter. Every invocation writes a fresh
+ * output folder (or zip archive, with -p output=zip).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int stopTimes;
+
+	@Param({ "folder" })
+	public String output;
+
+	private File input, temp;
+	private ServiceDate start, end;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		input = FeedState.get(stopTimes);
+		start = ServiceDate.parseString(FeedState.START);
+		end = ServiceDate.parseString(FeedState.END);
+	}
+
+	@Setup(Level.Invocation)
+	public void createOutput() throws IOException {
+		temp = Files.createTempDirectory("gtfs-filter-benchmark").toFile();
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteOutput() throws IOException {
+		Files.walkFileTree(temp.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file,
+					BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e)
+					throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Benchmark
+	public void inMemory() {
+		FilterJob job = new FilterJob(target());
+		job.setLocation(FeedState.MIN_LAT, FeedState.MIN_LON,
+				FeedState.MAX_LAT, FeedState.MAX_LON);
+		job.setTimespan(start, end);
+		job.setTransportTypes(FeedState.TYPES);
+
+		Main main = new Main(input, target());
+		main.read();
+		main.applyFilters(job);
+		main.write();
+	}
+
+	@Benchmark
+	public void streaming() throws IOException {
+		StreamingGtfsFilter filter = new StreamingGtfsFilter(input, target());
+		filter.setLocation(FeedState.MIN_LAT, FeedState.MIN_LON,
+				FeedState.MAX_LAT, FeedState.MAX_LON);
+		filter.setTimespan(start, end);
+		filter.setTransportTypes(FeedState.TYPES);
+		filter.run();
+	}
+
+	private File target() {
+		return new File(temp, output.equals("zip") ? "output.zip" : "output");
+	}
+}
@@ -0,0 +1,96 @@
+package be.ugent.intec.gtfsfilter.benchmarks;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.ugent.intec.gtfsfilter.index.BitSetEvaluator;
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.Selection;
+import be.ugent.intec.gtfsfilter.predicates.StopTimeByTripsPredicate;
+import be.ugent.intec.gtfsfilter.predicates.StopTimesByStopsPredicate;
+import be.ugent.intec.gtfsfilter.transformers.StopTimeToStopFunction;
+import be.ugent.intec.gtfsfilter.transformers.StopTimeToTripFunction;
+import be.ugent.intec.gtfsfilter.transformers.TripToRouteFunction;
+
+/**
+ * The predicates and functions the filters run over stop_times and trips, the
+ * biggest collections of a feed, with one and with several threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class EvaluatorBenchmark {
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	private GtfsIndex index;
+	private Selection all;
+	private BitSet halfOfTrips, halfOfStops;
+	private BitSetEvaluator evaluator;
+
+	@Setup(Level.Trial)
+	public void setup(FeedState feed) {
+		index = new GtfsIndex(feed.feed);
+		all = index.selectAll();
+		halfOfTrips = new BitSet();
+		for (int i = 0; i < all.getTrips().length(); i += 2)
+			halfOfTrips.set(i);
+		halfOfStops = new BitSet();
+		for (int i = 0; i < all.getStops().length(); i += 2)
+			halfOfStops.set(i);
+		evaluator = new BitSetEvaluator(threads);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		evaluator.shutdown();
+	}
+
+	@Benchmark
+	public BitSet stopTimesByTrips() {
+		return evaluator.retain(all.getStopTimes(),
+				new StopTimeByTripsPredicate(index, halfOfTrips));
+	}
+
+	@Benchmark
+	public BitSet stopTimesByStops() {
+		return evaluator.retain(all.getStopTimes(),
+				new StopTimesByStopsPredicate(index, halfOfStops));
+	}
+
+	@Benchmark
+	public BitSet stopTimesToStops() {
+		return evaluator.transform(all.getStopTimes(),
+				new StopTimeToStopFunction(index));
+	}
+
+	@Benchmark
+	public BitSet stopTimesToTrips() {
+		return evaluator.transform(all.getStopTimes(),
+				new StopTimeToTripFunction(index));
+	}
+
+	@Benchmark
+	public BitSet tripsToRoutes() {
+		return evaluator.transform(all.getTrips(), new TripToRouteFunction(
+				index));
+	}
+}
@@ -0,0 +1,470 @@
+package be.ugent.intec.gtfsfilter.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Writes a random but reproducible GTFS feed into a folder, in the layout a
+ * {@link org.onebusaway.gtfs.serialization.GtfsReader} reads. The stops lie on
+ * a grid over Belgium and every route runs across the grid in a straight line,
+ * so location filters keep a contiguous part of the network. The calendars
+ * cover parts of 2013, trips start between 05:00 and 24:00 and may run past
+ * midnight.
+ * <p>
+ * The same parameters and seed always give the same feed. The rows are
+ * formatted straight into a byte buffer, so the big stop_times.txt is written
+ * about as fast as the disk takes it.
+ */
+public class FeedGenerator {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private static final String USAGE = "[-a <agencies>] [-r <routes>] [-t <trips>] [-s <stops>] [-n <stops>] [-p <points>] [-c <calendars>] [-e <exceptions>] [-f <percentage>] [-x <seed>] OUTPUT";
+
+	private int agencies = 1;
+	private int routes = 100;
+	private int tripsPerRoute = 50;
+	private int stopsPerTrip = 20;
+	private int stops = 0;
+	private int shapePointsPerStop = 2;
+	private int calendars = 20;
+	private int exceptionsPerCalendar = 3;
+	private int frequencyPercentage = 5;
+	private long seed = 42;
+
+	/**
+	 * @return a generator for a feed with (about) the given number of
+	 *         stop_times and the default shape of the network
+	 */
+	public static FeedGenerator forStopTimes(long stopTimes) {
+		FeedGenerator generator = new FeedGenerator();
+		long trips = Math.max(1, stopTimes / generator.stopsPerTrip);
+		generator.setRoutes((int) Math.max(4, trips / 200));
+		generator.setTripsPerRoute((int) ((trips + generator.routes - 1) / generator.routes));
+		return generator;
+	}
+
+	public void setAgencies(int agencies) {
+		Preconditions.checkArgument(agencies > 0);
+		this.agencies = agencies;
+	}
+
+	public void setRoutes(int routes) {
+		Preconditions.checkArgument(routes > 0);
+		this.routes = routes;
+	}
+
+	public void setTripsPerRoute(int tripsPerRoute) {
+		Preconditions.checkArgument(tripsPerRoute > 0);
+		this.tripsPerRoute = tripsPerRoute;
+	}
+
+	public void setStopsPerTrip(int stopsPerTrip) {
+		Preconditions.checkArgument(stopsPerTrip > 1);
+		this.stopsPerTrip = stopsPerTrip;
+	}
+
+	/**
+	 * @param stops
+	 *            the number of stops, rounded up to a square grid; 0 derives
+	 *            it from the number of routes and stops per trip
+	 */
+	public void setStops(int stops) {
+		Preconditions.checkArgument(stops >= 0);
+		this.stops = stops;
+	}
+
+	/**
+	 * @param shapePointsPerStop
+	 *            the number of shape points between two stops; 0 writes no
+	 *            shapes
+	 */
+	public void setShapePointsPerStop(int shapePointsPerStop) {
+		Preconditions.checkArgument(shapePointsPerStop >= 0);
+		this.shapePointsPerStop = shapePointsPerStop;
+	}
+
+	public void setCalendars(int calendars) {
+		Preconditions.checkArgument(calendars > 0);
+		this.calendars = calendars;
+	}
+
+	public void setExceptionsPerCalendar(int exceptionsPerCalendar) {
+		Preconditions.checkArgument(exceptionsPerCalendar >= 0);
+		this.exceptionsPerCalendar = exceptionsPerCalendar;
+	}
+
+	/**
+	 * @param frequencyPercentage
+	 *            the percentage of trips that get a frequencies.txt entry
+	 */
+	public void setFrequencyPercentage(int frequencyPercentage) {
+		Preconditions.checkArgument(frequencyPercentage >= 0
+				&& frequencyPercentage <= 100);
+		this.frequencyPercentage = frequencyPercentage;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public long getStopTimes() {
+		return (long) routes * tripsPerRoute * stopsPerTrip;
+	}
+
+	public void write(File folder) throws IOException {
+		if (!folder.exists())
+			folder.mkdirs();
+
+		Random random = new Random(seed);
+		int grid = (int) Math.ceil(Math.sqrt(stops > 0 ? stops : Math.max(
+				100, (long) routes * stopsPerTrip / 4)));
+		int stopCount = grid * grid;
+
+		try (AsciiOutput out = open(folder, "agency.txt")) {
+			out.append("agency_id,agency_name,agency_url,agency_timezone\n");
+			for (int i = 0; i < agencies; i++)
+				out.append('A').append(i).append(",Agency ").append(i)
+						.append(",http://example.com/").append(i)
+						.append(",Europe/Brussels\n");
+		}
+
+		try (AsciiOutput out = open(folder, "stops.txt")) {
+			out.append("stop_id,stop_name,stop_lat,stop_lon\n");
+			for (int i = 0; i < stopCount; i++)
+				out.append('S').append(i).append(",Stop ").append(i)
+						.append(',').append(latitude(grid, i, random))
+						.append(',').append(longitude(grid, i, random))
+						.append('\n');
+		}
+
+		// every route starts at a random stop and moves one grid cell per stop
+		int[] routeStart = new int[routes], routeStep = new int[routes];
+		try (AsciiOutput out = open(folder, "routes.txt")) {
+			out.append("route_id,agency_id,route_short_name,route_long_name,route_type\n");
+			for (int i = 0; i < routes; i++) {
+				routeStart[i] = random.nextInt(stopCount);
+				int dr = random.nextInt(3) - 1, dc = random.nextInt(3) - 1;
+				routeStep[i] = dr == 0 && dc == 0 ? 1 : dr * grid + dc;
+				out.append('R').append(i).append(",A").append(i % agencies)
+						.append(',').append(i).append(",Route ").append(i)
+						.append(',').append(i % 4).append('\n');
+			}
+		}
+
+		try (AsciiOutput out = open(folder, "calendar.txt")) {
+			out.append("service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n");
+			for (int i = 0; i < calendars; i++) {
+				out.append("SV").append(i);
+				// at least one day a week
+				int days = 1 + random.nextInt(127);
+				for (int day = 0; day < 7; day++)
+					out.append(',').append((days >> day) & 1);
+				int start = 1 + random.nextInt(12);
+				int end = start + random.nextInt(13 - start);
+				out.append(",2013").appendTwoDigits(start).append("01");
+				out.append(",2013").appendTwoDigits(end).append("28\n");
+			}
+		}
+
+		try (AsciiOutput out = open(folder, "calendar_dates.txt")) {
+			out.append("service_id,date,exception_type\n");
+			for (int i = 0; i < calendars; i++)
+				for (int j = 0; j < exceptionsPerCalendar; j++)
+					out.append("SV").append(i).append(",2013")
+							.appendTwoDigits(1 + random.nextInt(12))
+							.appendTwoDigits(1 + random.nextInt(28))
+							.append(',').append(1 + random.nextInt(2))
+							.append('\n');
+		}
+
+		if (shapePointsPerStop > 0) {
+			try (AsciiOutput out = open(folder, "shapes.txt")) {
+				out.append("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n");
+				for (int i = 0; i < routes; i++) {
+					int sequence = 1;
+					for (int j = 0; j < stopsPerTrip - 1; j++) {
+						int from = stopOf(stopCount, routeStart[i],
+								routeStep[i], j);
+						int to = stopOf(stopCount, routeStart[i], routeStep[i],
+								j + 1);
+						int points = j == stopsPerTrip - 2 ? shapePointsPerStop + 1
+								: shapePointsPerStop;
+						for (int k = 0; k < points; k++) {
+							double f = (double) k / shapePointsPerStop;
+							out.append("SH").append(i).append(',')
+									.append(interpolate(latitude(grid, from),
+											latitude(grid, to), f))
+									.append(',')
+									.append(interpolate(longitude(grid, from),
+											longitude(grid, to), f))
+									.append(',').append(sequence++)
+									.append('\n');
+						}
+					}
+				}
+			}
+		}
+
+		try (AsciiOutput tripsOut = open(folder, "trips.txt");
+				AsciiOutput stopTimesOut = open(folder, "stop_times.txt");
+				AsciiOutput frequenciesOut = open(folder, "frequencies.txt")) {
+			tripsOut.append(shapePointsPerStop > 0 ? "route_id,service_id,trip_id,direction_id,shape_id\n"
+					: "route_id,service_id,trip_id,direction_id\n");
+			stopTimesOut
+					.append("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+			frequenciesOut.append("trip_id,start_time,end_time,headway_secs\n");
+
+			// the parts of a stop_times row that repeat are formatted once
+			TimeTable times = new TimeTable();
+			byte[][] stopIds = new byte[stopCount][];
+			for (int i = 0; i < stopCount; i++)
+				stopIds[i] = (",S" + i + ",").getBytes(StandardCharsets.US_ASCII);
+			byte[][] sequences = new byte[stopsPerTrip][];
+			for (int j = 0; j < stopsPerTrip; j++)
+				sequences[j] = (j + 1 + "\n").getBytes(StandardCharsets.US_ASCII);
+			long trip = 0;
+			for (int route = 0; route < routes; route++) {
+				for (int i = 0; i < tripsPerRoute; i++, trip++) {
+					tripsOut.append('R').append(route).append(",SV")
+							.append(random.nextInt(calendars)).append(",T")
+							.append(trip).append(',').append(i & 1);
+					if (shapePointsPerStop > 0)
+						tripsOut.append(",SH").append(route);
+					tripsOut.append('\n');
+
+					int time = 5 * 3600 + random.nextInt(19 * 3600);
+					if (random.nextInt(100) < frequencyPercentage)
+						frequenciesOut.append('T').append(trip).append(',')
+								.appendTime(time).append(',')
+								.appendTime(time + 3600)
+								.append(',').append(300 + 300 * random.nextInt(4))
+								.append('\n');
+
+					byte[] tripId = ("T" + trip + ",").getBytes(StandardCharsets.US_ASCII);
+					for (int j = 0; j < stopsPerTrip; j++) {
+						stopTimesOut.append(tripId).append(times.get(time))
+								.append(',').append(times.get(time + 30))
+								.append(stopIds[stopOf(stopCount, routeStart[route],
+										routeStep[route], j)])
+								.append(sequences[j]);
+						time += 60 + random.nextInt(180);
+					}
+				}
+			}
+		}
+	}
+
+	private static double latitude(int grid, int stop, Random random) {
+		return 50.0 + (stop / grid + random.nextDouble()) * 1.5 / grid;
+	}
+
+	private static double longitude(int grid, int stop, Random random) {
+		return 2.5 + (stop % grid + random.nextDouble()) * 3.5 / grid;
+	}
+
+	private static double latitude(int grid, int stop) {
+		return 50.0 + (stop / grid + 0.5) * 1.5 / grid;
+	}
+
+	private static double longitude(int grid, int stop) {
+		return 2.5 + (stop % grid + 0.5) * 3.5 / grid;
+	}
+
+	private static double interpolate(double from, double to, double f) {
+		return from + (to - from) * f;
+	}
+
+	private static int stopOf(int stops, int start, int step, int index) {
+		return (int) (((start + (long) step * index) % stops + stops) % stops);
+	}
+
+	private static AsciiOutput open(File folder, String file)
+			throws IOException {
+		return new AsciiOutput(new FileOutputStream(new File(folder, file)));
+	}
+
+	/**
+	 * The formatted HH:MM:SS of every second, made on demand. Trips start
+	 * before midnight and take a few hours at most, so the table stays small.
+	 */
+	private static class TimeTable {
+		private byte[][] times = new byte[48 * 3600][];
+
+		byte[] get(int seconds) {
+			if (seconds >= times.length)
+				times = Arrays.copyOf(times, Math.max(seconds + 1,
+						2 * times.length));
+			byte[] time = times[seconds];
+			if (time == null) {
+				time = String.format("%02d:%02d:%02d", seconds / 3600,
+						seconds / 60 % 60, seconds % 60).getBytes(
+						StandardCharsets.US_ASCII);
+				times[seconds] = time;
+			}
+			return time;
+		}
+	}
+
+	/**
+	 * Formats the rows into a byte buffer without going through strings.
+	 */
+	private static class AsciiOutput implements AutoCloseable {
+		private final OutputStream out;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private final byte[] digits = new byte[20];
+		private int count;
+
+		AsciiOutput(OutputStream out) {
+			this.out = out;
+		}
+
+		AsciiOutput append(char c) throws IOException {
+			if (count == buffer.length)
+				flush();
+			buffer[count++] = (byte) c;
+			return this;
+		}
+
+		AsciiOutput append(String s) throws IOException {
+			return append(s.getBytes(StandardCharsets.US_ASCII));
+		}
+
+		AsciiOutput append(byte[] bytes) throws IOException {
+			if (count + bytes.length > buffer.length)
+				flush();
+			System.arraycopy(bytes, 0, buffer, count, bytes.length);
+			count += bytes.length;
+			return this;
+		}
+
+		AsciiOutput append(long value) throws IOException {
+			if (count + digits.length > buffer.length)
+				flush();
+			if (value < 0) {
+				buffer[count++] = '-';
+				value = -value;
+			}
+			int n = 0;
+			do {
+				digits[n++] = (byte) ('0' + value % 10);
+				value /= 10;
+			} while (value > 0);
+			while (n > 0)
+				buffer[count++] = digits[--n];
+			return this;
+		}
+
+		AsciiOutput append(double value) throws IOException {
+			return append(Double.toString(value));
+		}
+
+		AsciiOutput appendTwoDigits(int value) throws IOException {
+			if (value < 10)
+				append('0');
+			return append(value);
+		}
+
+		/**
+		 * Appends seconds since midnight as HH:MM:SS; hours may exceed 23.
+		 */
+		AsciiOutput appendTime(int seconds) throws IOException {
+			return appendTwoDigits(seconds / 3600).append(':')
+					.appendTwoDigits(seconds / 60 % 60).append(':')
+					.appendTwoDigits(seconds % 60);
+		}
+
+		private void flush() throws IOException {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		Options options = new Options();
+		options.addOption(option('a', "agencies", "number of agencies (defaults to 1)"));
+		options.addOption(option('r', "routes", "number of routes (defaults to 100)"));
+		options.addOption(option('t', "trips", "number of trips per route (defaults to 50)"));
+		options.addOption(option('s', "stops-per-trip", "number of stops per trip (defaults to 20)"));
+		options.addOption(option('n', "stops", "number of stops (defaults to a quarter of routes times stops per trip)"));
+		options.addOption(option('p', "shape-points", "number of shape points between two stops, 0 for no shapes (defaults to 2)"));
+		options.addOption(option('c', "calendars", "number of calendars (defaults to 20)"));
+		options.addOption(option('e', "exceptions", "number of calendar_dates exceptions per calendar (defaults to 3)"));
+		options.addOption(option('f', "frequencies", "percentage of trips with a frequency (defaults to 5)"));
+		options.addOption(option('x', "seed", "seed of the random generator (defaults to 42)"));
+
+		FeedGenerator generator = new FeedGenerator();
+		try {
+			CommandLine result = new PosixParser().parse(options, args);
+			if (result.getArgs().length < 1)
+				throw new ParseException("Output folder is a required argument");
+
+			if (result.hasOption('a'))
+				generator.setAgencies(intValue(result, 'a'));
+			if (result.hasOption('r'))
+				generator.setRoutes(intValue(result, 'r'));
+			if (result.hasOption('t'))
+				generator.setTripsPerRoute(intValue(result, 't'));
+			if (result.hasOption('s'))
+				generator.setStopsPerTrip(intValue(result, 's'));
+			if (result.hasOption('n'))
+				generator.setStops(intValue(result, 'n'));
+			if (result.hasOption('p'))
+				generator.setShapePointsPerStop(intValue(result, 'p'));
+			if (result.hasOption('c'))
+				generator.setCalendars(intValue(result, 'c'));
+			if (result.hasOption('e'))
+				generator.setExceptionsPerCalendar(intValue(result, 'e'));
+			if (result.hasOption('f'))
+				generator.setFrequencyPercentage(intValue(result, 'f'));
+			if (result.hasOption('x'))
+				generator.setSeed(Long.parseLong(result.getOptionValue('x')));
+
+			File output = new File(result.getArgs()[0]);
+			long start = System.nanoTime();
+			generator.write(output);
+			System.out.println("Wrote " + generator.getStopTimes()
+					+ " stop_times to " + output + " in "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+		} catch (ParseException | IllegalArgumentException e) {
+			System.err.println("Parsing failed.  Reason: " + e.getMessage());
+			new HelpFormatter().printHelp(USAGE, options);
+		} catch (IOException e) {
+			System.err.println("Error while writing the feed: " + e.getMessage());
+		}
+	}
+
+	private static Option option(char name, String longName, String description) {
+		Option option = new Option(String.valueOf(name), longName, true,
+				description);
+		option.setArgName("n");
+		return option;
+	}
+
+	private static int intValue(CommandLine result, char option) {
+		return Integer.parseInt(result.getOptionValue(option));
+	}
+}
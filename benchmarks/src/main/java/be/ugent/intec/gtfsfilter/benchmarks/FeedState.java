@@ -0,0 +1,101 @@
+package be.ugent.intec.gtfsfilter.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.onebusaway.gtfs.model.Frequency;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+import org.onebusaway.gtfs.services.GtfsDao;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import be.ugent.intec.gtfsfilter.IndexedGtfsDao;
+import be.ugent.intec.gtfsfilter.InsertionOrderedGtfsDao;
+import be.ugent.intec.gtfsfilter.columnar.ColumnarGtfsDao;
+
+/**
+ * A generated feed of the given number of stop_times, read once per trial and
+ * indexed in an {@link IndexedGtfsDao} that the filter chains are built on.
+ * Sizes up to 50000000 can be passed with -p stopTimes=...; the bigger ones
+ * need a matching -Xmx. With -p dao=columnar the feed is read into a
+ * {@link ColumnarGtfsDao}.
+ */
+@State(Scope.Benchmark)
+public class FeedState {
+
+	/*
+	 * Parameters of the filters, chosen to keep part of the generated network.
+	 */
+	public static final double MIN_LAT = 50.4, MIN_LON = 3.5, MAX_LAT = 51.0,
+			MAX_LON = 4.8;
+	public static final String START = "20130301", END = "20130331";
+	public static final int[] TYPES = { 0, 3 };
+
+	private static final Class<?>[] ENTITY_TYPES = { Stop.class, Route.class,
+			Trip.class, StopTime.class, ServiceCalendar.class,
+			ServiceCalendarDate.class, Frequency.class, ShapePoint.class };
+
+	@Param({ "10000", "100000", "1000000" })
+	public int stopTimes;
+
+	@Param({ "objects" })
+	public String dao;
+
+	public File folder;
+	public InsertionOrderedGtfsDao feed;
+	public IndexedGtfsDao indexed;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		folder = get(stopTimes);
+		feed = read(folder, dao.equals("columnar") ? new ColumnarGtfsDao()
+				: new InsertionOrderedGtfsDao());
+		indexed = new IndexedGtfsDao(feed);
+	}
+
+	/**
+	 * @return a folder with a generated feed of the given size, written on
+	 *         first use and reused by later runs (and forks)
+	 */
+	public static File get(int stopTimes) throws IOException {
+		File folder = new File(System.getProperty("java.io.tmpdir"),
+				"gtfs-filter-benchmarks/feed-" + stopTimes);
+		File complete = new File(folder, ".complete");
+		if (!complete.exists()) {
+			FeedGenerator.forStopTimes(stopTimes).write(folder);
+			complete.createNewFile();
+		}
+		return folder;
+	}
+
+	public static InsertionOrderedGtfsDao read(File folder,
+			InsertionOrderedGtfsDao dao) throws IOException {
+		GtfsReader reader = new GtfsReader();
+		reader.setEntityStore(dao);
+		reader.setInputLocation(folder);
+		reader.run();
+		return dao;
+	}
+
+	/**
+	 * Walks a filtered dao the way the writer does, so that lazy collections
+	 * are evaluated too.
+	 */
+	public static int consume(GtfsDao dao) {
+		int count = 0;
+		for (Class<?> type : ENTITY_TYPES)
+			for (Object entity : dao.getAllEntitiesForType(type))
+				count += entity.hashCode() & 1;
+		return count;
+	}
+}
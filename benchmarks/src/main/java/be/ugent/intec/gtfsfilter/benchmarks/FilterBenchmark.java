@@ -0,0 +1,93 @@
+package be.ugent.intec.gtfsfilter.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.services.GtfsDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.ugent.intec.gtfsfilter.FilterJob;
+import be.ugent.intec.gtfsfilter.LocationDaoFilter;
+import be.ugent.intec.gtfsfilter.TimespanDaoFilter;
+import be.ugent.intec.gtfsfilter.TransportTypeDaoFilter;
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+
+/**
+ * Builds every filter, alone, chained and planned as one, on the shared index
+ * of the feed and walks the result. The filters evaluate eagerly, so the score
+ * covers both the selection and the materialized collections.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FilterBenchmark {
+
+	@Benchmark
+	public GtfsIndex index(FeedState feed) {
+		return new GtfsIndex(feed.feed);
+	}
+
+	@Benchmark
+	public int location(FeedState feed) {
+		return FeedState.consume(location(feed.indexed));
+	}
+
+	@Benchmark
+	public int timespan(FeedState feed) throws Exception {
+		return FeedState.consume(timespan(feed.indexed));
+	}
+
+	@Benchmark
+	public int transportType(FeedState feed) {
+		return FeedState.consume(transportType(feed.indexed));
+	}
+
+	@Benchmark
+	public int locationTimespan(FeedState feed) throws Exception {
+		return FeedState.consume(timespan(location(feed.indexed)));
+	}
+
+	@Benchmark
+	public int locationTimespanType(FeedState feed) throws Exception {
+		return FeedState.consume(transportType(timespan(location(feed.indexed))));
+	}
+
+	@Benchmark
+	public int typeTimespanLocation(FeedState feed) throws Exception {
+		return FeedState.consume(location(timespan(transportType(feed.indexed))));
+	}
+
+	@Benchmark
+	public int plannedLocationTimespanType(FeedState feed) throws Exception {
+		FilterJob job = new FilterJob(new File("planned"));
+		job.setLocation(FeedState.MIN_LAT, FeedState.MIN_LON,
+				FeedState.MAX_LAT, FeedState.MAX_LON);
+		job.setTimespan(ServiceDate.parseString(FeedState.START),
+				ServiceDate.parseString(FeedState.END));
+		job.setTransportTypes(FeedState.TYPES);
+		return FeedState.consume(job.apply(feed.indexed));
+	}
+
+	static GtfsDao location(GtfsDao dao) {
+		return new LocationDaoFilter(dao, FeedState.MIN_LAT, FeedState.MIN_LON,
+				FeedState.MAX_LAT, FeedState.MAX_LON);
+	}
+
+	static GtfsDao timespan(GtfsDao dao) throws Exception {
+		return new TimespanDaoFilter(dao, ServiceDate.parseString(FeedState.START),
+				ServiceDate.parseString(FeedState.END));
+	}
+
+	static GtfsDao transportType(GtfsDao dao) {
+		return new TransportTypeDaoFilter(dao, FeedState.TYPES);
+	}
+}
@@ -0,0 +1,96 @@
+package be.ugent.intec.gtfsfilter.benchmarks;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.ugent.intec.gtfsfilter.TransportTypeDaoFilter;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Collections2;
+
+/**
+ * Compares the filters with the lazy views they replaced: a chain of
+ * {@link Collections2#filter} views over the entities with predicates on hash
+ * sets, which is evaluated again on every size() and every iteration. Both
+ * keep the trams and buses of the feed and then read the trips and stop_times
+ * as often as the old filters and writer did (a size() for the log line and
+ * one pass to write).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ViewBenchmark {
+
+	@Benchmark
+	public int views(FeedState feed) {
+		final Set<Route> routes = new HashSet<>(Collections2.filter(
+				feed.feed.getAllRoutes(), new Predicate<Route>() {
+					@Override
+					public boolean apply(Route input) {
+						for (int type : FeedState.TYPES)
+							if (input.getType() == type)
+								return true;
+						return false;
+					}
+				}));
+
+		Collection<Trip> trips = Collections2.filter(feed.feed.getAllTrips(),
+				new Predicate<Trip>() {
+					@Override
+					public boolean apply(Trip input) {
+						return routes.contains(input.getRoute());
+					}
+				});
+		Collection<StopTime> stopTimes = Collections2.filter(
+				feed.feed.getAllStopTimes(), new Predicate<StopTime>() {
+					@Override
+					public boolean apply(StopTime input) {
+						return routes.contains(input.getTrip().getRoute());
+					}
+				});
+		Set<Stop> stops = new HashSet<>(Collections2.transform(stopTimes,
+				new Function<StopTime, Stop>() {
+					@Override
+					public Stop apply(StopTime input) {
+						return input.getStop();
+					}
+				}));
+
+		return trips.size() + stopTimes.size() + stops.size() + walk(trips)
+				+ walk(stopTimes);
+	}
+
+	@Benchmark
+	public int bitsets(FeedState feed) {
+		TransportTypeDaoFilter filter = new TransportTypeDaoFilter(
+				feed.indexed, FeedState.TYPES);
+		Collection<Trip> trips = filter.getAllTrips();
+		Collection<StopTime> stopTimes = filter.getAllStopTimes();
+		return trips.size() + stopTimes.size() + filter.getAllStops().size()
+				+ walk(trips) + walk(stopTimes);
+	}
+
+	private static int walk(Collection<?> entities) {
+		int count = 0;
+		for (Object entity : entities)
+			count += entity.hashCode() & 1;
+		return count;
+	}
+}
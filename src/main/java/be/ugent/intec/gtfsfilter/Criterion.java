@@ -0,0 +1,53 @@
+package be.ugent.intec.gtfsfilter;
+
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.Pruning;
+import be.ugent.intec.gtfsfilter.index.Selection;
+
+/**
+ * What a filter keeps, apart from the chain it is part of. A criterion removes
+ * the entities of a few types that it doesn't keep from a {@link Pruning},
+ * which removes the rest.
+ * <p>
+ * Whether a criterion keeps an entity only depends on that entity and the
+ * index, never on what the other filters keep. Seeding one pruning with
+ * several criteria therefore gives the same selection as chaining their
+ * filters, in any order; the order only decides how many candidates every
+ * criterion has to check. See {@link FilterPlan}.
+ */
+abstract class Criterion {
+
+	protected final GtfsIndex index;
+
+	Criterion(GtfsIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * @return the name of the filter, for the logs
+	 */
+	abstract String getName();
+
+	/**
+	 * @return the fraction of the trips this criterion is expected to keep,
+	 *         estimated from statistics of the index that are cheap to get
+	 */
+	abstract double estimate();
+
+	/**
+	 * Removes the entities this criterion doesn't keep from the pruning.
+	 *
+	 * @param candidates
+	 *            the entities the pruning still keeps, the only ones that need
+	 *            to be checked
+	 */
+	abstract void seed(Pruning pruning, Selection candidates);
+
+	/**
+	 * @return the modified copy of the entity that is handed out instead of
+	 *         the entity itself, or null if this criterion doesn't change it
+	 */
+	Object modify(Class<?> type, int ordinal) {
+		return null;
+	}
+}
@@ -0,0 +1,361 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.onebusaway.gtfs.services.GtfsDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves extracts of a feed that is read once and kept in memory, over HTTP.
+ * A GET request to /extract takes the filters as query parameters named
+ * after the long options of the command line, for example
+ * <code>/extract?location=50.9:3.6:51.2:3.9&amp;timespan=2013-03-01&amp;type=bus,tram</code>,
+ * and is answered with the extract as a zip archive.
+ * <p>
+ * Every request builds its own filter chain on the shared, indexed feed, as
+ * the jobs of a batch do, so requests are served at the same time. The
+ * archives are kept in a temporary folder and the most recently used ones are
+ * served again for the same filters, up to a total size. Requests for an
+ * extract that is still being made wait for it instead of making it again.
+ * <p>
+ * The rows of the extracts are copied from the input, which must not change
+ * while the server runs.
+ */
+public class ExtractServer {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ExtractServer.class);
+
+	// the query parameters that are passed on as options
+	private static final ImmutableSet<String> FILTERS = ImmutableSet.of(
+			"location", "radius", "timespan", "window", "inside", "type",
+			"clip", "simplify");
+
+	private final File input;
+	private final GtfsDao shared;
+	private final Options options;
+	private final long cacheSize;
+
+	private final File folder;
+	private int extracts = 0;
+
+	// the extracts by their filters, least recently used first
+	private final Map<String, Extract> cache = new LinkedHashMap<>(16, 0.75f,
+			true);
+	private long cachedBytes = 0;
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * @param dao
+	 *            the feed read from the input
+	 * @param options
+	 *            the options of the command line, to parse the filters with
+	 * @param cacheSize
+	 *            the number of bytes of extracts to keep for later requests
+	 */
+	public ExtractServer(File input, GtfsDao dao, Options options,
+			long cacheSize) throws IOException {
+		this.input = input;
+		this.shared = new IndexedGtfsDao(dao);
+		this.options = options;
+		this.cacheSize = cacheSize;
+		this.folder = Files.createTempDirectory("gtfs-filter").toFile();
+		folder.deleteOnExit();
+	}
+
+	/**
+	 * Starts to serve on the given port of the loopback interface, with a
+	 * thread per processor. The server has no access control, so other
+	 * machines have to go through a proxy in front of it.
+	 */
+	public synchronized void start(int port) throws IOException {
+		if (server != null)
+			throw new IllegalStateException("The server has already started");
+
+		server = HttpServer.create(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+				0);
+		server.createContext("/extract", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors());
+		server.setExecutor(executor);
+		server.start();
+		LOG.info("Serving extracts of {} on {}", input,
+				server.getAddress());
+	}
+
+	/**
+	 * Stops serving and deletes the cached extracts.
+	 */
+	public synchronized void stop() {
+		if (server == null)
+			return;
+		server.stop(0);
+		executor.shutdown();
+		synchronized (cache) {
+			for (Extract extract : cache.values())
+				delete(extract.file);
+			cache.clear();
+			cachedBytes = 0;
+		}
+		server = null;
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		if (!"GET".equals(exchange.getRequestMethod())) {
+			respond(exchange, 405, "Only GET requests are served");
+			return;
+		}
+
+		List<String> arguments;
+		FilterJob job;
+		File file;
+		synchronized (this) {
+			file = new File(folder, "extract-" + ++extracts + ".zip");
+		}
+		try {
+			arguments = arguments(exchange.getRequestURI().getRawQuery());
+			job = parseJob(arguments, file);
+		} catch (ParseException | java.text.ParseException
+				| IllegalArgumentException e) {
+			respond(exchange, 400, "Invalid filters: " + e.getMessage());
+			return;
+		}
+
+		String key = arguments.toString();
+		FileInputStream in;
+		try {
+			in = open(key, job);
+		} catch (IOException | RuntimeException e) {
+			LOG.error("Error while making the extract for " + key, e);
+			respond(exchange, 500, "Error while making the extract");
+			return;
+		}
+		try {
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/zip");
+			exchange.getResponseHeaders().set("Content-Disposition",
+					"attachment; filename=\"extract.zip\"");
+			exchange.sendResponseHeaders(200, in.getChannel().size());
+			try (OutputStream out = exchange.getResponseBody()) {
+				byte[] buffer = new byte[1 << 16];
+				for (int n; (n = in.read(buffer)) > 0;)
+					out.write(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the options of the query, sorted by name so that the same
+	 *         filters give the same options
+	 */
+	private static List<String> arguments(String query) throws ParseException {
+		List<String[]> parameters = new ArrayList<>();
+		if (query != null)
+			for (String parameter : query.split("&")) {
+				if (parameter.isEmpty())
+					continue;
+				int equals = parameter.indexOf('=');
+				String name = decode(equals < 0 ? parameter : parameter
+						.substring(0, equals));
+				String value = equals < 0 ? "" : decode(parameter
+						.substring(equals + 1));
+				if (!FILTERS.contains(name))
+					throw new ParseException("Unknown filter " + name);
+				parameters.add(new String[] { name, value });
+			}
+		// a stable sort keeps repeated regions in their order
+		Collections.sort(parameters, new Comparator<String[]>() {
+			@Override
+			public int compare(String[] a, String[] b) {
+				return a[0].compareTo(b[0]);
+			}
+		});
+
+		List<String> arguments = new ArrayList<>();
+		for (String[] parameter : parameters) {
+			arguments.add("--" + parameter[0]);
+			if (!parameter[0].equals("inside") && !parameter[0].equals("clip"))
+				arguments.add(parameter[1]);
+		}
+		return arguments;
+	}
+
+	private static String decode(String value) throws ParseException {
+		try {
+			return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+		} catch (IllegalArgumentException | IOException e) {
+			throw new ParseException("Invalid query: " + e.getMessage());
+		}
+	}
+
+	private FilterJob parseJob(List<String> arguments, File output)
+			throws ParseException, java.text.ParseException {
+		CommandLine result = new PosixParser().parse(options,
+				arguments.toArray(new String[arguments.size()]));
+		if (result.getArgs().length > 0)
+			throw new ParseException("Unexpected values "
+					+ Arrays.toString(result.getArgs()));
+		try {
+			// the options share their date format, which isn't thread-safe
+			synchronized (Main.class) {
+				return Main.parseJob(result, output);
+			}
+		} catch (IOException e) {
+			// only polygon files are read, which aren't passed on
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the contents of the extract for the given filters: the cached
+	 *         one, or the one made by the given job
+	 */
+	private FileInputStream open(String key, FilterJob job) throws IOException {
+		while (true) {
+			Extract extract;
+			boolean made = false;
+			synchronized (cache) {
+				extract = cache.get(key);
+				if (extract == null) {
+					extract = new Extract(job);
+					cache.put(key, extract);
+					made = true;
+				}
+			}
+			if (made) {
+				LOG.info("Making the extract for {}", key);
+				extract.task.run();
+			}
+
+			try {
+				extract.task.get();
+			} catch (ExecutionException e) {
+				synchronized (cache) {
+					if (cache.get(key) == extract)
+						cache.remove(key);
+				}
+				if (made)
+					delete(extract.file);
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IOException(e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while making the extract");
+			}
+
+			synchronized (cache) {
+				if (made) {
+					extract.size = extract.file.length();
+					cachedBytes += extract.size;
+				}
+				// an extract that was evicted meanwhile is made again
+				if (made || extract.file.isFile()) {
+					FileInputStream in = new FileInputStream(extract.file);
+					evict();
+					return in;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the least recently used extracts until the cache fits its size.
+	 * The extracts that are being read can still be read to their end.
+	 */
+	private void evict() {
+		Iterator<Extract> extracts = cache.values().iterator();
+		while (cachedBytes > cacheSize && extracts.hasNext()) {
+			Extract extract = extracts.next();
+			if (extract.size < 0)
+				continue;
+			extracts.remove();
+			cachedBytes -= extract.size;
+			delete(extract.file);
+			LOG.debug("Evicted {} from the cache", extract.file);
+		}
+	}
+
+	private static void delete(File file) {
+		if (file.exists() && !file.delete())
+			file.deleteOnExit();
+	}
+
+	private void respond(HttpExchange exchange, int status, String message)
+			throws IOException {
+		byte[] body = (message + '\n').getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type",
+				"text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * An extract in the cache, made by the first request for its filters.
+	 */
+	private class Extract {
+		private final File file;
+		private final FutureTask<Void> task;
+		// the size of the archive, -1 while it is being made
+		private long size = -1;
+
+		Extract(final FilterJob job) {
+			this.file = job.getOutput();
+			this.task = new FutureTask<>(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					job.run(input, shared);
+					return null;
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.services.GtfsDao;
+
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.report.RunReport;
+import be.ugent.intec.gtfsfilter.spatial.BoxRegion;
+import be.ugent.intec.gtfsfilter.spatial.Region;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * One extract of a feed: the filters to apply and where to write the result.
+ * The filters run together as a {@link FilterPlan}, most selective first; the
+ * result is that of applying them one by one.
+ * Every job measures its filters and its output in its own {@link RunReport}.
+ */
+public class FilterJob {
+
+	private final File output;
+
+	private final List<Region> regions = new ArrayList<>();
+	private ServiceDate start, end;
+	private int windowFrom = -1, windowTo;
+	private boolean inside;
+	private int[] transportTypes;
+	private boolean clip;
+	private double tolerance;
+
+	private final RunReport report = new RunReport();
+
+	public FilterJob(File output) {
+		this.output = output;
+		report.setOutput(output);
+		// jobs run side by side, so only the process measures the heap
+		report.setHeapPeak(false);
+	}
+
+	public File getOutput() {
+		return output;
+	}
+
+	public RunReport getReport() {
+		return report;
+	}
+
+	public void setLocation(double minlat, double minlon, double maxlat,
+			double maxlon) {
+		addRegion(new BoxRegion(minlat, minlon, maxlat, maxlon));
+	}
+
+	/**
+	 * Adds a region to the location filter: the job keeps the stops that lie
+	 * in any of its regions.
+	 */
+	public void addRegion(Region region) {
+		regions.add(region);
+	}
+
+	public void setTimespan(ServiceDate start, ServiceDate end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Keeps the trips under way between the given times of day, in seconds,
+	 * on the days of the timespan if the job has one.
+	 * 
+	 * @param inside
+	 *            whether to keep only the stop times inside the window
+	 */
+	public void setWindow(int from, int to, boolean inside) {
+		Preconditions.checkArgument(from >= 0 && to >= 0);
+		this.windowFrom = from;
+		this.windowTo = to;
+		this.inside = inside;
+	}
+
+	public void setTransportTypes(int... transportTypes) {
+		Preconditions.checkArgument(transportTypes.length > 0);
+		this.transportTypes = transportTypes;
+	}
+
+	/**
+	 * Clips the shapes to the regions of the location filter.
+	 */
+	public void setClip(boolean clip) {
+		this.clip = clip;
+	}
+
+	/**
+	 * Simplifies the shapes, dropping points that are less than the given
+	 * number of meters off the simplified line.
+	 */
+	public void setTolerance(double tolerance) {
+		Preconditions.checkArgument(tolerance >= 0);
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @return the regions of the location filter, empty if the job doesn't
+	 *         filter on location
+	 */
+	public List<Region> getRegions() {
+		return regions;
+	}
+
+	public ServiceDate getStart() {
+		return start;
+	}
+
+	public ServiceDate getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return true if the job filters on a time window
+	 */
+	public boolean hasWindow() {
+		return windowFrom >= 0;
+	}
+
+	public int getWindowFrom() {
+		return windowFrom;
+	}
+
+	public int getWindowTo() {
+		return windowTo;
+	}
+
+	public boolean isInside() {
+		return inside;
+	}
+
+	public int[] getTransportTypes() {
+		return transportTypes;
+	}
+
+	public boolean isClip() {
+		return clip;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * @return true if the job has any filter, false if it copies the feed
+	 */
+	public boolean hasFilters() {
+		return !regions.isEmpty() || start != null || hasWindow()
+				|| transportTypes != null || hasShapeFilter();
+	}
+
+	/**
+	 * @return true if the job clips or simplifies the shapes
+	 */
+	public boolean hasShapeFilter() {
+		return clip || tolerance > 0;
+	}
+
+	/**
+	 * @return the filters of this job as one {@link FilterPlan} on top of the
+	 *         given dao, or the dao itself if the job doesn't filter
+	 */
+	public GtfsDao apply(GtfsDao dao) {
+		if (!hasFilters())
+			return dao;
+		try (RunReport.Stage stage = report.start("filters")) {
+			GtfsDaoFilter filter = plan(dao);
+			filter.addRows(stage);
+			return filter;
+		}
+	}
+
+	/**
+	 * @return the filters of this job on top of the given dao, which is
+	 *         indexed first if it isn't a filter yet
+	 */
+	FilterPlan plan(GtfsDao dao) {
+		GtfsDaoFilter input = dao instanceof GtfsDaoFilter ? (GtfsDaoFilter) dao
+				: new IndexedGtfsDao(dao);
+		GtfsIndex index = input.index;
+
+		List<Criterion> criteria = new ArrayList<>();
+		Region[] regions = this.regions.toArray(new Region[this.regions.size()]);
+		if (regions.length > 0)
+			criteria.add(new LocationCriterion(index, regions));
+		ServiceDate first = start, last = end;
+		if (hasWindow()) {
+			TimeWindowCriterion window = new TimeWindowCriterion(index,
+					windowFrom, windowTo, inside, start, end);
+			criteria.add(window);
+			// the trips of the window may run on the service days around the
+			// timespan
+			if (start != null) {
+				first = window.getFirstServiceDate();
+				last = window.getLastServiceDate();
+			}
+		}
+		if (start != null)
+			criteria.add(new TimespanCriterion(index, first, last));
+		if (transportTypes != null)
+			criteria.add(new TransportTypeCriterion(index, transportTypes));
+		if (hasShapeFilter())
+			criteria.add(new ShapeCriterion(index, clip ? regions
+					: new Region[0], tolerance));
+		return new FilterPlan(input, criteria);
+	}
+
+	/**
+	 * Filters the dao, which was read from the given input, and writes the
+	 * result to the output of this job.
+	 */
+	public void run(File input, GtfsDao dao) throws IOException {
+		report.setInput(input);
+		GtfsDao filtered = apply(dao);
+		RunReport.Stage stage = report.start("write");
+		try {
+			PassThroughGtfsWriter writer = new PassThroughGtfsWriter(input,
+					output);
+			writer.setReport(report);
+			writer.run(filtered);
+		} finally {
+			stage.close();
+		}
+	}
+}
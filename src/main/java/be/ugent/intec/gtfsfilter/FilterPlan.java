@@ -0,0 +1,104 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.intec.gtfsfilter.index.Selection;
+
+/**
+ * The filters of a job as one filter. Instead of a chain, in which every
+ * filter counts the references of everything its input kept and checks its
+ * own candidates among them, the criteria of the filters seed a single
+ * pruning: the references are counted once and every criterion only checks
+ * the candidates the criteria before it left.
+ * <p>
+ * The criteria run from the one expected to keep the fewest trips to the one
+ * expected to keep the most, as estimated from statistics of the index. As
+ * no criterion depends on what the others keep, the order doesn't change
+ * the result, which is the same as that of the chain of the filters.
+ */
+public class FilterPlan extends GtfsDaoFilter {
+	private static final Logger LOG = LoggerFactory.getLogger(FilterPlan.class);
+
+	private final List<Criterion> criteria;
+	private final Selection selection;
+
+	/**
+	 * @param input
+	 *            the dao whose index the criteria were made with
+	 */
+	FilterPlan(GtfsDaoFilter input, List<Criterion> criteria) {
+		super(input);
+
+		final Map<Criterion, Double> estimates = new IdentityHashMap<>();
+		for (Criterion criterion : criteria)
+			estimates.put(criterion, criterion.estimate());
+		this.criteria = new ArrayList<>(criteria);
+		// a stable sort keeps the order of the job for equal estimates
+		Collections.sort(this.criteria, new Comparator<Criterion>() {
+			@Override
+			public int compare(Criterion a, Criterion b) {
+				return Double.compare(estimates.get(a), estimates.get(b));
+			}
+		});
+
+		StringBuilder plan = new StringBuilder();
+		for (Criterion criterion : this.criteria)
+			plan.append(plan.length() == 0 ? "" : ", ")
+					.append(criterion.getName())
+					.append(String.format(" (%.1f%% of the trips)",
+							100 * estimates.get(criterion)));
+		LOG.info("Filtering on {}", plan);
+
+		selection = select(this.criteria.toArray(new Criterion[this.criteria
+				.size()]));
+		logSelection(LOG);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.GtfsDaoFilter#getSelection()
+	 */
+	@Override
+	protected Selection getSelection() {
+		return selection;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.GtfsDaoFilter#getEntity(java.lang.Class,
+	 * int)
+	 */
+	@Override
+	protected Object getEntity(Class<?> type, int ordinal) {
+		for (Criterion criterion : criteria) {
+			Object modified = criterion.modify(type, ordinal);
+			if (modified != null)
+				return modified;
+		}
+		return super.getEntity(type, ordinal);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.GtfsDaoFilter#isModified(java.lang.Class,
+	 * int)
+	 */
+	@Override
+	protected boolean isModified(Class<?> type, int ordinal) {
+		for (Criterion criterion : criteria)
+			if (criterion.modify(type, ordinal) != null)
+				return true;
+		return super.isModified(type, ordinal);
+	}
+}
@@ -1,6 +1,8 @@
 package be.ugent.intec.gtfsfilter;
 
 import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.BitSet;
 import java.util.Collection;
 
 import org.onebusaway.gtfs.model.Agency;
@@ -17,14 +19,190 @@ import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.StopTime;
 import org.onebusaway.gtfs.model.Transfer;
 import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.GtfsEntitySchemaFactory;
 import org.onebusaway.gtfs.services.GtfsDao;
-
+import org.slf4j.Logger;
+
+import be.ugent.intec.gtfsfilter.index.BitSetEvaluator;
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.OrdinalFunction;
+import be.ugent.intec.gtfsfilter.index.OrdinalPredicate;
+import be.ugent.intec.gtfsfilter.index.Pruning;
+import be.ugent.intec.gtfsfilter.index.SelectedEntities;
+import be.ugent.intec.gtfsfilter.index.Selection;
+import be.ugent.intec.gtfsfilter.report.RunReport;
+
+/**
+ * A filter on a feed. Filters are chained on top of a dao and share the
+ * {@link GtfsIndex} of the dao at the bottom of the chain; every filter hands
+ * out the entities of its {@link Selection}. A filter decides which entities
+ * of a few types it keeps and leaves the rest to a {@link Pruning}, which
+ * removes everything that refers to a removed entity or is no longer referred
+ * to.
+ */
 public abstract class GtfsDaoFilter implements GtfsDao {
 
+	private static volatile BitSetEvaluator evaluator = new BitSetEvaluator(1);
+
 	protected final GtfsDao input;
 
+	/**
+	 * Shared by all filters in a chain: it is built once over the dao at the
+	 * bottom of the chain.
+	 */
+	protected final GtfsIndex index;
+
 	protected GtfsDaoFilter(GtfsDao input) {
 		this.input = input;
+		if (input instanceof GtfsDaoFilter)
+			this.index = ((GtfsDaoFilter) input).index;
+		else
+			this.index = new GtfsIndex(input);
+	}
+
+	/**
+	 * @return the ordinals of the entities this filter lets through. Filters
+	 *         that don't restrict anything return the selection of their
+	 *         input.
+	 */
+	protected Selection getSelection() {
+		return getInputSelection();
+	}
+
+	/**
+	 * @return the ordinals of the entities the input of this filter contains
+	 */
+	protected final Selection getInputSelection() {
+		if (input instanceof GtfsDaoFilter)
+			return ((GtfsDaoFilter) input).getSelection();
+		return index.selectAll();
+	}
+
+	/**
+	 * @return a pruning of the input selection, for this filter to seed with
+	 *         the entities it keeps
+	 */
+	protected final Pruning prune() {
+		return index.getReferences().prune(getInputSelection());
+	}
+
+	/**
+	 * @return the input selection pruned with the given criteria, in their
+	 *         order: every criterion only checks the entities that are still
+	 *         kept after the ones before it
+	 */
+	final Selection select(Criterion... criteria) {
+		Pruning pruning = prune();
+		Selection selection = pruning.run();
+		for (Criterion criterion : criteria) {
+			criterion.seed(pruning, selection);
+			selection = pruning.run();
+		}
+		return selection;
+	}
+
+	/**
+	 * Logs how many entities of every type this filter let through.
+	 */
+	protected void logSelection(Logger log) {
+		Selection in = getInputSelection(), out = getSelection();
+		for (Class<?> type : GtfsEntitySchemaFactory.getEntityClasses()) {
+			BitSet selected = out.get(type);
+			if (selected != null && in.get(type).cardinality() > 0)
+				log.info("Filtered {} down from {} to {}", new Object[] {
+						type.getSimpleName(), in.get(type).cardinality(),
+						selected.cardinality() });
+		}
+	}
+
+	/**
+	 * @return the entity with the given ordinal as this filter hands it out.
+	 *         Filters that rewrite entities return their modified copy, the
+	 *         others the entity of their input.
+	 */
+	protected Object getEntity(Class<?> type, int ordinal) {
+		return getInputEntity(type, ordinal);
+	}
+
+	/**
+	 * @return true if this filter or one further down the chain hands out a
+	 *         modified copy of the entity with the given ordinal
+	 */
+	protected boolean isModified(Class<?> type, int ordinal) {
+		return input instanceof GtfsDaoFilter
+				&& ((GtfsDaoFilter) input).isModified(type, ordinal);
+	}
+
+	/**
+	 * @return the entity with the given ordinal as the input of this filter
+	 *         hands it out
+	 */
+	protected final Object getInputEntity(Class<?> type, int ordinal) {
+		if (input instanceof GtfsDaoFilter)
+			return ((GtfsDaoFilter) input).getEntity(type, ordinal);
+		return index.getEntities(type).get(ordinal);
+	}
+
+	/**
+	 * @return the selected entities of the given type, including the changes
+	 *         of the filters further down the chain
+	 */
+	protected <T> Collection<T> getEntities(final Class<T> type,
+			BitSet selection) {
+		final int size = index.getEntities(type).size();
+		return new SelectedEntities<>(new AbstractList<T>() {
+			@Override
+			public T get(int ordinal) {
+				return type.cast(getEntity(type, ordinal));
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		}, selection);
+	}
+
+	/**
+	 * Records in the stage how many entities of every filtered type this
+	 * filter took in and let through.
+	 */
+	void addRows(RunReport.Stage stage) {
+		Selection in = getInputSelection(), out = getSelection();
+		for (Class<?> type : GtfsEntitySchemaFactory.getEntityClasses()) {
+			BitSet selected = out.get(type);
+			if (selected != null)
+				stage.addRows(type.getSimpleName(), in.get(type)
+						.cardinality(), selected.cardinality());
+		}
+	}
+
+	/**
+	 * Sets the number of worker threads the filters use to evaluate their
+	 * predicates. Affects the filters that are created afterwards.
+	 */
+	public static synchronized void setThreads(int threads) {
+		if (evaluator.getThreads() == threads)
+			return;
+		evaluator.shutdown();
+		evaluator = new BitSetEvaluator(threads);
+	}
+
+	/**
+	 * Evaluates the predicate exactly once for every candidate and returns the
+	 * ordinals that pass. The resulting bitset is the materialized result: it
+	 * has a cheap size and iterating it does not re-run the predicates of the
+	 * filters further down the chain.
+	 */
+	protected static BitSet retain(BitSet candidates, OrdinalPredicate predicate) {
+		return evaluator.retain(candidates, predicate);
+	}
+
+	/**
+	 * @return the ordinals the function maps the given ordinals to
+	 */
+	protected static BitSet transform(BitSet ordinals, OrdinalFunction function) {
+		return evaluator.transform(ordinals, function);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -68,7 +246,7 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<Agency> getAllAgencies() {
-		return input.getAllAgencies();
+		return index.getAgencies(getSelection().getAgencies());
 	}
 
 	@Override
@@ -78,7 +256,8 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<ServiceCalendar> getAllCalendars() {
-		return input.getAllCalendars();
+		return getEntities(ServiceCalendar.class, getSelection()
+				.getCalendars());
 	}
 
 	@Override
@@ -88,7 +267,7 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<ServiceCalendarDate> getAllCalendarDates() {
-		return input.getAllCalendarDates();
+		return index.getCalendarDates(getSelection().getCalendarDates());
 	}
 
 	@Override
@@ -98,7 +277,8 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<FareAttribute> getAllFareAttributes() {
-		return input.getAllFareAttributes();
+		return index.getFareAttributes(getSelection()
+				.getFareAttributes());
 	}
 
 	@Override
@@ -108,7 +288,7 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<FareRule> getAllFareRules() {
-		return input.getAllFareRules();
+		return index.getFareRules(getSelection().getFareRules());
 	}
 
 	@Override
@@ -118,7 +298,7 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<Frequency> getAllFrequencies() {
-		return input.getAllFrequencies();
+		return index.getFrequencies(getSelection().getFrequencies());
 	}
 
 	@Override
@@ -128,7 +308,7 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<Pathway> getAllPathways() {
-		return input.getAllPathways();
+		return index.getPathways(getSelection().getPathways());
 	}
 
 	@Override
@@ -138,7 +318,7 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<Route> getAllRoutes() {
-		return input.getAllRoutes();
+		return index.getRoutes(getSelection().getRoutes());
 	}
 
 	@Override
@@ -148,7 +328,7 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<ShapePoint> getAllShapePoints() {
-		return input.getAllShapePoints();
+		return index.getShapePoints(getSelection().getShapePoints());
 	}
 
 	@Override
@@ -158,7 +338,7 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<Stop> getAllStops() {
-		return input.getAllStops();
+		return index.getStops(getSelection().getStops());
 	}
 
 	@Override
@@ -168,7 +348,7 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<StopTime> getAllStopTimes() {
-		return input.getAllStopTimes();
+		return index.getStopTimes(getSelection().getStopTimes());
 	}
 
 	@Override
@@ -178,7 +358,7 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<Transfer> getAllTransfers() {
-		return input.getAllTransfers();
+		return index.getTransfers(getSelection().getTransfers());
 	}
 
 	@Override
@@ -188,7 +368,7 @@ public abstract class GtfsDaoFilter implements GtfsDao {
 
 	@Override
 	public Collection<Trip> getAllTrips() {
-		return input.getAllTrips();
+		return getEntities(Trip.class, getSelection().getTrips());
 	}
 
 	@Override
@@ -0,0 +1,287 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.onebusaway.csv_entities.schema.EntitySchemaFactory;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.GtfsEntitySchemaFactory;
+import org.onebusaway.gtfs.services.GtfsDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.intec.gtfsfilter.output.ExtractManifest;
+import be.ugent.intec.gtfsfilter.output.GtfsOutput;
+import be.ugent.intec.gtfsfilter.report.RunReport;
+import be.ugent.intec.gtfsfilter.streaming.ByteSliceSet;
+import be.ugent.intec.gtfsfilter.streaming.CsvRows;
+import be.ugent.intec.gtfsfilter.streaming.CsvTableReader;
+import be.ugent.intec.gtfsfilter.streaming.MappedCsvReader;
+import be.ugent.intec.gtfsfilter.streaming.ReadAheadInputStream;
+
+/**
+ * Brings the output of a job up to date with the changes of its input,
+ * without filtering the whole feed again when the changes allow it. Every
+ * run records an {@link ExtractManifest} next to the output; the next run
+ * with the same filter parameters compares the input files with it.
+ * <p>
+ * The files the filters decide on (trips, stop_times and the files whose
+ * entities are pruned along with them: stops, routes, agencies, transfers,
+ * pathways and fares, and per filter the calendars, frequencies or shapes it
+ * reads) change which entities are kept, so a change to one of them needs a
+ * full run. The other files only depend on the ids of the kept trips,
+ * services and shapes, which the manifest holds: their rows with a kept id
+ * are copied again. Without filters every file is copied whole, and the
+ * output files of unchanged input files are left as they are.
+ */
+public class IncrementalUpdate {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(IncrementalUpdate.class);
+
+	/*
+	 * The files that are selected by the id of the entities they belong to:
+	 * the file, its id column and the kind of kept id it is matched with
+	 */
+	private static final String[][] KEYED_FILES = {
+			{ "calendar.txt", "service_id", "services" },
+			{ "calendar_dates.txt", "service_id", "services" },
+			{ "frequencies.txt", "trip_id", "trips" },
+			{ "shapes.txt", "shape_id", "shapes" } };
+
+	private final FilterJob job;
+	private final File input, output;
+	private final String parameters;
+	private final File location;
+
+	private final EntitySchemaFactory schemaFactory = GtfsEntitySchemaFactory
+			.createEntitySchemaFactory();
+	// the gtfs-files in the order they are written, with their entity type
+	private final Map<String, Class<?>> types = new LinkedHashMap<>();
+	private final Set<String> files = types.keySet();
+
+	private RunReport report = new RunReport();
+
+	private Map<String, Long> inputs;
+
+	/**
+	 * @param parameters
+	 *            a description of the filters of the job; a manifest made
+	 *            with other parameters is not used
+	 */
+	public IncrementalUpdate(FilterJob job, File input, String parameters) {
+		this.job = job;
+		this.input = input;
+		this.output = job.getOutput();
+		this.parameters = parameters;
+		this.location = ExtractManifest.locationFor(output);
+		for (Class<?> type : GtfsEntitySchemaFactory.getEntityClasses())
+			types.put(schemaFactory.getSchema(type).getFilename(), type);
+	}
+
+	/**
+	 * Measures the update as a stage of the given report.
+	 */
+	public void setReport(RunReport report) {
+		this.report = report;
+	}
+
+	/**
+	 * Updates the output from the manifest of the previous run, if there is
+	 * one and none of the changed files needs a full run.
+	 *
+	 * @return false if the feed has to be filtered in full
+	 */
+	public boolean run() throws IOException {
+		try (RunReport.Stage stage = report.start("update")) {
+			inputs = ExtractManifest.checksums(input, files);
+
+			ExtractManifest previous = ExtractManifest.read(location);
+			if (previous == null || !parameters.equals(previous.getParameters())) {
+				LOG.info("No manifest of a run with the same filters, filtering the whole feed");
+				return false;
+			}
+			if (!previous.getOutputs().equals(
+					ExtractManifest.checksums(output, files))) {
+				LOG.info("The output changed since the last run, filtering the whole feed");
+				return false;
+			}
+
+			Set<String> changed = new LinkedHashSet<>();
+			for (String file : files)
+				if (!equal(inputs.get(file), previous.getInputs().get(file)))
+					changed.add(file);
+			if (changed.isEmpty()) {
+				LOG.info("The input didn't change, {} is up to date", output);
+				return true;
+			}
+			Set<String> decisive = decisiveFiles();
+			for (String file : changed)
+				if (decisive.contains(file)) {
+					LOG.info(
+							"{} changed, which the filters decide on, filtering the whole feed",
+							file);
+					return false;
+				}
+
+			LOG.info("Updating {} of {}", changed, output);
+			update(previous, changed, stage);
+			new ExtractManifest(parameters, inputs, ExtractManifest.checksums(
+					output, files), keys(previous)).write(location);
+			return true;
+		}
+	}
+
+	/**
+	 * Records the run that just wrote the filtered dao to the output, for the
+	 * next run to update from.
+	 */
+	public void save(GtfsDao filtered) throws IOException {
+		if (inputs == null)
+			inputs = ExtractManifest.checksums(input, files);
+
+		Map<String, Set<String>> keys = new LinkedHashMap<>();
+		Set<String> trips = new LinkedHashSet<>(), services = new LinkedHashSet<>();
+		Set<String> shapes = new LinkedHashSet<>();
+		for (Trip trip : filtered.getAllTrips()) {
+			trips.add(trip.getId().getId());
+			if (trip.getServiceId() != null)
+				services.add(trip.getServiceId().getId());
+			if (trip.getShapeId() != null)
+				shapes.add(trip.getShapeId().getId());
+		}
+		keys.put("trips", trips);
+		keys.put("services", services);
+		keys.put("shapes", shapes);
+
+		new ExtractManifest(parameters, inputs, ExtractManifest.checksums(
+				output, files), keys).write(location);
+		LOG.info("Wrote the manifest of {} to {}", output, location);
+	}
+
+	/**
+	 * @return the files that decide which entities the filters of the job
+	 *         keep. Without filters every file is copied whole.
+	 */
+	private Set<String> decisiveFiles() {
+		Set<String> decisive = new HashSet<>();
+		if (!job.hasFilters())
+			return decisive;
+		// every filter prunes these along with the trips
+		decisive.addAll(Arrays.asList("trips.txt", "stop_times.txt",
+				"stops.txt", "routes.txt", "agency.txt", "transfers.txt",
+				"pathways.txt", "fare_attributes.txt", "fare_rules.txt"));
+		if (job.getStart() != null) {
+			// the timespan filter also clamps the calendars
+			decisive.add("calendar.txt");
+			decisive.add("calendar_dates.txt");
+		}
+		if (job.hasWindow())
+			decisive.add("frequencies.txt");
+		if (job.hasShapeFilter())
+			decisive.add("shapes.txt");
+		return decisive;
+	}
+
+	/**
+	 * Writes the changed files again and keeps the others as they are. A zip
+	 * archive is written anew, with the unchanged entries copied from the old
+	 * one.
+	 */
+	private void update(ExtractManifest previous, Set<String> changed,
+			RunReport.Stage stage) throws IOException {
+		boolean archive = output.getName().toLowerCase().endsWith(".zip");
+		try (GtfsOutput target = GtfsOutput.open(output)) {
+			try (ZipFile old = archive ? new ZipFile(output) : null) {
+				for (String file : files) {
+					if (!changed.contains(file)) {
+						if (archive && old.getEntry(file) != null)
+							copyEntry(old, file, target);
+						continue;
+					}
+					if (!archive)
+						new File(output, file).delete();
+					if (inputs.containsKey(file))
+						write(previous, file, target, stage);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies the rows of the input file that belong to kept entities, or all
+	 * of them if the file isn't selected by id. Like
+	 * {@link PassThroughGtfsWriter}, no file is written if no row is kept.
+	 */
+	private void write(ExtractManifest previous, String file,
+			GtfsOutput target, RunReport.Stage stage) throws IOException {
+		String column = null;
+		ByteSliceSet ids = null;
+		if (job.hasFilters())
+			for (String[] keyed : KEYED_FILES)
+				if (keyed[0].equals(file)) {
+					column = keyed[1];
+					ids = new ByteSliceSet();
+					for (String id : previous.getKeys(keyed[2]))
+						ids.add(id);
+				}
+
+		OutputStream out = null;
+		int rows = 0, written = 0;
+		try (ZipFile zip = input.isDirectory() ? null : new ZipFile(input);
+				CsvRows reader = zip == null ? new MappedCsvReader(new File(
+						input, file)) : new CsvTableReader(
+						ReadAheadInputStream.open(zip.getInputStream(zip
+								.getEntry(file))))) {
+			int index = column == null ? -1 : reader.getColumn(column);
+			for (; reader.next(); rows++) {
+				if (ids != null && !reader.isIn(index, ids))
+					continue;
+				if (out == null) {
+					out = target.create(file);
+					out.write(reader.getHeaderLine().getBytes(
+							StandardCharsets.UTF_8));
+					out.write('\n');
+				}
+				reader.copyLine(out);
+				written++;
+			}
+		} finally {
+			if (out != null)
+				out.close();
+		}
+		stage.addRows(types.get(file).getSimpleName(), rows, written);
+	}
+
+	private static void copyEntry(ZipFile zip, String file, GtfsOutput target)
+			throws IOException {
+		ZipEntry entry = zip.getEntry(file);
+		try (InputStream in = zip.getInputStream(entry);
+				OutputStream out = target.create(file)) {
+			byte[] buffer = new byte[1 << 16];
+			for (int n; (n = in.read(buffer)) > 0;)
+				out.write(buffer, 0, n);
+		}
+	}
+
+	private static Map<String, Set<String>> keys(ExtractManifest manifest) {
+		Map<String, Set<String>> keys = new LinkedHashMap<>();
+		for (String kind : new String[] { "trips", "services", "shapes" })
+			keys.put(kind, manifest.getKeys(kind));
+		return keys;
+	}
+
+	private static boolean equal(Long a, Long b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
@@ -0,0 +1,15 @@
+package be.ugent.intec.gtfsfilter;
+
+import org.onebusaway.gtfs.services.GtfsDao;
+
+/**
+ * Lets everything of a dao through, but indexes it once so that any number of
+ * filter chains can be built on top of it, also from different threads. The
+ * filters only read the dao and the index.
+ */
+public class IndexedGtfsDao extends GtfsDaoFilter {
+
+	public IndexedGtfsDao(GtfsDao input) {
+		super(input);
+	}
+}
@@ -0,0 +1,74 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.IdentityBean;
+
+/**
+ * A {@link GtfsRelationalDaoImpl} that hands out the entities of every type in
+ * the order they were saved. Filled by a
+ * {@link org.onebusaway.gtfs.serialization.GtfsReader}, the position of an
+ * entity is its row in the csv-file it was read from, which lets the
+ * {@link PassThroughGtfsWriter} copy rows instead of re-serializing entities.
+ */
+public class InsertionOrderedGtfsDao extends GtfsRelationalDaoImpl {
+
+	private final Map<Class<?>, List<Object>> entitiesByType = new HashMap<>();
+
+	@Override
+	public void saveEntity(Object entity) {
+		super.saveEntity(entity);
+		getEntities(entity.getClass()).add(entity);
+	}
+
+	@Override
+	public void saveOrUpdateEntity(Object entity) {
+		boolean saved = entity instanceof IdentityBean<?>
+				&& ((IdentityBean<?>) entity).getId() != null
+				&& getEntityForId(entity.getClass(),
+						(Serializable) ((IdentityBean<?>) entity).getId()) != null;
+		super.saveOrUpdateEntity(entity);
+		if (!saved)
+			getEntities(entity.getClass()).add(entity);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> Collection<T> getAllEntitiesForType(Class<T> type) {
+		List<Object> entities = entitiesByType.get(type);
+		if (entities == null)
+			return super.getAllEntitiesForType(type);
+		return (Collection<T>) Collections.unmodifiableList(entities);
+	}
+
+	@Override
+	public <T> void clearAllEntitiesForType(Class<T> type) {
+		super.clearAllEntitiesForType(type);
+		entitiesByType.remove(type);
+	}
+
+	@Override
+	public <K extends Serializable, T extends IdentityBean<K>> void removeEntity(
+			T entity) {
+		super.removeEntity(entity);
+		List<Object> entities = entitiesByType.get(entity.getClass());
+		if (entities != null)
+			entities.remove(entity);
+	}
+
+	private List<Object> getEntities(Class<?> type) {
+		List<Object> entities = entitiesByType.get(type);
+		if (entities == null) {
+			entities = new ArrayList<>();
+			entitiesByType.put(type, entities);
+		}
+		return entities;
+	}
+}
@@ -0,0 +1,274 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipFile;
+
+import org.onebusaway.csv_entities.CsvInputSource;
+import org.onebusaway.csv_entities.FileCsvInputSource;
+import org.onebusaway.csv_entities.ZipFileCsvInputSource;
+import org.onebusaway.csv_entities.exceptions.MissingRequiredEntityException;
+import org.onebusaway.csv_entities.schema.EntitySchemaFactory;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.IdentityBean;
+import org.onebusaway.gtfs.serialization.GtfsEntitySchemaFactory;
+
+import be.ugent.intec.gtfsfilter.index.IdDictionary;
+import be.ugent.intec.gtfsfilter.streaming.CsvRows;
+import be.ugent.intec.gtfsfilter.streaming.CsvTableReader;
+import be.ugent.intec.gtfsfilter.streaming.MappedCsvReader;
+import be.ugent.intec.gtfsfilter.streaming.ReadAheadCsvInputSource;
+
+/**
+ * An {@link InsertionOrderedGtfsDao} that parses the csv-file of an entity
+ * type only when the entities of that type are first asked for. At startup it
+ * only looks up which files the input has; a type whose file is never asked
+ * for, like the shapes that the {@link PassThroughGtfsWriter} copies without
+ * looking at them, is never parsed.
+ * <p>
+ * The files are parsed by a {@link ParallelGtfsReader}, together with the
+ * files their entities refer to, so the entities and their positions are the
+ * same as when the whole feed is read at once. Asking for several types with
+ * {@link #load(Class...)} parses their files at the same time. The dao can be
+ * read from several threads; the first one to ask for a type parses it.
+ */
+public class LazyGtfsDao extends InsertionOrderedGtfsDao {
+	private final File input;
+
+	private final EntitySchemaFactory schemaFactory = GtfsEntitySchemaFactory
+			.createEntitySchemaFactory();
+
+	private final ParallelGtfsReader reader;
+
+	// the entities of the types that have been parsed, handed out without
+	// locking
+	private final Map<Class<?>, Collection<?>> loaded = new ConcurrentHashMap<>();
+
+	// the types without a file to parse
+	private final Set<Class<?>> empty = Collections
+			.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+
+	// set while the reader saves the entities it parsed
+	private boolean reading = false;
+
+	/**
+	 * @param input
+	 *            a folder or zip archive with the csv-files of the feed
+	 * @throws MissingRequiredEntityException
+	 *             if a required file is missing, like the reader would
+	 */
+	public LazyGtfsDao(File input) throws IOException {
+		this.input = input;
+		this.reader = new ParallelGtfsReader(input, this);
+		for (Class<?> type : GtfsEntitySchemaFactory.getEntityClasses())
+			if (reader.isRead(type))
+				empty.add(type);
+	}
+
+	/**
+	 * @return true if the entities of the type have been parsed, or there is
+	 *         nothing to parse for it
+	 */
+	public boolean isLoaded(Class<?> type) {
+		return loaded.containsKey(type) || empty.contains(type);
+	}
+
+	/**
+	 * Parses the files of the types that haven't been parsed yet, and the
+	 * files their entities refer to. The files that don't refer to each other
+	 * are parsed at the same time.
+	 */
+	public void load(Class<?>... types) {
+		List<Class<?>> needed = new ArrayList<>();
+		for (Class<?> type : types)
+			if (!isLoaded(type))
+				needed.add(type);
+		if (needed.isEmpty())
+			return;
+
+		synchronized (this) {
+			// the entities the reader saves are the ones it parsed
+			if (reading)
+				return;
+			reading = true;
+			try {
+				for (Class<?> type : reader.read(needed))
+					loaded.put(type, super.getAllEntitiesForType(type));
+			} catch (IOException e) {
+				throw new IllegalStateException("Couldn't read " + needed
+						+ " from " + input, e);
+			} finally {
+				reading = false;
+			}
+			// the relations between the entities are cached per type
+			clearAllCaches();
+		}
+	}
+
+	/**
+	 * Reads the ids in a column of the file of a type without parsing its
+	 * entities. The ids get the default agency, which is what the reader gives
+	 * the ids that don't name their agency, like the shape ids.
+	 * 
+	 * @return the int of the id of every row, in the dictionary
+	 */
+	public int[] readIds(Class<?> type, String column, IdDictionary ids)
+			throws IOException {
+		if (empty.contains(type))
+			return new int[0];
+
+		load(Agency.class);
+		String agency = reader.getDefaultAgencyId();
+
+		int[] ordinals = new int[1024];
+		int count = 0;
+		CsvInputSource source = openSource();
+		try (CsvRows rows = open(source, schemaFactory.getSchema(type)
+				.getFilename())) {
+			int index = rows.getColumn(column);
+			String last = null;
+			int ordinal = IdDictionary.NONE;
+			while (rows.next()) {
+				String id = rows.get(index);
+				// the rows of one shape usually come together
+				if (!id.equals(last)) {
+					ordinal = id.isEmpty() ? IdDictionary.NONE : ids
+							.intern(new AgencyAndId(agency, id));
+					last = id;
+				}
+				if (count == ordinals.length)
+					ordinals = Arrays.copyOf(ordinals, 2 * count);
+				ordinals[count++] = ordinal;
+			}
+		} finally {
+			source.close();
+		}
+		return Arrays.copyOf(ordinals, count);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * be.ugent.intec.gtfsfilter.InsertionOrderedGtfsDao#getAllEntitiesForType
+	 * (java.lang.Class)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> Collection<T> getAllEntitiesForType(Class<T> type) {
+		Collection<?> entities = loaded.get(type);
+		if (entities != null)
+			return (Collection<T>) entities;
+		load(type);
+		return super.getAllEntitiesForType(type);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.onebusaway.gtfs.impl.GenericDaoImpl#getEntityForId(java.lang.Class,
+	 * java.io.Serializable)
+	 */
+	@Override
+	public <T> T getEntityForId(Class<T> type, Serializable id) {
+		load(type);
+		return super.getEntityForId(type, id);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.onebusaway.gtfs.impl.GenericDaoImpl#getEntitiesByIdForEntityType(java
+	 * .lang.Class, java.lang.Class)
+	 */
+	@Override
+	public <K, V> Map<K, V> getEntitiesByIdForEntityType(Class<K> keyType,
+			Class<V> entityType) {
+		load(entityType);
+		return super.getEntitiesByIdForEntityType(keyType, entityType);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * be.ugent.intec.gtfsfilter.InsertionOrderedGtfsDao#saveEntity(java.lang
+	 * .Object)
+	 */
+	@Override
+	public void saveEntity(Object entity) {
+		// entities saved from outside go after the rows of the file
+		load(entity.getClass());
+		super.saveEntity(entity);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * be.ugent.intec.gtfsfilter.InsertionOrderedGtfsDao#saveOrUpdateEntity(java
+	 * .lang.Object)
+	 */
+	@Override
+	public void saveOrUpdateEntity(Object entity) {
+		load(entity.getClass());
+		super.saveOrUpdateEntity(entity);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * be.ugent.intec.gtfsfilter.InsertionOrderedGtfsDao#clearAllEntitiesForType
+	 * (java.lang.Class)
+	 */
+	@Override
+	public <T> void clearAllEntitiesForType(Class<T> type) {
+		synchronized (this) {
+			super.clearAllEntitiesForType(type);
+			// nothing left to parse
+			empty.add(type);
+			loaded.remove(type);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * be.ugent.intec.gtfsfilter.InsertionOrderedGtfsDao#removeEntity(org.onebusaway
+	 * .gtfs.model.IdentityBean)
+	 */
+	@Override
+	public <K extends Serializable, T extends IdentityBean<K>> void removeEntity(
+			T entity) {
+		load(entity.getClass());
+		super.removeEntity(entity);
+	}
+
+	private CsvInputSource openSource() throws IOException {
+		return input.isDirectory() ? new FileCsvInputSource(input)
+				: new ReadAheadCsvInputSource(new ZipFileCsvInputSource(
+						new ZipFile(input)));
+	}
+
+	private CsvRows open(CsvInputSource source, String file)
+			throws IOException {
+		if (input.isDirectory())
+			return new MappedCsvReader(new File(input, file));
+		return new CsvTableReader(source.getResource(file));
+	}
+
+}
@@ -0,0 +1,71 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.util.BitSet;
+
+import org.onebusaway.gtfs.model.Stop;
+
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.Pruning;
+import be.ugent.intec.gtfsfilter.index.Selection;
+import be.ugent.intec.gtfsfilter.spatial.Region;
+
+/**
+ * The criterion of {@link LocationDaoFilter}: the stops inside any of the
+ * regions and their stations.
+ */
+class LocationCriterion extends Criterion {
+
+	private final Region[] regions;
+	// looked up once, for the estimate and the seed
+	private BitSet stops;
+
+	LocationCriterion(GtfsIndex index, Region... regions) {
+		super(index);
+		this.regions = regions;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.Criterion#getName()
+	 */
+	@Override
+	String getName() {
+		return "location";
+	}
+
+	/**
+	 * Takes the share of the stops inside the regions, which the stop tree
+	 * finds without looking at the stop times.
+	 */
+	@Override
+	double estimate() {
+		int size = index.getEntities(Stop.class).size();
+		return size == 0 ? 1 : (double) stops().cardinality() / size;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.Criterion#seed(Pruning, Selection)
+	 */
+	@Override
+	void seed(Pruning pruning, Selection candidates) {
+		pruning.retain(Stop.class, stops());
+	}
+
+	private BitSet stops() {
+		if (stops == null) {
+			stops = new BitSet();
+			for (Region region : regions)
+				index.getStopTree().query(region, stops);
+			for (int stop = stops.nextSetBit(0); stop >= 0; stop = stops
+					.nextSetBit(stop + 1)) {
+				int parent = index.getStopParent(stop);
+				if (parent >= 0)
+					stops.set(parent);
+			}
+		}
+		return stops;
+	}
+}
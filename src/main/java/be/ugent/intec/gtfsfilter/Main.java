@@ -2,9 +2,17 @@ package be.ugent.intec.gtfsfilter;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -14,38 +22,84 @@ import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
-import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
-import org.onebusaway.gtfs.serialization.GtfsReader;
-import org.onebusaway.gtfs.serialization.GtfsWriter;
+import org.onebusaway.gtfs.serialization.GtfsEntitySchemaFactory;
 import org.onebusaway.gtfs.services.GtfsDao;
-import org.onebusaway.gtfs.services.GtfsMutableRelationalDao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import be.ugent.intec.gtfsfilter.columnar.ColumnarGtfsDao;
+import be.ugent.intec.gtfsfilter.columnar.FeedSnapshot;
+import be.ugent.intec.gtfsfilter.report.RunReport;
+import be.ugent.intec.gtfsfilter.spatial.CircleRegion;
+import be.ugent.intec.gtfsfilter.spatial.Region;
+import be.ugent.intec.gtfsfilter.spatial.RegionReader;
+import be.ugent.intec.gtfsfilter.streaming.StreamingGtfsFilter;
+
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 public class Main {
 
 	private final static Logger LOG = LoggerFactory.getLogger(Main.class);
 
 	// CLI constants
-	private static final String DESCRIPTION_OPT_OUTPUT = "Output location for the filtered gtfs-files (defaults to \"output/\"";
+	private static final String DESCRIPTION_OPT_OUTPUT = "Output folder for the filtered gtfs-files, or a zip archive if it ends in .zip (defaults to \"output/\")";
 	private static final String DESCRIPTION_OPT_TRANSPORTTYPE = "only keep trips with the given transport types. Possible values are: tram, subway, rail, bus, ferry, cablecar, gondola, funicular";
-	private static final String DESCRIPTION_OPT_TIME = "filter trips outside the given timespan (format: yyyy-mm-dd)";
-	private static final String DESCRIPTION_OPT_LOCATION = "filter locations outside given latlon-box";
+	private static final String DESCRIPTION_OPT_TIME = "filter trips that don't run on any day of the given timespan (format: yyyy-mm-dd or yyyy-mm-dd:yyyy-mm-dd)";
+	private static final String DESCRIPTION_OPT_WINDOW = "only keep trips under way during the given time of day, on the days of the timespan if there is one (format: hh:mm-hh:mm)";
+	private static final String DESCRIPTION_OPT_INSIDE = "only keep the stop_times inside the time window instead of all stop_times of its trips";
+	private static final String DESCRIPTION_OPT_CLIP = "clip the shapes to the regions of the location filter";
+	private static final String DESCRIPTION_OPT_SIMPLIFY = "simplify the shapes, dropping points less than the given number of meters off the line";
+	private static final String DESCRIPTION_OPT_UPDATE = "keep a manifest next to the output (<output>.manifest) and on later runs only write the files again that the changes of the input affect";
+	private static final String DESCRIPTION_OPT_LOCATION = "filter locations outside given latlon-box (may be repeated)";
+	private static final String DESCRIPTION_OPT_RADIUS = "filter locations further than the given number of meters from a point (may be repeated)";
+	private static final String DESCRIPTION_OPT_POLYGON = "filter locations outside the polygons in the given GeoJSON or WKT file (may be repeated)";
+	private static final String DESCRIPTION_OPT_STREAM = "stream the feed in two passes instead of loading it in memory";
+	private static final String DESCRIPTION_OPT_THREADS = "number of worker threads used to evaluate the filters (defaults to 1)";
+	private static final String DESCRIPTION_OPT_BATCH = "read the feed once and run the jobs in the given file, one line of -o, -l, -d, -w and -t options per job";
+	private static final String DESCRIPTION_OPT_REPORT = "write the time, memory and row counts of every stage as JSON next to the output (<output>.report.json)";
+	private static final String DESCRIPTION_OPT_JMX = "publish the measurements of the run over JMX while it runs";
+	private static final String DESCRIPTION_OPT_COLUMNAR = "keep the stop_times in compact columns outside the heap instead of as objects";
+	private static final String DESCRIPTION_OPT_SERVE = "read the feed once and serve extracts of it over HTTP on the given port of localhost, with the filters as query parameters of /extract";
+	private static final String DESCRIPTION_OPT_CACHE = "megabytes of extracts the server keeps for repeated requests (defaults to 256)";
+	private static final String DESCRIPTION_OPT_SNAPSHOT = "keep a binary snapshot of the parsed feed next to the input (<input>.snapshot) and read that instead while the input doesn't change";
 
 	private static final char LOCATION_OPTION = 'l';
+	private static final char RADIUS_OPTION = 'r';
+	private static final char POLYGON_OPTION = 'p';
 	private static final char TIME_OPTION = 'd';
 	private static final char TYPE_OPTION = 't';
+	private static final char WINDOW_OPTION = 'w';
+	private static final char INSIDE_OPTION = 'i';
+	private static final char CLIP_OPTION = 'a';
+	private static final char SIMPLIFY_OPTION = 'g';
 	private static final char OUTPUT_OPTION = 'o';
-
-	private static final String USAGE = "[-o <folder>] [-l <lat:lon:lat:lon>] [-d <date>|<start:end>] [-t <types>] INPUT";
+	private static final char STREAM_OPTION = 's';
+	private static final char THREADS_OPTION = 'j';
+	private static final char BATCH_OPTION = 'b';
+	private static final char REPORT_OPTION = 'm';
+	private static final char JMX_OPTION = 'x';
+	private static final char COLUMNAR_OPTION = 'c';
+	private static final char SNAPSHOT_OPTION = 'k';
+	private static final char UPDATE_OPTION = 'u';
+	private static final char SERVE_OPTION = 'e';
+	private static final char CACHE_OPTION = 'z';
+
+	// the options that decide what an extract contains, as opposed to where
+	// and how it is made
+	private static final ImmutableSet<Character> FILTER_OPTIONS = ImmutableSet
+			.of(LOCATION_OPTION, RADIUS_OPTION, POLYGON_OPTION, TIME_OPTION,
+					TYPE_OPTION, WINDOW_OPTION, INSIDE_OPTION, CLIP_OPTION,
+					SIMPLIFY_OPTION);
+
+	private static final String USAGE = "[-o <folder>] [-s] [-c] [-k] [-u] [-e <port>] [-z <megabytes>] [-j <threads>] [-b <jobfile>] [-m] [-x] [-l <lat:lon:lat:lon>] [-r <lat:lon:meters>] [-p <file>] [-d <date>|<start:end>] [-w <from-to>] [-i] [-t <types>] [-a] [-g <meters>] INPUT";
 	private static final String HEADER = "gtfs-filter - This application can filter GTFS-feed on three different ways: by location, by traveldate and by transporttype";
 	private static final String FOOTER = "For more information, see https://github.com/twalcari/gtfs-filter";
 
 	// other constants
 	private static final String DEFAULT_OUTPUT_LOCATION = "output/";
+	private static final long DEFAULT_CACHE_SIZE = 256;
 
 	private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat(
 			"yyyy-MM-dd");
@@ -62,58 +116,232 @@ public class Main {
 
 	private GtfsDao filteredDao = null;
 
+	private final RunReport report = new RunReport();
+
+	private boolean columnar = false;
+
+	private File snapshot = null;
+
 	public Main(File input, File output) {
 		this.input = input;
 		this.output = output;
+		report.setInput(input);
+		report.setOutput(output);
+	}
+
+	/**
+	 * Reads the stop_times into a {@link ColumnarGtfsDao} instead of keeping
+	 * them as objects.
+	 */
+	public void setColumnar(boolean columnar) {
+		this.columnar = columnar;
+	}
 
+	/**
+	 * Reads the feed from the given {@link FeedSnapshot} if it was made from
+	 * the same input, and otherwise parses it and saves it there.
+	 */
+	public void setSnapshot(File snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * @return the measurements of the stages that have run so far
+	 */
+	public RunReport getReport() {
+		return report;
 	}
 
 	public synchronized void read() {
 		if (filteredDao != null)
 			throw new IllegalStateException("Reading has already finished");
 
-		GtfsMutableRelationalDao dao = new GtfsRelationalDaoImpl();
-		GtfsReader gtfsReader = new GtfsReader();
-		gtfsReader.setEntityStore(dao);
-
-		try {
-			gtfsReader.setInputLocation(input);
-			gtfsReader.run();
+		try (RunReport.Stage stage = report.start("read")) {
+			long checksum = snapshot == null ? 0 : FeedSnapshot
+					.checksum(input);
+			InsertionOrderedGtfsDao dao = snapshot == null ? null
+					: loadSnapshot(checksum);
+			if (dao == null && snapshot == null && !columnar) {
+				// every file is parsed when something first needs it
+				dao = new LazyGtfsDao(input);
+			} else if (dao == null) {
+				dao = createDao();
+				new ParallelGtfsReader(input, dao).read(GtfsEntitySchemaFactory
+						.getEntityClasses());
+
+				if (snapshot != null) {
+					RunReport.Stage save = report.start("save snapshot");
+					try {
+						FeedSnapshot.save(snapshot, checksum, dao);
+					} catch (IOException e) {
+						LOG.warn("Couldn't save a snapshot of the feed", e);
+					} finally {
+						save.close();
+					}
+				}
+			}
 			filteredDao = dao;
 
+			for (Class<?> type : GtfsEntitySchemaFactory.getEntityClasses())
+				if (!(dao instanceof LazyGtfsDao)
+						|| ((LazyGtfsDao) dao).isLoaded(type))
+					stage.addRows(type.getSimpleName(), dao
+							.getAllEntitiesForType(type).size());
 		} catch (IOException e) {
 			LOG.error("Error while processing GTFS-feed", e);
 		}
 	}
 
+	private InsertionOrderedGtfsDao createDao() {
+		return columnar ? new ColumnarGtfsDao() : new InsertionOrderedGtfsDao();
+	}
+
+	/**
+	 * @return the dao filled from the snapshot, or null if there is no
+	 *         snapshot of the input or it can't be read
+	 */
+	private InsertionOrderedGtfsDao loadSnapshot(long checksum) {
+		RunReport.Stage stage = report.start("load snapshot");
+		try {
+			InsertionOrderedGtfsDao dao = createDao();
+			return FeedSnapshot.load(snapshot, checksum, dao) ? dao : null;
+		} catch (IOException e) {
+			LOG.warn("Couldn't load the snapshot, parsing the feed instead", e);
+			return null;
+		} finally {
+			stage.close();
+		}
+	}
+
+	/**
+	 * @deprecated set the location on a {@link FilterJob} and apply it with
+	 *             {@link #applyFilters(FilterJob)}
+	 */
+	@Deprecated
 	public void applyLocationFilter(double minlat, double minlon,
 			double maxlat, double maxlon) {
-		filteredDao = new LocationDaoFilter(filteredDao, minlat, minlon,
-				maxlat, maxlon);
+		FilterJob job = new FilterJob(output);
+		job.setLocation(minlat, minlon, maxlat, maxlon);
+		applyFilters(job);
 	}
 
+	/**
+	 * @deprecated set the timespan on a {@link FilterJob} and apply it with
+	 *             {@link #applyFilters(FilterJob)}
+	 */
+	@Deprecated
 	public void applyTimespanFilter(ServiceDate start, ServiceDate end) {
-		filteredDao = new TimespanDaoFilter(filteredDao, start, end);
+		FilterJob job = new FilterJob(output);
+		job.setTimespan(start, end);
+		applyFilters(job);
 	}
 
+	/**
+	 * @deprecated set the timespan on a {@link FilterJob} and apply it with
+	 *             {@link #applyFilters(FilterJob)}
+	 */
+	@Deprecated
 	public void applyTimespanFilter(ServiceDate oneday) {
-		filteredDao = new TimespanDaoFilter(filteredDao, oneday);
+		applyTimespanFilter(oneday, oneday);
 	}
 
+	/**
+	 * @deprecated set the transport types on a {@link FilterJob} and apply it
+	 *             with {@link #applyFilters(FilterJob)}
+	 */
+	@Deprecated
 	public void applyTransportTypeFilter(int... transportTypes) {
-		filteredDao = new TransportTypeDaoFilter(filteredDao, transportTypes);
+		FilterJob job = new FilterJob(output);
+		job.setTransportTypes(transportTypes);
+		applyFilters(job);
+	}
+
+	/**
+	 * Applies all filters of the job at once, as a {@link FilterPlan}.
+	 */
+	public void applyFilters(FilterJob job) {
+		if (!job.hasFilters())
+			return;
+		try (RunReport.Stage stage = report.start("filters")) {
+			apply(stage, job.plan(filteredDao));
+		}
+	}
+
+	private void apply(RunReport.Stage stage, GtfsDaoFilter filter) {
+		filter.addRows(stage);
+		filteredDao = filter;
+	}
+
+	/**
+	 * Runs the jobs at the same time on the feed that has been read. The feed
+	 * is indexed once and shared by the filter chains of all jobs.
+	 */
+	public synchronized void runBatch(List<FilterJob> jobs) {
+		if (filteredDao == null || jobs.isEmpty())
+			return;
+
+		RunReport.Stage stage = report.start("index");
+		final GtfsDao shared;
+		try {
+			shared = new IndexedGtfsDao(filteredDao);
+		} finally {
+			stage.close();
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				jobs.size(), Runtime.getRuntime().availableProcessors()));
+		try {
+			List<Future<Void>> results = new ArrayList<>();
+			for (final FilterJob job : jobs)
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						job.run(input, shared);
+						LOG.info("Finished job {}", job.getOutput());
+						return null;
+					}
+				}));
+
+			for (int i = 0; i < jobs.size(); i++) {
+				try {
+					results.get(i).get();
+				} catch (ExecutionException e) {
+					LOG.error("Error while running job " + jobs.get(i).getOutput(),
+							e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
 	}
 
-	public synchronized void write() {
-		GtfsWriter writer = new GtfsWriter();
-		writer.setOutputLocation(output);
+	/**
+	 * @return false if the output couldn't be written
+	 */
+	public synchronized boolean write() {
+		PassThroughGtfsWriter writer = new PassThroughGtfsWriter(input, output);
+		writer.setReport(report);
+		RunReport.Stage stage = report.start("write");
 		try {
 			writer.run(filteredDao);
+			return true;
 		} catch (IOException e) {
 			LOG.error("Error while writing GTFS-feed", e);
+			return false;
+		} finally {
+			stage.close();
 		}
 	}
 
+	/**
+	 * @return the result of the filters that have been applied
+	 */
+	public GtfsDao getFilteredDao() {
+		return filteredDao;
+	}
+
 	/**
 	 * @param args
 	 */
@@ -141,74 +369,369 @@ public class Main {
 				File outputLocation = new File(result.getOptionValue(
 						OUTPUT_OPTION, DEFAULT_OUTPUT_LOCATION));
 
-				Main main = new Main(inputLocation, outputLocation);
-
-				System.out.println("Reading the input GTFS-feed");
-				main.read();
-
-				if (result.hasOption(LOCATION_OPTION)) {
-
-					String[] boundaries = result
-							.getOptionValues(LOCATION_OPTION);
+				if (result.hasOption(THREADS_OPTION))
+					GtfsDaoFilter.setThreads(Integer.parseInt(result
+							.getOptionValue(THREADS_OPTION)));
+
+				boolean writeReports = result.hasOption(REPORT_OPTION);
+				boolean jmx = result.hasOption(JMX_OPTION);
+
+				if (result.hasOption(BATCH_OPTION)) {
+					if (result.hasOption(UPDATE_OPTION))
+						throw new ParseException(
+								"-u can't be combined with a job file");
+					if (result.hasOption(SERVE_OPTION))
+						throw new ParseException(
+								"The server can't be combined with a job file");
+					List<FilterJob> jobs = readJobs(
+							new File(result.getOptionValue(BATCH_OPTION)),
+							options);
+
+					Main main = new Main(inputLocation, outputLocation);
+					main.setColumnar(result.hasOption(COLUMNAR_OPTION));
+					if (result.hasOption(SNAPSHOT_OPTION))
+						main.setSnapshot(FeedSnapshot.locationFor(inputLocation));
+					if (jmx) {
+						main.getReport().register();
+						for (FilterJob job : jobs)
+							job.getReport().register();
+					}
 
-					System.out.println("Applying location filter");
+					System.out.println("Reading the input GTFS-feed");
+					main.read();
 
-					LOG.info(
-							"Applying location filter with restrictions: {},{} --> {}, {}",
-							boundaries);
+					System.out.println("Running " + jobs.size() + " jobs");
+					main.runBatch(jobs);
 
-					main.applyLocationFilter(Double.parseDouble(boundaries[0]),
-							Double.parseDouble(boundaries[1]),
-							Double.parseDouble(boundaries[2]),
-							Double.parseDouble(boundaries[3]));
+					if (writeReports) {
+						writeReport(main.getReport(), outputLocation);
+						for (FilterJob job : jobs)
+							writeReport(job.getReport(), job.getOutput());
+					}
+					return;
 				}
 
-				if (result.hasOption(TIME_OPTION)) {
-					String[] times = result.getOptionValues(TIME_OPTION);
-
-					Date start = DATE_FORMAT.parse(times[0]);
-
-					if (times.length == 1) {
-						LOG.info("Applying time filter for one day: {}",
-								new ServiceDate(start));
-						main.applyTimespanFilter(new ServiceDate(start));
-					} else {
-						Date end = DATE_FORMAT.parse(times[1]);
-
-						LOG.info(
-								"Applying time filter for timespan: {} --> {}",
-								new ServiceDate(start), new ServiceDate(end));
+				if (result.hasOption(SERVE_OPTION)) {
+					if (result.hasOption(STREAM_OPTION)
+							|| result.hasOption(UPDATE_OPTION))
+						throw new ParseException(
+								"The server can't be combined with -s or -u");
+					int port = Integer.parseInt(result
+							.getOptionValue(SERVE_OPTION));
+					long cacheSize = Long.parseLong(result.getOptionValue(
+							CACHE_OPTION, String.valueOf(DEFAULT_CACHE_SIZE)));
+					if (cacheSize < 0)
+						throw new ParseException(
+								"The cache size can't be negative");
+
+					Main main = new Main(inputLocation, outputLocation);
+					main.setColumnar(result.hasOption(COLUMNAR_OPTION));
+					if (result.hasOption(SNAPSHOT_OPTION))
+						main.setSnapshot(FeedSnapshot.locationFor(inputLocation));
+
+					System.out.println("Reading the input GTFS-feed");
+					main.read();
+					if (main.getFilteredDao() == null)
+						return;
+
+					final ExtractServer server = new ExtractServer(
+							inputLocation, main.getFilteredDao(), options,
+							cacheSize << 20);
+					server.start(port);
+					Runtime.getRuntime().addShutdownHook(new Thread() {
+						@Override
+						public void run() {
+							server.stop();
+						}
+					});
+					System.out.println("Serving extracts on port " + port);
+					return;
+				}
 
-						main.applyTimespanFilter(new ServiceDate(start),
-								new ServiceDate(end));
+				FilterJob job = parseJob(result, outputLocation);
+				List<Region> regions = job.getRegions();
+				ServiceDate start = job.getStart(), end = job.getEnd();
+				int[] typeInts = job.getTransportTypes();
+
+				if (result.hasOption(STREAM_OPTION)) {
+					if (result.hasOption(UPDATE_OPTION))
+						throw new ParseException(
+								"-u can't be combined with streaming");
+					if (job.hasWindow())
+						throw new ParseException(
+								"The time window filter can't be streamed");
+					if (job.hasShapeFilter())
+						throw new ParseException(
+								"Shapes can't be clipped or simplified while streaming");
+					StreamingGtfsFilter filter = new StreamingGtfsFilter(
+							inputLocation, outputLocation);
+					RunReport report = new RunReport();
+					report.setInput(inputLocation);
+					report.setOutput(outputLocation);
+					if (jmx)
+						report.register();
+					filter.setReport(report);
+					for (Region region : regions)
+						filter.addRegion(region);
+					if (start != null)
+						filter.setTimespan(start, end);
+					if (typeInts != null)
+						filter.setTransportTypes(typeInts);
+
+					System.out.println("Streaming the input GTFS-feed");
+					try {
+						filter.run();
+					} catch (IOException e) {
+						LOG.error("Error while streaming GTFS-feed", e);
 					}
+					if (writeReports)
+						writeReport(report, outputLocation);
+					return;
 				}
 
-				if (result.hasOption(TYPE_OPTION)) {
-					String[] types = result.getOptionValues(TYPE_OPTION);
+				Main main = new Main(inputLocation, outputLocation);
+				main.setColumnar(result.hasOption(COLUMNAR_OPTION));
+				if (result.hasOption(SNAPSHOT_OPTION))
+					main.setSnapshot(FeedSnapshot.locationFor(inputLocation));
+				if (jmx)
+					main.getReport().register();
+
+				IncrementalUpdate update = null;
+				if (result.hasOption(UPDATE_OPTION)) {
+					update = new IncrementalUpdate(job, inputLocation,
+							describe(result));
+					update.setReport(main.getReport());
+					if (update.run()) {
+						if (writeReports)
+							writeReport(main.getReport(), outputLocation);
+						return;
+					}
+				}
 
-					int[] typeInts = new int[types.length];
-					for (int i = 0; i < types.length; i++)
-						typeInts[i] = TRANSPORT_TYPES.get(types[i]
-								.toLowerCase());
+				System.out.println("Reading the input GTFS-feed");
+				main.read();
 
-					LOG.info("Applying transport type filters: {}", Arrays.toString(typeInts));
-					
-					main.applyTransportTypeFilter(typeInts);
+				if (job.hasFilters()) {
+					System.out.println("Applying filters");
+					main.applyFilters(job);
 				}
 
-				main.write();
+				if (main.write() && update != null)
+					update.save(main.getFilteredDao());
+
+				if (writeReports)
+					writeReport(main.getReport(), outputLocation);
 			} catch (NumberFormatException | ParseException
 					| java.text.ParseException e) {
 				System.err
 						.println("Parsing failed.  Reason: " + e.getMessage());
 				showUsage(options);
+			} catch (IOException e) {
+				LOG.error("Error while reading the job or polygon file", e);
 			}
 
 		}
 
 	}
 
+	/**
+	 * Reads the filter options of one run (or of one line of a job file).
+	 */
+	static FilterJob parseJob(CommandLine result, File output)
+			throws IOException, ParseException, java.text.ParseException {
+		FilterJob job = new FilterJob(output);
+
+		if (result.hasOption(LOCATION_OPTION)) {
+			String[] values = result.getOptionValues(LOCATION_OPTION);
+			if (values.length % 4 != 0)
+				throw new ParseException(
+						"A location box needs four coordinates");
+
+			for (int i = 0; i + 3 < values.length; i += 4) {
+				LOG.info(
+						"Applying location filter with restrictions: {},{} --> {}, {}",
+						Arrays.copyOfRange(values, i, i + 4));
+
+				job.setLocation(Double.parseDouble(values[i]),
+						Double.parseDouble(values[i + 1]),
+						Double.parseDouble(values[i + 2]),
+						Double.parseDouble(values[i + 3]));
+			}
+		}
+
+		if (result.hasOption(RADIUS_OPTION)) {
+			String[] values = result.getOptionValues(RADIUS_OPTION);
+			if (values.length % 3 != 0)
+				throw new ParseException(
+						"A radius needs a latitude, a longitude and a distance");
+
+			for (int i = 0; i + 2 < values.length; i += 3) {
+				Region region = new CircleRegion(
+						Double.parseDouble(values[i]),
+						Double.parseDouble(values[i + 1]),
+						Double.parseDouble(values[i + 2]));
+				LOG.info("Applying location filter for {}", region);
+				job.addRegion(region);
+			}
+		}
+
+		if (result.hasOption(POLYGON_OPTION)) {
+			for (String file : result.getOptionValues(POLYGON_OPTION)) {
+				Region region = RegionReader.read(new File(file));
+				LOG.info("Applying location filter for {} from {}", region,
+						file);
+				job.addRegion(region);
+			}
+		}
+
+		if (result.hasOption(TIME_OPTION)) {
+			String[] times = result.getOptionValue(TIME_OPTION).split(":");
+			if (times.length > 2)
+				throw new ParseException(
+						"A timespan is one date or a start and an end date");
+
+			ServiceDate start = new ServiceDate(DATE_FORMAT.parse(times[0]));
+
+			if (times.length == 1) {
+				LOG.info("Applying time filter for one day: {}", start);
+				job.setTimespan(start, start);
+			} else {
+				ServiceDate end = new ServiceDate(DATE_FORMAT.parse(times[1]));
+
+				LOG.info("Applying time filter for timespan: {} --> {}",
+						start, end);
+				job.setTimespan(start, end);
+			}
+		}
+
+		if (result.hasOption(WINDOW_OPTION)) {
+			String[] times = result.getOptionValue(WINDOW_OPTION).split("-");
+			if (times.length != 2)
+				throw new ParseException(
+						"A time window needs a start and an end time");
+			int from = parseTime(times[0]), to = parseTime(times[1]);
+			boolean inside = result.hasOption(INSIDE_OPTION);
+
+			LOG.info("Applying time window filter: {} --> {}{}",
+					new Object[] { times[0], times[1],
+							inside ? ", only stop times inside" : "" });
+			job.setWindow(from, to, inside);
+		} else if (result.hasOption(INSIDE_OPTION))
+			throw new ParseException("-i needs a time window (-w)");
+
+		if (result.hasOption(TYPE_OPTION)) {
+			String[] types = result.getOptionValues(TYPE_OPTION);
+
+			int[] typeInts = new int[types.length];
+			for (int i = 0; i < types.length; i++) {
+				Integer type = TRANSPORT_TYPES.get(types[i].toLowerCase());
+				if (type == null)
+					throw new ParseException("Unknown transport type: "
+							+ types[i]);
+				typeInts[i] = type;
+			}
+
+			LOG.info("Applying transport type filters: {}",
+					Arrays.toString(typeInts));
+			job.setTransportTypes(typeInts);
+		}
+
+		if (result.hasOption(CLIP_OPTION)) {
+			if (job.getRegions().isEmpty())
+				throw new ParseException("-a needs a location filter");
+			LOG.info("Clipping the shapes to the regions");
+			job.setClip(true);
+		}
+
+		if (result.hasOption(SIMPLIFY_OPTION)) {
+			double tolerance = Double.parseDouble(result
+					.getOptionValue(SIMPLIFY_OPTION));
+			if (tolerance < 0)
+				throw new ParseException(
+						"The simplification tolerance can't be negative");
+			LOG.info("Simplifying the shapes with a tolerance of {} meters",
+					tolerance);
+			job.setTolerance(tolerance);
+		}
+
+		return job;
+	}
+
+	/**
+	 * @return the filter options of the command line, with a checksum of the
+	 *         polygon files, to tell whether a manifest was made with the same
+	 *         filters
+	 */
+	private static String describe(CommandLine result) throws IOException {
+		StringBuilder description = new StringBuilder();
+		for (Option option : result.getOptions()) {
+			if (!FILTER_OPTIONS.contains(option.getOpt().charAt(0)))
+				continue;
+			description.append(" -").append(option.getOpt());
+			if (option.getValues() != null)
+				for (String value : option.getValues()) {
+					description.append(' ').append(value);
+					if (option.getOpt().equals(String.valueOf(POLYGON_OPTION)))
+						description.append('@').append(
+								FeedSnapshot.checksum(new File(value)));
+				}
+		}
+		return description.toString().trim();
+	}
+
+	/**
+	 * @return the seconds since midnight of a time of day given as hh:mm or
+	 *         hh:mm:ss, where the hours may pass 24
+	 */
+	private static int parseTime(String time) throws ParseException {
+		String[] fields = time.split(":");
+		if (fields.length < 2 || fields.length > 3)
+			throw new ParseException("Invalid time of day: " + time);
+		int seconds = 0;
+		for (int i = 0; i < 3; i++) {
+			int value = i < fields.length ? Integer.parseInt(fields[i].trim())
+					: 0;
+			if (value < 0 || i > 0 && value >= 60)
+				throw new ParseException("Invalid time of day: " + time);
+			seconds = seconds * 60 + value;
+		}
+		return seconds;
+	}
+
+	/**
+	 * Reads a job file: one job per line, given as the -o, -l, -d, -w and -t
+	 * options of a single run. Empty lines and lines starting with '#' are
+	 * skipped.
+	 */
+	private static List<FilterJob> readJobs(File jobFile, Options options)
+			throws IOException, ParseException, java.text.ParseException {
+		List<String> lines = Files.readAllLines(jobFile.toPath(),
+				StandardCharsets.UTF_8);
+		List<FilterJob> jobs = new ArrayList<>();
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			CommandLine result = new PosixParser().parse(options,
+					line.split("\\s+"));
+			if (!result.hasOption(OUTPUT_OPTION))
+				throw new ParseException("Job on line " + (i + 1)
+						+ " of the job file has no output location");
+			jobs.add(parseJob(result,
+					new File(result.getOptionValue(OUTPUT_OPTION))));
+		}
+		return jobs;
+	}
+
+	private static void writeReport(RunReport report, File output) {
+		try {
+			report.write(RunReport.locationFor(output));
+		} catch (IOException e) {
+			LOG.error("Error while writing the run report", e);
+		}
+	}
+
 	private static void showUsage(Options options) {
 		HelpFormatter helpFormatter = new HelpFormatter();
 		helpFormatter.printHelp(USAGE, HEADER, options, FOOTER);
@@ -225,12 +748,23 @@ public class Main {
 
 		Option locationOption = OptionBuilder.create(LOCATION_OPTION);
 
+		OptionBuilder.withArgName("lat:lon:meters");
+		OptionBuilder.withLongOpt("radius");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_RADIUS);
+		OptionBuilder.hasArgs(3);
+		OptionBuilder.withValueSeparator(':');
+		Option radiusOption = OptionBuilder.create(RADIUS_OPTION);
+
+		OptionBuilder.withArgName("file");
+		OptionBuilder.withLongOpt("polygon");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_POLYGON);
+		OptionBuilder.hasArg();
+		Option polygonOption = OptionBuilder.create(POLYGON_OPTION);
+
 		OptionBuilder.withArgName("start:end");
 		OptionBuilder.withLongOpt("timespan");
 		OptionBuilder.withDescription(DESCRIPTION_OPT_TIME);
-		OptionBuilder.hasArgs(1);
-		OptionBuilder.hasOptionalArgs(1);
-		OptionBuilder.withValueSeparator(':');
+		OptionBuilder.hasArg();
 		Option timespanOption = OptionBuilder.create(TIME_OPTION);
 
 		OptionBuilder.withArgName("types");
@@ -240,6 +774,26 @@ public class Main {
 		OptionBuilder.withValueSeparator(',');
 		Option typeOption = OptionBuilder.create(TYPE_OPTION);
 
+		OptionBuilder.withArgName("from-to");
+		OptionBuilder.withLongOpt("window");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_WINDOW);
+		OptionBuilder.hasArg();
+		Option windowOption = OptionBuilder.create(WINDOW_OPTION);
+
+		OptionBuilder.withLongOpt("inside");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_INSIDE);
+		Option insideOption = OptionBuilder.create(INSIDE_OPTION);
+
+		OptionBuilder.withLongOpt("clip");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_CLIP);
+		Option clipOption = OptionBuilder.create(CLIP_OPTION);
+
+		OptionBuilder.withArgName("meters");
+		OptionBuilder.withLongOpt("simplify");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_SIMPLIFY);
+		OptionBuilder.hasArg();
+		Option simplifyOption = OptionBuilder.create(SIMPLIFY_OPTION);
+
 		// output folder
 		OptionBuilder.withLongOpt("output");
 		OptionBuilder.withDescription(DESCRIPTION_OPT_OUTPUT);
@@ -247,11 +801,75 @@ public class Main {
 		OptionBuilder.hasArg();
 		Option outputOption = OptionBuilder.create(OUTPUT_OPTION);
 
+		OptionBuilder.withLongOpt("stream");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_STREAM);
+		Option streamOption = OptionBuilder.create(STREAM_OPTION);
+
+		OptionBuilder.withLongOpt("columnar");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_COLUMNAR);
+		Option columnarOption = OptionBuilder.create(COLUMNAR_OPTION);
+
+		OptionBuilder.withLongOpt("snapshot");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_SNAPSHOT);
+		Option snapshotOption = OptionBuilder.create(SNAPSHOT_OPTION);
+
+		OptionBuilder.withLongOpt("update");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_UPDATE);
+		Option updateOption = OptionBuilder.create(UPDATE_OPTION);
+
+		OptionBuilder.withLongOpt("serve");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_SERVE);
+		OptionBuilder.withArgName("port");
+		OptionBuilder.hasArg();
+		Option serveOption = OptionBuilder.create(SERVE_OPTION);
+
+		OptionBuilder.withLongOpt("cache");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_CACHE);
+		OptionBuilder.withArgName("megabytes");
+		OptionBuilder.hasArg();
+		Option cacheOption = OptionBuilder.create(CACHE_OPTION);
+
+		OptionBuilder.withLongOpt("threads");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_THREADS);
+		OptionBuilder.withArgName("threads");
+		OptionBuilder.hasArg();
+		Option threadsOption = OptionBuilder.create(THREADS_OPTION);
+
+		OptionBuilder.withLongOpt("batch");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_BATCH);
+		OptionBuilder.withArgName("jobfile");
+		OptionBuilder.hasArg();
+		Option batchOption = OptionBuilder.create(BATCH_OPTION);
+
+		OptionBuilder.withLongOpt("report");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_REPORT);
+		Option reportOption = OptionBuilder.create(REPORT_OPTION);
+
+		OptionBuilder.withLongOpt("jmx");
+		OptionBuilder.withDescription(DESCRIPTION_OPT_JMX);
+		Option jmxOption = OptionBuilder.create(JMX_OPTION);
+
 		Options options = new Options();
 		options.addOption(outputOption);
+		options.addOption(streamOption);
+		options.addOption(columnarOption);
+		options.addOption(snapshotOption);
+		options.addOption(updateOption);
+		options.addOption(serveOption);
+		options.addOption(cacheOption);
+		options.addOption(threadsOption);
+		options.addOption(batchOption);
+		options.addOption(reportOption);
+		options.addOption(jmxOption);
 		options.addOption(locationOption);
+		options.addOption(radiusOption);
+		options.addOption(polygonOption);
 		options.addOption(timespanOption);
+		options.addOption(windowOption);
+		options.addOption(insideOption);
 		options.addOption(typeOption);
+		options.addOption(clipOption);
+		options.addOption(simplifyOption);
 
 		return options;
 	}
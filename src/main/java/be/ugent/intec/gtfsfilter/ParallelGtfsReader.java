@@ -0,0 +1,396 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipFile;
+
+import org.onebusaway.csv_entities.CsvInputSource;
+import org.onebusaway.csv_entities.FileCsvInputSource;
+import org.onebusaway.csv_entities.ZipFileCsvInputSource;
+import org.onebusaway.csv_entities.exceptions.MissingRequiredEntityException;
+import org.onebusaway.csv_entities.schema.EntitySchema;
+import org.onebusaway.csv_entities.schema.EntitySchemaFactory;
+import org.onebusaway.gtfs.impl.GenericDaoImpl;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.FareAttribute;
+import org.onebusaway.gtfs.model.FareRule;
+import org.onebusaway.gtfs.model.Frequency;
+import org.onebusaway.gtfs.model.IdentityBean;
+import org.onebusaway.gtfs.model.Pathway;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Transfer;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.GtfsEntitySchemaFactory;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+import org.onebusaway.gtfs.services.GenericMutableDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.intec.gtfsfilter.streaming.ReadAheadCsvInputSource;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Reads the csv-files of a feed into an entity store, parsing the files that
+ * don't refer to each other at the same time, one thread per file. A file is
+ * parsed as soon as the files its entities refer to have been read: the
+ * shapes, stops and calendars start right away, the stop_times as soon as the
+ * trips and stops are in. The input can be a folder or a zip archive.
+ * <p>
+ * Every file is parsed by a {@link GtfsReader} of its own. The references to
+ * entities of other files are resolved against the entities that were read
+ * before, and the agency of every id is the one a single reader of the whole
+ * feed would give it. The parsed entities are handed to the calling thread in
+ * batches, which saves them in the store in the order of their file, so the
+ * store gets the same entities in the same order as with a single reader and
+ * doesn't have to be thread-safe. The batches go through a bounded queue:
+ * the threads wait while the store falls behind instead of keeping a whole
+ * file in memory.
+ */
+public class ParallelGtfsReader {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ParallelGtfsReader.class);
+
+	// the types the entities of a type refer to, which have to be read before
+	// the references can be resolved; every type needs the agencies for the
+	// default agency of its ids
+	private static final ImmutableMultimap<Class<?>, Class<?>> REFERENCES = ImmutableMultimap
+			.<Class<?>, Class<?>> builder().put(Route.class, Agency.class)
+			.put(Trip.class, Route.class)
+			.putAll(StopTime.class, Trip.class, Stop.class)
+			.put(Frequency.class, Trip.class)
+			.putAll(FareRule.class, FareAttribute.class, Route.class)
+			.put(Pathway.class, Stop.class).put(Transfer.class, Stop.class)
+			.build();
+
+	// the types whose ids take the agency of their own, which the ids that
+	// refer to them take over
+	private static final Set<Class<?>> AGENCY_TYPES = ImmutableSet
+			.<Class<?>> of(Route.class, Trip.class, Stop.class,
+					FareAttribute.class, Pathway.class);
+
+	// the entities in a batch and the batches in the queue
+	private static final int BATCH_SIZE = 1024;
+	private static final int QUEUE_SIZE = 64;
+
+	private final File input;
+	private final GenericMutableDao store;
+
+	private final EntitySchemaFactory schemaFactory = GtfsEntitySchemaFactory
+			.createEntitySchemaFactory();
+
+	// the types that have been read or whose file is missing
+	private final Set<Class<?>> read = new HashSet<>();
+
+	private final List<Agency> agencies = new ArrayList<>();
+
+	// the entities of the types that are referred to, by id, and the agency of
+	// every id of the types that have one of their own
+	private final Map<Class<?>, Map<Serializable, Object>> entitiesById = new ConcurrentHashMap<>();
+	private final Map<Class<?>, Map<String, String>> agencyIds = new ConcurrentHashMap<>();
+
+	/**
+	 * @param input
+	 *            a folder or zip archive with the csv-files of the feed
+	 * @throws MissingRequiredEntityException
+	 *             if a required file is missing, like a {@link GtfsReader}
+	 *             would
+	 */
+	public ParallelGtfsReader(File input, GenericMutableDao store)
+			throws IOException {
+		this.input = input;
+		this.store = store;
+
+		CsvInputSource source = open();
+		try {
+			for (Class<?> type : GtfsEntitySchemaFactory.getEntityClasses()) {
+				EntitySchema schema = schemaFactory.getSchema(type);
+				if (!source.hasResource(schema.getFilename())) {
+					if (schema.isRequired())
+						throw new MissingRequiredEntityException(type,
+								schema.getFilename());
+					read.add(type);
+				}
+			}
+		} finally {
+			source.close();
+		}
+	}
+
+	/**
+	 * @return true if the file of the type has been read or is missing
+	 */
+	public synchronized boolean isRead(Class<?> type) {
+		return read.contains(type);
+	}
+
+	/**
+	 * @return the agency the reader gives to ids that don't name one, once the
+	 *         agencies have been read
+	 */
+	public synchronized String getDefaultAgencyId() {
+		Reader reader = new Reader();
+		reader.setAgencies(agencies);
+		return reader.defaultAgencyId();
+	}
+
+	/**
+	 * Reads the files of the given types and of the types they refer to that
+	 * haven't been read yet, and saves their entities in the store.
+	 *
+	 * @return the types that have been read
+	 */
+	public synchronized List<Class<?>> read(Collection<Class<?>> types)
+			throws IOException {
+		Set<Class<?>> needed = new HashSet<>();
+		for (Class<?> type : types)
+			addNeeded(type, needed);
+		List<Class<?>> pending = new ArrayList<>();
+		for (Class<?> type : GtfsEntitySchemaFactory.getEntityClasses())
+			if (needed.contains(type) && !read.contains(type))
+				pending.add(type);
+		List<Class<?>> parsed = new ArrayList<>(pending);
+		if (pending.isEmpty())
+			return parsed;
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				pending.size(), Runtime.getRuntime().availableProcessors()));
+		BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+		Map<Class<?>, Saved> saving = new HashMap<>();
+		CsvInputSource source = open();
+		try {
+			while (!pending.isEmpty() || !saving.isEmpty()) {
+				for (Iterator<Class<?>> i = pending.iterator(); i.hasNext();) {
+					Class<?> type = i.next();
+					if (isReady(type)) {
+						saving.put(type, new Saved(type));
+						executor.execute(new Parse(type, source, queue,
+								new ArrayList<>(agencies)));
+						i.remove();
+					}
+				}
+				Preconditions.checkState(!saving.isEmpty(),
+						"Can't read any of %s", pending);
+
+				Batch batch = queue.take();
+				Saved saved = saving.get(batch.type);
+				for (Object entity : batch.entities)
+					saved.save(entity);
+				if (batch.last) {
+					rethrow(batch.failure);
+					saving.remove(batch.type);
+					saved.finish();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading "
+					+ input);
+		} finally {
+			// stops the threads waiting for room in the queue
+			executor.shutdownNow();
+			source.close();
+		}
+		return parsed;
+	}
+
+	private static void rethrow(Throwable failure) throws IOException {
+		if (failure == null)
+			return;
+		if (failure instanceof IOException)
+			throw (IOException) failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		throw new IllegalStateException(failure);
+	}
+
+	private static void addNeeded(Class<?> type, Set<Class<?>> needed) {
+		if (!needed.add(type))
+			return;
+		addNeeded(Agency.class, needed);
+		for (Class<?> reference : REFERENCES.get(type))
+			addNeeded(reference, needed);
+	}
+
+	private boolean isReady(Class<?> type) {
+		if (type != Agency.class && !read.contains(Agency.class))
+			return false;
+		return read.containsAll(REFERENCES.get(type));
+	}
+
+	/**
+	 * Saves the entities of a file in the store, and keeps what the files that
+	 * refer to them need to know.
+	 */
+	private class Saved {
+		private final Class<?> type;
+		private final Map<Serializable, Object> byId;
+		private final Map<String, String> agencyById;
+		private int count = 0;
+
+		Saved(Class<?> type) {
+			this.type = type;
+			byId = REFERENCES.containsValue(type) ? new HashMap<Serializable, Object>()
+					: null;
+			agencyById = AGENCY_TYPES.contains(type) ? new HashMap<String, String>()
+					: null;
+		}
+
+		void save(Object entity) {
+			store.saveEntity(entity);
+			count++;
+
+			if (type == Agency.class)
+				agencies.add((Agency) entity);
+			if (byId != null)
+				byId.put(((IdentityBean<?>) entity).getId(), entity);
+			if (agencyById != null) {
+				AgencyAndId id = (AgencyAndId) ((IdentityBean<?>) entity)
+						.getId();
+				agencyById.put(id.getId(), id.getAgencyId());
+			}
+		}
+
+		/**
+		 * Makes the entities known to the files parsed from now on.
+		 */
+		void finish() {
+			if (byId != null)
+				entitiesById.put(type, byId);
+			if (agencyById != null)
+				agencyIds.put(type, agencyById);
+			read.add(type);
+
+			LOG.info("Parsed {} rows of {}", count, schemaFactory
+					.getSchema(type).getFilename());
+		}
+	}
+
+	/**
+	 * Entities of a file for the calling thread; the last batch of a file
+	 * tells it is done, and why it failed if it did.
+	 */
+	private static class Batch {
+		private final Class<?> type;
+		private final List<Object> entities;
+		private final boolean last;
+		private final Throwable failure;
+
+		Batch(Class<?> type, List<Object> entities, boolean last,
+				Throwable failure) {
+			this.type = type;
+			this.entities = entities;
+			this.last = last;
+			this.failure = failure;
+		}
+	}
+
+	private CsvInputSource open() throws IOException {
+		return input.isDirectory() ? new FileCsvInputSource(input)
+				: new ReadAheadCsvInputSource(new ZipFileCsvInputSource(
+						new ZipFile(input)));
+	}
+
+	/**
+	 * Parses one file on a thread of the pool.
+	 */
+	private class Parse implements Runnable {
+		private final Class<?> type;
+		private final CsvInputSource source;
+		private final BlockingQueue<Batch> queue;
+		private final List<Agency> agencies;
+		private List<Object> entities = new ArrayList<>(BATCH_SIZE);
+
+		Parse(Class<?> type, CsvInputSource source,
+				BlockingQueue<Batch> queue, List<Agency> agencies) {
+			this.type = type;
+			this.source = source;
+			this.queue = queue;
+			this.agencies = agencies;
+		}
+
+		@Override
+		public void run() {
+			Throwable failure = null;
+			try {
+				Reader reader = new Reader();
+				reader.setEntityStore(new GenericDaoImpl() {
+					@Override
+					public void saveEntity(Object entity) {
+						entities.add(entity);
+						if (entities.size() < BATCH_SIZE)
+							return;
+						try {
+							queue.put(new Batch(type, entities, false, null));
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new IllegalStateException(
+									"Interrupted while reading " + input, e);
+						}
+						entities = new ArrayList<>(BATCH_SIZE);
+					}
+
+					@SuppressWarnings("unchecked")
+					@Override
+					public <T> T getEntityForId(Class<T> type, Serializable id) {
+						Map<Serializable, Object> byId = entitiesById.get(type);
+						return byId == null ? null : (T) byId.get(id);
+					}
+				});
+				if (type != Agency.class)
+					reader.setAgencies(agencies);
+				reader.setInputSource(source);
+				reader.readEntities(type);
+			} catch (Throwable t) {
+				failure = t;
+			}
+			try {
+				queue.put(new Batch(type, entities, true, failure));
+			} catch (InterruptedException e) {
+				// the calling thread gave up on the read
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * A reader that knows the agencies of the ids the other readers read.
+	 */
+	private class Reader extends GtfsReader {
+
+		String defaultAgencyId() {
+			return getDefaultAgencyId();
+		}
+
+		@Override
+		protected String getAgencyForEntity(Class<?> entityType,
+				String entityId) {
+			Map<String, String> byId = agencyIds.get(entityType);
+			String agency = byId == null ? null : byId.get(entityId);
+			return agency != null ? agency : super.getAgencyForEntity(
+					entityType, entityId);
+		}
+	}
+}
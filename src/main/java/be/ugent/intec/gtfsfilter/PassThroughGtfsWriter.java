@@ -0,0 +1,254 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipFile;
+
+import org.onebusaway.csv_entities.CSVLibrary;
+import org.onebusaway.csv_entities.CsvEntityContextImpl;
+import org.onebusaway.csv_entities.CsvEntityWriterFactory;
+import org.onebusaway.csv_entities.EntityHandler;
+import org.onebusaway.csv_entities.CsvInputSource;
+import org.onebusaway.csv_entities.FileCsvInputSource;
+import org.onebusaway.csv_entities.ZipFileCsvInputSource;
+import org.onebusaway.csv_entities.schema.BeanWrapper;
+import org.onebusaway.csv_entities.schema.BeanWrapperFactory;
+import org.onebusaway.csv_entities.schema.EntitySchema;
+import org.onebusaway.csv_entities.schema.EntitySchemaFactory;
+import org.onebusaway.csv_entities.schema.FieldMapping;
+import org.onebusaway.gtfs.serialization.GtfsEntitySchemaFactory;
+import org.onebusaway.gtfs.services.GtfsDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.intec.gtfsfilter.output.GtfsOutput;
+import be.ugent.intec.gtfsfilter.report.RunReport;
+import be.ugent.intec.gtfsfilter.streaming.CsvRows;
+import be.ugent.intec.gtfsfilter.streaming.CsvTableReader;
+import be.ugent.intec.gtfsfilter.streaming.MappedCsvReader;
+import be.ugent.intec.gtfsfilter.streaming.ReadAheadCsvInputSource;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Writes the result of a filter chain by copying the retained rows of the
+ * input feed byte for byte. Only the entities a filter modified (the calendars
+ * clamped by {@link TimespanDaoFilter}) are serialized again, into the columns
+ * of the input file; columns the gtfs library doesn't know are kept.
+ * <p>
+ * The rows are matched to the entities by position, so the chain has to be
+ * built on an {@link InsertionOrderedGtfsDao} that was read from the same
+ * input. Rows are written in the order of the input.
+ * <p>
+ * The output is a folder, or a zip archive when its name ends in ".zip" (see
+ * {@link GtfsOutput}).
+ */
+public class PassThroughGtfsWriter {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(PassThroughGtfsWriter.class);
+
+	private final File input, output;
+
+	private final EntitySchemaFactory schemaFactory = GtfsEntitySchemaFactory
+			.createEntitySchemaFactory();
+
+	private GtfsOutput target;
+
+	private RunReport report = new RunReport();
+
+	public PassThroughGtfsWriter(File input, File output) {
+		this.input = input;
+		this.output = output;
+	}
+
+	/**
+	 * Measures the writing of every file as a stage of the given report.
+	 */
+	public void setReport(RunReport report) {
+		this.report = report;
+	}
+
+	public synchronized void run(GtfsDao dao) throws IOException {
+		GtfsDao root = dao;
+		while (root instanceof GtfsDaoFilter)
+			root = ((GtfsDaoFilter) root).input;
+		Preconditions.checkArgument(root instanceof InsertionOrderedGtfsDao,
+				"The filters must be applied to an InsertionOrderedGtfsDao");
+
+		GtfsDaoFilter filter = dao instanceof GtfsDaoFilter ? (GtfsDaoFilter) dao
+				: null;
+
+		CsvInputSource source = input.isDirectory() ? new FileCsvInputSource(
+				input) : new ReadAheadCsvInputSource(new ZipFileCsvInputSource(
+				new ZipFile(input)));
+
+		try (GtfsOutput target = GtfsOutput.open(output)) {
+			this.target = target;
+			for (Class<?> type : GtfsEntitySchemaFactory.getEntityClasses()) {
+				String file = schemaFactory.getSchema(type).getFilename();
+				if (!source.hasResource(file))
+					continue;
+
+				BitSet rows = filter == null ? null : filter.getSelection().get(
+						type);
+				try (RunReport.Stage stage = report.start("write " + file)) {
+					if (rows == null) {
+						copy(source, file, type, stage);
+					} else if (!write(source, file, type, filter, rows, stage)) {
+						LOG.warn(
+								"The rows of {} don't line up with the parsed entities, serializing them instead",
+								file);
+						target.discard(file);
+						serialize(dao, type, stage);
+					}
+				}
+			}
+		} finally {
+			this.target = null;
+			source.close();
+		}
+	}
+
+	/**
+	 * Copies the rows of the input file that are set in the selection.
+	 *
+	 * @return false if the number of rows doesn't match the number of indexed
+	 *         entities, in which case the output file, if any, is not usable
+	 *         and has to be discarded
+	 */
+	private boolean write(CsvInputSource source, String file, Class<?> type,
+			GtfsDaoFilter filter, BitSet rows, RunReport.Stage stage)
+			throws IOException {
+		List<?> entities = filter.index.getEntities(type);
+		OutputStream out = null;
+		int row = 0, written = 0;
+		try (CsvRows reader = open(source, file)) {
+			for (; reader.next(); row++) {
+				if (!rows.get(row))
+					continue;
+				if (row >= entities.size())
+					return false;
+				if (out == null)
+					out = create(file, reader);
+
+				if (filter.isModified(type, row))
+					writeEntity(out, reader, filter.getEntity(type, row));
+				else
+					reader.copyLine(out);
+				written++;
+			}
+		} finally {
+			if (out != null)
+				out.close();
+		}
+		stage.addRows(type.getSimpleName(), row, written);
+		return row == entities.size();
+	}
+
+	private void copy(CsvInputSource source, String file, Class<?> type,
+			RunReport.Stage stage) throws IOException {
+		OutputStream out = null;
+		int rows = 0;
+		try (CsvRows reader = open(source, file)) {
+			for (; reader.next(); rows++) {
+				if (out == null)
+					out = create(file, reader);
+				reader.copyLine(out);
+			}
+		} finally {
+			if (out != null)
+				out.close();
+		}
+		stage.addRows(type.getSimpleName(), rows, rows);
+	}
+
+	/**
+	 * Writes the entity in the columns of the current row. Values for the
+	 * columns the schema of the entity doesn't cover are taken from the row.
+	 */
+	private void writeEntity(OutputStream out, CsvRows reader, Object entity)
+			throws IOException {
+		EntitySchema schema = schemaFactory.getSchema(entity.getClass());
+		BeanWrapper wrapper = BeanWrapperFactory.wrap(entity);
+		CsvEntityContextImpl context = new CsvEntityContextImpl();
+		Map<String, Object> values = new HashMap<>();
+		// an optional field the entity leaves empty adds no value, but still
+		// blanks its column
+		Set<String> columns = new HashSet<>();
+		for (FieldMapping field : schema.getFields()) {
+			field.translateFromObjectToCSV(context, wrapper, values);
+			field.getCSVFieldNames(columns);
+		}
+
+		List<String> header = reader.getHeader();
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < header.size(); i++) {
+			if (i > 0)
+				line.append(',');
+			String value;
+			if (values.containsKey(header.get(i))) {
+				Object v = values.get(header.get(i));
+				value = v == null ? "" : v.toString();
+			} else if (columns.contains(header.get(i))) {
+				value = "";
+			} else {
+				value = reader.get(i);
+			}
+			line.append(CSVLibrary.escapeValue(value));
+		}
+		writeLine(out, line.toString());
+	}
+
+	/**
+	 * Falls back to the gtfs library for one entity type. Like the copied
+	 * files, the file is left out if there are no entities.
+	 */
+	private void serialize(GtfsDao dao, Class<?> type, RunReport.Stage stage)
+			throws IOException {
+		Collection<?> entities = dao.getAllEntitiesForType(type);
+		stage.addRows(type.getSimpleName(), entities.size());
+		if (entities.isEmpty())
+			return;
+
+		CsvEntityWriterFactory factory = new CsvEntityWriterFactory();
+		factory.setEntitySchemaFactory(schemaFactory);
+		String file = schemaFactory.getSchema(type).getFilename();
+		try (Writer writer = new OutputStreamWriter(target.create(file),
+				StandardCharsets.UTF_8)) {
+			EntityHandler handler = factory.createWriter(type, writer);
+			for (Object entity : entities)
+				handler.handleEntity(entity);
+		}
+	}
+
+	private CsvRows open(CsvInputSource source, String file)
+			throws IOException {
+		if (input.isDirectory())
+			return new MappedCsvReader(new File(input, file));
+		return new CsvTableReader(source.getResource(file));
+	}
+
+	private OutputStream create(String file, CsvRows reader)
+			throws IOException {
+		OutputStream out = target.create(file);
+		writeLine(out, reader.getHeaderLine());
+		return out;
+	}
+
+	private static void writeLine(OutputStream out, String line)
+			throws IOException {
+		out.write(line.getBytes(StandardCharsets.UTF_8));
+		out.write('\n');
+	}
+}
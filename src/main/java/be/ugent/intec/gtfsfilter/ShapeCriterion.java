@@ -0,0 +1,222 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Trip;
+
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.Pruning;
+import be.ugent.intec.gtfsfilter.index.Selection;
+import be.ugent.intec.gtfsfilter.index.Shapes;
+import be.ugent.intec.gtfsfilter.spatial.Region;
+
+/**
+ * The criterion of {@link ShapeDaoFilter}: the shape points that are left
+ * after clipping and simplifying every shape. Shapes are thinned one by one,
+ * from their own points, so other filters only change which shapes are kept.
+ * The trips of a shape that is clipped away entirely are handed out without
+ * their shape_id, as a trip can't name a shape that isn't in the feed.
+ */
+class ShapeCriterion extends Criterion {
+
+	// meters per degree of latitude
+	private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+	private final Region[] regions;
+	private final double tolerance;
+
+	// the copies without shape_id of the trips whose shape was clipped away
+	private final Map<Integer, Trip> unshaped = new HashMap<>();
+
+	/**
+	 * @see ShapeDaoFilter#ShapeDaoFilter(org.onebusaway.gtfs.services.GtfsDao,
+	 *      Region[], double)
+	 */
+	ShapeCriterion(GtfsIndex index, Region[] regions, double tolerance) {
+		super(index);
+		this.regions = regions;
+		this.tolerance = tolerance;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.Criterion#getName()
+	 */
+	@Override
+	String getName() {
+		return "shape";
+	}
+
+	/**
+	 * Shape points are all this criterion removes, so it keeps every trip.
+	 */
+	@Override
+	double estimate() {
+		return 1;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.Criterion#seed(Pruning, Selection)
+	 */
+	@Override
+	void seed(Pruning pruning, Selection candidates) {
+		Shapes shapes = index.getShapes();
+		BitSet inputPoints = candidates.getShapePoints();
+
+		BitSet shapePointSelection = new BitSet();
+		BitSet clippedShapes = new BitSet();
+		int[] positions = new int[0];
+		for (int shape = 0; shape < shapes.groups(); shape++) {
+			// the positions within the shape of its input points
+			int size = 0;
+			if (positions.length < shapes.size(shape))
+				positions = new int[shapes.size(shape)];
+			for (int i = 0; i < shapes.size(shape); i++)
+				if (inputPoints.get(shapes.get(shape, i)))
+					positions[size++] = i;
+
+			boolean[] kept = clip(shapes, shape, positions, size, regions);
+			boolean empty = true;
+			for (int from = 0; from < size;) {
+				if (!kept[from]) {
+					from++;
+					continue;
+				}
+				int to = from;
+				while (to + 1 < size && kept[to + 1])
+					to++;
+				if (tolerance > 0)
+					simplify(shapes, shape, positions, from, to, tolerance,
+							kept);
+				for (int i = from; i <= to; i++)
+					if (kept[i]) {
+						shapePointSelection.set(shapes.get(shape,
+								positions[i]));
+						empty = false;
+					}
+				from = to + 1;
+			}
+			if (size > 0 && empty)
+				clippedShapes.set(shape);
+		}
+		pruning.retain(ShapePoint.class, shapePointSelection);
+
+		BitSet trips = candidates.getTrips();
+		for (int i = trips.nextSetBit(0); i >= 0; i = trips.nextSetBit(i + 1)) {
+			int shape = index.getTripShape(i);
+			if (shape >= 0 && clippedShapes.get(shape)) {
+				Trip copy = new Trip(index.getTrip(i));
+				copy.setShapeId(null);
+				unshaped.put(i, copy);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.Criterion#modify(java.lang.Class, int)
+	 */
+	@Override
+	Object modify(Class<?> type, int ordinal) {
+		return type == Trip.class ? unshaped.get(ordinal) : null;
+	}
+
+	/**
+	 * @return which of the given points of the shape are inside a region or
+	 *         next to a point inside one; all of them without regions
+	 */
+	private static boolean[] clip(Shapes shapes, int shape, int[] positions,
+			int size, Region[] regions) {
+		boolean[] kept = new boolean[size];
+		if (regions.length == 0) {
+			Arrays.fill(kept, true);
+			return kept;
+		}
+		boolean[] inside = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			double lat = shapes.getLat(shape, positions[i]);
+			double lon = shapes.getLon(shape, positions[i]);
+			for (Region region : regions)
+				if (region.contains(lat, lon)) {
+					inside[i] = true;
+					break;
+				}
+		}
+		for (int i = 0; i < size; i++)
+			kept[i] = inside[i] || i > 0 && inside[i - 1] || i + 1 < size
+					&& inside[i + 1];
+		return kept;
+	}
+
+	/**
+	 * Clears the points from first to last, exclusive, that lie within the
+	 * tolerance of the simplified line. Works with an explicit stack, as
+	 * shapes can have tens of thousands of points.
+	 */
+	private static void simplify(Shapes shapes, int shape, int[] positions,
+			int first, int last, double tolerance, boolean[] kept) {
+		if (last - first < 2)
+			return;
+
+		// project on a plane in meters around the first point
+		double scale = Math.cos(Math.toRadians(shapes.getLat(shape,
+				positions[first])));
+		int count = last - first + 1;
+		double[] x = new double[count], y = new double[count];
+		for (int i = 0; i < count; i++) {
+			x[i] = shapes.getLon(shape, positions[first + i]) * scale
+					* METERS_PER_DEGREE;
+			y[i] = shapes.getLat(shape, positions[first + i])
+					* METERS_PER_DEGREE;
+		}
+
+		boolean[] keep = new boolean[count];
+		keep[0] = keep[count - 1] = true;
+		int[] stack = new int[2 * count];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = count - 1;
+		while (top > 0) {
+			int to = stack[--top], from = stack[--top];
+			int farthest = -1;
+			double maximum = tolerance;
+			for (int i = from + 1; i < to; i++) {
+				double distance = distance(x[i], y[i], x[from], y[from],
+						x[to], y[to]);
+				if (distance > maximum) {
+					maximum = distance;
+					farthest = i;
+				}
+			}
+			if (farthest >= 0) {
+				keep[farthest] = true;
+				stack[top++] = from;
+				stack[top++] = farthest;
+				stack[top++] = farthest;
+				stack[top++] = to;
+			}
+		}
+		for (int i = 0; i < count; i++)
+			kept[first + i] = keep[i];
+	}
+
+	/**
+	 * @return the distance from the point to the segment between a and b
+	 */
+	private static double distance(double x, double y, double ax, double ay,
+			double bx, double by) {
+		double dx = bx - ax, dy = by - ay;
+		double length = dx * dx + dy * dy;
+		double t = length == 0 ? 0 : ((x - ax) * dx + (y - ay) * dy) / length;
+		t = Math.max(0, Math.min(1, t));
+		return Math.hypot(x - ax - t * dx, y - ay - t * dy);
+	}
+}
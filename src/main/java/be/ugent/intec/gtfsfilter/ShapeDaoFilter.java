@@ -0,0 +1,83 @@
+package be.ugent.intec.gtfsfilter;
+
+import org.onebusaway.gtfs.services.GtfsDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.intec.gtfsfilter.index.Selection;
+import be.ugent.intec.gtfsfilter.spatial.Region;
+
+/**
+ * Thins out the shapes of its input: it clips them to regions and/or
+ * simplifies them. Both only drop shape points, so the points that are kept
+ * are those of the input, shape_dist_traveled included, and every other
+ * entity passes unchanged.
+ * <p>
+ * Clipping keeps the points inside any of the regions and the first point
+ * outside on either side, so the shape still runs up to the edge of the
+ * region. Where a shape leaves a region and comes back, the two stretches
+ * are joined by a straight line; a segment that crosses a region without a
+ * point inside it is dropped. A trip whose shape has no point left is handed
+ * out without shape_id.
+ * <p>
+ * Simplifying removes points as long as the shape moves by less than the
+ * tolerance (Douglas-Peucker), measured in meters on a local flat projection.
+ * The ends of every clipped stretch are kept.
+ */
+public class ShapeDaoFilter extends GtfsDaoFilter {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ShapeDaoFilter.class);
+
+	private final ShapeCriterion criterion;
+	private final Selection selection;
+
+	/**
+	 * @param regions
+	 *            the regions to clip the shapes to, none to keep them whole
+	 * @param tolerance
+	 *            the tolerance of the simplification in meters, 0 to keep
+	 *            every point
+	 */
+	public ShapeDaoFilter(GtfsDao input, Region[] regions, double tolerance) {
+		super(input);
+
+		criterion = new ShapeCriterion(index, regions, tolerance);
+		selection = select(criterion);
+		logSelection(LOG);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.GtfsDaoFilter#getSelection()
+	 */
+	@Override
+	protected Selection getSelection() {
+		return selection;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.GtfsDaoFilter#getEntity(java.lang.Class,
+	 * int)
+	 */
+	@Override
+	protected Object getEntity(Class<?> type, int ordinal) {
+		Object modified = criterion.modify(type, ordinal);
+		return modified != null ? modified : super.getEntity(type, ordinal);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.GtfsDaoFilter#isModified(java.lang.Class,
+	 * int)
+	 */
+	@Override
+	protected boolean isModified(Class<?> type, int ordinal) {
+		return criterion.modify(type, ordinal) != null
+				|| super.isModified(type, ordinal);
+	}
+
+}
@@ -0,0 +1,316 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.Frequency;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.OrdinalPredicate;
+import be.ugent.intec.gtfsfilter.index.Pruning;
+import be.ugent.intec.gtfsfilter.index.Selection;
+import be.ugent.intec.gtfsfilter.index.ServiceDays;
+import be.ugent.intec.gtfsfilter.index.TripStopTimes;
+
+/**
+ * The criterion of {@link TimeWindowDaoFilter}: the trips under way during the
+ * window, their frequencies with an instance in it and optionally only their
+ * stop times inside it.
+ * <p>
+ * The times are read from the primitive arrays of the index, in the order of
+ * the stop times grouped by trip.
+ */
+class TimeWindowCriterion extends Criterion {
+
+	private static final int DAY = 24 * 60 * 60, HOUR = 60 * 60;
+
+	private final int from, to;
+	private final boolean inside;
+	private final ServiceDays serviceDays;
+	private final int firstDay, lastDay;
+	private final int daysBefore, daysAfter;
+
+	private final TripStopTimes grouped;
+	private final int[] arrivals, departures;
+	// the frequencies of every frequency-based trip
+	private final Map<Integer, List<Integer>> tripFrequencies = new HashMap<>();
+
+	/**
+	 * @see TimeWindowDaoFilter#TimeWindowDaoFilter(org.onebusaway.gtfs.services.GtfsDao,
+	 *      int, int, boolean, ServiceDate, ServiceDate)
+	 */
+	TimeWindowCriterion(GtfsIndex index, int from, int to, boolean inside,
+			ServiceDate start, ServiceDate end) {
+		super(index);
+
+		this.from = from;
+		this.to = to < from ? to + DAY : to;
+		this.inside = inside;
+		if (start != null) {
+			serviceDays = index.getServiceDays();
+			firstDay = ServiceDays.dayNumber(start);
+			lastDay = ServiceDays.dayNumber(end);
+		} else {
+			serviceDays = null;
+			firstDay = lastDay = 0;
+		}
+
+		grouped = index.getTripStopTimes();
+		arrivals = index.getArrivalTimes();
+		departures = index.getDepartureTimes();
+
+		int frequencies = index.getEntities(Frequency.class).size();
+		for (int frequency = 0; frequency < frequencies; frequency++) {
+			int trip = index.getFrequencyTrip(frequency);
+			List<Integer> list = tripFrequencies.get(trip);
+			if (list == null)
+				tripFrequencies.put(trip, list = new ArrayList<Integer>());
+			list.add(frequency);
+		}
+
+		// the service days whose trips can run in the window of a day of the
+		// timespan: a trip at 25:00 is under way the day after its service day.
+		// Like the times, every frequency of the feed counts, so the days
+		// don't depend on the filters before this one.
+		int latest = 0;
+		for (int i = 0; i < arrivals.length; i++)
+			latest = Math.max(latest,
+					Math.max(arrivals[i], departures[i]));
+		for (int frequency = 0; frequency < frequencies; frequency++) {
+			int trip = index.getFrequencyTrip(frequency);
+			int[] span = trip < 0 ? null : span(grouped, arrivals,
+					departures, trip);
+			if (span != null)
+				latest = Math.max(latest, frequency(frequency).getEndTime()
+						+ span[1] - span[0]);
+		}
+		daysBefore = latest / DAY;
+		daysAfter = this.to / DAY;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.Criterion#getName()
+	 */
+	@Override
+	String getName() {
+		return "time window";
+	}
+
+	/**
+	 * Takes the share of the day the window covers, widened by an hour for the
+	 * trips that are under way when it starts. Trips are assumed to spread
+	 * evenly over the day, so this is rough, but finding out needs the times
+	 * of every stop time.
+	 */
+	@Override
+	double estimate() {
+		return Math.min(1, (double) (to - from + HOUR) / DAY);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.Criterion#seed(Pruning, Selection)
+	 */
+	@Override
+	void seed(Pruning pruning, Selection candidates) {
+		BitSet tripSelection = GtfsDaoFilter.retain(candidates.getTrips(),
+				new OrdinalPredicate() {
+					@Override
+					public boolean apply(int trip) {
+						int[] span = span(grouped, arrivals, departures, trip);
+						if (span == null)
+							return false;
+						int service = index.getTripService(trip);
+						List<Integer> list = tripFrequencies.get(trip);
+						if (list == null)
+							return matches(service, span[0], span[1]);
+						for (int frequency : list)
+							if (matches(service, frequency(frequency), span))
+								return true;
+						return false;
+					}
+				});
+
+		// only the frequencies with an instance in the window
+		BitSet frequencySelection = GtfsDaoFilter.retain(
+				candidates.getFrequencies(), new OrdinalPredicate() {
+					@Override
+					public boolean apply(int frequency) {
+						int trip = index.getFrequencyTrip(frequency);
+						if (trip < 0)
+							return false;
+						int[] span = span(grouped, arrivals, departures, trip);
+						return span != null
+								&& matches(index.getTripService(trip),
+										frequency(frequency), span);
+					}
+				});
+
+		// everything else follows from the trips; a trip without stop times
+		// inside the window is not kept, nor is a stop that no trip serves
+		pruning.retain(Trip.class, tripSelection)
+				.retain(Frequency.class, frequencySelection)
+				.removeOrphans(Stop.class);
+		if (inside) {
+			BitSet stopTimeSelection = new BitSet();
+			for (int trip = tripSelection.nextSetBit(0); trip >= 0; trip = tripSelection
+					.nextSetBit(trip + 1)) {
+				if (tripFrequencies.containsKey(trip))
+					for (int i = 0; i < grouped.size(trip); i++)
+						stopTimeSelection.set(grouped.get(trip, i));
+				else
+					selectInside(grouped, arrivals, departures, trip,
+							stopTimeSelection);
+			}
+			pruning.retain(StopTime.class, stopTimeSelection);
+		}
+	}
+
+	/**
+	 * @return the first service day of which trips can run in the window of
+	 *         the start date, where the timespan criterion of the job starts
+	 *         to keep their calendars
+	 */
+	ServiceDate getFirstServiceDate() {
+		return serviceDays == null ? null : ServiceDays.serviceDate(firstDay
+				- daysBefore);
+	}
+
+	/**
+	 * @return the last service day of which trips can run in the window of the
+	 *         end date
+	 */
+	ServiceDate getLastServiceDate() {
+		return serviceDays == null ? null : ServiceDays.serviceDate(lastDay
+				+ daysAfter);
+	}
+
+	private Frequency frequency(int frequency) {
+		return (Frequency) index.getEntities(Frequency.class).get(frequency);
+	}
+
+	/**
+	 * @return the first and the last time of the trip, or null if none of its
+	 *         stop times has one
+	 */
+	private static int[] span(TripStopTimes grouped, int[] arrivals,
+			int[] departures, int trip) {
+		int first = Integer.MAX_VALUE, last = -1;
+		for (int i = 0; i < grouped.size(trip); i++) {
+			int stopTime = grouped.get(trip, i);
+			if (arrivals[stopTime] >= 0) {
+				first = Math.min(first, arrivals[stopTime]);
+				last = Math.max(last, arrivals[stopTime]);
+			}
+			if (departures[stopTime] >= 0) {
+				first = Math.min(first, departures[stopTime]);
+				last = Math.max(last, departures[stopTime]);
+			}
+		}
+		return last < 0 ? null : new int[] { first, last };
+	}
+
+	/**
+	 * Selects the stop times of the trip that are inside the window. A stop
+	 * time without times lies between the departure of the timed one before
+	 * it and the arrival of the timed one after it.
+	 */
+	private void selectInside(TripStopTimes grouped, int[] arrivals,
+			int[] departures, int trip, BitSet selection) {
+		int service = index.getTripService(trip);
+		int size = grouped.size(trip);
+		int[] next = new int[size];
+		int following = -1;
+		for (int i = size - 1; i >= 0; i--) {
+			int stopTime = grouped.get(trip, i);
+			if (arrivals[stopTime] >= 0 || departures[stopTime] >= 0)
+				following = arrivals[stopTime] >= 0 ? arrivals[stopTime]
+						: departures[stopTime];
+			next[i] = following;
+		}
+		int previous = -1;
+		for (int i = 0; i < size; i++) {
+			int stopTime = grouped.get(trip, i);
+			int arrival = arrivals[stopTime], departure = departures[stopTime];
+			int first, last;
+			if (arrival >= 0 || departure >= 0) {
+				first = arrival >= 0 ? arrival : departure;
+				last = departure >= 0 ? departure : arrival;
+				previous = last;
+			} else {
+				first = previous >= 0 ? previous : next[i];
+				last = next[i] >= 0 ? next[i] : previous;
+			}
+			if (first >= 0 && matches(service, first, last))
+				selection.set(stopTime);
+		}
+	}
+
+	/**
+	 * @return true if an instance of the trip that is under way from first to
+	 *         last overlaps the window on a day of the timespan
+	 */
+	private boolean matches(int service, int first, int last) {
+		// the window of day k after the service day is from + k * DAY up to
+		// to + k * DAY
+		for (int k = ceilDiv(first - to, DAY); k <= floorDiv(last - from, DAY); k++)
+			if (runs(service, k))
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return true if an instance of the frequency, which follows the times of
+	 *         its trip from span[0] to span[1], overlaps the window on a day of
+	 *         the timespan
+	 */
+	private boolean matches(int service, Frequency frequency, int[] span) {
+		int duration = span[1] - span[0];
+		int start = frequency.getStartTime();
+		int lastStart = Math.max(start, frequency.getEndTime() - 1);
+		int headway = frequency.getHeadwaySecs() > 0 ? frequency
+				.getHeadwaySecs() : lastStart - start + 1;
+		for (int k = ceilDiv(start - to, DAY); k <= floorDiv(lastStart
+				+ duration - from, DAY); k++) {
+			if (!runs(service, k))
+				continue;
+			// the instances starting from low up to high overlap the window
+			int low = Math.max(start, from + k * DAY - duration);
+			int high = Math.min(lastStart, to + k * DAY);
+			if (low <= high
+					&& start + ceilDiv(low - start, headway) * headway <= high)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the service runs on the day k days before a day of the
+	 *         timespan
+	 */
+	private boolean runs(int service, int k) {
+		if (serviceDays == null)
+			return true;
+		return service >= 0
+				&& serviceDays.runsBetween(service, firstDay - k, lastDay - k);
+	}
+
+	private static int floorDiv(int dividend, int divisor) {
+		return dividend >= 0 ? dividend / divisor
+				: -((divisor - 1 - dividend) / divisor);
+	}
+
+	private static int ceilDiv(int dividend, int divisor) {
+		return -floorDiv(-dividend, divisor);
+	}
+}
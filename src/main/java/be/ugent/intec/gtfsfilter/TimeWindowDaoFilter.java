@@ -0,0 +1,92 @@
+package be.ugent.intec.gtfsfilter;
+
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.services.GtfsDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.intec.gtfsfilter.index.Selection;
+
+/**
+ * Keeps the trips that are under way during a time of day, like 06:00 to
+ * 10:00, and everything they use. A trip is under way from its first to its
+ * last arrival or departure time; a frequency-based trip during every instance
+ * that starts at a multiple of the headway. Optionally only the stop times
+ * inside the window are kept; a stop time without times is taken to lie
+ * between the timed ones around it.
+ * <p>
+ * Times are seconds since the start of the service day and may pass 24:00,
+ * as may the window itself. A trip of service day d with a time of 25:00
+ * runs at 01:00 on day d + 1, so it matches a window from 00:30 to 02:00 on
+ * its next day. Without dates every day matches; with dates a trip only
+ * matches a day of the timespan if its service runs on the service day that
+ * puts the trip in the window of that day.
+ */
+public class TimeWindowDaoFilter extends GtfsDaoFilter {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(TimeWindowDaoFilter.class);
+
+	private final TimeWindowCriterion criterion;
+	private final Selection selection;
+
+	/**
+	 * Keeps the trips under way during the window on any day.
+	 */
+	public TimeWindowDaoFilter(GtfsDao input, int from, int to,
+			boolean inside) {
+		this(input, from, to, inside, null, null);
+	}
+
+	/**
+	 * @param from
+	 *            the start of the window in seconds since midnight
+	 * @param to
+	 *            the end of the window; a window that ends before it starts
+	 *            runs past midnight
+	 * @param inside
+	 *            whether to keep only the stop times inside the window instead
+	 *            of all stop times of the kept trips. Frequency-based trips
+	 *            keep all of theirs, as their times are a template for every
+	 *            instance.
+	 * @param start
+	 *            the first day on which the window applies, or null for any day
+	 * @param end
+	 *            the last day on which the window applies
+	 */
+	public TimeWindowDaoFilter(GtfsDao input, int from, int to,
+			boolean inside, ServiceDate start, ServiceDate end) {
+		super(input);
+
+		criterion = new TimeWindowCriterion(index, from, to, inside, start, end);
+		selection = select(criterion);
+		logSelection(LOG);
+	}
+
+	/**
+	 * @return the first service day of which trips can run in the window of
+	 *         the start date; a timespan on the same feed has to start there
+	 *         to keep their calendars, as {@link FilterJob} does
+	 */
+	public ServiceDate getFirstServiceDate() {
+		return criterion.getFirstServiceDate();
+	}
+
+	/**
+	 * @return the last service day of which trips can run in the window of the
+	 *         end date
+	 */
+	public ServiceDate getLastServiceDate() {
+		return criterion.getLastServiceDate();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.GtfsDaoFilter#getSelection()
+	 */
+	@Override
+	protected Selection getSelection() {
+		return selection;
+	}
+
+}
@@ -0,0 +1,140 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.OrdinalPredicate;
+import be.ugent.intec.gtfsfilter.index.Pruning;
+import be.ugent.intec.gtfsfilter.index.Selection;
+import be.ugent.intec.gtfsfilter.predicates.TripByServiceIdsPredicate;
+
+/**
+ * The criterion of {@link TimespanDaoFilter}: the trips whose service runs in
+ * the timespan, and the calendars and calendar dates of those services that
+ * fall in it. The kept calendars are clamped to the timespan.
+ */
+class TimespanCriterion extends Criterion {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(TimespanCriterion.class);
+
+	private final ServiceDate start, end;
+	// the service ids that run on at least one day of the timespan, with their
+	// weekdays and exceptions taken into account
+	private final BitSet serviceIds;
+
+	// copies of the calendars whose dates were clamped, by ordinal
+	private final Map<Integer, ServiceCalendar> clamped = new HashMap<>();
+
+	TimespanCriterion(GtfsIndex index, ServiceDate start, ServiceDate end) {
+		super(index);
+		this.start = start;
+		this.end = end;
+		this.serviceIds = index.getServiceDays().getServices(start, end);
+
+		LOG.info("Filtered down to {} serviceIds", serviceIds.cardinality());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.Criterion#getName()
+	 */
+	@Override
+	String getName() {
+		return "timespan";
+	}
+
+	/**
+	 * Counts the trips of the running services.
+	 */
+	@Override
+	double estimate() {
+		int[] counts = index.getServiceTripCounts();
+		long trips = 0, kept = 0;
+		for (int service = 0; service < counts.length; service++) {
+			trips += counts[service];
+			if (serviceIds.get(service))
+				kept += counts[service];
+		}
+		return trips == 0 ? 1 : (double) kept / trips;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.Criterion#seed(Pruning, Selection)
+	 */
+	@Override
+	void seed(Pruning pruning, Selection candidates) {
+		BitSet tripSelection = GtfsDaoFilter.retain(candidates.getTrips(),
+				new TripByServiceIdsPredicate(index, serviceIds));
+		BitSet calendarSelection = GtfsDaoFilter.retain(
+				candidates.getCalendars(), new OrdinalPredicate() {
+					@Override
+					public boolean apply(int input) {
+						ServiceCalendar calendar = index.getCalendar(input);
+						return serviceIds.get(index.getCalendarService(input))
+								&& start.compareTo(calendar.getEndDate()) <= 0
+								&& end.compareTo(calendar.getStartDate()) >= 0;
+					}
+				});
+		BitSet calendarDateSelection = GtfsDaoFilter.retain(
+				candidates.getCalendarDates(), new OrdinalPredicate() {
+					@Override
+					public boolean apply(int input) {
+						ServiceDate date = index.getCalendarDate(input)
+								.getDate();
+						return serviceIds.get(index
+								.getCalendarDateService(input))
+								&& start.compareTo(date) <= 0
+								&& end.compareTo(date) >= 0;
+					}
+				});
+
+		// change the calendar begin- and enddates for consistency, on copies so
+		// the entities of the input stay untouched
+		for (int i = calendarSelection.nextSetBit(0); i >= 0; i = calendarSelection
+				.nextSetBit(i + 1)) {
+			ServiceCalendar sc = index.getCalendar(i);
+			ServiceDate startDate = sc.getStartDate(), endDate = sc.getEndDate();
+			if (start.compareTo(startDate) > 0)
+				startDate = start;
+			if (end.compareTo(endDate) < 0)
+				endDate = end;
+			if (startDate.compareTo(sc.getStartDate()) != 0
+					|| endDate.compareTo(sc.getEndDate()) != 0) {
+				ServiceCalendar copy = new ServiceCalendar(sc);
+				copy.setStartDate(startDate);
+				copy.setEndDate(endDate);
+				clamped.put(i, copy);
+			}
+		}
+
+		// the routes, stoptimes, stops and shapes follow from the trips; a
+		// stop that no trip serves isn't kept either
+		pruning.retain(Trip.class, tripSelection)
+				.retain(ServiceCalendar.class, calendarSelection)
+				.retain(ServiceCalendarDate.class, calendarDateSelection)
+				.removeOrphans(Stop.class);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.Criterion#modify(java.lang.Class, int)
+	 */
+	@Override
+	Object modify(Class<?> type, int ordinal) {
+		return type == ServiceCalendar.class ? clamped.get(ordinal) : null;
+	}
+}
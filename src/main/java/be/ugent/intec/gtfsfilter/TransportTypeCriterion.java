@@ -0,0 +1,75 @@
+package be.ugent.intec.gtfsfilter;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.OrdinalPredicate;
+import be.ugent.intec.gtfsfilter.index.Pruning;
+import be.ugent.intec.gtfsfilter.index.Selection;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+/**
+ * The criterion of {@link TransportTypeDaoFilter}: the routes of the given
+ * types.
+ */
+class TransportTypeCriterion extends Criterion {
+
+	private final List<Integer> types;
+
+	TransportTypeCriterion(GtfsIndex index, int... transportTypes) {
+		super(index);
+		Preconditions.checkArgument(transportTypes.length > 0);
+		this.types = Ints.asList(transportTypes);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.Criterion#getName()
+	 */
+	@Override
+	String getName() {
+		return "transport type";
+	}
+
+	/**
+	 * Counts the trips of the routes of the types.
+	 */
+	@Override
+	double estimate() {
+		int[] counts = index.getRouteTripCounts();
+		long trips = 0, kept = 0;
+		for (int route = 0; route < counts.length; route++) {
+			trips += counts[route];
+			if (types.contains(index.getRoute(route).getType()))
+				kept += counts[route];
+		}
+		return trips == 0 ? 1 : (double) kept / trips;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.Criterion#seed(Pruning, Selection)
+	 */
+	@Override
+	void seed(Pruning pruning, Selection candidates) {
+		BitSet routeSelection = GtfsDaoFilter.retain(candidates.getRoutes(),
+				new OrdinalPredicate() {
+					@Override
+					public boolean apply(int input) {
+						return types.contains(index.getRoute(input).getType());
+					}
+				});
+
+		// everything else follows from the routes, apart from the stops that
+		// no trip serves, which are dropped
+		pruning.retain(Route.class, routeSelection).removeOrphans(Stop.class);
+	}
+}
@@ -0,0 +1,158 @@
+package be.ugent.intec.gtfsfilter.columnar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A growable column of fixed-width primitive values outside the heap. The
+ * values live in direct buffers of {@link #CHUNK_SIZE} rows each, so the
+ * column grows without copying and the garbage collector never scans it.
+ * <p>
+ * A column can be written to a file and mapped back from it, see
+ * {@link FeedSnapshot}.
+ */
+final class Column {
+
+	static final int CHUNK_BITS = 16;
+	static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int MASK = CHUNK_SIZE - 1;
+	private static final int SEGMENT_BYTES = 1 << 30;
+
+	private final int width;
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	private int size;
+
+	/**
+	 * @param width
+	 *            the number of bytes per value: 1, 4 or 8
+	 */
+	Column(int width) {
+		this.width = width;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private ByteBuffer next() {
+		if ((size & MASK) == 0)
+			chunks.add(ByteBuffer.allocateDirect(CHUNK_SIZE * width).order(
+					ByteOrder.nativeOrder()));
+		return chunks.get(size >>> CHUNK_BITS);
+	}
+
+	void addByte(int value) {
+		next().put(size++ & MASK, (byte) value);
+	}
+
+	void addInt(int value) {
+		next().putInt((size++ & MASK) << 2, value);
+	}
+
+	void addDouble(double value) {
+		next().putDouble((size++ & MASK) << 3, value);
+	}
+
+	int getByte(int row) {
+		return chunks.get(row >>> CHUNK_BITS).get(row & MASK);
+	}
+
+	int getInt(int row) {
+		return chunks.get(row >>> CHUNK_BITS).getInt((row & MASK) << 2);
+	}
+
+	double getDouble(int row) {
+		return chunks.get(row >>> CHUNK_BITS).getDouble((row & MASK) << 3);
+	}
+
+	/**
+	 * @return the values of an int column as an array
+	 */
+	int[] toIntArray() {
+		int[] values = new int[size];
+		for (int chunk = 0; chunk < chunks.size(); chunk++) {
+			int from = chunk << CHUNK_BITS;
+			ByteBuffer buffer = chunks.get(chunk).duplicate().order(
+					ByteOrder.nativeOrder());
+			buffer.clear();
+			buffer.asIntBuffer().get(values, from,
+					Math.min(CHUNK_SIZE, size - from));
+		}
+		return values;
+	}
+
+	void clear() {
+		chunks.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return the number of bytes {@link #write(WritableByteChannel)} writes:
+	 *         the values, padded to a multiple of eight
+	 */
+	long length() {
+		return ((long) size * width + 7) & ~7L;
+	}
+
+	/**
+	 * Writes the values in native byte order, padded to
+	 * {@link #length()} bytes.
+	 */
+	void write(WritableByteChannel channel) throws IOException {
+		for (int chunk = 0; chunk < chunks.size(); chunk++) {
+			ByteBuffer buffer = chunks.get(chunk).duplicate();
+			buffer.clear();
+			buffer.limit(Math.min(CHUNK_SIZE, size - (chunk << CHUNK_BITS))
+					* width);
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+		ByteBuffer padding = ByteBuffer.allocate((int) (length() - (long) size
+				* width));
+		while (padding.hasRemaining())
+			channel.write(padding);
+	}
+
+	/**
+	 * Replaces the values by the given number of values written by
+	 * {@link #write(WritableByteChannel)} at the position in the file. The
+	 * full chunks are mapped read-only from the file; the last one is copied,
+	 * so the column can still grow.
+	 */
+	void map(FileChannel channel, long position, int size) throws IOException {
+		clear();
+		int chunkBytes = CHUNK_SIZE * width;
+		int full = size >>> CHUNK_BITS;
+		int perSegment = SEGMENT_BYTES / chunkBytes;
+		for (int first = 0; first < full; first += perSegment) {
+			int count = Math.min(perSegment, full - first);
+			ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+					position + (long) first * chunkBytes, (long) count
+							* chunkBytes);
+			for (int chunk = 0; chunk < count; chunk++) {
+				segment.limit((chunk + 1) * chunkBytes);
+				segment.position(chunk * chunkBytes);
+				chunks.add(segment.slice().order(ByteOrder.nativeOrder()));
+			}
+		}
+		int rest = size & MASK;
+		if (rest > 0) {
+			ByteBuffer last = ByteBuffer.allocateDirect(chunkBytes).order(
+					ByteOrder.nativeOrder());
+			ByteBuffer values = last.duplicate();
+			values.limit(rest * width);
+			long from = position + (long) full * chunkBytes;
+			while (values.hasRemaining())
+				if (channel.read(values, from + values.position()) < 0)
+					throw new EOFException("Column ends early");
+			chunks.add(last);
+		}
+		this.size = size;
+	}
+}
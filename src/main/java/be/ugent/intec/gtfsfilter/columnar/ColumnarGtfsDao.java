@@ -0,0 +1,247 @@
+package be.ugent.intec.gtfsfilter.columnar;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.onebusaway.gtfs.model.IdentityBean;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+import be.ugent.intec.gtfsfilter.InsertionOrderedGtfsDao;
+
+/**
+ * An {@link InsertionOrderedGtfsDao} that keeps the stop_times in primitive
+ * columns outside the heap instead of as {@link StopTime} objects: about 22
+ * bytes per row instead of well over 100. The stop times it hands out are
+ * created on demand and are not kept, so two calls return equal but not
+ * identical objects; changing them doesn't change the dao.
+ * <p>
+ * The filters work on it through the {@link org.onebusaway.gtfs.services.GtfsDao}
+ * interface like on any other dao. The {@link be.ugent.intec.gtfsfilter.index.GtfsIndex}
+ * takes the trip and stop ordinals of the stop_times straight from the
+ * columns, so indexing doesn't create any stop times either.
+ * <p>
+ * The trips and stops have to be saved before the stop times that refer to
+ * them, as the {@link org.onebusaway.gtfs.serialization.GtfsReader} does, and
+ * can't be removed afterwards.
+ */
+public class ColumnarGtfsDao extends InsertionOrderedGtfsDao {
+
+	private final List<Trip> trips = new ArrayList<>();
+	private final List<Stop> stops = new ArrayList<>();
+	private final Map<Trip, Integer> tripOrdinals = new HashMap<>();
+	private final Map<Stop, Integer> stopOrdinals = new HashMap<>();
+
+	private final StopTimeColumns stopTimes = new StopTimeColumns();
+
+	private final List<StopTime> stopTimeList = new StopTimeList();
+
+	@Override
+	public void saveEntity(Object entity) {
+		if (entity instanceof StopTime) {
+			addStopTime((StopTime) entity);
+			return;
+		}
+		super.saveEntity(entity);
+		addOrdinal(entity);
+	}
+
+	@Override
+	public void saveOrUpdateEntity(Object entity) {
+		if (entity instanceof StopTime) {
+			addStopTime((StopTime) entity);
+			return;
+		}
+		super.saveOrUpdateEntity(entity);
+		addOrdinal(entity);
+	}
+
+	private void addOrdinal(Object entity) {
+		if (entity instanceof Trip && !tripOrdinals.containsKey(entity)) {
+			tripOrdinals.put((Trip) entity, trips.size());
+			trips.add((Trip) entity);
+		} else if (entity instanceof Stop && !stopOrdinals.containsKey(entity)) {
+			stopOrdinals.put((Stop) entity, stops.size());
+			stops.add((Stop) entity);
+		}
+	}
+
+	private void addStopTime(StopTime stopTime) {
+		stopTimes.add(stopTime, ordinal(tripOrdinals, stopTime.getTrip()),
+				ordinal(stopOrdinals, stopTime.getStop()));
+	}
+
+	private static <T> int ordinal(Map<T, Integer> ordinals, T entity) {
+		Integer ordinal = entity == null ? null : ordinals.get(entity);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	/*
+	 * Primitive access
+	 */
+
+	public int getStopTimeCount() {
+		return stopTimes.size();
+	}
+
+	/**
+	 * @return for every stop time the position of its trip in
+	 *         {@link #getAllTrips()}, -1 if it has none
+	 */
+	public int[] getStopTimeTrips() {
+		return stopTimes.getTrips();
+	}
+
+	/**
+	 * @return for every stop time the position of its stop in
+	 *         {@link #getAllStops()}, -1 if it has none
+	 */
+	public int[] getStopTimeStops() {
+		return stopTimes.getStops();
+	}
+
+	/**
+	 * @return the stop_sequence of every stop time
+	 */
+	public int[] getStopTimeSequences() {
+		return stopTimes.getSequences();
+	}
+
+	/**
+	 * @return the arrival time of every stop time
+	 */
+	public int[] getStopTimeArrivals() {
+		return stopTimes.getArrivals();
+	}
+
+	/**
+	 * @return the departure time of every stop time
+	 */
+	public int[] getStopTimeDepartures() {
+		return stopTimes.getDepartures();
+	}
+
+	StopTimeColumns getStopTimeColumns() {
+		return stopTimes;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * be.ugent.intec.gtfsfilter.InsertionOrderedGtfsDao#getAllEntitiesForType
+	 * (java.lang.Class)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> Collection<T> getAllEntitiesForType(Class<T> type) {
+		if (type == StopTime.class)
+			return (Collection<T>) stopTimeList;
+		return super.getAllEntitiesForType(type);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.onebusaway.gtfs.impl.GenericDaoImpl#getEntityForId(java.lang.Class,
+	 * java.io.Serializable)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T getEntityForId(Class<T> type, Serializable id) {
+		if (type != StopTime.class)
+			return super.getEntityForId(type, id);
+		int row = (Integer) id - 1;
+		return row >= 0 && row < stopTimes.size() ? (T) stopTimeList.get(row)
+				: null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl#getStopTimesForTrip(org
+	 * .onebusaway.gtfs.model.Trip)
+	 */
+	@Override
+	public List<StopTime> getStopTimesForTrip(Trip trip) {
+		int ordinal = ordinal(tripOrdinals, trip);
+		List<StopTime> result = new ArrayList<>();
+		for (int row = 0; ordinal >= 0 && row < stopTimes.size(); row++)
+			if (stopTimes.getTrip(row) == ordinal)
+				result.add(stopTimeList.get(row));
+		Collections.sort(result);
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl#getStopTimesForStop(org
+	 * .onebusaway.gtfs.model.Stop)
+	 */
+	@Override
+	public List<StopTime> getStopTimesForStop(Stop stop) {
+		int ordinal = ordinal(stopOrdinals, stop);
+		List<StopTime> result = new ArrayList<>();
+		for (int row = 0; ordinal >= 0 && row < stopTimes.size(); row++)
+			if (stopTimes.getStop(row) == ordinal)
+				result.add(stopTimeList.get(row));
+		return result;
+	}
+
+	@Override
+	public <T> void clearAllEntitiesForType(Class<T> type) {
+		if (type == StopTime.class) {
+			stopTimes.clear();
+			return;
+		}
+		super.clearAllEntitiesForType(type);
+		if (type == Trip.class) {
+			trips.clear();
+			tripOrdinals.clear();
+		} else if (type == Stop.class) {
+			stops.clear();
+			stopOrdinals.clear();
+		}
+	}
+
+	@Override
+	public <K extends Serializable, T extends IdentityBean<K>> void removeEntity(
+			T entity) {
+		if (entity instanceof StopTime || entity instanceof Trip
+				|| entity instanceof Stop)
+			throw new UnsupportedOperationException(
+					"Stop times, trips and stops can't be removed from a columnar dao");
+		super.removeEntity(entity);
+	}
+
+	/**
+	 * Creates the stop times of the columns on demand.
+	 */
+	private class StopTimeList extends AbstractList<StopTime> implements
+			RandomAccess {
+
+		@Override
+		public StopTime get(int index) {
+			if (index < 0 || index >= stopTimes.size())
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			return stopTimes.create(index, trips, stops);
+		}
+
+		@Override
+		public int size() {
+			return stopTimes.size();
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package be.ugent.intec.gtfsfilter.columnar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.GtfsEntitySchemaFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.intec.gtfsfilter.InsertionOrderedGtfsDao;
+
+/**
+ * A binary copy of a parsed feed, which reads back much faster than the
+ * csv-files it was parsed from. The snapshot holds the entities of every type
+ * in the order they were saved, so a dao filled from it is a drop-in
+ * replacement for one filled by a
+ * {@link org.onebusaway.gtfs.serialization.GtfsReader}: filtering and writing
+ * it give the same output.
+ * <p>
+ * The stop_times are stored as the columns of a {@link ColumnarGtfsDao},
+ * which maps them straight from the file; the shape points as plain values;
+ * the other entities, far fewer, with Java serialization.
+ * <p>
+ * A snapshot carries the {@link #checksum(File)} of the input it was made
+ * from. Loading it for input with another checksum deletes it.
+ */
+public final class FeedSnapshot {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(FeedSnapshot.class);
+
+	private static final long MAGIC = 0x47544653534e4150L; // "GTFSSNAP"
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 40;
+
+	private FeedSnapshot() {
+	}
+
+	/**
+	 * @return the location of the snapshot of the given input: next to it,
+	 *         named after it
+	 */
+	public static File locationFor(File input) {
+		File absolute = input.getAbsoluteFile();
+		String name = absolute.getName();
+		if (name.toLowerCase().endsWith(".zip"))
+			name = name.substring(0, name.length() - 4);
+		return new File(absolute.getParentFile(), name + ".snapshot");
+	}
+
+	/**
+	 * @return a checksum of the name, size and contents of the zip-file or of
+	 *         the txt-files in the folder
+	 */
+	public static long checksum(File input) throws IOException {
+		File[] files = input.isDirectory() ? input.listFiles()
+				: new File[] { input };
+		if (files == null)
+			throw new IOException("Can't list " + input);
+		Arrays.sort(files);
+
+		CRC32 crc = new CRC32();
+		Adler32 adler = new Adler32();
+		byte[] buffer = new byte[1 << 16];
+		for (File file : files) {
+			if (!file.isFile() || input.isDirectory()
+					&& !file.getName().endsWith(".txt"))
+				continue;
+			byte[] name = (file.getName() + '\n' + file.length() + '\n')
+					.getBytes(StandardCharsets.UTF_8);
+			crc.update(name);
+			adler.update(name);
+			try (InputStream in = new FileInputStream(file)) {
+				int read;
+				while ((read = in.read(buffer)) > 0) {
+					crc.update(buffer, 0, read);
+					adler.update(buffer, 0, read);
+				}
+			}
+		}
+		return crc.getValue() << 32 | adler.getValue();
+	}
+
+	/**
+	 * Fills the empty dao from the snapshot, if there is one for the input
+	 * with the given checksum. A snapshot of other input is deleted.
+	 *
+	 * @return whether the dao was filled; if an exception is thrown, it may be
+	 *         partly filled
+	 */
+	public static boolean load(File snapshot, long checksum,
+			InsertionOrderedGtfsDao dao) throws IOException {
+		if (!snapshot.isFile())
+			return false;
+
+		boolean matches;
+		try (FileChannel channel = FileChannel.open(snapshot.toPath(),
+				StandardOpenOption.READ)) {
+			matches = read(channel, checksum, dao);
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Can't read " + snapshot, e);
+		}
+		if (!matches) {
+			LOG.info("Deleting {}, it doesn't match the input", snapshot);
+			Files.delete(snapshot.toPath());
+			return false;
+		}
+		LOG.info("Loaded the feed from {}", snapshot);
+		return true;
+	}
+
+	/**
+	 * @return false if the snapshot was made from other input, before
+	 *         anything is read into the dao
+	 */
+	private static boolean read(FileChannel channel, long checksum,
+			InsertionOrderedGtfsDao dao) throws IOException,
+			ClassNotFoundException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		while (header.hasRemaining() && channel.read(header) >= 0)
+			;
+		header.flip();
+		if (header.remaining() < HEADER_LENGTH
+				|| header.getLong() != MAGIC || header.getInt() != VERSION
+				|| header.getInt() != byteOrder()
+				|| header.getLong() != checksum)
+			return false;
+		long columnsPosition = header.getLong();
+		int stopTimeCount = header.getInt();
+
+		StopTimeColumns stopTimes = dao instanceof ColumnarGtfsDao
+				? ((ColumnarGtfsDao) dao).getStopTimeColumns()
+				: new StopTimeColumns();
+
+		ObjectInputStream in = new ObjectInputStream(
+				new BufferedInputStream(Channels.newInputStream(channel),
+						1 << 16));
+		dao.open();
+		for (Class<?> type : GtfsEntitySchemaFactory.getEntityClasses()) {
+			if (type == StopTime.class)
+				continue;
+			if (type == ShapePoint.class) {
+				for (int count = in.readInt(); count > 0; count--) {
+					ShapePoint point = new ShapePoint();
+					point.setShapeId((AgencyAndId) in.readObject());
+					point.setSequence(in.readInt());
+					point.setLat(in.readDouble());
+					point.setLon(in.readDouble());
+					point.setDistTraveled(in.readDouble());
+					dao.saveEntity(point);
+				}
+			} else {
+				for (Object entity : (List<?>) in.readObject())
+					dao.saveEntity(entity);
+			}
+		}
+		stopTimes.readDictionaries(in);
+
+		long position = columnsPosition;
+		for (Column column : stopTimes.columns()) {
+			column.map(channel, position, stopTimeCount);
+			position += column.length();
+		}
+
+		if (!(dao instanceof ColumnarGtfsDao)) {
+			List<Trip> trips = new ArrayList<>(ordinals(dao.getAllTrips())
+					.keySet());
+			List<Stop> stops = new ArrayList<>(ordinals(dao.getAllStops())
+					.keySet());
+			for (int row = 0; row < stopTimeCount; row++)
+				dao.saveEntity(stopTimes.create(row, trips, stops));
+		}
+		dao.close();
+		return true;
+	}
+
+	/**
+	 * Writes a snapshot of the dao, replacing the one that may be there.
+	 */
+	public static void save(File snapshot, long checksum,
+			InsertionOrderedGtfsDao dao) throws IOException {
+		StopTimeColumns stopTimes;
+		if (dao instanceof ColumnarGtfsDao)
+			stopTimes = ((ColumnarGtfsDao) dao).getStopTimeColumns();
+		else {
+			stopTimes = new StopTimeColumns();
+			Map<Trip, Integer> trips = ordinals(dao.getAllTrips());
+			Map<Stop, Integer> stops = ordinals(dao.getAllStops());
+			for (StopTime stopTime : dao.getAllStopTimes())
+				stopTimes.add(stopTime, ordinal(trips, stopTime.getTrip()),
+						ordinal(stops, stopTime.getStop()));
+		}
+
+		File folder = snapshot.getAbsoluteFile().getParentFile();
+		if (!folder.exists())
+			folder.mkdirs();
+		File temporary = new File(folder, snapshot.getName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.position(HEADER_LENGTH);
+			ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel),
+							1 << 16));
+			for (Class<?> type : GtfsEntitySchemaFactory.getEntityClasses()) {
+				if (type == StopTime.class)
+					continue;
+				Collection<?> entities = dao.getAllEntitiesForType(type);
+				if (type == ShapePoint.class) {
+					out.writeInt(entities.size());
+					for (Object entity : entities) {
+						ShapePoint point = (ShapePoint) entity;
+						out.writeObject(point.getShapeId());
+						out.writeInt(point.getSequence());
+						out.writeDouble(point.getLat());
+						out.writeDouble(point.getLon());
+						out.writeDouble(point.getDistTraveled());
+					}
+				} else
+					out.writeObject(new ArrayList<>(entities));
+			}
+			stopTimes.writeDictionaries(out);
+			out.flush();
+
+			long columnsPosition = (channel.position() + 7) & ~7L;
+			channel.write(ByteBuffer.allocate((int) (columnsPosition - channel
+					.position())));
+			for (Column column : stopTimes.columns())
+				column.write(channel);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			header.putLong(MAGIC).putInt(VERSION).putInt(byteOrder())
+					.putLong(checksum).putLong(columnsPosition)
+					.putInt(stopTimes.size());
+			header.clear();
+			while (header.hasRemaining())
+				channel.write(header, header.position());
+		}
+		Files.move(temporary.toPath(), snapshot.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		LOG.info("Saved a snapshot of the feed to {}", snapshot);
+	}
+
+	/**
+	 * The columns are written in native byte order, so a snapshot only fits
+	 * machines with the same order.
+	 */
+	private static int byteOrder() {
+		return ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 1 : 0;
+	}
+
+	/**
+	 * @return the position of every entity among the distinct ones, as a
+	 *         {@link ColumnarGtfsDao} numbers them, in that order
+	 */
+	private static <T> Map<T, Integer> ordinals(Collection<T> entities) {
+		Map<T, Integer> ordinals = new LinkedHashMap<>();
+		for (T entity : entities)
+			if (!ordinals.containsKey(entity))
+				ordinals.put(entity, ordinals.size());
+		return ordinals;
+	}
+
+	private static <T> int ordinal(Map<T, Integer> ordinals, T entity) {
+		Integer ordinal = entity == null ? null : ordinals.get(entity);
+		return ordinal == null ? -1 : ordinal;
+	}
+}
@@ -0,0 +1,187 @@
+package be.ugent.intec.gtfsfilter.columnar;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+/**
+ * The stop_times of a feed as parallel columns: trip and stop ordinal,
+ * sequence, arrival and departure time and pickup and drop-off type, 22 bytes
+ * per row. The stop headsign and the shape distance get a column once a row
+ * uses them; a route short name is kept per row.
+ */
+final class StopTimeColumns {
+
+	private static final double NO_DISTANCE = new StopTime()
+			.getShapeDistTraveled();
+
+	private final Column trips = new Column(4);
+	private final Column stops = new Column(4);
+	private final Column sequences = new Column(4);
+	private final Column arrivals = new Column(4);
+	private final Column departures = new Column(4);
+	private final Column pickupTypes = new Column(1);
+	private final Column dropOffTypes = new Column(1);
+
+	private Column headsigns, distances;
+	private final List<String> headsignValues = new ArrayList<>();
+	private final Map<String, Integer> headsignIds = new HashMap<>();
+	private final Map<Integer, String> routeShortNames = new HashMap<>();
+
+	int size() {
+		return trips.size();
+	}
+
+	void add(StopTime stopTime, int trip, int stop) {
+		int row = size();
+		trips.addInt(trip);
+		stops.addInt(stop);
+		sequences.addInt(stopTime.getStopSequence());
+		arrivals.addInt(stopTime.getArrivalTime());
+		departures.addInt(stopTime.getDepartureTime());
+		pickupTypes.addByte(stopTime.getPickupType());
+		dropOffTypes.addByte(stopTime.getDropOffType());
+
+		String headsign = stopTime.getStopHeadsign();
+		if (headsign != null && headsigns == null) {
+			headsigns = new Column(4);
+			headsignValues.add(null);
+			for (int i = 0; i < row; i++)
+				headsigns.addInt(0);
+		}
+		if (headsigns != null) {
+			Integer id = headsign == null ? Integer.valueOf(0) : headsignIds
+					.get(headsign);
+			if (id == null) {
+				id = headsignValues.size();
+				headsignValues.add(headsign);
+				headsignIds.put(headsign, id);
+			}
+			headsigns.addInt(id);
+		}
+
+		if (stopTime.isShapeDistTraveledSet() && distances == null) {
+			distances = new Column(8);
+			for (int i = 0; i < row; i++)
+				distances.addDouble(NO_DISTANCE);
+		}
+		if (distances != null)
+			distances.addDouble(stopTime.getShapeDistTraveled());
+
+		if (stopTime.getRouteShortName() != null)
+			routeShortNames.put(row, stopTime.getRouteShortName());
+	}
+
+	int getTrip(int row) {
+		return trips.getInt(row);
+	}
+
+	int getStop(int row) {
+		return stops.getInt(row);
+	}
+
+	int[] getTrips() {
+		return trips.toIntArray();
+	}
+
+	int[] getStops() {
+		return stops.toIntArray();
+	}
+
+	int[] getSequences() {
+		return sequences.toIntArray();
+	}
+
+	int[] getArrivals() {
+		return arrivals.toIntArray();
+	}
+
+	int[] getDepartures() {
+		return departures.toIntArray();
+	}
+
+	/**
+	 * @return a new stop time for the row, with the given trips and stops
+	 *         looked up by ordinal
+	 */
+	StopTime create(int row, List<Trip> tripList, List<Stop> stopList) {
+		StopTime stopTime = new StopTime();
+		stopTime.setId(row + 1);
+		int trip = trips.getInt(row), stop = stops.getInt(row);
+		stopTime.setTrip(trip < 0 ? null : tripList.get(trip));
+		stopTime.setStop(stop < 0 ? null : stopList.get(stop));
+		stopTime.setStopSequence(sequences.getInt(row));
+		stopTime.setArrivalTime(arrivals.getInt(row));
+		stopTime.setDepartureTime(departures.getInt(row));
+		stopTime.setPickupType(pickupTypes.getByte(row));
+		stopTime.setDropOffType(dropOffTypes.getByte(row));
+		if (headsigns != null)
+			stopTime.setStopHeadsign(headsignValues.get(headsigns.getInt(row)));
+		if (distances != null)
+			stopTime.setShapeDistTraveled(distances.getDouble(row));
+		if (!routeShortNames.isEmpty())
+			stopTime.setRouteShortName(routeShortNames.get(row));
+		return stopTime;
+	}
+
+	/**
+	 * @return the columns in a fixed order, the headsign and distance column
+	 *         last and only if the rows use them
+	 */
+	List<Column> columns() {
+		List<Column> columns = new ArrayList<>(Arrays.asList(trips, stops,
+				sequences, arrivals, departures, pickupTypes, dropOffTypes));
+		if (headsigns != null)
+			columns.add(headsigns);
+		if (distances != null)
+			columns.add(distances);
+		return columns;
+	}
+
+	/**
+	 * Writes what isn't in the {@link #columns()}: which optional columns
+	 * there are, the headsigns and the route short names.
+	 */
+	void writeDictionaries(ObjectOutput out) throws IOException {
+		out.writeBoolean(headsigns != null);
+		out.writeBoolean(distances != null);
+		out.writeObject(new ArrayList<>(headsignValues));
+		out.writeObject(new HashMap<>(routeShortNames));
+	}
+
+	/**
+	 * Reads what {@link #writeDictionaries(ObjectOutput)} wrote into empty
+	 * columns, after which {@link #columns()} lists the columns to fill.
+	 */
+	@SuppressWarnings("unchecked")
+	void readDictionaries(ObjectInput in) throws IOException,
+			ClassNotFoundException {
+		if (in.readBoolean())
+			headsigns = new Column(4);
+		if (in.readBoolean())
+			distances = new Column(8);
+		headsignValues.addAll((List<String>) in.readObject());
+		for (int id = 1; id < headsignValues.size(); id++)
+			headsignIds.put(headsignValues.get(id), id);
+		routeShortNames.putAll((Map<Integer, String>) in.readObject());
+	}
+
+	void clear() {
+		for (Column column : new Column[] { trips, stops, sequences,
+				arrivals, departures, pickupTypes, dropOffTypes })
+			column.clear();
+		headsigns = distances = null;
+		headsignValues.clear();
+		headsignIds.clear();
+		routeShortNames.clear();
+	}
+}
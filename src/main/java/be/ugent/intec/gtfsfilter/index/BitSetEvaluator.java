@@ -0,0 +1,103 @@
+package be.ugent.intec.gtfsfilter.index;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Evaluates {@link OrdinalPredicate}s and {@link OrdinalFunction}s over the
+ * ordinals in a bitset. With more than one thread the ordinal range is split
+ * in chunks that are evaluated on a fork/join pool; every chunk collects its
+ * results in its own bitset and the partial results are or-ed together, so
+ * the outcome is the same as a sequential evaluation.
+ */
+public class BitSetEvaluator {
+
+	/**
+	 * Ranges of at most this many ordinals are not split any further.
+	 */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private final ForkJoinPool pool;
+
+	public BitSetEvaluator(int threads) {
+		Preconditions.checkArgument(threads > 0);
+		this.pool = threads == 1 ? null : new ForkJoinPool(threads);
+	}
+
+	public int getThreads() {
+		return pool == null ? 1 : pool.getParallelism();
+	}
+
+	/**
+	 * @return the candidates for which the predicate holds
+	 */
+	public BitSet retain(BitSet candidates, OrdinalPredicate predicate) {
+		Task task = new Task(candidates, 0, candidates.length(), predicate,
+				null);
+		return pool == null ? task.compute() : pool.invoke(task);
+	}
+
+	/**
+	 * @return the ordinals the function maps the given ordinals to, without
+	 *         {@link IdDictionary#NONE}
+	 */
+	public BitSet transform(BitSet ordinals, OrdinalFunction function) {
+		Task task = new Task(ordinals, 0, ordinals.length(), null, function);
+		return pool == null ? task.compute() : pool.invoke(task);
+	}
+
+	public void shutdown() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	private static class Task extends RecursiveTask<BitSet> {
+		private static final long serialVersionUID = 1L;
+
+		private final BitSet ordinals;
+		private final int from, to;
+		private final OrdinalPredicate predicate;
+		private final OrdinalFunction function;
+
+		private Task(BitSet ordinals, int from, int to,
+				OrdinalPredicate predicate, OrdinalFunction function) {
+			this.ordinals = ordinals;
+			this.from = from;
+			this.to = to;
+			this.predicate = predicate;
+			this.function = function;
+		}
+
+		@Override
+		protected BitSet compute() {
+			if (to - from > CHUNK_SIZE && getPool() != null) {
+				int middle = (from + to) >>> 1;
+				Task left = new Task(ordinals, from, middle, predicate,
+						function);
+				Task right = new Task(ordinals, middle, to, predicate,
+						function);
+				left.fork();
+				BitSet result = right.compute();
+				result.or(left.join());
+				return result;
+			}
+
+			BitSet result = new BitSet();
+			for (int i = ordinals.nextSetBit(from); i >= 0 && i < to; i = ordinals
+					.nextSetBit(i + 1)) {
+				if (predicate != null) {
+					if (predicate.apply(i))
+						result.set(i);
+				} else {
+					int target = function.apply(i);
+					if (target != IdDictionary.NONE)
+						result.set(target);
+				}
+			}
+			return result;
+		}
+	}
+}
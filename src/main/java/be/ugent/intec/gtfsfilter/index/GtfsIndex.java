@@ -0,0 +1,710 @@
+package be.ugent.intec.gtfsfilter.index;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.FareAttribute;
+import org.onebusaway.gtfs.model.FareRule;
+import org.onebusaway.gtfs.model.Frequency;
+import org.onebusaway.gtfs.model.Pathway;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Transfer;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.services.GtfsDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.intec.gtfsfilter.LazyGtfsDao;
+import be.ugent.intec.gtfsfilter.columnar.ColumnarGtfsDao;
+import be.ugent.intec.gtfsfilter.spatial.StopTree;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Numbers the entities of a feed once and stores the references between them
+ * as int columns. Stops, routes and trips are numbered through an
+ * {@link IdDictionary}, so their ordinal doubles as the int of their id;
+ * service ids, shape ids, fare ids and fare zones get their own dictionaries.
+ * <p>
+ * The filters keep their results as bitsets over these ordinals, which turns
+ * the checks in the stop_times loop into array reads instead of hash lookups
+ * of {@link org.onebusaway.gtfs.model.AgencyAndId}s and entities.
+ */
+public class GtfsIndex {
+	private static final Logger LOG = LoggerFactory.getLogger(GtfsIndex.class);
+
+	private final IdDictionary stopIds = new IdDictionary();
+	private final IdDictionary routeIds = new IdDictionary();
+	private final IdDictionary tripIds = new IdDictionary();
+	private final IdDictionary serviceIds = new IdDictionary();
+	private final IdDictionary shapeIds = new IdDictionary();
+	private final IdDictionary fareIds = new IdDictionary();
+	private final IdDictionary zoneIds = new IdDictionary();
+
+	private final List<Stop> stops;
+	private final List<Route> routes;
+	private final List<Trip> trips;
+	private final List<StopTime> stopTimes;
+	private final List<ServiceCalendar> calendars;
+	private final List<ServiceCalendarDate> calendarDates;
+	private final List<Frequency> frequencies;
+	private final List<ShapePoint> shapePoints;
+	private final List<Agency> agencies;
+	private final List<Transfer> transfers;
+	private final List<Pathway> pathways;
+	private final List<FareAttribute> fareAttributes;
+	private final List<FareRule> fareRules;
+
+	private final int[] tripRoutes, tripServices, tripShapes;
+	private final int[] stopTimeTrips, stopTimeStops;
+	private final int[] calendarServices, calendarDateServices;
+	private final int[] frequencyTrips, shapePointShapes;
+	private final int[] routeAgencies, stopParents, stopZones;
+	private final int[] transferFromStops, transferToStops;
+	private final int[] pathwayFromStops, pathwayToStops;
+	private final int[] fareRuleFares, fareRuleRoutes;
+	private final int[] fareRuleOrigins, fareRuleDestinations, fareRuleZones;
+
+	private final ColumnarGtfsDao columnar;
+
+	private StopTree stopTree;
+	private TripStopTimes tripStopTimes;
+	private Shapes shapes;
+	private ServiceDays serviceDays;
+	private int[] arrivalTimes, departureTimes;
+	private ReferenceGraph references;
+	private int[] routeTripCounts, serviceTripCounts;
+
+	public GtfsIndex(GtfsDao dao) {
+		// the index needs every file but the shapes, which are parsed at the
+		// same time instead of one after the other
+		if (dao instanceof LazyGtfsDao)
+			((LazyGtfsDao) dao).load(Agency.class, Stop.class, Route.class,
+					Trip.class, StopTime.class, ServiceCalendar.class,
+					ServiceCalendarDate.class, Frequency.class, Transfer.class,
+					Pathway.class, FareAttribute.class, FareRule.class);
+
+		stops = ImmutableList.copyOf(dao.getAllStops());
+		for (Stop stop : stops)
+			stopIds.intern(stop.getId());
+		stopParents = new int[stops.size()];
+		stopZones = new int[stops.size()];
+		for (int i = 0; i < stops.size(); i++) {
+			Stop stop = stops.get(i);
+			String parent = stop.getParentStation();
+			stopParents[i] = parent == null || parent.isEmpty() ? IdDictionary.NONE
+					: stopIds.get(new AgencyAndId(stop.getId().getAgencyId(),
+							parent));
+			stopZones[i] = zoneIds.intern(zone(stop.getZoneId()));
+		}
+
+		agencies = ImmutableList.copyOf(dao.getAllAgencies());
+		Map<String, Integer> agencyOrdinals = new HashMap<>();
+		for (int i = 0; i < agencies.size(); i++)
+			agencyOrdinals.put(agencies.get(i).getId(), i);
+
+		routes = ImmutableList.copyOf(dao.getAllRoutes());
+		routeAgencies = new int[routes.size()];
+		for (int i = 0; i < routes.size(); i++) {
+			Route route = routes.get(i);
+			routeIds.intern(route.getId());
+			Integer agency = route.getAgency() == null ? null
+					: agencyOrdinals.get(route.getAgency().getId());
+			routeAgencies[i] = agency == null ? IdDictionary.NONE : agency;
+		}
+
+		trips = ImmutableList.copyOf(dao.getAllTrips());
+		tripRoutes = new int[trips.size()];
+		tripServices = new int[trips.size()];
+		tripShapes = new int[trips.size()];
+		for (int i = 0; i < trips.size(); i++) {
+			Trip trip = trips.get(i);
+			tripIds.intern(trip.getId());
+			tripRoutes[i] = routeIds.get(trip.getRoute().getId());
+			tripServices[i] = serviceIds.intern(trip.getServiceId());
+			tripShapes[i] = shapeIds.intern(trip.getShapeId());
+		}
+
+		if (dao instanceof ColumnarGtfsDao) {
+			// the columns hold the positions of the trips and stops, which are
+			// their ordinals here, and the stop times are created on demand
+			columnar = (ColumnarGtfsDao) dao;
+			stopTimes = (List<StopTime>) columnar.getAllStopTimes();
+			stopTimeTrips = columnar.getStopTimeTrips();
+			stopTimeStops = columnar.getStopTimeStops();
+		} else {
+			columnar = null;
+			stopTimes = ImmutableList.copyOf(dao.getAllStopTimes());
+			stopTimeTrips = new int[stopTimes.size()];
+			stopTimeStops = new int[stopTimes.size()];
+			for (int i = 0; i < stopTimes.size(); i++) {
+				StopTime stopTime = stopTimes.get(i);
+				stopTimeTrips[i] = tripIds.get(stopTime.getTrip().getId());
+				stopTimeStops[i] = stopIds.get(stopTime.getStop().getId());
+			}
+		}
+
+		calendars = ImmutableList.copyOf(dao.getAllCalendars());
+		calendarServices = new int[calendars.size()];
+		for (int i = 0; i < calendars.size(); i++)
+			calendarServices[i] = serviceIds.intern(calendars.get(i)
+					.getServiceId());
+
+		calendarDates = ImmutableList.copyOf(dao.getAllCalendarDates());
+		calendarDateServices = new int[calendarDates.size()];
+		for (int i = 0; i < calendarDates.size(); i++)
+			calendarDateServices[i] = serviceIds.intern(calendarDates.get(i)
+					.getServiceId());
+
+		frequencies = ImmutableList.copyOf(dao.getAllFrequencies());
+		frequencyTrips = new int[frequencies.size()];
+		for (int i = 0; i < frequencies.size(); i++)
+			frequencyTrips[i] = tripIds.get(frequencies.get(i).getTrip()
+					.getId());
+
+		if (dao instanceof LazyGtfsDao
+				&& !((LazyGtfsDao) dao).isLoaded(ShapePoint.class)) {
+			// the shape points are only parsed when a filter looks at them;
+			// until then their shape ids are read straight from the file
+			try {
+				shapePointShapes = ((LazyGtfsDao) dao).readIds(
+						ShapePoint.class, "shape_id", shapeIds);
+			} catch (IOException e) {
+				throw new IllegalStateException("Couldn't read the shapes", e);
+			}
+			shapePoints = new DeferredList<>(dao, ShapePoint.class,
+					shapePointShapes.length);
+		} else {
+			shapePoints = ImmutableList.copyOf(dao.getAllShapePoints());
+			shapePointShapes = new int[shapePoints.size()];
+			for (int i = 0; i < shapePoints.size(); i++)
+				shapePointShapes[i] = shapeIds.intern(shapePoints.get(i)
+						.getShapeId());
+		}
+
+		transfers = ImmutableList.copyOf(dao.getAllTransfers());
+		transferFromStops = new int[transfers.size()];
+		transferToStops = new int[transfers.size()];
+		for (int i = 0; i < transfers.size(); i++) {
+			transferFromStops[i] = stop(transfers.get(i).getFromStop());
+			transferToStops[i] = stop(transfers.get(i).getToStop());
+		}
+
+		pathways = ImmutableList.copyOf(dao.getAllPathways());
+		pathwayFromStops = new int[pathways.size()];
+		pathwayToStops = new int[pathways.size()];
+		for (int i = 0; i < pathways.size(); i++) {
+			pathwayFromStops[i] = stop(pathways.get(i).getFromStop());
+			pathwayToStops[i] = stop(pathways.get(i).getToStop());
+		}
+
+		fareAttributes = ImmutableList.copyOf(dao.getAllFareAttributes());
+		for (FareAttribute fare : fareAttributes)
+			fareIds.intern(fare.getId());
+
+		fareRules = ImmutableList.copyOf(dao.getAllFareRules());
+		fareRuleFares = new int[fareRules.size()];
+		fareRuleRoutes = new int[fareRules.size()];
+		fareRuleOrigins = new int[fareRules.size()];
+		fareRuleDestinations = new int[fareRules.size()];
+		fareRuleZones = new int[fareRules.size()];
+		for (int i = 0; i < fareRules.size(); i++) {
+			FareRule rule = fareRules.get(i);
+			fareRuleFares[i] = rule.getFare() == null ? IdDictionary.NONE
+					: fareIds.get(rule.getFare().getId());
+			fareRuleRoutes[i] = rule.getRoute() == null ? IdDictionary.NONE
+					: routeIds.get(rule.getRoute().getId());
+			fareRuleOrigins[i] = zoneIds.intern(zone(rule.getOriginId()));
+			fareRuleDestinations[i] = zoneIds.intern(zone(rule
+					.getDestinationId()));
+			fareRuleZones[i] = zoneIds.intern(zone(rule.getContainsId()));
+		}
+
+		LOG.info(
+				"Indexed {} stops, {} routes, {} trips, {} stoptimes and {} shapepoints",
+				new Object[] { stops.size(), routes.size(), trips.size(),
+						stopTimes.size(), shapePoints.size() });
+	}
+
+	/**
+	 * The entities of a type that are only taken from the dao on first use.
+	 * The size is known before, so the rows of the file have to be the
+	 * entities.
+	 */
+	private static class DeferredList<T> extends AbstractList<T> implements
+			RandomAccess {
+		private final GtfsDao dao;
+		private final Class<T> type;
+		private final int size;
+		private volatile List<T> entities;
+
+		DeferredList(GtfsDao dao, Class<T> type, int size) {
+			this.dao = dao;
+			this.type = type;
+			this.size = size;
+		}
+
+		@Override
+		public T get(int index) {
+			List<T> list = entities;
+			if (list == null) {
+				list = ImmutableList.copyOf(dao.getAllEntitiesForType(type));
+				if (list.size() != size)
+					throw new IllegalStateException("Found " + size
+							+ " rows of " + type.getSimpleName()
+							+ " but parsed " + list.size());
+				entities = list;
+			}
+			return list.get(index);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	private int stop(Stop stop) {
+		return stop == null ? IdDictionary.NONE : stopIds.get(stop.getId());
+	}
+
+	/**
+	 * @return the zone as an id of the zone dictionary, null if there is none
+	 */
+	private static AgencyAndId zone(String zone) {
+		return zone == null || zone.isEmpty() ? null : new AgencyAndId("",
+				zone);
+	}
+
+	/**
+	 * @return a selection that contains every entity of the feed
+	 */
+	public Selection selectAll() {
+		BitSet[] selected = new BitSet[Selection.TYPES.length];
+		for (int kind = 0; kind < selected.length; kind++)
+			selected[kind] = all(getEntities(Selection.TYPES[kind]).size());
+		return new Selection(selected);
+	}
+
+	private static BitSet all(int size) {
+		BitSet bits = new BitSet(size);
+		bits.set(0, size);
+		return bits;
+	}
+
+	/**
+	 * @return the spatial index of the stops, built on first use and shared by
+	 *         every filter on this index
+	 */
+	public synchronized StopTree getStopTree() {
+		if (stopTree == null) {
+			double[] lats = new double[stops.size()];
+			double[] lons = new double[stops.size()];
+			for (int i = 0; i < stops.size(); i++) {
+				lats[i] = stops.get(i).getLat();
+				lons[i] = stops.get(i).getLon();
+			}
+			stopTree = new StopTree(lats, lons);
+		}
+		return stopTree;
+	}
+
+	/**
+	 * @return the stop times grouped by trip, built on first use and shared by
+	 *         every filter on this index
+	 */
+	public synchronized TripStopTimes getTripStopTimes() {
+		if (tripStopTimes == null) {
+			int[] sequences;
+			if (columnar != null)
+				sequences = columnar.getStopTimeSequences();
+			else {
+				sequences = new int[stopTimes.size()];
+				for (int i = 0; i < sequences.length; i++)
+					sequences[i] = stopTimes.get(i).getStopSequence();
+			}
+			tripStopTimes = new TripStopTimes(trips.size(), stopTimeTrips,
+					sequences);
+		}
+		return tripStopTimes;
+	}
+
+	/**
+	 * @return the shape points grouped by shape id with their coordinates,
+	 *         built on first use and shared by every filter on this index
+	 */
+	public synchronized Shapes getShapes() {
+		if (shapes == null) {
+			int[] sequences = new int[shapePoints.size()];
+			double[] lats = new double[shapePoints.size()];
+			double[] lons = new double[shapePoints.size()];
+			for (int i = 0; i < shapePoints.size(); i++) {
+				ShapePoint point = shapePoints.get(i);
+				sequences[i] = point.getSequence();
+				lats[i] = point.getLat();
+				lons[i] = point.getLon();
+			}
+			shapes = new Shapes(shapeIds.size(), shapePointShapes, sequences,
+					lats, lons);
+		}
+		return shapes;
+	}
+
+	/**
+	 * @return the arrival time of every stop time in seconds since the start of
+	 *         its service day, negative if it has none. Built on first use and
+	 *         shared, so it must not be changed.
+	 */
+	public synchronized int[] getArrivalTimes() {
+		loadTimes();
+		return arrivalTimes;
+	}
+
+	/**
+	 * @return the departure time of every stop time, like
+	 *         {@link #getArrivalTimes()}
+	 */
+	public synchronized int[] getDepartureTimes() {
+		loadTimes();
+		return departureTimes;
+	}
+
+	private void loadTimes() {
+		if (arrivalTimes != null)
+			return;
+		if (columnar != null) {
+			arrivalTimes = columnar.getStopTimeArrivals();
+			departureTimes = columnar.getStopTimeDepartures();
+		} else {
+			arrivalTimes = new int[stopTimes.size()];
+			departureTimes = new int[stopTimes.size()];
+			for (int i = 0; i < stopTimes.size(); i++) {
+				StopTime stopTime = stopTimes.get(i);
+				arrivalTimes[i] = stopTime.getArrivalTime();
+				departureTimes[i] = stopTime.getDepartureTime();
+			}
+		}
+	}
+
+	/**
+	 * @return the days on which every service id runs, built on first use and
+	 *         shared by every filter on this index
+	 */
+	public synchronized ServiceDays getServiceDays() {
+		if (serviceDays == null)
+			serviceDays = new ServiceDays(serviceIds.size(), calendars,
+					calendarServices, calendarDates, calendarDateServices);
+		return serviceDays;
+	}
+
+	/**
+	 * @return the number of trips of every route, counted on first use. Like
+	 *         {@link #getServiceTripCounts()} it is cheap to keep and lets a
+	 *         filter estimate how much it keeps before it runs.
+	 */
+	public synchronized int[] getRouteTripCounts() {
+		if (routeTripCounts == null)
+			routeTripCounts = count(tripRoutes, routes.size());
+		return routeTripCounts;
+	}
+
+	/**
+	 * @return the number of trips of every service id, counted on first use
+	 */
+	public synchronized int[] getServiceTripCounts() {
+		if (serviceTripCounts == null)
+			serviceTripCounts = count(tripServices, serviceIds.size());
+		return serviceTripCounts;
+	}
+
+	private static int[] count(int[] targets, int size) {
+		int[] counts = new int[size];
+		for (int target : targets)
+			if (target >= 0)
+				counts[target]++;
+		return counts;
+	}
+
+	/**
+	 * @return the foreign keys of the feed, built on first use and shared by
+	 *         every filter on this index
+	 */
+	public synchronized ReferenceGraph getReferences() {
+		if (references == null) {
+			int[] sizes = new int[ReferenceGraph.KINDS];
+			for (int kind = 0; kind < Selection.TYPES.length; kind++)
+				sizes[kind] = getEntities(Selection.TYPES[kind]).size();
+			sizes[ReferenceGraph.SERVICES] = serviceIds.size();
+			sizes[ReferenceGraph.SHAPES] = shapeIds.size();
+			sizes[ReferenceGraph.ZONES] = zoneIds.size();
+
+			ReferenceGraph graph = new ReferenceGraph(sizes);
+			// a trip runs through its stop times and a stop is only kept
+			// while it is served, or is the station of a kept stop
+			graph.addEdge(Selection.STOP_TIMES, stopTimeTrips,
+					Selection.TRIPS, true, true);
+			graph.addEdge(Selection.STOP_TIMES, stopTimeStops,
+					Selection.STOPS, true, true);
+			graph.addEdge(Selection.STOPS, stopParents, Selection.STOPS,
+					true, true);
+			graph.addEdge(Selection.TRIPS, tripRoutes, Selection.ROUTES, true,
+					true);
+			graph.addEdge(Selection.TRIPS, tripServices,
+					ReferenceGraph.SERVICES, true, true);
+			// thinning a shape doesn't remove its trips
+			graph.addEdge(Selection.TRIPS, tripShapes, ReferenceGraph.SHAPES,
+					false, true);
+			graph.addEdge(Selection.FREQUENCIES, frequencyTrips,
+					Selection.TRIPS, true, false);
+			graph.addEdge(Selection.CALENDARS, calendarServices,
+					ReferenceGraph.SERVICES, true, false);
+			graph.addEdge(Selection.CALENDAR_DATES, calendarDateServices,
+					ReferenceGraph.SERVICES, true, false);
+			graph.addEdge(Selection.SHAPE_POINTS, shapePointShapes,
+					ReferenceGraph.SHAPES, true, false);
+			graph.addEdge(Selection.ROUTES, routeAgencies,
+					Selection.AGENCIES, true, true);
+			graph.addEdge(Selection.TRANSFERS, transferFromStops,
+					Selection.STOPS, true, false);
+			graph.addEdge(Selection.TRANSFERS, transferToStops,
+					Selection.STOPS, true, false);
+			graph.addEdge(Selection.PATHWAYS, pathwayFromStops,
+					Selection.STOPS, true, false);
+			graph.addEdge(Selection.PATHWAYS, pathwayToStops,
+					Selection.STOPS, true, false);
+			// a fare is kept while one of its rules is; its rules while their
+			// route and the zones they mention are
+			graph.addEdge(Selection.FARE_RULES, fareRuleFares,
+					Selection.FARE_ATTRIBUTES, true, true);
+			graph.addEdge(Selection.FARE_RULES, fareRuleRoutes,
+					Selection.ROUTES, true, false);
+			graph.addEdge(Selection.FARE_RULES, fareRuleOrigins,
+					ReferenceGraph.ZONES, true, false);
+			graph.addEdge(Selection.FARE_RULES, fareRuleDestinations,
+					ReferenceGraph.ZONES, true, false);
+			graph.addEdge(Selection.FARE_RULES, fareRuleZones,
+					ReferenceGraph.ZONES, true, false);
+			graph.addEdge(Selection.STOPS, stopZones, ReferenceGraph.ZONES,
+					false, true);
+
+			// stops and fares that were never referred to, like an unserved
+			// stop or a fare without rules, stay unless a filter removes them
+			// from its pruning
+			graph.setOrphans(Selection.STOPS, ReferenceGraph.ABANDONED_REMOVED);
+			graph.setOrphans(Selection.FARE_ATTRIBUTES,
+					ReferenceGraph.ABANDONED_REMOVED);
+			for (int kind : new int[] { Selection.TRIPS, Selection.ROUTES,
+					Selection.AGENCIES, ReferenceGraph.SERVICES,
+					ReferenceGraph.SHAPES, ReferenceGraph.ZONES })
+				graph.setOrphans(kind, ReferenceGraph.ORPHANS_REMOVED);
+			references = graph;
+		}
+		return references;
+	}
+
+	/*
+	 * Dictionaries
+	 */
+
+	public IdDictionary getStopIds() {
+		return stopIds;
+	}
+
+	public IdDictionary getRouteIds() {
+		return routeIds;
+	}
+
+	public IdDictionary getTripIds() {
+		return tripIds;
+	}
+
+	public IdDictionary getServiceIds() {
+		return serviceIds;
+	}
+
+	public IdDictionary getShapeIds() {
+		return shapeIds;
+	}
+
+	public IdDictionary getFareIds() {
+		return fareIds;
+	}
+
+	public IdDictionary getZoneIds() {
+		return zoneIds;
+	}
+
+	/*
+	 * Entities
+	 */
+
+	public Stop getStop(int stop) {
+		return stops.get(stop);
+	}
+
+	public Route getRoute(int route) {
+		return routes.get(route);
+	}
+
+	public Trip getTrip(int trip) {
+		return trips.get(trip);
+	}
+
+	public StopTime getStopTime(int stopTime) {
+		return stopTimes.get(stopTime);
+	}
+
+	public ServiceCalendar getCalendar(int calendar) {
+		return calendars.get(calendar);
+	}
+
+	public ServiceCalendarDate getCalendarDate(int calendarDate) {
+		return calendarDates.get(calendarDate);
+	}
+
+	/**
+	 * @return the entities of the given type in ordinal order, or null if the
+	 *         type is not indexed
+	 */
+	public List<?> getEntities(Class<?> type) {
+		if (type == Stop.class)
+			return stops;
+		else if (type == Route.class)
+			return routes;
+		else if (type == Trip.class)
+			return trips;
+		else if (type == StopTime.class)
+			return stopTimes;
+		else if (type == ServiceCalendar.class)
+			return calendars;
+		else if (type == ServiceCalendarDate.class)
+			return calendarDates;
+		else if (type == Frequency.class)
+			return frequencies;
+		else if (type == ShapePoint.class)
+			return shapePoints;
+		else if (type == Agency.class)
+			return agencies;
+		else if (type == Transfer.class)
+			return transfers;
+		else if (type == Pathway.class)
+			return pathways;
+		else if (type == FareAttribute.class)
+			return fareAttributes;
+		else if (type == FareRule.class)
+			return fareRules;
+		return null;
+	}
+
+	public Collection<Stop> getStops(BitSet selection) {
+		return new SelectedEntities<>(stops, selection);
+	}
+
+	public Collection<Route> getRoutes(BitSet selection) {
+		return new SelectedEntities<>(routes, selection);
+	}
+
+	public Collection<Trip> getTrips(BitSet selection) {
+		return new SelectedEntities<>(trips, selection);
+	}
+
+	public Collection<StopTime> getStopTimes(BitSet selection) {
+		return new SelectedEntities<>(stopTimes, selection);
+	}
+
+	public Collection<ServiceCalendar> getCalendars(BitSet selection) {
+		return new SelectedEntities<>(calendars, selection);
+	}
+
+	public Collection<ServiceCalendarDate> getCalendarDates(BitSet selection) {
+		return new SelectedEntities<>(calendarDates, selection);
+	}
+
+	public Collection<Frequency> getFrequencies(BitSet selection) {
+		return new SelectedEntities<>(frequencies, selection);
+	}
+
+	public Collection<ShapePoint> getShapePoints(BitSet selection) {
+		return new SelectedEntities<>(shapePoints, selection);
+	}
+
+	public Collection<Agency> getAgencies(BitSet selection) {
+		return new SelectedEntities<>(agencies, selection);
+	}
+
+	public Collection<Transfer> getTransfers(BitSet selection) {
+		return new SelectedEntities<>(transfers, selection);
+	}
+
+	public Collection<Pathway> getPathways(BitSet selection) {
+		return new SelectedEntities<>(pathways, selection);
+	}
+
+	public Collection<FareAttribute> getFareAttributes(BitSet selection) {
+		return new SelectedEntities<>(fareAttributes, selection);
+	}
+
+	public Collection<FareRule> getFareRules(BitSet selection) {
+		return new SelectedEntities<>(fareRules, selection);
+	}
+
+	/*
+	 * References
+	 */
+
+	public int getTripRoute(int trip) {
+		return tripRoutes[trip];
+	}
+
+	public int getTripService(int trip) {
+		return tripServices[trip];
+	}
+
+	public int getTripShape(int trip) {
+		return tripShapes[trip];
+	}
+
+	public int getStopTimeTrip(int stopTime) {
+		return stopTimeTrips[stopTime];
+	}
+
+	public int getStopTimeStop(int stopTime) {
+		return stopTimeStops[stopTime];
+	}
+
+	public int getCalendarService(int calendar) {
+		return calendarServices[calendar];
+	}
+
+	public int getCalendarDateService(int calendarDate) {
+		return calendarDateServices[calendarDate];
+	}
+
+	public int getFrequencyTrip(int frequency) {
+		return frequencyTrips[frequency];
+	}
+
+	public int getShapePointShape(int shapePoint) {
+		return shapePointShapes[shapePoint];
+	}
+
+	/**
+	 * @return the ordinal of the parent station of the stop, -1 if it has none
+	 */
+	public int getStopParent(int stop) {
+		return stopParents[stop];
+	}
+}
@@ -0,0 +1,54 @@
+package be.ugent.intec.gtfsfilter.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+
+/**
+ * Maps every distinct {@link AgencyAndId} to a dense int, in order of first
+ * appearance. The ids are hashed once while the index is built; afterwards
+ * sets of ids can be kept as bitsets over these ints.
+ */
+public class IdDictionary {
+
+	public static final int NONE = -1;
+
+	private final Map<AgencyAndId, Integer> ordinals = new HashMap<>();
+	private final List<AgencyAndId> ids = new ArrayList<>();
+
+	/**
+	 * @return the int for the given id, assigning the next free one if the id
+	 *         wasn't seen before. Null ids map to {@link #NONE}.
+	 */
+	public int intern(AgencyAndId id) {
+		if (id == null)
+			return NONE;
+
+		Integer ordinal = ordinals.get(id);
+		if (ordinal == null) {
+			ordinal = ids.size();
+			ordinals.put(id, ordinal);
+			ids.add(id);
+		}
+		return ordinal;
+	}
+
+	/**
+	 * @return the int for the given id, or {@link #NONE} if it is unknown
+	 */
+	public int get(AgencyAndId id) {
+		Integer ordinal = id == null ? null : ordinals.get(id);
+		return ordinal == null ? NONE : ordinal;
+	}
+
+	public AgencyAndId getId(int ordinal) {
+		return ids.get(ordinal);
+	}
+
+	public int size() {
+		return ids.size();
+	}
+}
@@ -0,0 +1,10 @@
+package be.ugent.intec.gtfsfilter.index;
+
+/**
+ * Maps the ordinal of an entity in a {@link GtfsIndex} to the ordinal of a
+ * related entity or id, or to {@link IdDictionary#NONE} if there is none.
+ */
+public interface OrdinalFunction {
+
+	int apply(int ordinal);
+}
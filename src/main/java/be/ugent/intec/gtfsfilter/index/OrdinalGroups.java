@@ -0,0 +1,126 @@
+package be.ugent.intec.gtfsfilter.index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Ordinals grouped by the ordinal of the entity they belong to, in compressed
+ * sparse row layout: one array holds the members sorted by group and
+ * sequence, a second one the offset at which the members of every group
+ * start. The members of a group are a contiguous range, so finding those of k
+ * groups costs the number of their members instead of a pass over all of
+ * them.
+ * <p>
+ * Members without a group are left out. The grouping is immutable and can be
+ * read from several threads.
+ */
+public class OrdinalGroups {
+
+	// the members of group g are members[offsets[g]] up to
+	// members[offsets[g + 1]]
+	private final int[] offsets;
+	private final int[] members;
+
+	/**
+	 * Groups the members in file order.
+	 * 
+	 * @param groups
+	 *            the number of groups
+	 * @param memberGroups
+	 *            the group of every member, -1 if it has none
+	 */
+	public OrdinalGroups(int groups, int[] memberGroups) {
+		this(groups, memberGroups, null);
+	}
+
+	/**
+	 * @param groups
+	 *            the number of groups
+	 * @param memberGroups
+	 *            the group of every member, -1 if it has none
+	 * @param sequences
+	 *            the sequence of every member within its group, or null to
+	 *            keep them in file order
+	 */
+	public OrdinalGroups(int groups, int[] memberGroups, int[] sequences) {
+		offsets = new int[groups + 1];
+		for (int group : memberGroups)
+			if (group >= 0)
+				offsets[group + 1]++;
+		for (int group = 0; group < groups; group++)
+			offsets[group + 1] += offsets[group];
+
+		// a counting sort keeps the members of a group in file order, which
+		// usually is sequence order already
+		members = new int[offsets[groups]];
+		int[] next = Arrays.copyOf(offsets, groups);
+		for (int member = 0; member < memberGroups.length; member++) {
+			int group = memberGroups[member];
+			if (group >= 0)
+				members[next[group]++] = member;
+		}
+
+		if (sequences != null)
+			for (int group = 0; group < groups; group++)
+				sortBySequence(offsets[group], offsets[group + 1], sequences);
+	}
+
+	private void sortBySequence(int from, int to, int[] sequences) {
+		boolean sorted = true;
+		for (int i = from + 1; i < to && sorted; i++)
+			sorted = sequences[members[i - 1]] <= sequences[members[i]];
+		if (sorted)
+			return;
+
+		// sequence in the high half, ordinal in the low half: ties keep file
+		// order
+		long[] keys = new long[to - from];
+		for (int i = from; i < to; i++)
+			keys[i - from] = (long) sequences[members[i]] << 32 | members[i];
+		Arrays.sort(keys);
+		for (int i = from; i < to; i++)
+			members[i] = (int) keys[i - from];
+	}
+
+	/**
+	 * @return the number of groups
+	 */
+	public int groups() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * @return the number of members of the group
+	 */
+	public int size(int group) {
+		return offsets[group + 1] - offsets[group];
+	}
+
+	/**
+	 * @return the ordinal of the i-th member of the group, in sequence order
+	 */
+	public int get(int group, int i) {
+		return members[offsets[group] + i];
+	}
+
+	/**
+	 * @return the position at which the members of the group start in the
+	 *         grouped order, which subclasses use to index their own arrays
+	 */
+	protected int offset(int group) {
+		return offsets[group];
+	}
+
+	/**
+	 * @return the candidates that belong to one of the given groups
+	 */
+	public BitSet select(BitSet groups, BitSet candidates) {
+		BitSet selection = new BitSet(candidates.length());
+		for (int group = groups.nextSetBit(0); group >= 0; group = groups
+				.nextSetBit(group + 1))
+			for (int i = offsets[group]; i < offsets[group + 1]; i++)
+				selection.set(members[i]);
+		selection.and(candidates);
+		return selection;
+	}
+}
@@ -0,0 +1,9 @@
+package be.ugent.intec.gtfsfilter.index;
+
+/**
+ * Predicate on the ordinal of an entity in a {@link GtfsIndex}.
+ */
+public interface OrdinalPredicate {
+
+	boolean apply(int ordinal);
+}
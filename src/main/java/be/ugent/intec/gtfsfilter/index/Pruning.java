@@ -0,0 +1,143 @@
+package be.ugent.intec.gtfsfilter.index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import be.ugent.intec.gtfsfilter.index.ReferenceGraph.Edge;
+
+/**
+ * Removes entities from a selection and everything that can't stay without
+ * them, along the edges of a {@link ReferenceGraph}. A filter seeds it with
+ * the entities it keeps of some types; {@link #run()} then spreads the
+ * removals until nothing changes and returns a selection in which every kept
+ * entity has what it refers to.
+ * <p>
+ * Every removed entity is visited once: its referrers along required edges
+ * are looked up in the reverse index and removed, and the entities it refers
+ * to along keeping edges lose a reference. Pruning a selection therefore
+ * costs the number of entities and references it removes, on top of one
+ * pass to count the references of the kept entities.
+ */
+public class Pruning {
+
+	private final ReferenceGraph graph;
+	private final BitSet[] kept = new BitSet[ReferenceGraph.KINDS];
+	// the number of kept entities that keep every entity, per kind
+	private final int[][] references = new int[ReferenceGraph.KINDS][];
+
+	// the removed entities whose removal hasn't spread yet
+	private int[] pendingKinds = new int[64], pendingOrdinals = new int[64];
+	private int pending = 0;
+
+	Pruning(ReferenceGraph graph, Selection input) {
+		this.graph = graph;
+		for (int kind = 0; kind < ReferenceGraph.KINDS; kind++) {
+			if (kind < Selection.TYPES.length)
+				kept[kind] = (BitSet) input.get(Selection.TYPES[kind]).clone();
+			else {
+				kept[kind] = new BitSet(graph.size(kind));
+				kept[kind].set(0, graph.size(kind));
+			}
+		}
+
+		for (int kind = 0; kind < ReferenceGraph.KINDS; kind++)
+			for (Edge edge : graph.getIncoming(kind))
+				if (edge.keeps) {
+					if (references[kind] == null)
+						references[kind] = new int[graph.size(kind)];
+					BitSet from = kept[edge.from];
+					for (int i = from.nextSetBit(0); i >= 0; i = from
+							.nextSetBit(i + 1))
+						if (edge.targets[i] >= 0)
+							references[kind][edge.targets[i]]++;
+				}
+
+		for (int kind = 0; kind < ReferenceGraph.KINDS; kind++)
+			if (references[kind] != null
+					&& graph.getOrphans(kind) == ReferenceGraph.ORPHANS_REMOVED) {
+				BitSet selected = kept[kind];
+				for (int i = selected.nextSetBit(0); i >= 0; i = selected
+						.nextSetBit(i + 1))
+					if (references[kind][i] == 0)
+						remove(kind, i);
+			}
+	}
+
+	/**
+	 * Removes the entities of the given type that are not in the given
+	 * ordinals.
+	 */
+	public Pruning retain(Class<?> type, BitSet retained) {
+		int kind = Selection.kind(type);
+		if (kind < 0)
+			throw new IllegalArgumentException("Unknown type "
+					+ type.getSimpleName());
+		BitSet removed = (BitSet) kept[kind].clone();
+		removed.andNot(retained);
+		for (int i = removed.nextSetBit(0); i >= 0; i = removed
+				.nextSetBit(i + 1))
+			remove(kind, i);
+		return this;
+	}
+
+	/**
+	 * Removes the entities of the given type that no entity of the input
+	 * refers to, whatever their kind does with its orphans. A kind with
+	 * abandoned entities removed keeps those that were never referred to, as
+	 * long as no filter asks for their removal.
+	 */
+	public Pruning removeOrphans(Class<?> type) {
+		int kind = Selection.kind(type);
+		if (kind < 0)
+			throw new IllegalArgumentException("Unknown type "
+					+ type.getSimpleName());
+		if (references[kind] != null) {
+			BitSet selected = kept[kind];
+			for (int i = selected.nextSetBit(0); i >= 0; i = selected
+					.nextSetBit(i + 1))
+				if (references[kind][i] == 0)
+					remove(kind, i);
+		}
+		return this;
+	}
+
+	/**
+	 * Spreads the removals. More entities can be removed afterwards and
+	 * spread with another run.
+	 *
+	 * @return the entities that are kept, which shares its bitsets with this
+	 *         pruning and shrinks with later runs
+	 */
+	public Selection run() {
+		while (pending > 0) {
+			pending--;
+			int kind = pendingKinds[pending], ordinal = pendingOrdinals[pending];
+
+			for (Edge edge : graph.getIncoming(kind))
+				if (edge.required)
+					for (int i = 0; i < edge.referrers.size(ordinal); i++)
+						remove(edge.from, edge.referrers.get(ordinal, i));
+
+			for (Edge edge : graph.getOutgoing(kind)) {
+				int target = edge.targets[ordinal];
+				if (edge.keeps && target >= 0 && kept[edge.to].get(target)
+						&& --references[edge.to][target] == 0
+						&& graph.getOrphans(edge.to) != ReferenceGraph.ORPHANS_KEPT)
+					remove(edge.to, target);
+			}
+		}
+		return new Selection(Arrays.copyOf(kept, Selection.TYPES.length));
+	}
+
+	private void remove(int kind, int ordinal) {
+		if (!kept[kind].get(ordinal))
+			return;
+		kept[kind].clear(ordinal);
+		if (pending == pendingKinds.length) {
+			pendingKinds = Arrays.copyOf(pendingKinds, 2 * pending);
+			pendingOrdinals = Arrays.copyOf(pendingOrdinals, 2 * pending);
+		}
+		pendingKinds[pending] = kind;
+		pendingOrdinals[pending++] = ordinal;
+	}
+}
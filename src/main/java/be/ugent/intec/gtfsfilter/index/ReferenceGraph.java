@@ -0,0 +1,141 @@
+package be.ugent.intec.gtfsfilter.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The foreign keys of a feed as a graph over the ordinals of the index. The
+ * nodes are the entities of every type of a {@link Selection}, and the ids
+ * that trips, stops and fare rules share without an entity of their own:
+ * service ids, shape ids and fare zones. An edge is a column with the entity
+ * that every entity of one kind refers to, for example the trip of every
+ * stop time.
+ * <p>
+ * An edge can spread a removal both ways. If it is required, removing an
+ * entity removes the entities that refer to it: a stop time without its trip
+ * is removed. If it keeps its target, an entity is only kept while a kept
+ * entity refers to it: a trip without stop times is removed. What happens to
+ * the entities that are not referred to at all is up to their kind.
+ * <p>
+ * Required edges are also grouped the other way, by the entity they refer
+ * to, so a {@link Pruning} finds the entities to remove in the number of
+ * references instead of a pass over their whole type. The graph is immutable
+ * and can be read from several threads.
+ */
+public class ReferenceGraph {
+
+	/*
+	 * The kinds of nodes: the entity types of a selection and the shared ids
+	 */
+	static final int SERVICES = Selection.TYPES.length, SHAPES = SERVICES + 1,
+			ZONES = SHAPES + 1, KINDS = ZONES + 1;
+
+	/**
+	 * The entities that are not referred to are kept.
+	 */
+	static final int ORPHANS_KEPT = 0;
+	/**
+	 * The entities that no kept entity refers to are removed.
+	 */
+	static final int ORPHANS_REMOVED = 1;
+	/**
+	 * The entities are removed once every entity that referred to them is;
+	 * those that weren't referred to in the first place are kept.
+	 */
+	static final int ABANDONED_REMOVED = 2;
+
+	/**
+	 * A foreign key of the entities of one kind to those of another.
+	 */
+	static class Edge {
+		final int from, to;
+		// the entity of kind to that every entity of kind from refers to
+		final int[] targets;
+		final boolean required, keeps;
+		// the entities of kind from grouped by their target, if required
+		final OrdinalGroups referrers;
+
+		Edge(int from, int[] targets, int to, int size, boolean required,
+				boolean keeps) {
+			this.from = from;
+			this.targets = targets;
+			this.to = to;
+			this.required = required;
+			this.keeps = keeps;
+			this.referrers = required ? new OrdinalGroups(size, targets)
+					: null;
+		}
+	}
+
+	private final int[] sizes;
+	private final int[] orphans = new int[KINDS];
+
+	// per kind the edges that refer to it and the edges it refers along
+	private final List<List<Edge>> incoming = new ArrayList<>();
+	private final List<List<Edge>> outgoing = new ArrayList<>();
+
+	/**
+	 * @param sizes
+	 *            the number of entities of every kind
+	 */
+	ReferenceGraph(int[] sizes) {
+		this.sizes = sizes;
+		for (int kind = 0; kind < KINDS; kind++) {
+			incoming.add(new ArrayList<Edge>());
+			outgoing.add(new ArrayList<Edge>());
+		}
+	}
+
+	/**
+	 * Adds a foreign key.
+	 *
+	 * @param targets
+	 *            the ordinal of the entity of kind to that every entity of kind
+	 *            from refers to, -1 for none
+	 * @param required
+	 *            whether the entities of kind from are removed with their
+	 *            target
+	 * @param keeps
+	 *            whether the entities of kind to are only kept while they are
+	 *            referred to along this edge or another one that keeps them
+	 */
+	void addEdge(int from, int[] targets, int to, boolean required,
+			boolean keeps) {
+		Edge edge = new Edge(from, targets, to, sizes[to], required, keeps);
+		outgoing.get(from).add(edge);
+		incoming.get(to).add(edge);
+	}
+
+	/**
+	 * Sets what happens to the entities of a kind that are not referred to
+	 * along an edge that keeps them: {@link #ORPHANS_KEPT} (the default),
+	 * {@link #ORPHANS_REMOVED} or {@link #ABANDONED_REMOVED}.
+	 */
+	void setOrphans(int kind, int policy) {
+		orphans[kind] = policy;
+	}
+
+	/**
+	 * @return a pruning of the given selection, for a filter to seed with the
+	 *         entities it removes
+	 */
+	public Pruning prune(Selection input) {
+		return new Pruning(this, input);
+	}
+
+	int size(int kind) {
+		return sizes[kind];
+	}
+
+	int getOrphans(int kind) {
+		return orphans[kind];
+	}
+
+	List<Edge> getIncoming(int kind) {
+		return incoming.get(kind);
+	}
+
+	List<Edge> getOutgoing(int kind) {
+		return outgoing.get(kind);
+	}
+}
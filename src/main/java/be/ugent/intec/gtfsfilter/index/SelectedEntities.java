@@ -0,0 +1,57 @@
+package be.ugent.intec.gtfsfilter.index;
+
+import java.util.AbstractCollection;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only view on the entities of an index whose ordinals are set in a
+ * bitset. The bitset is the whole materialized filter result: it costs one
+ * bit per entity in the feed, its size is computed once and iterating it
+ * doesn't evaluate any predicate.
+ */
+public class SelectedEntities<T> extends AbstractCollection<T> {
+
+	private final List<T> entities;
+	private final BitSet selection;
+	private final int size;
+
+	public SelectedEntities(List<T> entities, BitSet selection) {
+		this.entities = entities;
+		this.selection = selection;
+		this.size = selection.cardinality();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private int next = selection.nextSetBit(0);
+
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			@Override
+			public T next() {
+				if (next < 0)
+					throw new NoSuchElementException();
+				T entity = entities.get(next);
+				next = selection.nextSetBit(next + 1);
+				return entity;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
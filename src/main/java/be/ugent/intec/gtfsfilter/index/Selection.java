@@ -0,0 +1,119 @@
+package be.ugent.intec.gtfsfilter.index;
+
+import java.util.BitSet;
+
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.FareAttribute;
+import org.onebusaway.gtfs.model.FareRule;
+import org.onebusaway.gtfs.model.Frequency;
+import org.onebusaway.gtfs.model.Pathway;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Transfer;
+import org.onebusaway.gtfs.model.Trip;
+
+/**
+ * The ordinals of the entities, per type, that a filter lets through. Every
+ * entity type of a feed is filtered.
+ */
+public class Selection {
+
+	/*
+	 * The entity types, in the order of their bitsets
+	 */
+	static final int STOPS = 0, ROUTES = 1, TRIPS = 2, STOP_TIMES = 3,
+			CALENDARS = 4, CALENDAR_DATES = 5, FREQUENCIES = 6,
+			SHAPE_POINTS = 7, AGENCIES = 8, TRANSFERS = 9, PATHWAYS = 10,
+			FARE_ATTRIBUTES = 11, FARE_RULES = 12;
+
+	static final Class<?>[] TYPES = { Stop.class, Route.class, Trip.class,
+			StopTime.class, ServiceCalendar.class, ServiceCalendarDate.class,
+			Frequency.class, ShapePoint.class, Agency.class, Transfer.class,
+			Pathway.class, FareAttribute.class, FareRule.class };
+
+	private final BitSet[] selected;
+
+	/**
+	 * @param selected
+	 *            the ordinals of every type, in the order of {@link #TYPES}
+	 */
+	Selection(BitSet[] selected) {
+		this.selected = selected;
+	}
+
+	public BitSet getStops() {
+		return selected[STOPS];
+	}
+
+	public BitSet getRoutes() {
+		return selected[ROUTES];
+	}
+
+	public BitSet getTrips() {
+		return selected[TRIPS];
+	}
+
+	public BitSet getStopTimes() {
+		return selected[STOP_TIMES];
+	}
+
+	public BitSet getCalendars() {
+		return selected[CALENDARS];
+	}
+
+	public BitSet getCalendarDates() {
+		return selected[CALENDAR_DATES];
+	}
+
+	public BitSet getFrequencies() {
+		return selected[FREQUENCIES];
+	}
+
+	public BitSet getShapePoints() {
+		return selected[SHAPE_POINTS];
+	}
+
+	public BitSet getAgencies() {
+		return selected[AGENCIES];
+	}
+
+	public BitSet getTransfers() {
+		return selected[TRANSFERS];
+	}
+
+	public BitSet getPathways() {
+		return selected[PATHWAYS];
+	}
+
+	public BitSet getFareAttributes() {
+		return selected[FARE_ATTRIBUTES];
+	}
+
+	public BitSet getFareRules() {
+		return selected[FARE_RULES];
+	}
+
+	/**
+	 * @return the ordinals of the given entity type, or null if the type is not
+	 *         filtered
+	 */
+	public BitSet get(Class<?> type) {
+		int kind = kind(type);
+		return kind < 0 ? null : selected[kind];
+	}
+
+	/**
+	 * @return the position of the type in {@link #TYPES}, or -1 if it isn't
+	 *         there
+	 */
+	static int kind(Class<?> type) {
+		for (int kind = 0; kind < TYPES.length; kind++)
+			if (TYPES[kind] == type)
+				return kind;
+		return -1;
+	}
+}
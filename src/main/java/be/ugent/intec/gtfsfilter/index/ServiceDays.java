@@ -0,0 +1,160 @@
+package be.ugent.intec.gtfsfilter.index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+/**
+ * The days on which every service runs, as a bitmap per service ordinal: the
+ * weekdays of its calendars between their start and end date, without the
+ * dates calendar_dates removes and with the dates it adds. The bitmap of a
+ * service starts at its first date, so it only spans the days the service
+ * mentions.
+ * <p>
+ * Once built, whether a service runs on any day of a timespan is a look for
+ * the next set bit, which makes a timespan filter exact and cheap however
+ * long the timespan is. The bitmaps are immutable and can be read from
+ * several threads.
+ */
+public class ServiceDays {
+
+	// the first day of the bitmap of every service
+	private final int[] firstDays;
+	private final BitSet[] days;
+
+	/**
+	 * @param services
+	 *            the number of service ordinals
+	 * @param calendarServices
+	 *            the service ordinal of every calendar
+	 * @param calendarDateServices
+	 *            the service ordinal of every calendar date
+	 */
+	public ServiceDays(int services, List<ServiceCalendar> calendars,
+			int[] calendarServices, List<ServiceCalendarDate> calendarDates,
+			int[] calendarDateServices) {
+		firstDays = new int[services];
+		Arrays.fill(firstDays, Integer.MAX_VALUE);
+		for (int i = 0; i < calendars.size(); i++) {
+			int service = calendarServices[i];
+			firstDays[service] = Math.min(firstDays[service],
+					dayNumber(calendars.get(i).getStartDate()));
+		}
+		for (int i = 0; i < calendarDates.size(); i++) {
+			int service = calendarDateServices[i];
+			firstDays[service] = Math.min(firstDays[service],
+					dayNumber(calendarDates.get(i).getDate()));
+		}
+
+		days = new BitSet[services];
+		for (int service = 0; service < services; service++)
+			days[service] = new BitSet();
+
+		for (int i = 0; i < calendars.size(); i++) {
+			ServiceCalendar calendar = calendars.get(i);
+			int service = calendarServices[i];
+			boolean[] weekdays = { calendar.getMonday() == 1,
+					calendar.getTuesday() == 1, calendar.getWednesday() == 1,
+					calendar.getThursday() == 1, calendar.getFriday() == 1,
+					calendar.getSaturday() == 1, calendar.getSunday() == 1 };
+			int end = dayNumber(calendar.getEndDate());
+			for (int day = dayNumber(calendar.getStartDate()); day <= end; day++)
+				if (weekdays[weekday(day)])
+					days[service].set(day - firstDays[service]);
+		}
+
+		// removals first, so a date that is both removed and added runs
+		for (int type : new int[] { ServiceCalendarDate.EXCEPTION_TYPE_REMOVE,
+				ServiceCalendarDate.EXCEPTION_TYPE_ADD })
+			for (int i = 0; i < calendarDates.size(); i++) {
+				ServiceCalendarDate date = calendarDates.get(i);
+				if (date.getExceptionType() != type)
+					continue;
+				int service = calendarDateServices[i];
+				days[service].set(dayNumber(date.getDate())
+						- firstDays[service],
+						type == ServiceCalendarDate.EXCEPTION_TYPE_ADD);
+			}
+	}
+
+	/**
+	 * @return true if the service runs on the day, as returned by
+	 *         {@link #dayNumber(ServiceDate)}
+	 */
+	public boolean runs(int service, int day) {
+		int bit = day - firstDays[service];
+		return bit >= 0 && days[service].get(bit);
+	}
+
+	/**
+	 * @return true if the service runs on any day from the first to the last
+	 *         one, both included
+	 */
+	public boolean runsBetween(int service, int first, int last) {
+		if (last < firstDays[service])
+			return false;
+		int bit = days[service].nextSetBit(Math.max(0, first
+				- firstDays[service]));
+		return bit >= 0 && bit <= last - firstDays[service];
+	}
+
+	/**
+	 * @return the ordinals of the services that run on any day from start to
+	 *         end, both included
+	 */
+	public BitSet getServices(ServiceDate start, ServiceDate end) {
+		int first = dayNumber(start), last = dayNumber(end);
+		BitSet services = new BitSet(days.length);
+		for (int service = 0; service < days.length; service++)
+			if (runsBetween(service, first, last))
+				services.set(service);
+		return services;
+	}
+
+	/**
+	 * @return the number of days from 1970-01-01 to the date
+	 */
+	public static int dayNumber(ServiceDate date) {
+		int year = date.getYear(), month = date.getMonth();
+		if (month <= 2)
+			year--;
+		int era = (year >= 0 ? year : year - 399) / 400;
+		int yearOfEra = year - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5
+				+ date.getDay() - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * @return the date of the day number, the inverse of
+	 *         {@link #dayNumber(ServiceDate)}
+	 */
+	public static ServiceDate serviceDate(int day) {
+		int shifted = day + 719468;
+		int era = (shifted >= 0 ? shifted : shifted - 146096) / 146097;
+		int dayOfEra = shifted - era * 146097;
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+				- dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra
+				- (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int monthIndex = (5 * dayOfYear + 2) / 153;
+		int dayOfMonth = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+		int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+		int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		return new ServiceDate(year, month, dayOfMonth);
+	}
+
+	/**
+	 * @return the weekday of the day number, 0 for monday up to 6 for sunday
+	 */
+	private static int weekday(int day) {
+		// 1970-01-01 was a thursday
+		return ((day + 3) % 7 + 7) % 7;
+	}
+}
@@ -0,0 +1,56 @@
+package be.ugent.intec.gtfsfilter.index;
+
+/**
+ * The shape points of a feed grouped by shape id and sorted by
+ * shape_pt_sequence, with their coordinates in primitive arrays in that same
+ * order. Finding the points of k shapes costs the number of their points
+ * instead of a pass over all shape points, and walking a shape reads two
+ * arrays instead of an object per point.
+ * <p>
+ * Shape points without a shape id are left out. The grouping is immutable
+ * and can be read from several threads.
+ */
+public class Shapes extends OrdinalGroups {
+
+	private final double[] lats, lons;
+
+	/**
+	 * @param shapes
+	 *            the number of shape ids
+	 * @param pointShapes
+	 *            the shape id ordinal of every shape point, -1 if it has none
+	 * @param sequences
+	 *            the shape_pt_sequence of every shape point
+	 * @param lats
+	 *            the latitude of every shape point
+	 * @param lons
+	 *            the longitude of every shape point
+	 */
+	public Shapes(int shapes, int[] pointShapes, int[] sequences,
+			double[] lats, double[] lons) {
+		super(shapes, pointShapes, sequences);
+		int points = shapes == 0 ? 0 : offset(shapes - 1) + size(shapes - 1);
+		this.lats = new double[points];
+		this.lons = new double[points];
+		for (int shape = 0; shape < shapes; shape++)
+			for (int i = 0; i < size(shape); i++) {
+				int point = get(shape, i);
+				this.lats[offset(shape) + i] = lats[point];
+				this.lons[offset(shape) + i] = lons[point];
+			}
+	}
+
+	/**
+	 * @return the latitude of the i-th point of the shape
+	 */
+	public double getLat(int shape, int i) {
+		return lats[offset(shape) + i];
+	}
+
+	/**
+	 * @return the longitude of the i-th point of the shape
+	 */
+	public double getLon(int shape, int i) {
+		return lons[offset(shape) + i];
+	}
+}
@@ -0,0 +1,25 @@
+package be.ugent.intec.gtfsfilter.index;
+
+/**
+ * The stop times of a feed grouped by trip and sorted by stop_sequence. The
+ * stop times of a trip are a contiguous range, so finding those of k trips
+ * costs the number of stop times of those trips instead of a pass over all of
+ * them.
+ * <p>
+ * Stop times without a trip are left out. The grouping is immutable and can
+ * be read from several threads.
+ */
+public class TripStopTimes extends OrdinalGroups {
+
+	/**
+	 * @param trips
+	 *            the number of trips
+	 * @param stopTimeTrips
+	 *            the trip ordinal of every stop time, -1 if it has none
+	 * @param sequences
+	 *            the stop_sequence of every stop time
+	 */
+	public TripStopTimes(int trips, int[] stopTimeTrips, int[] sequences) {
+		super(trips, stopTimeTrips, sequences);
+	}
+}
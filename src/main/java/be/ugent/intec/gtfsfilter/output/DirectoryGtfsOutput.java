@@ -0,0 +1,64 @@
+package be.ugent.intec.gtfsfilter.output;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Writes the files of a feed as plain text files into a folder. Every file is
+ * written to disk by its own thread, so the rows are read and filtered while
+ * the ones before them are being written. The files are complete once the
+ * output is closed. With a single processor, which can't do both at once, the
+ * files are written by the thread that makes them.
+ */
+public class DirectoryGtfsOutput extends GtfsOutput {
+
+	private final File folder;
+	private final List<QueuedFile> files = new ArrayList<>();
+
+	private final ExecutorService writers = QueuedFile
+			.createPool("file-writer");
+
+	public DirectoryGtfsOutput(File folder) {
+		this.folder = folder;
+		if (!folder.exists())
+			folder.mkdirs();
+	}
+
+	@Override
+	public synchronized OutputStream create(final String file)
+			throws IOException {
+		if (Runtime.getRuntime().availableProcessors() == 1)
+			return new BufferedOutputStream(new FileOutputStream(new File(
+					folder, file)), QueuedFile.CHUNK_SIZE);
+
+		QueuedFile queued = new QueuedFile(file) {
+			@Override
+			protected OutputStream open() throws IOException {
+				return new FileOutputStream(new File(folder, file));
+			}
+		};
+		files.add(queued);
+		return queued.start(writers);
+	}
+
+	@Override
+	public synchronized void discard(String file) throws IOException {
+		QueuedFile.remove(files, file);
+		new File(folder, file).delete();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			QueuedFile.awaitAll(files);
+		} finally {
+			writers.shutdownNow();
+		}
+	}
+}
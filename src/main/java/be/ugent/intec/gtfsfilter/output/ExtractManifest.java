@@ -0,0 +1,193 @@
+package be.ugent.intec.gtfsfilter.output;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * What a run wrote to its output: the parameters of its filters, a checksum
+ * of every input and output file, and the ids of the entities it kept, per
+ * kind of id. The next run on the same output compares the input with it to
+ * find out which files changed.
+ * <p>
+ * The manifest is a text file with one tab-separated record per line.
+ */
+public class ExtractManifest {
+
+	private static final String MAGIC = "gtfs-filter manifest";
+	private static final int VERSION = 1;
+
+	private final String parameters;
+	private final Map<String, Long> inputs;
+	private final Map<String, Long> outputs;
+	private final Map<String, Set<String>> keys;
+
+	public ExtractManifest(String parameters, Map<String, Long> inputs,
+			Map<String, Long> outputs, Map<String, Set<String>> keys) {
+		this.parameters = parameters;
+		this.inputs = inputs;
+		this.outputs = outputs;
+		this.keys = keys;
+	}
+
+	/**
+	 * @return the location of the manifest of the given output: next to it,
+	 *         named after it
+	 */
+	public static File locationFor(File output) {
+		File absolute = output.getAbsoluteFile();
+		String name = absolute.getName();
+		if (name.toLowerCase().endsWith(".zip"))
+			name = name.substring(0, name.length() - 4);
+		return new File(absolute.getParentFile(), name + ".manifest");
+	}
+
+	public String getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * @return the checksum of every input file, by file name
+	 */
+	public Map<String, Long> getInputs() {
+		return inputs;
+	}
+
+	/**
+	 * @return the checksum of every output file, by file name
+	 */
+	public Map<String, Long> getOutputs() {
+		return outputs;
+	}
+
+	/**
+	 * @return the kept ids of the given kind, empty if there are none
+	 */
+	public Set<String> getKeys(String kind) {
+		Set<String> ids = keys.get(kind);
+		return ids == null ? new LinkedHashSet<String>() : ids;
+	}
+
+	/**
+	 * @return the checksum of each of the given files that the folder or zip
+	 *         archive contains. The entries of a zip archive are identified by
+	 *         their crc and size, the files of a folder by a checksum of their
+	 *         contents.
+	 */
+	public static Map<String, Long> checksums(File location,
+			Collection<String> files) throws IOException {
+		Map<String, Long> checksums = new TreeMap<>();
+		if (location.isDirectory()) {
+			byte[] buffer = new byte[1 << 16];
+			for (String name : files) {
+				File file = new File(location, name);
+				if (!file.isFile())
+					continue;
+				CRC32 crc = new CRC32();
+				Adler32 adler = new Adler32();
+				try (InputStream in = new FileInputStream(file)) {
+					int read;
+					while ((read = in.read(buffer)) > 0) {
+						crc.update(buffer, 0, read);
+						adler.update(buffer, 0, read);
+					}
+				}
+				checksums.put(name, crc.getValue() << 32 | adler.getValue());
+			}
+		} else if (location.isFile()) {
+			try (ZipFile zip = new ZipFile(location)) {
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					if (files.contains(entry.getName()))
+						checksums.put(entry.getName(), entry.getCrc() << 32
+								| entry.getSize() & 0xFFFFFFFFL);
+				}
+			}
+		}
+		return checksums;
+	}
+
+	/**
+	 * @return the manifest in the given file, or null if there is none or it
+	 *         was written by another version
+	 */
+	public static ExtractManifest read(File file) throws IOException {
+		if (!file.isFile())
+			return null;
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(),
+				StandardCharsets.UTF_8)) {
+			if (!(MAGIC + '\t' + VERSION).equals(in.readLine()))
+				return null;
+			String parameters = null;
+			Map<String, Long> inputs = new TreeMap<>();
+			Map<String, Long> outputs = new TreeMap<>();
+			Map<String, Set<String>> keys = new LinkedHashMap<>();
+			for (String line; (line = in.readLine()) != null;) {
+				String[] fields = line.split("\t", 3);
+				if (fields.length < 2)
+					throw new IOException("Invalid line in " + file + ": "
+							+ line);
+				if (fields[0].equals("parameters"))
+					parameters = line.substring(fields[0].length() + 1);
+				else if (fields[0].equals("input") && fields.length == 3)
+					inputs.put(fields[1], Long.parseLong(fields[2]));
+				else if (fields[0].equals("output") && fields.length == 3)
+					outputs.put(fields[1], Long.parseLong(fields[2]));
+				else if (fields[0].equals("key") && fields.length == 3) {
+					Set<String> ids = keys.get(fields[1]);
+					if (ids == null)
+						keys.put(fields[1], ids = new LinkedHashSet<>());
+					ids.add(fields[2]);
+				} else
+					throw new IOException("Invalid line in " + file + ": "
+							+ line);
+			}
+			return new ExtractManifest(parameters, inputs, outputs, keys);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid checksum in " + file, e);
+		}
+	}
+
+	/**
+	 * Writes the manifest to the given file, replacing the one that may be
+	 * there.
+	 */
+	public void write(File file) throws IOException {
+		File temporary = new File(file.getAbsoluteFile().getParentFile(),
+				file.getName() + ".tmp");
+		try (BufferedWriter out = Files.newBufferedWriter(temporary.toPath(),
+				StandardCharsets.UTF_8)) {
+			out.write(MAGIC + '\t' + VERSION + '\n');
+			out.write("parameters\t" + parameters + '\n');
+			for (Map.Entry<String, Long> input : inputs.entrySet())
+				out.write("input\t" + input.getKey() + '\t'
+						+ input.getValue() + '\n');
+			for (Map.Entry<String, Long> output : outputs.entrySet())
+				out.write("output\t" + output.getKey() + '\t'
+						+ output.getValue() + '\n');
+			for (Map.Entry<String, Set<String>> kind : keys.entrySet())
+				for (String id : kind.getValue())
+					out.write("key\t" + kind.getKey() + '\t' + id + '\n');
+		}
+		Files.move(temporary.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+}
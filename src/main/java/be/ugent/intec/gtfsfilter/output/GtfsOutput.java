@@ -0,0 +1,37 @@
+package be.ugent.intec.gtfsfilter.output;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Destination of the files of a filtered feed: a folder, or a zip archive when
+ * the location ends in ".zip".
+ */
+public abstract class GtfsOutput implements Closeable {
+
+	public static GtfsOutput open(File location) throws IOException {
+		if (location.getName().toLowerCase().endsWith(".zip"))
+			return new ZipGtfsOutput(location);
+		return new DirectoryGtfsOutput(location);
+	}
+
+	/**
+	 * @return a stream for the contents of the given file. Only one stream per
+	 *         file name may be created, unless the file is discarded.
+	 */
+	public abstract OutputStream create(String file) throws IOException;
+
+	/**
+	 * Leaves the given file out of the output, so it can be created again.
+	 * Its stream must have been closed; nothing happens if it wasn't created.
+	 */
+	public abstract void discard(String file) throws IOException;
+
+	/**
+	 * Completes the output. The streams of all files must have been closed.
+	 */
+	@Override
+	public abstract void close() throws IOException;
+}
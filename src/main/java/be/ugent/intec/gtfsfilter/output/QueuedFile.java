@@ -0,0 +1,206 @@
+package be.ugent.intec.gtfsfilter.output;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One file of an output, written by a task of its own from the chunks its
+ * stream hands over. The thread that produces the rows goes on with the next
+ * rows while the task writes the previous ones; the queue between them is
+ * bounded, so the producer waits when the task falls behind and no more than
+ * a few chunks per file are kept in memory.
+ */
+abstract class QueuedFile implements Callable<Void> {
+
+	static final int CHUNK_SIZE = 1 << 16;
+	private static final int QUEUED_CHUNKS = 16;
+	private static final byte[] END = new byte[0];
+
+	final String file;
+	private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(
+			QUEUED_CHUNKS);
+	private Future<Void> task;
+	private volatile boolean complete;
+
+	QueuedFile(String file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return a pool for the tasks of the files of one output, named after
+	 *         what they do
+	 */
+	static ExecutorService createPool(final String name) {
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts the task of the file.
+	 *
+	 * @return the stream for the contents of the file
+	 */
+	OutputStream start(ExecutorService pool) {
+		task = pool.submit(this);
+		return new ChunkStream();
+	}
+
+	/**
+	 * Waits for the tasks of the files, once all their streams have been
+	 * closed.
+	 */
+	static void awaitAll(List<? extends QueuedFile> files) throws IOException {
+		for (QueuedFile file : files)
+			if (!file.complete)
+				throw new IOException("The stream of " + file.file
+						+ " was not closed");
+		for (QueuedFile file : files)
+			file.await();
+	}
+
+	/**
+	 * Waits for the task of the given file, once its stream has been closed,
+	 * and takes it out of the files.
+	 *
+	 * @return the file, or null if there is none with that name
+	 */
+	static <T extends QueuedFile> T remove(List<T> files, String file)
+			throws IOException {
+		for (Iterator<T> i = files.iterator(); i.hasNext();) {
+			T next = i.next();
+			QueuedFile queued = next;
+			if (queued.file.equals(file)) {
+				if (!queued.complete)
+					throw new IOException("The stream of " + file
+							+ " was not closed");
+				queued.await();
+				i.remove();
+				return next;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the stream the chunks are written to, which the task closes
+	 *         when the file is complete
+	 */
+	protected abstract OutputStream open() throws IOException;
+
+	/**
+	 * Called by the task for every chunk before it is written.
+	 */
+	protected void written(byte[] chunk) {
+	}
+
+	/**
+	 * Called by the task after the file has been closed.
+	 */
+	protected void finished() throws IOException {
+	}
+
+	@Override
+	public final Void call() throws IOException, InterruptedException {
+		try (OutputStream out = open()) {
+			for (byte[] chunk = chunks.take(); chunk != END; chunk = chunks
+					.take()) {
+				written(chunk);
+				out.write(chunk);
+			}
+		}
+		finished();
+		return null;
+	}
+
+	private void put(byte[] chunk) throws IOException {
+		try {
+			while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+				if (task.isDone()) {
+					await();
+					throw new IOException("Writing " + file + " stopped early");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private void await() throws IOException {
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Collects the bytes of the file into chunks for its task.
+	 */
+	private class ChunkStream extends OutputStream {
+		private byte[] buffer = new byte[CHUNK_SIZE];
+		private int count;
+		private boolean closed;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == buffer.length)
+				handOver();
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == buffer.length)
+					handOver();
+				int n = Math.min(len, buffer.length - count);
+				System.arraycopy(b, off, buffer, count, n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			if (count > 0)
+				put(Arrays.copyOf(buffer, count));
+			put(END);
+			complete = true;
+		}
+
+		private void handOver() throws IOException {
+			put(buffer);
+			buffer = new byte[CHUNK_SIZE];
+			count = 0;
+		}
+	}
+}
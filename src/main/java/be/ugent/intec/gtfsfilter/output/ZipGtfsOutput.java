@@ -0,0 +1,238 @@
+package be.ugent.intec.gtfsfilter.output;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the files of a feed into a standard zip archive. Every file is
+ * deflated by its own thread while it is being written, so the big files
+ * (stop_times.txt, shapes.txt) compress at the same time instead of one after
+ * the other. The compressed data is kept in a temporary file next to the
+ * archive until {@link #close()} assembles the entries into the archive.
+ * <p>
+ * The archive doesn't use the ZIP64 extensions, so every file has to stay
+ * below 4 GB.
+ */
+public class ZipGtfsOutput extends GtfsOutput {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ZipGtfsOutput.class);
+
+	private static final int CHUNK_SIZE = QueuedFile.CHUNK_SIZE;
+
+	private static final long MAX_SIZE = 0xFFFFFFFFL;
+
+	private final File archive;
+	private final List<Entry> entries = new ArrayList<>();
+
+	private final ExecutorService deflaters = QueuedFile
+			.createPool("zip-deflater");
+
+	public ZipGtfsOutput(File archive) {
+		this.archive = archive.getAbsoluteFile();
+		File folder = this.archive.getParentFile();
+		if (!folder.exists())
+			folder.mkdirs();
+	}
+
+	@Override
+	public synchronized OutputStream create(String file) throws IOException {
+		Entry entry = new Entry(file, File.createTempFile(archive.getName()
+				+ ".", ".deflate", archive.getParentFile()));
+		entries.add(entry);
+		return entry.start(deflaters);
+	}
+
+	@Override
+	public synchronized void discard(String file) throws IOException {
+		Entry entry = QueuedFile.remove(entries, file);
+		if (entry != null)
+			entry.temp.delete();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			QueuedFile.awaitAll(entries);
+			writeArchive();
+			LOG.info("Wrote {} files to {}", entries.size(), archive);
+		} finally {
+			deflaters.shutdownNow();
+			for (Entry entry : entries)
+				entry.temp.delete();
+		}
+	}
+
+	private void writeArchive() throws IOException {
+		Calendar now = Calendar.getInstance();
+		int time = now.get(Calendar.HOUR_OF_DAY) << 11
+				| now.get(Calendar.MINUTE) << 5 | now.get(Calendar.SECOND) >> 1;
+		int date = (now.get(Calendar.YEAR) - 1980) << 9
+				| (now.get(Calendar.MONTH) + 1) << 5
+				| now.get(Calendar.DAY_OF_MONTH);
+
+		try (LittleEndianOutput out = new LittleEndianOutput(
+				new FileOutputStream(archive))) {
+			long[] offsets = new long[entries.size()];
+			for (int i = 0; i < entries.size(); i++) {
+				Entry entry = entries.get(i);
+				offsets[i] = out.position;
+
+				out.writeInt(0x04034b50);
+				writeEntryHeader(out, entry, time, date);
+				out.writeShort(0); // extra field length
+				out.write(entry.name);
+				try (InputStream in = new BufferedInputStream(
+						new FileInputStream(entry.temp), CHUNK_SIZE)) {
+					byte[] buffer = new byte[CHUNK_SIZE];
+					for (int n; (n = in.read(buffer)) > 0;)
+						out.write(buffer, 0, n);
+				}
+			}
+
+			long directory = out.position;
+			for (int i = 0; i < entries.size(); i++) {
+				out.writeInt(0x02014b50);
+				out.writeShort(20); // version made by
+				writeEntryHeader(out, entries.get(i), time, date);
+				out.writeShort(0); // extra field length
+				out.writeShort(0); // comment length
+				out.writeShort(0); // disk number
+				out.writeShort(0); // internal attributes
+				out.writeInt(0); // external attributes
+				out.writeInt(checkSize(offsets[i]));
+				out.write(entries.get(i).name);
+			}
+			long directorySize = out.position - directory;
+
+			out.writeInt(0x06054b50);
+			out.writeShort(0); // disk number
+			out.writeShort(0); // disk with the central directory
+			out.writeShort(entries.size());
+			out.writeShort(entries.size());
+			out.writeInt(checkSize(directorySize));
+			out.writeInt(checkSize(directory));
+			out.writeShort(0); // comment length
+		}
+	}
+
+	/**
+	 * Writes the fields that the local and the central header have in common,
+	 * up to the file name length.
+	 */
+	private static void writeEntryHeader(LittleEndianOutput out, Entry entry,
+			int time, int date) throws IOException {
+		out.writeShort(20); // version needed to extract
+		out.writeShort(1 << 11); // names are UTF-8
+		out.writeShort(8); // deflated
+		out.writeShort(time);
+		out.writeShort(date);
+		out.writeInt((int) entry.crc.getValue());
+		out.writeInt(checkSize(entry.compressedSize));
+		out.writeInt(checkSize(entry.size));
+		out.writeShort(entry.name.length);
+	}
+
+	private static int checkSize(long size) throws IOException {
+		if (size > MAX_SIZE)
+			throw new IOException(
+					"Zip archive exceeds 4 GB, which needs ZIP64 extensions");
+		return (int) size;
+	}
+
+	/**
+	 * One file of the archive, deflated by its own task into a temporary file.
+	 */
+	private static class Entry extends QueuedFile {
+		private final byte[] name;
+		private final File temp;
+		private final CRC32 crc = new CRC32();
+		private long size, compressedSize;
+
+		Entry(String name, File temp) {
+			super(name);
+			this.name = name.getBytes(StandardCharsets.UTF_8);
+			this.temp = temp;
+		}
+
+		@Override
+		protected OutputStream open() throws IOException {
+			final Deflater deflater = new Deflater(
+					Deflater.DEFAULT_COMPRESSION, true);
+			return new DeflaterOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp), CHUNK_SIZE), deflater,
+					CHUNK_SIZE) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						deflater.end();
+					}
+				}
+			};
+		}
+
+		@Override
+		protected void written(byte[] chunk) {
+			crc.update(chunk);
+			size += chunk.length;
+		}
+
+		@Override
+		protected void finished() {
+			compressedSize = temp.length();
+		}
+	}
+
+	/**
+	 * Buffered stream that writes the little-endian fields of the zip format
+	 * and keeps track of its position.
+	 */
+	private static class LittleEndianOutput extends BufferedOutputStream {
+		private long position;
+
+		LittleEndianOutput(OutputStream out) {
+			super(out, CHUNK_SIZE);
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			super.write(b);
+			position++;
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len)
+				throws IOException {
+			super.write(b, off, len);
+			position += len;
+		}
+
+		void writeShort(int value) throws IOException {
+			write(value & 0xFF);
+			write((value >>> 8) & 0xFF);
+		}
+
+		void writeInt(int value) throws IOException {
+			writeShort(value & 0xFFFF);
+			writeShort((value >>> 16) & 0xFFFF);
+		}
+	}
+}
@@ -1,22 +1,22 @@
 package be.ugent.intec.gtfsfilter.predicates;
 
-import java.util.Collection;
+import java.util.BitSet;
 
-import org.onebusaway.gtfs.model.StopTime;
-import org.onebusaway.gtfs.model.Trip;
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.OrdinalPredicate;
 
-import com.google.common.base.Predicate;
+public class StopTimeByTripsPredicate implements OrdinalPredicate {
 
-public class StopTimeByTripsPredicate implements Predicate<StopTime> {
-	private final Collection<Trip> trips;
+	private final GtfsIndex index;
+	private final BitSet trips;
 
-	public StopTimeByTripsPredicate(Collection<Trip> trips) {
+	public StopTimeByTripsPredicate(GtfsIndex index, BitSet trips) {
+		this.index = index;
 		this.trips = trips;
 	}
 
 	@Override
-	public boolean apply(StopTime input) {
-		return trips.contains(input.getTrip());
+	public boolean apply(int input) {
+		return trips.get(index.getStopTimeTrip(input));
 	}
-
 }
@@ -1,24 +1,22 @@
 package be.ugent.intec.gtfsfilter.predicates;
 
-import java.util.Collection;
+import java.util.BitSet;
 
-import org.onebusaway.gtfs.model.Stop;
-import org.onebusaway.gtfs.model.StopTime;
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.OrdinalPredicate;
 
-import com.google.common.base.Predicate;
+public final class StopTimesByStopsPredicate implements OrdinalPredicate {
 
-public final class StopTimesByStopsPredicate implements
-		Predicate<StopTime> {
+	private final GtfsIndex index;
+	private final BitSet stops;
 
-	private final Collection<Stop> stops;
-
-	public StopTimesByStopsPredicate(Collection<Stop> stops) {
-		super();
+	public StopTimesByStopsPredicate(GtfsIndex index, BitSet stops) {
+		this.index = index;
 		this.stops = stops;
 	}
 
 	@Override
-	public boolean apply(StopTime input) {
-		return stops.contains(input.getStop());
+	public boolean apply(int input) {
+		return stops.get(index.getStopTimeStop(input));
 	}
-}
\ No newline at end of file
+}
@@ -1,23 +1,22 @@
 package be.ugent.intec.gtfsfilter.predicates;
 
-import java.util.Collection;
+import java.util.BitSet;
 
-import org.onebusaway.gtfs.model.AgencyAndId;
-import org.onebusaway.gtfs.model.Trip;
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.OrdinalPredicate;
 
-import com.google.common.base.Predicate;
+public class TripByServiceIdsPredicate implements OrdinalPredicate {
 
-public class TripByServiceIdsPredicate implements Predicate<Trip> {
+	private final GtfsIndex index;
+	private final BitSet serviceIds;
 
-	private final Collection<AgencyAndId> serviceIds;
-
-	public TripByServiceIdsPredicate(Collection<AgencyAndId> serviceIds) {
+	public TripByServiceIdsPredicate(GtfsIndex index, BitSet serviceIds) {
+		this.index = index;
 		this.serviceIds = serviceIds;
 	}
 
 	@Override
-	public boolean apply(Trip input) {
-		return serviceIds.contains(input.getServiceId());
+	public boolean apply(int input) {
+		return serviceIds.get(index.getTripService(input));
 	}
-
 }
@@ -0,0 +1,387 @@
+package be.ugent.intec.gtfsfilter.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the stages of a run: wall time, cpu time and allocated bytes of the
+ * thread that runs the stage, the peak heap use during the stage and the
+ * number of rows per entity type that go in and come out. Stages may be
+ * nested; a report is filled by one thread at a time.
+ * <p>
+ * The measurements only read counters of the JVM, so they cost next to
+ * nothing. Work that a stage hands to other threads (the fork/join pool of
+ * the filters) is included in the wall time and the peak heap, but not in the
+ * cpu time or the allocated bytes. The peak heap is the sum of the peaks of
+ * the heap pools, which may be a bit more than the heap ever held at once.
+ * Those peaks belong to the whole JVM and every stage resets them, so only
+ * the report of the process measures them; the reports of jobs that run side
+ * by side leave the peak heap out (see {@link #setHeapPeak(boolean)}).
+ * <p>
+ * The report can be written as JSON and published as an MXBean.
+ */
+public class RunReport implements RunReportMXBean {
+	private static final Logger LOG = LoggerFactory.getLogger(RunReport.class);
+
+	private static final String DOMAIN = "be.ugent.intec.gtfsfilter";
+
+	private final long startTime = System.currentTimeMillis();
+	private final long startNanos = System.nanoTime();
+
+	private String input, output;
+	private boolean heapPeak = true;
+
+	private final List<Stage> stages = new ArrayList<>();
+	private final Deque<Stage> open = new ArrayDeque<>();
+
+	public synchronized void setInput(File input) {
+		this.input = input.getPath();
+	}
+
+	public synchronized void setOutput(File output) {
+		this.output = output.getPath();
+	}
+
+	/**
+	 * Sets whether the stages measure the peak heap, which they do by
+	 * default. A report whose run shares the JVM with other runs has to turn
+	 * it off, or the runs would reset each other's peaks.
+	 */
+	public synchronized void setHeapPeak(boolean heapPeak) {
+		this.heapPeak = heapPeak;
+	}
+
+	/**
+	 * Starts measuring a stage, which ends when it is closed: at the end of a
+	 * try-with-resources block that adds to the stage, or in the finally
+	 * block of one that only times its work.
+	 */
+	public synchronized Stage start(String name) {
+		if (heapPeak) {
+			foldHeapPeak();
+			resetHeapPeak();
+		}
+		Stage stage = new Stage(this, name, open.size());
+		stages.add(stage);
+		open.push(stage);
+		return stage;
+	}
+
+	private synchronized void end(Stage stage) {
+		if (heapPeak)
+			foldHeapPeak();
+		open.remove(stage);
+	}
+
+	/**
+	 * Adds the heap peak since the last reset to the open stages.
+	 */
+	private void foldHeapPeak() {
+		long peak = heapPeak();
+		for (Stage stage : open)
+			stage.peakHeapBytes = Math.max(stage.peakHeapBytes, peak);
+	}
+
+	/**
+	 * @return the location of the report of a run that writes to the given
+	 *         output: next to it, named after it
+	 */
+	public static File locationFor(File output) {
+		File absolute = output.getAbsoluteFile();
+		String name = absolute.getName();
+		if (name.toLowerCase().endsWith(".zip"))
+			name = name.substring(0, name.length() - 4);
+		return new File(absolute.getParentFile(), name + ".report.json");
+	}
+
+	public void write(File file) throws IOException {
+		File folder = file.getAbsoluteFile().getParentFile();
+		if (!folder.exists())
+			folder.mkdirs();
+		Files.write(file.toPath(), getJson().getBytes(StandardCharsets.UTF_8));
+		LOG.info("Wrote the run report to {}", file);
+	}
+
+	/**
+	 * Publishes the report on the platform MBean server, named after its
+	 * output.
+	 */
+	public void register() {
+		try {
+			ObjectName name = new ObjectName(DOMAIN + ":type=RunReport,name="
+					+ ObjectName.quote(String.valueOf(getOutput())));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		} catch (JMException e) {
+			LOG.warn("Could not publish the run report over JMX", e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.report.RunReportMXBean#getInput()
+	 */
+	@Override
+	public synchronized String getInput() {
+		return input;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.report.RunReportMXBean#getOutput()
+	 */
+	@Override
+	public synchronized String getOutput() {
+		return output;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.report.RunReportMXBean#getStartTime()
+	 */
+	@Override
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.report.RunReportMXBean#getCurrentStage()
+	 */
+	@Override
+	public synchronized String getCurrentStage() {
+		Stage stage = open.peek();
+		return stage == null ? null : stage.name;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.report.RunReportMXBean#getWallNanos()
+	 */
+	@Override
+	public synchronized Map<String, Long> getWallNanos() {
+		Map<String, Long> values = new LinkedHashMap<>();
+		for (Stage stage : stages)
+			values.put(stage.name, stage.wallNanos);
+		return values;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.report.RunReportMXBean#getCpuNanos()
+	 */
+	@Override
+	public synchronized Map<String, Long> getCpuNanos() {
+		Map<String, Long> values = new LinkedHashMap<>();
+		for (Stage stage : stages)
+			values.put(stage.name, stage.cpuNanos);
+		return values;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.report.RunReportMXBean#getAllocatedBytes()
+	 */
+	@Override
+	public synchronized Map<String, Long> getAllocatedBytes() {
+		Map<String, Long> values = new LinkedHashMap<>();
+		for (Stage stage : stages)
+			values.put(stage.name, stage.allocatedBytes);
+		return values;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.report.RunReportMXBean#getPeakHeapBytes()
+	 */
+	@Override
+	public synchronized Map<String, Long> getPeakHeapBytes() {
+		Map<String, Long> values = new LinkedHashMap<>();
+		if (heapPeak)
+			for (Stage stage : stages)
+				values.put(stage.name, stage.peakHeapBytes);
+		return values;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see be.ugent.intec.gtfsfilter.report.RunReportMXBean#getJson()
+	 */
+	@Override
+	public synchronized String getJson() {
+		SimpleDateFormat format = new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+		StringBuilder json = new StringBuilder("{\n");
+		json.append("  \"input\": ").append(quote(input)).append(",\n");
+		json.append("  \"output\": ").append(quote(output)).append(",\n");
+		json.append("  \"started\": ")
+				.append(quote(format.format(new Date(startTime))))
+				.append(",\n");
+		json.append("  \"wallNanos\": ").append(System.nanoTime() - startNanos)
+				.append(",\n");
+		json.append("  \"stages\": [");
+		for (int i = 0; i < stages.size(); i++) {
+			Stage stage = stages.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    {\"name\": ").append(quote(stage.name));
+			json.append(", \"depth\": ").append(stage.depth);
+			json.append(", \"wallNanos\": ").append(stage.wallNanos);
+			json.append(", \"cpuNanos\": ").append(stage.cpuNanos);
+			json.append(", \"allocatedBytes\": ").append(stage.allocatedBytes);
+			if (heapPeak)
+				json.append(", \"peakHeapBytes\": ").append(
+						stage.peakHeapBytes);
+			json.append(", \"rows\": {");
+			String separator = "";
+			for (Map.Entry<String, long[]> rows : stage.rows.entrySet()) {
+				json.append(separator).append(quote(rows.getKey()))
+						.append(": {");
+				if (rows.getValue()[0] >= 0)
+					json.append("\"in\": ").append(rows.getValue()[0])
+							.append(", ");
+				json.append("\"out\": ").append(rows.getValue()[1]).append('}');
+				separator = ", ";
+			}
+			json.append("}}");
+		}
+		json.append("\n  ]\n}\n");
+		return json.toString();
+	}
+
+	private static String quote(String value) {
+		if (value == null)
+			return "null";
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				quoted.append('\\').append(c);
+			else if (c < 0x20)
+				quoted.append(String.format("\\u%04x", (int) c));
+			else
+				quoted.append(c);
+		}
+		return quoted.append('"').toString();
+	}
+
+	/*
+	 * Counters of the JVM
+	 */
+
+	private static long cpuTime() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		return threads.isCurrentThreadCpuTimeSupported() ? threads
+				.getCurrentThreadCpuTime() : -1;
+	}
+
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+			if (sun.isThreadAllocatedMemorySupported()
+					&& sun.isThreadAllocatedMemoryEnabled())
+				return sun.getThreadAllocatedBytes(Thread.currentThread()
+						.getId());
+		}
+		return -1;
+	}
+
+	private static long heapPeak() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				peak += pool.getPeakUsage().getUsed();
+		return peak;
+	}
+
+	private static void resetHeapPeak() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				pool.resetPeakUsage();
+	}
+
+	/**
+	 * One measured stage of a run. Closing it ends the measurement.
+	 */
+	public static class Stage implements AutoCloseable {
+		private final RunReport report;
+		private final String name;
+		private final int depth;
+
+		private final long startNanos, startCpu, startAllocated;
+		private long wallNanos = -1, cpuNanos = -1, allocatedBytes = -1,
+				peakHeapBytes;
+		private final Map<String, long[]> rows = new LinkedHashMap<>();
+		private boolean closed;
+
+		private Stage(RunReport report, String name, int depth) {
+			this.report = report;
+			this.name = name;
+			this.depth = depth;
+			this.startCpu = cpuTime();
+			this.startAllocated = allocatedBytes();
+			this.startNanos = System.nanoTime();
+		}
+
+		/**
+		 * Records the number of rows of a type the stage took in and kept.
+		 */
+		public void addRows(String type, long in, long out) {
+			synchronized (report) {
+				rows.put(type, new long[] { in, out });
+			}
+		}
+
+		/**
+		 * Records the number of rows of a type the stage produced.
+		 */
+		public void addRows(String type, long out) {
+			addRows(type, -1, out);
+		}
+
+		@Override
+		public void close() {
+			if (closed)
+				return;
+			closed = true;
+			long wall = System.nanoTime() - startNanos;
+			long cpu = cpuTime(), allocated = allocatedBytes();
+			synchronized (report) {
+				wallNanos = wall;
+				if (cpu >= 0 && startCpu >= 0)
+					cpuNanos = cpu - startCpu;
+				if (allocated >= 0 && startAllocated >= 0)
+					allocatedBytes = allocated - startAllocated;
+				report.end(this);
+			}
+		}
+	}
+}
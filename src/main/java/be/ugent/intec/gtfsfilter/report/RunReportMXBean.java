@@ -0,0 +1,38 @@
+package be.ugent.intec.gtfsfilter.report;
+
+import java.util.Map;
+
+/**
+ * The measurements of a {@link RunReport} over JMX. The maps go from stage
+ * name to value, in the order the stages started; stages that are still
+ * running have a wall time of -1.
+ */
+public interface RunReportMXBean {
+
+	String getInput();
+
+	String getOutput();
+
+	/**
+	 * @return the start of the run, in milliseconds since the epoch
+	 */
+	long getStartTime();
+
+	/**
+	 * @return the innermost stage that is running, or null
+	 */
+	String getCurrentStage();
+
+	Map<String, Long> getWallNanos();
+
+	Map<String, Long> getCpuNanos();
+
+	Map<String, Long> getAllocatedBytes();
+
+	Map<String, Long> getPeakHeapBytes();
+
+	/**
+	 * @return the whole report, as it would be written to a file
+	 */
+	String getJson();
+}
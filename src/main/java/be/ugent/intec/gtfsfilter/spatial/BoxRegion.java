@@ -0,0 +1,52 @@
+package be.ugent.intec.gtfsfilter.spatial;
+
+/**
+ * A latitude/longitude box. The border itself is not part of the box.
+ */
+public class BoxRegion extends Region {
+
+	private final double minlat, minlon, maxlat, maxlon;
+
+	public BoxRegion(double minlat, double minlon, double maxlat, double maxlon) {
+		this.minlat = minlat;
+		this.minlon = minlon;
+		this.maxlat = maxlat;
+		this.maxlon = maxlon;
+	}
+
+	@Override
+	public double getMinLat() {
+		return minlat;
+	}
+
+	@Override
+	public double getMinLon() {
+		return minlon;
+	}
+
+	@Override
+	public double getMaxLat() {
+		return maxlat;
+	}
+
+	@Override
+	public double getMaxLon() {
+		return maxlon;
+	}
+
+	@Override
+	public boolean contains(double lat, double lon) {
+		return lat > minlat && lon > minlon && lat < maxlat && lon < maxlon;
+	}
+
+	@Override
+	public boolean covers(double minlat, double minlon, double maxlat,
+			double maxlon) {
+		return contains(minlat, minlon) && contains(maxlat, maxlon);
+	}
+
+	@Override
+	public String toString() {
+		return "box " + minlat + "," + minlon + " --> " + maxlat + "," + maxlon;
+	}
+}
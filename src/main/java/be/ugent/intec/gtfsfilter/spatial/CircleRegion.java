@@ -0,0 +1,79 @@
+package be.ugent.intec.gtfsfilter.spatial;
+
+/**
+ * Everything within a radius (in meters) of a point, measured along the
+ * surface of the earth.
+ */
+public class CircleRegion extends Region {
+
+	private static final double EARTH_RADIUS = 6371008.8;
+
+	private final double lat, lon, radius;
+	private final double minlat, minlon, maxlat, maxlon;
+
+	public CircleRegion(double lat, double lon, double radius) {
+		this.lat = lat;
+		this.lon = lon;
+		this.radius = radius;
+
+		double dlat = Math.toDegrees(radius / EARTH_RADIUS);
+		minlat = Math.max(-90, lat - dlat);
+		maxlat = Math.min(90, lat + dlat);
+
+		// the widest point of the circle is at the latitude closest to a pole
+		double cos = Math.cos(Math.toRadians(Math.max(Math.abs(minlat),
+				Math.abs(maxlat))));
+		double dlon = cos > 0 ? Math.toDegrees(radius / (EARTH_RADIUS * cos))
+				: 180;
+		if (dlon >= 180) {
+			minlon = -180;
+			maxlon = 180;
+		} else {
+			minlon = lon - dlon;
+			maxlon = lon + dlon;
+		}
+	}
+
+	@Override
+	public double getMinLat() {
+		return minlat;
+	}
+
+	@Override
+	public double getMinLon() {
+		return minlon;
+	}
+
+	@Override
+	public double getMaxLat() {
+		return maxlat;
+	}
+
+	@Override
+	public double getMaxLon() {
+		return maxlon;
+	}
+
+	@Override
+	public boolean contains(double lat, double lon) {
+		return distance(this.lat, this.lon, lat, lon) <= radius;
+	}
+
+	/**
+	 * @return the great-circle distance in meters (haversine formula)
+	 */
+	public static double distance(double lat1, double lon1, double lat2,
+			double lon2) {
+		double dlat = Math.toRadians(lat2 - lat1);
+		double dlon = Math.toRadians(lon2 - lon1);
+		double a = Math.sin(dlat / 2) * Math.sin(dlat / 2)
+				+ Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+				* Math.sin(dlon / 2) * Math.sin(dlon / 2);
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	@Override
+	public String toString() {
+		return radius + "m around " + lat + "," + lon;
+	}
+}
@@ -0,0 +1,79 @@
+package be.ugent.intec.gtfsfilter.spatial;
+
+import java.util.List;
+
+/**
+ * One or more polygons, each given as an outer ring followed by its holes. The
+ * coordinates are planar longitude/latitude, as in GeoJSON and WKT. A point is
+ * inside a polygon if a ray from it crosses the rings of that polygon an odd
+ * number of times.
+ */
+public class PolygonRegion extends Region {
+
+	// polygons[p][r] holds ring r of polygon p as lon0, lat0, lon1, lat1, ...
+	private final double[][][] polygons;
+	private double minlat = Double.POSITIVE_INFINITY,
+			minlon = Double.POSITIVE_INFINITY,
+			maxlat = Double.NEGATIVE_INFINITY,
+			maxlon = Double.NEGATIVE_INFINITY;
+
+	public PolygonRegion(List<List<double[]>> polygons) {
+		this.polygons = new double[polygons.size()][][];
+		for (int p = 0; p < polygons.size(); p++) {
+			List<double[]> rings = polygons.get(p);
+			this.polygons[p] = rings.toArray(new double[rings.size()][]);
+			double[] outer = this.polygons[p][0];
+			for (int i = 0; i + 1 < outer.length; i += 2) {
+				minlon = Math.min(minlon, outer[i]);
+				maxlon = Math.max(maxlon, outer[i]);
+				minlat = Math.min(minlat, outer[i + 1]);
+				maxlat = Math.max(maxlat, outer[i + 1]);
+			}
+		}
+	}
+
+	@Override
+	public double getMinLat() {
+		return minlat;
+	}
+
+	@Override
+	public double getMinLon() {
+		return minlon;
+	}
+
+	@Override
+	public double getMaxLat() {
+		return maxlat;
+	}
+
+	@Override
+	public double getMaxLon() {
+		return maxlon;
+	}
+
+	@Override
+	public boolean contains(double lat, double lon) {
+		for (double[][] polygon : polygons) {
+			boolean inside = false;
+			for (double[] ring : polygon) {
+				int n = ring.length / 2;
+				for (int i = 0, j = n - 1; i < n; j = i++) {
+					double xi = ring[2 * i], yi = ring[2 * i + 1];
+					double xj = ring[2 * j], yj = ring[2 * j + 1];
+					if ((yi > lat) != (yj > lat)
+							&& lon < (xj - xi) * (lat - yi) / (yj - yi) + xi)
+						inside = !inside;
+				}
+			}
+			if (inside)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return polygons.length + " polygon(s)";
+	}
+}
@@ -0,0 +1,29 @@
+package be.ugent.intec.gtfsfilter.spatial;
+
+/**
+ * An area on the map that stops can be selected by. Every region has a
+ * bounding box, which {@link StopTree} uses to skip the parts of the tree that
+ * can't contain any of its stops.
+ */
+public abstract class Region {
+
+	public abstract double getMinLat();
+
+	public abstract double getMinLon();
+
+	public abstract double getMaxLat();
+
+	public abstract double getMaxLon();
+
+	public abstract boolean contains(double lat, double lon);
+
+	/**
+	 * @return true if every point of the given box lies in this region. Used
+	 *         to take whole subtrees without testing their stops; regions that
+	 *         can't tell cheaply return false.
+	 */
+	public boolean covers(double minlat, double minlon, double maxlat,
+			double maxlon) {
+		return false;
+	}
+}
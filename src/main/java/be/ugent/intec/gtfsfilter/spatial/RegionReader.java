@@ -0,0 +1,288 @@
+package be.ugent.intec.gtfsfilter.spatial;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the polygons of a GeoJSON or WKT file into a {@link PolygonRegion}.
+ * GeoJSON may contain Polygon and MultiPolygon geometries, also wrapped in
+ * Features, FeatureCollections and GeometryCollections; WKT may contain a
+ * POLYGON or a MULTIPOLYGON. Coordinates are longitude, latitude.
+ */
+public class RegionReader {
+
+	private final String text;
+	private int pos;
+
+	private RegionReader(String text) {
+		this.text = text;
+	}
+
+	public static PolygonRegion read(File file) throws IOException,
+			ParseException {
+		String text = new String(Files.readAllBytes(file.toPath()),
+				StandardCharsets.UTF_8).trim();
+		if (text.startsWith("\uFEFF"))
+			text = text.substring(1).trim();
+
+		List<List<double[]>> polygons = new ArrayList<>();
+		RegionReader reader = new RegionReader(text);
+		if (text.startsWith("{"))
+			reader.addGeoJson(reader.readJson(), polygons);
+		else
+			reader.addWkt(polygons);
+
+		if (polygons.isEmpty())
+			throw new ParseException("No polygons in " + file, 0);
+		return new PolygonRegion(polygons);
+	}
+
+	/*
+	 * GeoJSON
+	 */
+
+	private void addGeoJson(Object json, List<List<double[]>> polygons)
+			throws ParseException {
+		if (!(json instanceof Map))
+			throw new ParseException("Expected a GeoJSON object", pos);
+		Map<?, ?> object = (Map<?, ?>) json;
+		Object type = object.get("type");
+		if ("FeatureCollection".equals(type)) {
+			for (Object feature : list(object.get("features")))
+				addGeoJson(feature, polygons);
+		} else if ("Feature".equals(type)) {
+			addGeoJson(object.get("geometry"), polygons);
+		} else if ("GeometryCollection".equals(type)) {
+			for (Object geometry : list(object.get("geometries")))
+				addGeoJson(geometry, polygons);
+		} else if ("Polygon".equals(type)) {
+			polygons.add(rings(object.get("coordinates")));
+		} else if ("MultiPolygon".equals(type)) {
+			for (Object polygon : list(object.get("coordinates")))
+				polygons.add(rings(polygon));
+		} else {
+			throw new ParseException("Unsupported GeoJSON type " + type, pos);
+		}
+	}
+
+	private List<double[]> rings(Object coordinates) throws ParseException {
+		List<double[]> rings = new ArrayList<>();
+		for (Object ring : list(coordinates)) {
+			List<?> positions = list(ring);
+			double[] flat = new double[2 * positions.size()];
+			for (int i = 0; i < positions.size(); i++) {
+				List<?> position = list(positions.get(i));
+				if (position.size() < 2)
+					throw new ParseException("Position without coordinates",
+							pos);
+				flat[2 * i] = number(position.get(0));
+				flat[2 * i + 1] = number(position.get(1));
+			}
+			rings.add(flat);
+		}
+		if (rings.isEmpty())
+			throw new ParseException("Polygon without rings", pos);
+		return rings;
+	}
+
+	private double number(Object value) throws ParseException {
+		if (!(value instanceof Number))
+			throw new ParseException("Expected a GeoJSON number", pos);
+		return ((Number) value).doubleValue();
+	}
+
+	private List<?> list(Object value) throws ParseException {
+		if (!(value instanceof List))
+			throw new ParseException("Expected a GeoJSON array", pos);
+		return (List<?>) value;
+	}
+
+	private Object readJson() throws ParseException {
+		skipWhitespace();
+		if (pos >= text.length())
+			throw new ParseException("Unexpected end of GeoJSON", pos);
+		char c = text.charAt(pos);
+		if (c == '{') {
+			pos++;
+			Map<String, Object> object = new LinkedHashMap<>();
+			if (peek() == '}') {
+				pos++;
+				return object;
+			}
+			do {
+				skipWhitespace();
+				String key = readString();
+				expect(':');
+				object.put(key, readJson());
+			} while (next(',', '}') == ',');
+			return object;
+		} else if (c == '[') {
+			pos++;
+			List<Object> array = new ArrayList<>();
+			if (peek() == ']') {
+				pos++;
+				return array;
+			}
+			do {
+				array.add(readJson());
+			} while (next(',', ']') == ',');
+			return array;
+		} else if (c == '"') {
+			return readString();
+		} else if (text.startsWith("true", pos)) {
+			pos += 4;
+			return Boolean.TRUE;
+		} else if (text.startsWith("false", pos)) {
+			pos += 5;
+			return Boolean.FALSE;
+		} else if (text.startsWith("null", pos)) {
+			pos += 4;
+			return null;
+		}
+		return readNumber();
+	}
+
+	private String readString() throws ParseException {
+		if (pos >= text.length() || text.charAt(pos) != '"')
+			throw new ParseException("Expected a string", pos);
+		StringBuilder value = new StringBuilder();
+		for (pos++; pos < text.length(); pos++) {
+			char c = text.charAt(pos);
+			if (c == '"') {
+				pos++;
+				return value.toString();
+			}
+			if (c == '\\' && ++pos < text.length()) {
+				c = text.charAt(pos);
+				switch (c) {
+				case 'b':
+					c = '\b';
+					break;
+				case 'f':
+					c = '\f';
+					break;
+				case 'n':
+					c = '\n';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 't':
+					c = '\t';
+					break;
+				case 'u':
+					if (pos + 4 >= text.length())
+						throw new ParseException("Bad escape", pos);
+					c = (char) Integer.parseInt(
+							text.substring(pos + 1, pos + 5), 16);
+					pos += 4;
+					break;
+				default:
+					break;
+				}
+			}
+			value.append(c);
+		}
+		throw new ParseException("Unterminated string", pos);
+	}
+
+	private char next(char separator, char end) throws ParseException {
+		char c = peek();
+		if (c != separator && c != end)
+			throw new ParseException("Expected '" + separator + "' or '"
+					+ end + "'", pos);
+		pos++;
+		return c;
+	}
+
+	private void expect(char expected) throws ParseException {
+		if (peek() != expected)
+			throw new ParseException("Expected '" + expected + "'", pos);
+		pos++;
+	}
+
+	/*
+	 * WKT
+	 */
+
+	private void addWkt(List<List<double[]>> polygons) throws ParseException {
+		// skip an EWKT "SRID=...;" prefix
+		if (text.regionMatches(true, 0, "SRID=", 0, 5))
+			pos = text.indexOf(';') + 1;
+		skipWhitespace();
+		int start = pos;
+		while (pos < text.length() && Character.isLetter(text.charAt(pos)))
+			pos++;
+		String type = text.substring(start, pos).toUpperCase();
+		// skip dimension markers such as Z or M
+		while (pos < text.length() && text.charAt(pos) != '(')
+			pos++;
+
+		if (type.equals("POLYGON")) {
+			polygons.add(readWktRings());
+		} else if (type.equals("MULTIPOLYGON")) {
+			expect('(');
+			do {
+				polygons.add(readWktRings());
+			} while (next(',', ')') == ',');
+		} else {
+			throw new ParseException("Unsupported WKT type " + type, start);
+		}
+	}
+
+	private List<double[]> readWktRings() throws ParseException {
+		List<double[]> rings = new ArrayList<>();
+		expect('(');
+		do {
+			expect('(');
+			List<Double> coordinates = new ArrayList<>();
+			do {
+				coordinates.add(readNumber());
+				coordinates.add(readNumber());
+				// ignore z and m values
+				while (peek() != ',' && peek() != ')')
+					readNumber();
+			} while (next(',', ')') == ',');
+
+			double[] ring = new double[coordinates.size()];
+			for (int i = 0; i < ring.length; i++)
+				ring[i] = coordinates.get(i);
+			rings.add(ring);
+		} while (next(',', ')') == ',');
+		return rings;
+	}
+
+	/*
+	 * Shared
+	 */
+
+	private Double readNumber() throws ParseException {
+		skipWhitespace();
+		int start = pos;
+		while (pos < text.length()
+				&& "+-.0123456789eE".indexOf(text.charAt(pos)) >= 0)
+			pos++;
+		try {
+			return Double.valueOf(text.substring(start, pos));
+		} catch (NumberFormatException e) {
+			throw new ParseException("Expected a number", start);
+		}
+	}
+
+	private char peek() {
+		skipWhitespace();
+		return pos < text.length() ? text.charAt(pos) : 0;
+	}
+
+	private void skipWhitespace() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+			pos++;
+	}
+}
@@ -0,0 +1,156 @@
+package be.ugent.intec.gtfsfilter.spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A static R-tree over the stops of a feed, bulk loaded with the
+ * Sort-Tile-Recursive packing: the stops are cut into vertical slices by
+ * longitude, each slice is sorted by latitude and every run of
+ * {@link #NODE_SIZE} stops becomes a leaf. The levels above group
+ * {@link #NODE_SIZE} consecutive nodes of the level below.
+ * <p>
+ * A query only descends into the nodes whose box overlaps the box of the
+ * region, so its cost depends on the number of stops near the region rather
+ * than on the size of the feed. The tree is immutable and can be queried from
+ * several threads.
+ */
+public class StopTree {
+
+	private static final int NODE_SIZE = 16;
+
+	private final int size;
+
+	// the stop ordinals in tree order and their coordinates
+	private final int[] ordinals;
+	private final double[] lats, lons;
+
+	// levels[0] are the leaves; every level holds minlat, minlon, maxlat,
+	// maxlon per node
+	private final List<double[]> levels = new ArrayList<>();
+
+	public StopTree(final double[] lats, final double[] lons) {
+		this.size = lats.length;
+
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+
+		int leaves = (size + NODE_SIZE - 1) / NODE_SIZE;
+		int sliceSize = NODE_SIZE
+				* Math.max(1, (int) Math.ceil(Math.sqrt(leaves)));
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(lons[a], lons[b]);
+			}
+		});
+		for (int from = 0; from < size; from += sliceSize)
+			Arrays.sort(order, from, Math.min(size, from + sliceSize),
+					new Comparator<Integer>() {
+						@Override
+						public int compare(Integer a, Integer b) {
+							return Double.compare(lats[a], lats[b]);
+						}
+					});
+
+		ordinals = new int[size];
+		this.lats = new double[size];
+		this.lons = new double[size];
+		for (int i = 0; i < size; i++) {
+			ordinals[i] = order[i];
+			this.lats[i] = lats[order[i]];
+			this.lons[i] = lons[order[i]];
+		}
+
+		double[] level = new double[4 * leaves];
+		for (int node = 0; node < leaves; node++) {
+			int from = node * NODE_SIZE, to = Math.min(size, from + NODE_SIZE);
+			double minlat = Double.POSITIVE_INFINITY, minlon = Double.POSITIVE_INFINITY;
+			double maxlat = Double.NEGATIVE_INFINITY, maxlon = Double.NEGATIVE_INFINITY;
+			for (int i = from; i < to; i++) {
+				minlat = Math.min(minlat, this.lats[i]);
+				minlon = Math.min(minlon, this.lons[i]);
+				maxlat = Math.max(maxlat, this.lats[i]);
+				maxlon = Math.max(maxlon, this.lons[i]);
+			}
+			setBox(level, node, minlat, minlon, maxlat, maxlon);
+		}
+		levels.add(level);
+
+		while (level.length > 4) {
+			int nodes = level.length / 4;
+			int parents = (nodes + NODE_SIZE - 1) / NODE_SIZE;
+			double[] parent = new double[4 * parents];
+			for (int node = 0; node < parents; node++) {
+				int from = node * NODE_SIZE, to = Math.min(nodes, from
+						+ NODE_SIZE);
+				double minlat = Double.POSITIVE_INFINITY, minlon = Double.POSITIVE_INFINITY;
+				double maxlat = Double.NEGATIVE_INFINITY, maxlon = Double.NEGATIVE_INFINITY;
+				for (int i = from; i < to; i++) {
+					minlat = Math.min(minlat, level[4 * i]);
+					minlon = Math.min(minlon, level[4 * i + 1]);
+					maxlat = Math.max(maxlat, level[4 * i + 2]);
+					maxlon = Math.max(maxlon, level[4 * i + 3]);
+				}
+				setBox(parent, node, minlat, minlon, maxlat, maxlon);
+			}
+			levels.add(parent);
+			level = parent;
+		}
+	}
+
+	private static void setBox(double[] level, int node, double minlat,
+			double minlon, double maxlat, double maxlon) {
+		level[4 * node] = minlat;
+		level[4 * node + 1] = minlon;
+		level[4 * node + 2] = maxlat;
+		level[4 * node + 3] = maxlon;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Sets the ordinals of the stops inside the region in the result.
+	 */
+	public void query(Region region, BitSet result) {
+		int top = levels.size() - 1;
+		int nodes = levels.get(top).length / 4;
+		for (int node = 0; node < nodes; node++)
+			query(region, top, node, result);
+	}
+
+	private void query(Region region, int depth, int node, BitSet result) {
+		double[] level = levels.get(depth);
+		double minlat = level[4 * node], minlon = level[4 * node + 1];
+		double maxlat = level[4 * node + 2], maxlon = level[4 * node + 3];
+		if (minlat > region.getMaxLat() || maxlat < region.getMinLat()
+				|| minlon > region.getMaxLon() || maxlon < region.getMinLon())
+			return;
+
+		if (region.covers(minlat, minlon, maxlat, maxlon)) {
+			long span = 1;
+			for (int i = 0; i <= depth; i++)
+				span *= NODE_SIZE;
+			int to = (int) Math.min(size, (node + 1) * span);
+			for (int i = (int) (node * span); i < to; i++)
+				result.set(ordinals[i]);
+		} else if (depth == 0) {
+			int to = Math.min(size, (node + 1) * NODE_SIZE);
+			for (int i = node * NODE_SIZE; i < to; i++)
+				if (region.contains(lats[i], lons[i]))
+					result.set(ordinals[i]);
+		} else {
+			int children = levels.get(depth - 1).length / 4;
+			int to = Math.min(children, (node + 1) * NODE_SIZE);
+			for (int child = node * NODE_SIZE; child < to; child++)
+				query(region, depth - 1, child, result);
+		}
+	}
+}
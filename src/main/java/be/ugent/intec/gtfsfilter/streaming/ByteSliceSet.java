@@ -0,0 +1,98 @@
+package be.ugent.intec.gtfsfilter.streaming;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Open addressing hash set of UTF-8 encoded ids. Lookups take the id as a
+ * slice of a (memory mapped) buffer, so checking a csv-field against the set
+ * doesn't allocate a String.
+ */
+public class ByteSliceSet {
+
+	private byte[][] keys = new byte[16][];
+	private int size = 0;
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(String id) {
+		byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+		return contains(ByteBuffer.wrap(bytes), 0, bytes.length);
+	}
+
+	public boolean contains(ByteBuffer buffer, int offset, int length) {
+		int mask = keys.length - 1;
+		for (int slot = hash(buffer, offset, length) & mask;; slot = (slot + 1)
+				& mask) {
+			byte[] key = keys[slot];
+			if (key == null)
+				return false;
+			if (equals(key, buffer, offset, length))
+				return true;
+		}
+	}
+
+	public boolean add(String id) {
+		byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+		return add(ByteBuffer.wrap(bytes), 0, bytes.length);
+	}
+
+	/**
+	 * Adds the given slice; the bytes are only copied if the id is new.
+	 * 
+	 * @return true if the set didn't contain the id yet
+	 */
+	public boolean add(ByteBuffer buffer, int offset, int length) {
+		int mask = keys.length - 1;
+		int slot = hash(buffer, offset, length) & mask;
+		for (; keys[slot] != null; slot = (slot + 1) & mask) {
+			if (equals(keys[slot], buffer, offset, length))
+				return false;
+		}
+
+		byte[] key = new byte[length];
+		for (int i = 0; i < length; i++)
+			key[i] = buffer.get(offset + i);
+		keys[slot] = key;
+
+		if (++size * 2 > keys.length)
+			grow();
+		return true;
+	}
+
+	private void grow() {
+		byte[][] old = keys;
+		keys = new byte[old.length * 2][];
+		int mask = keys.length - 1;
+		for (byte[] key : old) {
+			if (key == null)
+				continue;
+			int slot = hash(ByteBuffer.wrap(key), 0, key.length) & mask;
+			while (keys[slot] != null)
+				slot = (slot + 1) & mask;
+			keys[slot] = key;
+		}
+	}
+
+	private static int hash(ByteBuffer buffer, int offset, int length) {
+		// FNV-1a
+		int hash = 0x811c9dc5;
+		for (int i = 0; i < length; i++) {
+			hash ^= buffer.get(offset + i);
+			hash *= 0x01000193;
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equals(byte[] key, ByteBuffer buffer, int offset,
+			int length) {
+		if (key.length != length)
+			return false;
+		for (int i = 0; i < length; i++)
+			if (key[i] != buffer.get(offset + i))
+				return false;
+		return true;
+	}
+}
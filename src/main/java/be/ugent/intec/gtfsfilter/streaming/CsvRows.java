@@ -0,0 +1,50 @@
+package be.ugent.intec.gtfsfilter.streaming;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Forward-only access to the rows of one GTFS csv-file.
+ */
+public interface CsvRows extends Closeable {
+
+	String getHeaderLine();
+
+	List<String> getHeader();
+
+	/**
+	 * @return the index of the given column, or -1 if the file doesn't have it
+	 */
+	int getColumn(String name);
+
+	/**
+	 * Advances to the next non-empty row.
+	 * 
+	 * @return false when the end of the file has been reached
+	 */
+	boolean next() throws IOException;
+
+	/**
+	 * @return the trimmed value of the given column in the current row, or an
+	 *         empty string if the column is absent
+	 */
+	String get(int column);
+
+	/**
+	 * @return true if the value of the given column is one of the ids
+	 */
+	boolean isIn(int column, ByteSliceSet ids);
+
+	/**
+	 * Adds the value of the given column, if it is not empty, to the ids.
+	 */
+	void addTo(int column, ByteSliceSet ids);
+
+	/**
+	 * Writes the current row exactly as it appeared in the input, followed by
+	 * a newline.
+	 */
+	void copyLine(OutputStream out) throws IOException;
+}
@@ -0,0 +1,178 @@
+package be.ugent.intec.gtfsfilter.streaming;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Forward-only reader for one GTFS csv-file. Only the current row is kept in
+ * memory; besides the parsed fields the original line is available so rows
+ * that pass a filter can be copied to the output untouched.
+ * <p>
+ * Works on any input stream, for instance a zip entry. Files in a directory
+ * are read faster with the {@link MappedCsvReader}.
+ */
+public class CsvTableReader implements CsvRows {
+
+	private static final char BOM = '\uFEFF';
+
+	private final BufferedReader reader;
+	private final String headerLine;
+	private final List<String> header;
+
+	private String line;
+	private List<String> fields = new ArrayList<>();
+
+	public CsvTableReader(InputStream in) throws IOException {
+		this.reader = new BufferedReader(new InputStreamReader(in,
+				StandardCharsets.UTF_8), 1 << 16);
+
+		String first = readRecord();
+		if (first == null)
+			first = "";
+		else if (!first.isEmpty() && first.charAt(0) == BOM)
+			first = first.substring(1);
+
+		this.headerLine = first;
+		this.header = new ArrayList<>();
+		for (String column : split(first, new ArrayList<String>()))
+			header.add(column.trim());
+	}
+
+	@Override
+	public String getHeaderLine() {
+		return headerLine;
+	}
+
+	@Override
+	public List<String> getHeader() {
+		return header;
+	}
+
+	@Override
+	public int getColumn(String name) {
+		return header.indexOf(name);
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		do {
+			line = readRecord();
+			if (line == null)
+				return false;
+		} while (line.trim().isEmpty());
+
+		fields.clear();
+		split(line, fields);
+		return true;
+	}
+
+	@Override
+	public String get(int column) {
+		if (column < 0 || column >= fields.size())
+			return "";
+		return fields.get(column).trim();
+	}
+
+	/**
+	 * @return the current row exactly as it appeared in the input
+	 */
+	public String getLine() {
+		return line;
+	}
+
+	@Override
+	public boolean isIn(int column, ByteSliceSet ids) {
+		return ids.contains(get(column));
+	}
+
+	@Override
+	public void addTo(int column, ByteSliceSet ids) {
+		String value = get(column);
+		if (!value.isEmpty())
+			ids.add(value);
+	}
+
+	@Override
+	public void copyLine(OutputStream out) throws IOException {
+		out.write(line.getBytes(StandardCharsets.UTF_8));
+		out.write('\n');
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Reads one csv-record, which can span several physical lines when a
+	 * quoted value contains a line break.
+	 */
+	private String readRecord() throws IOException {
+		String record = reader.readLine();
+		if (record == null || record.indexOf('"') < 0)
+			return record;
+
+		StringBuilder sb = new StringBuilder(record);
+		while (!balancedQuotes(sb)) {
+			String continuation = reader.readLine();
+			if (continuation == null)
+				break;
+			sb.append('\n').append(continuation);
+		}
+		return sb.toString();
+	}
+
+	private static boolean balancedQuotes(CharSequence s) {
+		int quotes = 0;
+		for (int i = 0; i < s.length(); i++)
+			if (s.charAt(i) == '"')
+				quotes++;
+		return quotes % 2 == 0;
+	}
+
+	static List<String> split(String record, List<String> target) {
+		if (record.indexOf('"') < 0) {
+			int from = 0;
+			int comma;
+			while ((comma = record.indexOf(',', from)) >= 0) {
+				target.add(record.substring(from, comma));
+				from = comma + 1;
+			}
+			target.add(record.substring(from));
+			return target;
+		}
+
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < record.length(); i++) {
+			char c = record.charAt(i);
+			if (quoted) {
+				if (c == '"') {
+					if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+						value.append('"');
+						i++;
+					} else {
+						quoted = false;
+					}
+				} else {
+					value.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				target.add(value.toString());
+				value.setLength(0);
+			} else {
+				value.append(c);
+			}
+		}
+		target.add(value.toString());
+		return target;
+	}
+}
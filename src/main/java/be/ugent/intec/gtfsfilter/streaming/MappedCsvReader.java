@@ -0,0 +1,237 @@
+package be.ugent.intec.gtfsfilter.streaming;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a csv-file through a memory mapping of the file. Fields are not
+ * decoded: a row is split into byte offsets in the mapped buffer, ids are
+ * compared against {@link ByteSliceSet}s in place and retained rows are copied
+ * to the output as raw bytes. Only {@link #get(int)} creates a String.
+ * <p>
+ * Files larger than the mapping window are mapped in consecutive windows that
+ * always start at the beginning of a row.
+ */
+public class MappedCsvReader implements CsvRows {
+
+	private static final int WINDOW_SIZE = 1 << 28;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileSize;
+
+	private MappedByteBuffer buffer;
+	private long windowStart;
+	private int windowSize;
+
+	// position of the next row in the current window
+	private int cursor;
+
+	// the current row
+	private int lineStart, lineEnd;
+	private int[] fieldStarts = new int[32];
+	private int[] fieldEnds = new int[32];
+	private int fieldCount;
+
+	private byte[] scratch = new byte[1024];
+
+	private final String headerLine;
+	private final List<String> header;
+
+	public MappedCsvReader(File path) throws IOException {
+		this.file = new RandomAccessFile(path, "r");
+		this.channel = file.getChannel();
+		this.fileSize = channel.size();
+
+		map(0);
+		// skip the UTF-8 byte order mark
+		if (windowSize >= 3 && buffer.get(0) == (byte) 0xEF
+				&& buffer.get(1) == (byte) 0xBB && buffer.get(2) == (byte) 0xBF)
+			cursor = 3;
+
+		if (readRow()) {
+			headerLine = decode(lineStart, lineEnd);
+			String[] columns = new String[fieldCount];
+			for (int i = 0; i < fieldCount; i++)
+				columns[i] = get(i);
+			header = Arrays.asList(columns);
+		} else {
+			headerLine = "";
+			header = Arrays.asList(new String[0]);
+		}
+	}
+
+	@Override
+	public String getHeaderLine() {
+		return headerLine;
+	}
+
+	@Override
+	public List<String> getHeader() {
+		return header;
+	}
+
+	@Override
+	public int getColumn(String name) {
+		return header.indexOf(name);
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		while (readRow()) {
+			if (lineEnd > lineStart)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String get(int column) {
+		if (column < 0 || column >= fieldCount)
+			return "";
+		String value = decode(fieldStarts[column], fieldEnds[column]);
+		return value.indexOf('"') < 0 ? value : unquote(value);
+	}
+
+	@Override
+	public boolean isIn(int column, ByteSliceSet ids) {
+		if (column < 0 || column >= fieldCount)
+			return false;
+		return ids.contains(buffer, fieldStarts[column], fieldEnds[column]
+				- fieldStarts[column]);
+	}
+
+	@Override
+	public void addTo(int column, ByteSliceSet ids) {
+		if (column < 0 || column >= fieldCount
+				|| fieldEnds[column] == fieldStarts[column])
+			return;
+		ids.add(buffer, fieldStarts[column], fieldEnds[column]
+				- fieldStarts[column]);
+	}
+
+	@Override
+	public void copyLine(OutputStream out) throws IOException {
+		int length = lineEnd - lineStart;
+		if (scratch.length < length + 1)
+			scratch = new byte[Math.max(length + 1, scratch.length * 2)];
+		for (int i = 0; i < length; i++)
+			scratch[i] = buffer.get(lineStart + i);
+		scratch[length] = '\n';
+		out.write(scratch, 0, length + 1);
+	}
+
+	@Override
+	public void close() throws IOException {
+		buffer = null;
+		file.close();
+	}
+
+	private void map(long position) throws IOException {
+		windowStart = position;
+		windowSize = (int) Math.min(WINDOW_SIZE, fileSize - position);
+		buffer = channel.map(MapMode.READ_ONLY, position, windowSize);
+		cursor = 0;
+	}
+
+	/**
+	 * Splits the next record into fields. Commas and line breaks inside
+	 * quotes are part of the field.
+	 * 
+	 * @return false at the end of the file
+	 */
+	private boolean readRow() throws IOException {
+		while (true) {
+			if (cursor >= windowSize) {
+				if (windowStart + windowSize >= fileSize)
+					return false;
+				map(windowStart + cursor);
+			}
+			int end = scanRow(cursor);
+			if (end >= 0) {
+				cursor = end;
+				return true;
+			}
+			// the row continues past the window
+			if (windowStart + windowSize >= fileSize) {
+				cursor = windowSize;
+				return true;
+			}
+			if (cursor == 0)
+				throw new IOException("Row longer than " + WINDOW_SIZE
+						+ " bytes");
+			map(windowStart + cursor);
+		}
+	}
+
+	/**
+	 * @return the position after the line break that ends the row starting at
+	 *         from, or -1 if the row isn't complete in the current window
+	 */
+	private int scanRow(int from) {
+		lineStart = from;
+		fieldCount = 0;
+		int fieldStart = from;
+		boolean quoted = false;
+
+		for (int i = from; i < windowSize; i++) {
+			byte b = buffer.get(i);
+			if (b == '"') {
+				quoted = !quoted;
+			} else if (!quoted && b == ',') {
+				addField(fieldStart, i);
+				fieldStart = i + 1;
+			} else if (!quoted && b == '\n') {
+				lineEnd = i > from && buffer.get(i - 1) == '\r' ? i - 1 : i;
+				addField(fieldStart, lineEnd);
+				return i + 1;
+			}
+		}
+
+		// last row without a line break
+		lineEnd = windowSize > from && buffer.get(windowSize - 1) == '\r' ? windowSize - 1
+				: windowSize;
+		addField(fieldStart, lineEnd);
+		return -1;
+	}
+
+	private void addField(int start, int end) {
+		// trim spaces and surrounding quotes
+		while (start < end && buffer.get(start) == ' ')
+			start++;
+		while (end > start && buffer.get(end - 1) == ' ')
+			end--;
+		if (end - start >= 2 && buffer.get(start) == '"'
+				&& buffer.get(end - 1) == '"') {
+			start++;
+			end--;
+		}
+
+		if (fieldCount == fieldStarts.length) {
+			fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+			fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+		}
+		fieldStarts[fieldCount] = start;
+		fieldEnds[fieldCount] = end;
+		fieldCount++;
+	}
+
+	private String decode(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = buffer.get(start + i);
+		return new String(bytes, StandardCharsets.UTF_8).trim();
+	}
+
+	private static String unquote(String value) {
+		return value.replace("\"\"", "\"");
+	}
+}
@@ -0,0 +1,34 @@
+package be.ugent.intec.gtfsfilter.streaming;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.onebusaway.csv_entities.CsvInputSource;
+
+/**
+ * Reads every file of a source ahead with a {@link ReadAheadInputStream}, for
+ * the entries of a zip archive that are inflated while they are read.
+ */
+public class ReadAheadCsvInputSource implements CsvInputSource {
+
+	private final CsvInputSource source;
+
+	public ReadAheadCsvInputSource(CsvInputSource source) {
+		this.source = source;
+	}
+
+	@Override
+	public boolean hasResource(String name) throws IOException {
+		return source.hasResource(name);
+	}
+
+	@Override
+	public InputStream getResource(String name) throws IOException {
+		return ReadAheadInputStream.open(source.getResource(name));
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+}
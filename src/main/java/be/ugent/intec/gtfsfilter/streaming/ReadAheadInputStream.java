@@ -0,0 +1,166 @@
+package be.ugent.intec.gtfsfilter.streaming;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads a stream ahead on a thread of its own, like a zip entry that has to
+ * be inflated, while the rows read before are being parsed. The chunks that
+ * have been read go through a bounded queue, so the thread waits when the
+ * parsing falls behind and no more than a few chunks are kept in memory.
+ * <p>
+ * With a single processor the reading and the parsing can't overlap, and
+ * {@link #open(InputStream)} leaves the stream as it is.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final int QUEUED_CHUNKS = 16;
+	private static final byte[] END = new byte[0];
+
+	private static final ExecutorService READERS = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "read-ahead");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final InputStream in;
+	private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(
+			QUEUED_CHUNKS);
+	private final Future<?> task;
+	// set by the reading thread when it starts, or by close() if that comes
+	// first; whichever sets it closes the stream
+	private final AtomicBoolean started = new AtomicBoolean();
+
+	// why the reading thread stopped early, if it did
+	private volatile IOException failure;
+
+	private byte[] chunk = new byte[0];
+	private int position;
+
+	/**
+	 * @return a stream that reads the given one ahead, or the stream itself if
+	 *         there is only one processor
+	 */
+	public static InputStream open(InputStream in) {
+		if (Runtime.getRuntime().availableProcessors() == 1)
+			return in;
+		return new ReadAheadInputStream(in);
+	}
+
+	private ReadAheadInputStream(final InputStream in) {
+		this.in = in;
+		task = READERS.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws InterruptedException {
+				if (!started.compareAndSet(false, true))
+					return null;
+				try {
+					byte[] buffer = new byte[CHUNK_SIZE];
+					for (int n; (n = fill(in, buffer)) > 0; buffer = new byte[CHUNK_SIZE])
+						chunks.put(n < buffer.length ? Arrays.copyOf(buffer, n)
+								: buffer);
+				} catch (IOException e) {
+					failure = e;
+				} catch (RuntimeException | Error e) {
+					failure = new IOException(e);
+				} finally {
+					close(in);
+				}
+				chunks.put(END);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Reads until the buffer is full or the stream ends.
+	 * 
+	 * @return the number of bytes read
+	 */
+	private static int fill(InputStream in, byte[] buffer) throws IOException {
+		int count = 0;
+		for (int n; count < buffer.length
+				&& (n = in.read(buffer, count, buffer.length - count)) >= 0;)
+			count += n;
+		return count;
+	}
+
+	private static void close(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			// nothing was lost
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		return advance() ? chunk[position++] & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!advance())
+			return -1;
+		int n = Math.min(len, chunk.length - position);
+		System.arraycopy(chunk, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return chunk.length - position;
+	}
+
+	/**
+	 * Stops the reading thread, which closes the stream it reads, or closes
+	 * the stream itself if the thread hasn't started yet.
+	 */
+	@Override
+	public void close() {
+		if (started.compareAndSet(false, true))
+			close(in);
+		task.cancel(true);
+		chunk = END;
+	}
+
+	/**
+	 * Takes the next chunk when the current one has been read.
+	 * 
+	 * @return false at the end of the stream
+	 */
+	private boolean advance() throws IOException {
+		if (chunk == END)
+			return false;
+		if (position < chunk.length)
+			return true;
+		try {
+			chunk = chunks.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		position = 0;
+		if (chunk == END && failure != null)
+			throw failure;
+		return chunk != END;
+	}
+}
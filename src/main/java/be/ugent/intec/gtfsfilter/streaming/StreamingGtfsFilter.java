@@ -0,0 +1,762 @@
+package be.ugent.intec.gtfsfilter.streaming;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+import org.onebusaway.csv_entities.CSVLibrary;
+import org.onebusaway.csv_entities.CsvInputSource;
+import org.onebusaway.csv_entities.FileCsvInputSource;
+import org.onebusaway.csv_entities.ZipFileCsvInputSource;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.intec.gtfsfilter.index.IdDictionary;
+import be.ugent.intec.gtfsfilter.index.ServiceDays;
+import be.ugent.intec.gtfsfilter.output.GtfsOutput;
+import be.ugent.intec.gtfsfilter.report.RunReport;
+import be.ugent.intec.gtfsfilter.spatial.BoxRegion;
+import be.ugent.intec.gtfsfilter.spatial.Region;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+/**
+ * Applies the location, timespan and transport type filters without loading
+ * the feed into a dao. The first pass reads the small files (and, for the
+ * location filter, the stop and trip columns of stop_times.txt) to decide
+ * which trips survive. The second pass streams every file row by row and
+ * copies the retained rows to the output. Memory use is proportional to the
+ * number of retained ids, not to the size of the feed.
+ * <p>
+ * Files in an input directory are memory mapped and checked without decoding
+ * the fields (see {@link MappedCsvReader}); zipped feeds are read through a
+ * regular stream.
+ * <p>
+ * The result is the same set of entities as chaining
+ * {@link be.ugent.intec.gtfsfilter.LocationDaoFilter},
+ * {@link be.ugent.intec.gtfsfilter.TimespanDaoFilter} and
+ * {@link be.ugent.intec.gtfsfilter.TransportTypeDaoFilter}, but rows are
+ * written as they appear in the input instead of being re-serialized. The
+ * agencies, transfers, pathways and fares follow the retained routes and
+ * stops; feed_info.txt, which the dao doesn't read, is copied as it is.
+ */
+public class StreamingGtfsFilter {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(StreamingGtfsFilter.class);
+
+	private static final String[] FARE_ZONE_COLUMNS = { "origin_id",
+			"destination_id", "contains_id" };
+
+	private static final String[] WEEKDAYS = { "monday", "tuesday",
+			"wednesday", "thursday", "friday", "saturday", "sunday" };
+
+	private final File input, output;
+
+	private GtfsOutput target;
+
+	private RunReport report = new RunReport();
+
+	private boolean locationFilter = false;
+	private final List<Region> regions = new ArrayList<>();
+
+	private ServiceDate start, end;
+
+	private List<Integer> transportTypes;
+
+	// ids that survive the first pass
+	private ByteSliceSet stopIds;
+	private ByteSliceSet routeIds;
+	private ByteSliceSet serviceIds;
+	private ByteSliceSet tripIds;
+
+	// ids referenced by the retained rows of the second pass
+	private ByteSliceSet usedStopIds;
+	private ByteSliceSet usedRouteIds;
+	private ByteSliceSet usedServiceIds;
+	private ByteSliceSet usedShapeIds;
+	private ByteSliceSet keptStopIds;
+	private ByteSliceSet usedZoneIds;
+	private ByteSliceSet keptRouteIds;
+	private ByteSliceSet usedAgencyIds;
+	private boolean usesDefaultAgency;
+
+	public StreamingGtfsFilter(File input, File output) {
+		this.input = input;
+		this.output = output;
+	}
+
+	public void setLocation(double minlat, double minlon, double maxlat,
+			double maxlon) {
+		addRegion(new BoxRegion(minlat, minlon, maxlat, maxlon));
+	}
+
+	/**
+	 * Keeps the stops inside the region, in addition to those inside the
+	 * regions added before.
+	 */
+	public void addRegion(Region region) {
+		this.locationFilter = true;
+		regions.add(region);
+	}
+
+	public void setTimespan(ServiceDate start, ServiceDate end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	public void setTransportTypes(int... transportTypes) {
+		Preconditions.checkArgument(transportTypes.length > 0);
+		this.transportTypes = Ints.asList(transportTypes);
+	}
+
+	/**
+	 * Measures both passes over the input as stages of the given report.
+	 */
+	public void setReport(RunReport report) {
+		this.report = report;
+	}
+
+	public synchronized void run() throws IOException {
+		CsvInputSource source = input.isDirectory() ? new FileCsvInputSource(
+				input) : new ReadAheadCsvInputSource(new ZipFileCsvInputSource(
+				new ZipFile(input)));
+
+		try (GtfsOutput target = GtfsOutput.open(output)) {
+			this.target = target;
+
+			RunReport.Stage select = report.start("select");
+			try {
+				selectStops(source);
+				selectRoutes(source);
+				selectServiceIds(source);
+				selectTrips(source);
+				if (locationFilter)
+					selectTripsByLocation(source);
+			} finally {
+				select.close();
+			}
+
+			RunReport.Stage write = report.start("write");
+			try {
+				writeStopTimes(source);
+				writeTrips(source);
+				writeStops(source);
+				writeRoutes(source);
+				writeCalendars(source);
+				writeCalendarDates(source);
+				writeFrequencies(source);
+				writeShapes(source);
+				writeAgencies(source);
+				writeStopPairs(source, "transfers.txt");
+				writeStopPairs(source, "pathways.txt");
+				writeFares(source);
+				copy(source, "feed_info.txt");
+			} finally {
+				write.close();
+			}
+		} finally {
+			this.target = null;
+			source.close();
+		}
+	}
+
+	/*
+	 * First pass
+	 */
+
+	private void selectStops(CsvInputSource source) throws IOException {
+		if (!locationFilter)
+			return;
+
+		stopIds = new ByteSliceSet();
+		// the stations of the stops inside the regions are kept with them,
+		// like the LocationCriterion does
+		List<String> stations = new ArrayList<>();
+		int total = 0;
+		try (CsvRows reader = open(source, "stops.txt")) {
+			int id = reader.getColumn("stop_id");
+			int lat = reader.getColumn("stop_lat");
+			int lon = reader.getColumn("stop_lon");
+			int parent = reader.getColumn("parent_station");
+
+			while (reader.next()) {
+				total++;
+				double stopLat = Double.parseDouble(reader.get(lat));
+				double stopLon = Double.parseDouble(reader.get(lon));
+				for (Region region : regions) {
+					if (region.contains(stopLat, stopLon)) {
+						reader.addTo(id, stopIds);
+						if (!reader.get(parent).isEmpty())
+							stations.add(reader.get(parent));
+						break;
+					}
+				}
+			}
+		}
+		for (String station : stations)
+			stopIds.add(station);
+		LOG.info("Filtered down from {} to {} stops", total, stopIds.size());
+	}
+
+	private void selectRoutes(CsvInputSource source) throws IOException {
+		if (transportTypes == null)
+			return;
+
+		routeIds = new ByteSliceSet();
+		int total = 0;
+		try (CsvRows reader = open(source, "routes.txt")) {
+			int id = reader.getColumn("route_id");
+			int type = reader.getColumn("route_type");
+
+			while (reader.next()) {
+				total++;
+				if (transportTypes.contains(Integer.parseInt(reader.get(type))))
+					reader.addTo(id, routeIds);
+			}
+		}
+		LOG.info("Filtered down from {} to {} routes", total, routeIds.size());
+	}
+
+	private void selectServiceIds(CsvInputSource source) throws IOException {
+		if (start == null)
+			return;
+
+		// the services that run on at least one day of the timespan, worked
+		// out like the TimespanDaoFilter does
+		IdDictionary services = new IdDictionary();
+		List<ServiceCalendar> calendars = new ArrayList<>();
+		List<Integer> calendarServices = new ArrayList<>();
+		if (source.hasResource("calendar.txt")) {
+			try (CsvRows reader = open(source, "calendar.txt")) {
+				int id = reader.getColumn("service_id");
+				int[] weekdays = new int[WEEKDAYS.length];
+				for (int i = 0; i < weekdays.length; i++)
+					weekdays[i] = reader.getColumn(WEEKDAYS[i]);
+				int startDate = reader.getColumn("start_date");
+				int endDate = reader.getColumn("end_date");
+
+				while (reader.next()) {
+					int[] runs = new int[weekdays.length];
+					for (int i = 0; i < runs.length; i++)
+						runs[i] = Integer.parseInt(reader.get(weekdays[i]));
+					ServiceCalendar calendar = new ServiceCalendar();
+					calendar.setMonday(runs[0]);
+					calendar.setTuesday(runs[1]);
+					calendar.setWednesday(runs[2]);
+					calendar.setThursday(runs[3]);
+					calendar.setFriday(runs[4]);
+					calendar.setSaturday(runs[5]);
+					calendar.setSunday(runs[6]);
+					calendar.setStartDate(ServiceDate.parseString(reader
+							.get(startDate)));
+					calendar.setEndDate(ServiceDate.parseString(reader
+							.get(endDate)));
+					calendars.add(calendar);
+					calendarServices.add(services.intern(new AgencyAndId("",
+							reader.get(id))));
+				}
+			}
+		}
+		List<ServiceCalendarDate> calendarDates = new ArrayList<>();
+		List<Integer> calendarDateServices = new ArrayList<>();
+		if (source.hasResource("calendar_dates.txt")) {
+			try (CsvRows reader = open(source, "calendar_dates.txt")) {
+				int id = reader.getColumn("service_id");
+				int date = reader.getColumn("date");
+				int type = reader.getColumn("exception_type");
+
+				while (reader.next()) {
+					ServiceCalendarDate calendarDate = new ServiceCalendarDate();
+					calendarDate.setDate(ServiceDate.parseString(reader
+							.get(date)));
+					calendarDate.setExceptionType(Integer.parseInt(reader
+							.get(type)));
+					calendarDates.add(calendarDate);
+					calendarDateServices.add(services.intern(new AgencyAndId(
+							"", reader.get(id))));
+				}
+			}
+		}
+
+		BitSet running = new ServiceDays(services.size(), calendars,
+				Ints.toArray(calendarServices), calendarDates,
+				Ints.toArray(calendarDateServices)).getServices(start, end);
+		serviceIds = new ByteSliceSet();
+		for (int i = running.nextSetBit(0); i >= 0; i = running
+				.nextSetBit(i + 1))
+			serviceIds.add(services.getId(i).getId());
+		LOG.info("Filtered down to {} serviceIds", serviceIds.size());
+	}
+
+	private void selectTrips(CsvInputSource source) throws IOException {
+		tripIds = new ByteSliceSet();
+		int total = 0;
+		try (CsvRows reader = open(source, "trips.txt")) {
+			int id = reader.getColumn("trip_id");
+			int route = reader.getColumn("route_id");
+			int service = reader.getColumn("service_id");
+
+			while (reader.next()) {
+				total++;
+				if (routeIds != null && !reader.isIn(route, routeIds))
+					continue;
+				if (serviceIds != null && !reader.isIn(service, serviceIds))
+					continue;
+				reader.addTo(id, tripIds);
+			}
+		}
+		LOG.info("Filtered down from {} to {} trips", total, tripIds.size());
+	}
+
+	/**
+	 * Keeps only the trips that call at least at one of the retained stops.
+	 */
+	private void selectTripsByLocation(CsvInputSource source)
+			throws IOException {
+		ByteSliceSet visiting = new ByteSliceSet();
+		try (CsvRows reader = open(source, "stop_times.txt")) {
+			int trip = reader.getColumn("trip_id");
+			int stop = reader.getColumn("stop_id");
+
+			while (reader.next()) {
+				if (reader.isIn(trip, tripIds) && reader.isIn(stop, stopIds))
+					reader.addTo(trip, visiting);
+			}
+		}
+		LOG.info("Filtered down from {} to {} trips by location",
+				tripIds.size(), visiting.size());
+		tripIds = visiting;
+	}
+
+	/*
+	 * Second pass
+	 */
+
+	private void writeStopTimes(CsvInputSource source) throws IOException {
+		usedStopIds = new ByteSliceSet();
+		int total = 0, kept = 0;
+		try (CsvRows reader = open(source, "stop_times.txt");
+				OutputStream out = create("stop_times.txt", reader)) {
+			int trip = reader.getColumn("trip_id");
+			int stop = reader.getColumn("stop_id");
+
+			while (reader.next()) {
+				total++;
+				if (!reader.isIn(trip, tripIds))
+					continue;
+				if (locationFilter && !reader.isIn(stop, stopIds))
+					continue;
+
+				reader.addTo(stop, usedStopIds);
+				reader.copyLine(out);
+				kept++;
+			}
+		}
+		LOG.info("Filtered down from {} to {} stoptimes", total, kept);
+	}
+
+	private void writeTrips(CsvInputSource source) throws IOException {
+		usedRouteIds = new ByteSliceSet();
+		usedServiceIds = new ByteSliceSet();
+		usedShapeIds = new ByteSliceSet();
+		try (CsvRows reader = open(source, "trips.txt");
+				OutputStream out = create("trips.txt", reader)) {
+			int id = reader.getColumn("trip_id");
+			int route = reader.getColumn("route_id");
+			int service = reader.getColumn("service_id");
+			int shape = reader.getColumn("shape_id");
+
+			while (reader.next()) {
+				if (!reader.isIn(id, tripIds))
+					continue;
+				reader.addTo(route, usedRouteIds);
+				reader.addTo(service, usedServiceIds);
+				reader.addTo(shape, usedShapeIds);
+				reader.copyLine(out);
+			}
+		}
+	}
+
+	/**
+	 * Keeps the stops that the retained stop times call at and their
+	 * stations. With only a location to filter on, the stops inside the
+	 * regions stay as well, even those that no trip serves.
+	 */
+	private void writeStops(CsvInputSource source) throws IOException {
+		keptStopIds = new ByteSliceSet();
+		usedZoneIds = new ByteSliceSet();
+		if (!filtering()) {
+			keepRows(source, "stops.txt", "stop_id", null);
+			return;
+		}
+
+		ByteSliceSet unserved = start == null && transportTypes == null ? stopIds
+				: new ByteSliceSet();
+		ByteSliceSet stations = new ByteSliceSet();
+		try (CsvRows reader = open(source, "stops.txt")) {
+			int id = reader.getColumn("stop_id");
+			int parent = reader.getColumn("parent_station");
+
+			while (reader.next()) {
+				if (reader.isIn(id, usedStopIds) || reader.isIn(id, unserved))
+					reader.addTo(parent, stations);
+			}
+		}
+
+		int total = 0;
+		try (CsvRows reader = open(source, "stops.txt");
+				OutputStream out = create("stops.txt", reader)) {
+			int id = reader.getColumn("stop_id");
+			int zone = reader.getColumn("zone_id");
+
+			while (reader.next()) {
+				total++;
+				if (!reader.isIn(id, usedStopIds) && !reader.isIn(id, unserved)
+						&& !reader.isIn(id, stations))
+					continue;
+				reader.addTo(id, keptStopIds);
+				reader.addTo(zone, usedZoneIds);
+				reader.copyLine(out);
+			}
+		}
+		LOG.info("Filtered down stops.txt from {} to {} rows", total,
+				keptStopIds.size());
+	}
+
+	private void writeRoutes(CsvInputSource source) throws IOException {
+		keptRouteIds = filtering() ? usedRouteIds : null;
+		usedAgencyIds = new ByteSliceSet();
+		usesDefaultAgency = false;
+		if (!source.hasResource("routes.txt"))
+			return;
+
+		int total = 0, kept = 0;
+		try (CsvRows reader = open(source, "routes.txt");
+				OutputStream out = create("routes.txt", reader)) {
+			int id = reader.getColumn("route_id");
+			int agency = reader.getColumn("agency_id");
+
+			while (reader.next()) {
+				total++;
+				if (keptRouteIds != null && !reader.isIn(id, keptRouteIds))
+					continue;
+				// a route without an agency belongs to the first one
+				if (reader.get(agency).isEmpty())
+					usesDefaultAgency = true;
+				reader.addTo(agency, usedAgencyIds);
+				reader.copyLine(out);
+				kept++;
+			}
+		}
+		LOG.info("Filtered down routes.txt from {} to {} rows", total, kept);
+	}
+
+	private void writeCalendars(CsvInputSource source) throws IOException {
+		if (!source.hasResource("calendar.txt"))
+			return;
+
+		int kept = 0;
+		try (CsvRows reader = open(source, "calendar.txt");
+				OutputStream out = create("calendar.txt", reader)) {
+			int id = reader.getColumn("service_id");
+			int startDate = reader.getColumn("start_date");
+			int endDate = reader.getColumn("end_date");
+			int columns = CsvTableReader.split(reader.getHeaderLine(),
+					new ArrayList<String>()).size();
+
+			while (reader.next()) {
+				if (filtering() && !reader.isIn(id, usedServiceIds))
+					continue;
+				if (start == null) {
+					reader.copyLine(out);
+				} else {
+					if (!reader.isIn(id, serviceIds))
+						continue;
+					ServiceDate calendarStart = ServiceDate.parseString(reader
+							.get(startDate));
+					ServiceDate calendarEnd = ServiceDate.parseString(reader
+							.get(endDate));
+					if (start.compareTo(calendarEnd) > 0
+							|| end.compareTo(calendarStart) < 0)
+						continue;
+
+					// clamp the calendar to the timespan, like the
+					// TimespanDaoFilter does
+					List<String> fields = new ArrayList<>();
+					for (int i = 0; i < columns; i++)
+						fields.add(reader.get(i));
+					if (start.compareTo(calendarStart) > 0)
+						fields.set(startDate, start.getAsString());
+					if (end.compareTo(calendarEnd) < 0)
+						fields.set(endDate, end.getAsString());
+					writeLine(out, join(fields));
+				}
+				kept++;
+			}
+		}
+		LOG.info("Filtered down to {} calendars", kept);
+	}
+
+	private void writeCalendarDates(CsvInputSource source) throws IOException {
+		if (!source.hasResource("calendar_dates.txt"))
+			return;
+
+		int kept = 0;
+		try (CsvRows reader = open(source, "calendar_dates.txt");
+				OutputStream out = create("calendar_dates.txt", reader)) {
+			int id = reader.getColumn("service_id");
+			int date = reader.getColumn("date");
+
+			while (reader.next()) {
+				if (start != null
+						&& (!reader.isIn(id, serviceIds) || !overlaps(
+								reader.get(date), reader.get(date))))
+					continue;
+				if (filtering() && !reader.isIn(id, usedServiceIds))
+					continue;
+				reader.copyLine(out);
+				kept++;
+			}
+		}
+		LOG.info("Filtered down to {} calendardates", kept);
+	}
+
+	private void writeFrequencies(CsvInputSource source) throws IOException {
+		keepRows(source, "frequencies.txt", "trip_id", filtering() ? tripIds
+				: null);
+	}
+
+	private void writeShapes(CsvInputSource source) throws IOException {
+		keepRows(source, "shapes.txt", "shape_id", filtering() ? usedShapeIds
+				: null);
+	}
+
+	/**
+	 * Keeps the agencies of the retained routes.
+	 */
+	private void writeAgencies(CsvInputSource source) throws IOException {
+		if (!filtering()) {
+			copy(source, "agency.txt");
+			return;
+		}
+		if (!source.hasResource("agency.txt"))
+			return;
+
+		int total = 0, kept = 0;
+		try (CsvRows reader = open(source, "agency.txt");
+				OutputStream out = create("agency.txt", reader)) {
+			int id = reader.getColumn("agency_id");
+
+			while (reader.next()) {
+				total++;
+				if (!reader.isIn(id, usedAgencyIds)
+						&& !(total == 1 && usesDefaultAgency))
+					continue;
+				reader.copyLine(out);
+				kept++;
+			}
+		}
+		LOG.info("Filtered down agency.txt from {} to {} rows", total, kept);
+	}
+
+	/**
+	 * Keeps the transfers or pathways between two retained stops.
+	 */
+	private void writeStopPairs(CsvInputSource source, String file)
+			throws IOException {
+		if (!filtering()) {
+			copy(source, file);
+			return;
+		}
+		if (!source.hasResource(file))
+			return;
+
+		int total = 0, kept = 0;
+		try (CsvRows reader = open(source, file);
+				OutputStream out = create(file, reader)) {
+			int from = reader.getColumn("from_stop_id");
+			int to = reader.getColumn("to_stop_id");
+
+			while (reader.next()) {
+				total++;
+				if (!reader.isIn(from, keptStopIds)
+						|| !reader.isIn(to, keptStopIds))
+					continue;
+				reader.copyLine(out);
+				kept++;
+			}
+		}
+		LOG.info("Filtered down {} from {} to {} rows", new Object[] { file,
+				total, kept });
+	}
+
+	/**
+	 * Keeps the fare rules whose route and zones are retained, and the fares
+	 * of those rules. A fare without any rules is kept.
+	 */
+	private void writeFares(CsvInputSource source) throws IOException {
+		if (!filtering()) {
+			copy(source, "fare_rules.txt");
+			copy(source, "fare_attributes.txt");
+			return;
+		}
+
+		ByteSliceSet ruledFareIds = new ByteSliceSet();
+		ByteSliceSet usedFareIds = new ByteSliceSet();
+		if (source.hasResource("fare_rules.txt")) {
+			try (CsvRows reader = open(source, "fare_rules.txt");
+					OutputStream out = create("fare_rules.txt", reader)) {
+				int fare = reader.getColumn("fare_id");
+				int route = reader.getColumn("route_id");
+				int[] zones = new int[FARE_ZONE_COLUMNS.length];
+				for (int i = 0; i < zones.length; i++)
+					zones[i] = reader.getColumn(FARE_ZONE_COLUMNS[i]);
+
+				rules: while (reader.next()) {
+					reader.addTo(fare, ruledFareIds);
+					if (!reader.get(route).isEmpty()
+							&& !reader.isIn(route, keptRouteIds))
+						continue;
+					for (int zone : zones)
+						if (!reader.get(zone).isEmpty()
+								&& !reader.isIn(zone, usedZoneIds))
+							continue rules;
+					reader.addTo(fare, usedFareIds);
+					reader.copyLine(out);
+				}
+			}
+		}
+
+		if (!source.hasResource("fare_attributes.txt"))
+			return;
+		try (CsvRows reader = open(source, "fare_attributes.txt");
+				OutputStream out = create("fare_attributes.txt", reader)) {
+			int id = reader.getColumn("fare_id");
+
+			while (reader.next()) {
+				if (reader.isIn(id, ruledFareIds)
+						&& !reader.isIn(id, usedFareIds))
+					continue;
+				reader.copyLine(out);
+			}
+		}
+	}
+
+	/*
+	 * Helpers
+	 */
+
+	private boolean filtering() {
+		return locationFilter || start != null || transportTypes != null;
+	}
+
+	private boolean overlaps(String from, String to) {
+		return start.compareTo(ServiceDate.parseString(to)) <= 0
+				&& end.compareTo(ServiceDate.parseString(from)) >= 0;
+	}
+
+	/**
+	 * Copies the rows of the given file for which the value in the given
+	 * column is one of the given ids. If ids is null, every row is kept.
+	 */
+	private void keepRows(CsvInputSource source, String file, String column,
+			ByteSliceSet ids) throws IOException {
+		if (!source.hasResource(file))
+			return;
+
+		int total = 0, kept = 0;
+		try (CsvRows reader = open(source, file);
+				OutputStream out = create(file, reader)) {
+			int index = reader.getColumn(column);
+
+			while (reader.next()) {
+				total++;
+				if (ids == null || reader.isIn(index, ids)) {
+					reader.copyLine(out);
+					kept++;
+				}
+			}
+		}
+		LOG.info("Filtered down {} from {} to {} rows", new Object[] { file,
+				total, kept });
+	}
+
+	private void copy(CsvInputSource source, String file) throws IOException {
+		if (!source.hasResource(file))
+			return;
+
+		try (CsvRows reader = open(source, file);
+				OutputStream out = create(file, reader)) {
+			while (reader.next())
+				reader.copyLine(out);
+		}
+	}
+
+	private CsvRows open(CsvInputSource source, String file)
+			throws IOException {
+		if (input.isDirectory())
+			return new MappedCsvReader(new File(input, file));
+		return new CsvTableReader(source.getResource(file));
+	}
+
+	/**
+	 * @return the stream for the rows of the given file, which is only
+	 *         created with its first row: like the in-memory mode, a file
+	 *         without rows is left out
+	 */
+	private OutputStream create(final String file, final CsvRows reader) {
+		return new OutputStream() {
+			private OutputStream out;
+
+			@Override
+			public void write(int b) throws IOException {
+				open().write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				open().write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (out != null)
+					out.close();
+			}
+
+			private OutputStream open() throws IOException {
+				if (out == null) {
+					out = target.create(file);
+					writeLine(out, reader.getHeaderLine());
+				}
+				return out;
+			}
+		};
+	}
+
+	private static void writeLine(OutputStream out, String line)
+			throws IOException {
+		out.write(line.getBytes(StandardCharsets.UTF_8));
+		out.write('\n');
+	}
+
+	private static String join(List<String> fields) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < fields.size(); i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append(CSVLibrary.escapeValue(fields.get(i)));
+		}
+		return sb.toString();
+	}
+}
@@ -1,15 +1,18 @@
 package be.ugent.intec.gtfsfilter.transformers;
 
-import org.onebusaway.gtfs.model.AgencyAndId;
-import org.onebusaway.gtfs.model.ServiceCalendar;
-import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.OrdinalFunction;
 
-import com.google.common.base.Function;
+public final class ServiceCalendarDateToServiceIdFunction implements OrdinalFunction {
+
+	private final GtfsIndex index;
+
+	public ServiceCalendarDateToServiceIdFunction(GtfsIndex index) {
+		this.index = index;
+	}
 
-public final class ServiceCalendarDateToServiceIdFunction implements
-		Function<ServiceCalendarDate, AgencyAndId> {
 	@Override
-	public AgencyAndId apply(ServiceCalendarDate input) {
-		return input.getServiceId();
+	public int apply(int input) {
+		return index.getCalendarDateService(input);
 	}
 }
\ No newline at end of file
@@ -1,14 +1,18 @@
 package be.ugent.intec.gtfsfilter.transformers;
 
-import org.onebusaway.gtfs.model.AgencyAndId;
-import org.onebusaway.gtfs.model.ServiceCalendar;
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.OrdinalFunction;
 
-import com.google.common.base.Function;
+public final class ServiceCalendarToServiceIdFunction implements OrdinalFunction {
+
+	private final GtfsIndex index;
+
+	public ServiceCalendarToServiceIdFunction(GtfsIndex index) {
+		this.index = index;
+	}
 
-public final class ServiceCalendarToServiceIdFunction implements
-		Function<ServiceCalendar, AgencyAndId> {
 	@Override
-	public AgencyAndId apply(ServiceCalendar input) {
-		return input.getServiceId();
+	public int apply(int input) {
+		return index.getCalendarService(input);
 	}
 }
\ No newline at end of file
@@ -1,14 +1,18 @@
 package be.ugent.intec.gtfsfilter.transformers;
 
-import org.onebusaway.gtfs.model.Stop;
-import org.onebusaway.gtfs.model.StopTime;
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.OrdinalFunction;
 
-import com.google.common.base.Function;
+public final class StopTimeToStopFunction implements OrdinalFunction {
+
+	private final GtfsIndex index;
+
+	public StopTimeToStopFunction(GtfsIndex index) {
+		this.index = index;
+	}
 
-public final class StopTimeToStopFunction implements
-		Function<StopTime, Stop> {
 	@Override
-	public Stop apply(StopTime input) {
-		return input.getStop();
+	public int apply(int input) {
+		return index.getStopTimeStop(input);
 	}
 }
\ No newline at end of file
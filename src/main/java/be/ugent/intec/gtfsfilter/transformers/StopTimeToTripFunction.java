@@ -1,14 +1,18 @@
 package be.ugent.intec.gtfsfilter.transformers;
 
-import org.onebusaway.gtfs.model.StopTime;
-import org.onebusaway.gtfs.model.Trip;
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.OrdinalFunction;
 
-import com.google.common.base.Function;
+public final class StopTimeToTripFunction implements OrdinalFunction {
+
+	private final GtfsIndex index;
+
+	public StopTimeToTripFunction(GtfsIndex index) {
+		this.index = index;
+	}
 
-public final class StopTimeToTripFunction implements
-		Function<StopTime, Trip> {
 	@Override
-	public Trip apply(StopTime input) {
-		return input.getTrip();
+	public int apply(int input) {
+		return index.getStopTimeTrip(input);
 	}
 }
\ No newline at end of file
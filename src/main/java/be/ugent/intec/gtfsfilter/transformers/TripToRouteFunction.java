@@ -1,14 +1,18 @@
 package be.ugent.intec.gtfsfilter.transformers;
 
-import org.onebusaway.gtfs.model.Route;
-import org.onebusaway.gtfs.model.Trip;
+import be.ugent.intec.gtfsfilter.index.GtfsIndex;
+import be.ugent.intec.gtfsfilter.index.OrdinalFunction;
 
-import com.google.common.base.Function;
+public final class TripToRouteFunction implements OrdinalFunction {
+
+	private final GtfsIndex index;
+
+	public TripToRouteFunction(GtfsIndex index) {
+		this.index = index;
+	}
 
-public final class TripToRouteFunction implements
-		Function<Trip, Route> {
 	@Override
-	public Route apply(Trip input) {
-		return input.getRoute();
+	public int apply(int input) {
+		return index.getTripRoute(input);
 	}
 }
\ No newline at end of file
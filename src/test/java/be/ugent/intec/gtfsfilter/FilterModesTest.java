@@ -0,0 +1,237 @@
+package be.ugent.intec.gtfsfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import be.ugent.intec.gtfsfilter.spatial.BoxRegion;
+import be.ugent.intec.gtfsfilter.spatial.Region;
+import be.ugent.intec.gtfsfilter.streaming.StreamingGtfsFilter;
+
+/**
+ * Filters a small feed in memory and while streaming, and checks that both
+ * modes write the same files.
+ */
+public class FilterModesTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File feed;
+
+	@Before
+	public void writeFeed() throws IOException {
+		feed = folder.newFolder("feed");
+		write("agency.txt", "agency_id,agency_name,agency_url,agency_timezone",
+				"A,Agency,http://example.com,Europe/Brussels",
+				"B,Trams,http://example.com,Europe/Brussels");
+		write("stops.txt",
+				"stop_id,stop_name,stop_lat,stop_lon,zone_id,location_type,parent_station",
+				"S1,One,51.0,3.0,Z1,0,P1", "S2,Two,51.1,3.1,Z1,0,",
+				"S3,Three,51.2,3.2,Z2,0,", "S4,Unserved,51.05,3.05,Z1,0,",
+				"P1,Station,50.9,2.9,,1,");
+		write("routes.txt",
+				"route_id,agency_id,route_short_name,route_long_name,route_type",
+				"R1,A,1,Bus,3", "R2,B,2,Tram,0", "R3,A,3,Unused,3");
+		write("transfers.txt", "from_stop_id,to_stop_id,transfer_type",
+				"S1,S2,0", "S2,S3,0", "S4,S1,0");
+		write("fare_attributes.txt",
+				"fare_id,price,currency_type,payment_method,transfers",
+				"F1,2.0,EUR,0,0", "F2,3.0,EUR,0,0", "F3,9.0,EUR,0,0");
+		write("fare_rules.txt", "fare_id,route_id,origin_id,destination_id",
+				"F1,R1,,", "F2,,Z2,Z1");
+		write("feed_info.txt",
+				"feed_publisher_name,feed_publisher_url,feed_lang",
+				"Publisher,http://example.com,nl");
+		write("trips.txt", "route_id,service_id,trip_id", "R1,SV1,T1",
+				"R2,SV2,T2");
+		write("stop_times.txt",
+				"trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+				"T1,08:00:00,08:00:00,S1,1", "T1,08:10:00,08:10:00,S2,2",
+				"T2,09:00:00,09:00:00,S2,1", "T2,09:10:00,09:10:00,S3,2");
+		write("calendar.txt",
+				"service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date",
+				"SV1,1,1,1,1,1,1,1,20130101,20131231",
+				"SV2,1,1,1,1,1,0,0,20130301,20130331",
+				"SV3,0,0,0,0,0,1,1,20130101,20131231");
+		write("calendar_dates.txt", "service_id,date,exception_type",
+				"SV2,20130305,2");
+	}
+
+	@Test
+	public void clampsCalendarsToTheTimespan() throws IOException {
+		ServiceDate start = new ServiceDate(2013, 3, 2), end = new ServiceDate(
+				2013, 3, 9);
+		Map<String, String> files = compare(start, end);
+
+		assertEquals(
+				"service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n"
+						+ "SV1,1,1,1,1,1,1,1,20130302,20130309\n"
+						+ "SV2,1,1,1,1,1,0,0,20130302,20130309\n",
+				files.get("calendar.txt"));
+		assertTrue(files.containsKey("calendar_dates.txt"));
+	}
+
+	@Test
+	public void keepsCalendarsInsideTheTimespan() throws IOException {
+		Map<String, String> files = compare(new ServiceDate(2012, 1, 1),
+				new ServiceDate(2014, 1, 1));
+
+		assertTrue(files.get("calendar.txt").contains(
+				"SV2,1,1,1,1,1,0,0,20130301,20130331\n"));
+	}
+
+	@Test
+	public void leavesOutFilesWithoutRows() throws IOException {
+		Map<String, String> files = compare(new ServiceDate(2013, 6, 1),
+				new ServiceDate(2013, 6, 1));
+
+		assertFalse(files.containsKey("calendar_dates.txt"));
+		assertEquals(Arrays.asList("S1", "S2", "P1"), ids(files, "stops.txt"));
+		assertEquals(Arrays.asList("SV1"), ids(files, "calendar.txt"));
+		// F2 lost the zone of S3, F3 never had a rule
+		assertEquals(Arrays.asList("F1", "F3"),
+				ids(files, "fare_attributes.txt"));
+	}
+
+	@Test
+	public void filtersOnLocation() throws IOException {
+		Map<String, String> files = compare(new BoxRegion(50.95, 2.95, 51.15,
+				3.15), null, null);
+
+		// the unserved stop inside the box stays, with the station of S1
+		assertEquals(Arrays.asList("S1", "S2", "S4", "P1"),
+				ids(files, "stops.txt"));
+		assertEquals(Arrays.asList("S1", "S4"), ids(files, "transfers.txt"));
+		assertEquals(Arrays.asList("T1", "T1", "T2"),
+				ids(files, "stop_times.txt"));
+	}
+
+	@Test
+	public void filtersOnTransportTypes() throws IOException {
+		Map<String, String> files = compare(null, null, null, 0);
+
+		assertEquals(Arrays.asList("B"), ids(files, "agency.txt"));
+		assertEquals(Arrays.asList("S2", "S3"), ids(files, "stops.txt"));
+		assertEquals(Arrays.asList("F2", "F3"),
+				ids(files, "fare_attributes.txt"));
+	}
+
+	@Test
+	public void dropsRoutesWithoutTrips() throws IOException {
+		Map<String, String> files = compare(null, null, null, 3);
+
+		assertEquals(Arrays.asList("R1"), ids(files, "routes.txt"));
+		assertEquals(Arrays.asList("A"), ids(files, "agency.txt"));
+	}
+
+	@Test
+	public void combinesTheFilters() throws IOException {
+		Map<String, String> files = compare(new BoxRegion(50.95, 2.95, 51.15,
+				3.15), new ServiceDate(2013, 3, 2), new ServiceDate(2013, 3, 9),
+				3);
+
+		assertEquals(Arrays.asList("R1"), ids(files, "routes.txt"));
+		// with other filters, unserved stops go
+		assertEquals(Arrays.asList("S1", "S2", "P1"), ids(files, "stops.txt"));
+		assertFalse(files.containsKey("calendar_dates.txt"));
+	}
+
+	@Test
+	public void combinesFiltersWithoutMatches() throws IOException {
+		Map<String, String> files = compare(new BoxRegion(50.95, 2.95, 51.05,
+				3.05), null, null, 0);
+
+		assertEquals(Collections.singleton("fare_attributes.txt"),
+				files.keySet());
+	}
+
+	private Map<String, String> compare(ServiceDate start, ServiceDate end)
+			throws IOException {
+		return compare(null, start, end);
+	}
+
+	/**
+	 * Filters the feed in both modes on the region, the timespan and the
+	 * transport types, each of which is left out when null or empty.
+	 *
+	 * @return the files of the output, which are the same for both
+	 */
+	private Map<String, String> compare(Region region, ServiceDate start,
+			ServiceDate end, int... transportTypes) throws IOException {
+		File inMemory = new File(folder.getRoot(), "in-memory");
+		FilterJob job = new FilterJob(inMemory);
+		File streamed = new File(folder.getRoot(), "streamed");
+		StreamingGtfsFilter filter = new StreamingGtfsFilter(feed, streamed);
+		if (region != null) {
+			job.addRegion(region);
+			filter.addRegion(region);
+		}
+		if (start != null) {
+			job.setTimespan(start, end);
+			filter.setTimespan(start, end);
+		}
+		if (transportTypes.length > 0) {
+			job.setTransportTypes(transportTypes);
+			filter.setTransportTypes(transportTypes);
+		}
+		job.run(feed, new LazyGtfsDao(feed));
+		filter.run();
+
+		// the dao doesn't read feed_info.txt, which streaming copies as is
+		Map<String, String> streamedFiles = read(streamed);
+		assertEquals(read(feed).get("feed_info.txt"),
+				streamedFiles.remove("feed_info.txt"));
+
+		Map<String, String> files = read(inMemory);
+		assertEquals(files, streamedFiles);
+		return files;
+	}
+
+	/**
+	 * @return the first column of every row of the given file
+	 */
+	private static List<String> ids(Map<String, String> files, String file) {
+		List<String> ids = new ArrayList<>();
+		String contents = files.get(file);
+		if (contents != null) {
+			String[] lines = contents.split("\n");
+			for (int i = 1; i < lines.length; i++)
+				ids.add(lines[i].split(",", -1)[0]);
+		}
+		return ids;
+	}
+
+	private void write(String file, String... lines) throws IOException {
+		StringBuilder contents = new StringBuilder();
+		for (String line : lines)
+			contents.append(line).append('\n');
+		Files.write(new File(feed, file).toPath(), contents.toString()
+				.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static Map<String, String> read(File folder) throws IOException {
+		Map<String, String> files = new TreeMap<>();
+		for (File file : folder.listFiles())
+			files.put(file.getName(), new String(Files.readAllBytes(file
+					.toPath()), StandardCharsets.UTF_8));
+		return files;
+	}
+}
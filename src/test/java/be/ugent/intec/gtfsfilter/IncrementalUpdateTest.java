@@ -0,0 +1,221 @@
+package be.ugent.intec.gtfsfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import be.ugent.intec.gtfsfilter.output.ExtractManifest;
+import be.ugent.intec.gtfsfilter.report.RunReport;
+
+/**
+ * Runs the same extraction of a small feed again after changing the feed, and
+ * checks that the update writes what a full run writes.
+ */
+public class IncrementalUpdateTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File feed;
+
+	@Before
+	public void writeFeed() throws IOException {
+		feed = folder.newFolder("feed");
+		write("agency.txt", "agency_id,agency_name,agency_url,agency_timezone",
+				"A,Agency,http://example.com,Europe/Brussels");
+		write("stops.txt", "stop_id,stop_name,stop_lat,stop_lon",
+				"S1,One,51.0,3.0", "S2,Two,51.1,3.1", "S3,Three,51.2,3.2");
+		write("routes.txt",
+				"route_id,agency_id,route_short_name,route_long_name,route_type",
+				"R1,A,1,Bus,3", "R2,A,2,Tram,0");
+		write("trips.txt", "route_id,service_id,trip_id,shape_id",
+				"R1,SV1,T1,SH1", "R2,SV2,T2,SH2");
+		write("stop_times.txt",
+				"trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+				"T1,08:00:00,08:00:00,S1,1", "T1,08:10:00,08:10:00,S2,2",
+				"T2,09:00:00,09:00:00,S2,1", "T2,09:10:00,09:10:00,S3,2");
+		write("shapes.txt",
+				"shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence",
+				"SH1,51.0,3.0,1", "SH1,51.1,3.1,2", "SH2,51.1,3.1,1",
+				"SH2,51.2,3.2,2");
+		write("calendar.txt",
+				"service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date",
+				"SV1,1,1,1,1,1,1,1,20130101,20131231",
+				"SV2,1,1,1,1,1,0,0,20130301,20130331");
+		write("calendar_dates.txt", "service_id,date,exception_type",
+				"SV1,20130305,2", "SV2,20130305,2");
+	}
+
+	@Test
+	public void updatesAFolder() throws IOException {
+		checkUpdate(new File(folder.getRoot(), "extract"));
+	}
+
+	@Test
+	public void updatesAZipFile() throws IOException {
+		checkUpdate(new File(folder.getRoot(), "extract.zip"));
+	}
+
+	@Test
+	public void filtersInFullWhenADecisiveFileChanges() throws IOException {
+		File output = new File(folder.getRoot(), "extract");
+		extract(output, "-u");
+
+		// every filter keeps the stop_times along with their trips
+		write("stop_times.txt",
+				"trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+				"T1,08:00:00,08:00:00,S1,1", "T1,08:12:00,08:12:00,S2,2",
+				"T2,09:00:00,09:00:00,S2,1", "T2,09:10:00,09:10:00,S3,2");
+		extract(output, "-u");
+
+		assertTrue(stages(output).contains("read"));
+		assertEquals(read(extract(new File(folder.getRoot(), "full"))),
+				read(output));
+	}
+
+	@Test
+	public void keepsAnUnchangedExtract() throws IOException {
+		File output = new File(folder.getRoot(), "extract");
+		extract(output, "-u");
+		Map<String, String> files = read(output);
+
+		extract(output, "-u");
+
+		assertEquals(Arrays.asList("update"), stages(output));
+		assertEquals(files, read(output));
+	}
+
+	@Test
+	public void readsTheManifestItWrote() throws IOException {
+		Map<String, Long> inputs = new TreeMap<>(), outputs = new TreeMap<>();
+		inputs.put("trips.txt", 1L);
+		inputs.put("stops.txt", -1L);
+		outputs.put("trips.txt", Long.MAX_VALUE);
+		Map<String, Set<String>> keys = new LinkedHashMap<>();
+		keys.put("trips", new LinkedHashSet<>(Arrays.asList("T2", "T1")));
+		keys.put("services", new LinkedHashSet<String>());
+
+		File file = new File(folder.getRoot(), "extract.manifest");
+		new ExtractManifest("-t 3\t-d x", inputs, outputs, keys).write(file);
+		ExtractManifest manifest = ExtractManifest.read(file);
+
+		assertEquals("-t 3\t-d x", manifest.getParameters());
+		assertEquals(inputs, manifest.getInputs());
+		assertEquals(outputs, manifest.getOutputs());
+		assertEquals(keys.get("trips"), manifest.getKeys("trips"));
+		assertTrue(manifest.getKeys("services").isEmpty());
+		assertTrue(manifest.getKeys("shapes").isEmpty());
+		assertEquals(file,
+				ExtractManifest.locationFor(new File(folder.getRoot(),
+						"extract.zip")));
+	}
+
+	/**
+	 * Changes calendar_dates.txt after a first run and checks that the second
+	 * run only updates the output, to the same files as a full run.
+	 */
+	private void checkUpdate(File output) throws IOException {
+		extract(output, "-u");
+		assertTrue(ExtractManifest.locationFor(output).isFile());
+
+		write("calendar_dates.txt", "service_id,date,exception_type",
+				"SV1,20130305,2", "SV1,20130306,2", "SV2,20130307,2");
+		extract(output, "-u");
+
+		assertFalse(stages(output).contains("read"));
+		Map<String, String> files = read(output);
+		assertEquals("service_id,date,exception_type\n"
+				+ "SV1,20130305,2\nSV1,20130306,2\n",
+				files.get("calendar_dates.txt"));
+		assertEquals(read(extract(new File(folder.getRoot(), "full"
+				+ output.getName()))), files);
+	}
+
+	/**
+	 * Extracts the buses of the feed.
+	 */
+	private File extract(File output, String... options) {
+		String[] arguments = new String[options.length + 6];
+		System.arraycopy(options, 0, arguments, 0, options.length);
+		System.arraycopy(new String[] { "-m", "-t", "bus", "-o",
+				output.getPath(), feed.getPath() }, 0, arguments,
+				options.length, 6);
+		Main.main(arguments);
+		return output;
+	}
+
+	/**
+	 * @return the names of the top-level stages in the report of the last run
+	 *         that wrote to the output
+	 */
+	private static List<String> stages(File output) throws IOException {
+		String json = new String(Files.readAllBytes(RunReport.locationFor(
+				output).toPath()), StandardCharsets.UTF_8);
+		List<String> stages = new ArrayList<>();
+		for (String line : json.split("\n"))
+			if (line.contains("\"depth\": 0"))
+				stages.add(line.replaceFirst(".*\"name\": \"([^\"]*)\".*",
+						"$1"));
+		return stages;
+	}
+
+	private void write(String file, String... lines) throws IOException {
+		StringBuilder contents = new StringBuilder();
+		for (String line : lines)
+			contents.append(line).append('\n');
+		Files.write(new File(feed, file).toPath(), contents.toString()
+				.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return the contents of every file of the folder or zip archive
+	 */
+	private static Map<String, String> read(File output) throws IOException {
+		Map<String, String> files = new TreeMap<>();
+		if (output.isDirectory()) {
+			for (File file : output.listFiles())
+				files.put(file.getName(), new String(Files.readAllBytes(file
+						.toPath()), StandardCharsets.UTF_8));
+			return files;
+		}
+		try (ZipFile zip = new ZipFile(output)) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				try (InputStream in = zip.getInputStream(entry)) {
+					byte[] bytes = new byte[(int) entry.getSize()];
+					int offset = 0;
+					for (int read; offset < bytes.length
+							&& (read = in.read(bytes, offset, bytes.length
+									- offset)) > 0;)
+						offset += read;
+					files.put(entry.getName(), new String(bytes,
+							StandardCharsets.UTF_8));
+				}
+			}
+		}
+		return files;
+	}
+}
@@ -0,0 +1,124 @@
+package be.ugent.intec.gtfsfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.onebusaway.gtfs.model.Trip;
+
+import be.ugent.intec.gtfsfilter.spatial.BoxRegion;
+import be.ugent.intec.gtfsfilter.spatial.Region;
+
+/**
+ * Clips the shapes of a small feed to a box around its first stop.
+ */
+public class ShapeClippingTest {
+
+	private static final Region BOX = new BoxRegion(50.95, 3.65, 51.05, 3.75);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File feed;
+
+	@Before
+	public void writeFeed() throws IOException {
+		feed = folder.newFolder("feed");
+		write("agency.txt", "agency_id,agency_name,agency_url,agency_timezone",
+				"A,Agency,http://example.com,Europe/Brussels");
+		write("stops.txt", "stop_id,stop_name,stop_lat,stop_lon",
+				"S1,One,51.0,3.7", "S2,Two,51.3,4.0");
+		write("routes.txt",
+				"route_id,agency_id,route_short_name,route_long_name,route_type",
+				"R,A,1,Bus,3");
+		write("calendar.txt",
+				"service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date",
+				"SV,1,1,1,1,1,1,1,20130101,20131231");
+	}
+
+	@Test
+	public void dropsTheShapeOfTripsWithoutPointsInside() throws IOException {
+		// the only segment crosses the box without a point inside it
+		writeTrip("SH", "SH,50.9,3.6,1", "SH,51.3,4.0,2");
+
+		Map<String, String> files = clip();
+
+		assertEquals("route_id,service_id,trip_id,shape_id\nR,SV,T,\n",
+				files.get("trips.txt"));
+		assertFalse(files.containsKey("shapes.txt"));
+	}
+
+	@Test
+	public void keepsTheShapeOfTripsWithPointsInside() throws IOException {
+		writeTrip("SH", "SH,50.9,3.6,1", "SH,51.0,3.7,2", "SH,51.1,3.8,3",
+				"SH,51.3,4.0,4");
+
+		Map<String, String> files = clip();
+
+		assertEquals("route_id,service_id,trip_id,shape_id\nR,SV,T,SH\n",
+				files.get("trips.txt"));
+		assertEquals("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n"
+				+ "SH,50.9,3.6,1\nSH,51.0,3.7,2\nSH,51.1,3.8,3\n",
+				files.get("shapes.txt"));
+	}
+
+	@Test
+	public void handsOutTripsWithoutTheirShape() throws IOException {
+		writeTrip("SH", "SH,50.9,3.6,1", "SH,51.3,4.0,2");
+
+		ShapeDaoFilter filter = new ShapeDaoFilter(new LazyGtfsDao(feed),
+				new Region[] { BOX }, 0);
+
+		Trip trip = filter.getAllTrips().iterator().next();
+		assertNull(trip.getShapeId());
+		assertEquals(0, filter.getAllShapePoints().size());
+	}
+
+	private Map<String, String> clip() throws IOException {
+		File output = new File(folder.getRoot(), "output");
+		FilterJob job = new FilterJob(output);
+		job.addRegion(BOX);
+		job.setClip(true);
+		job.run(feed, new LazyGtfsDao(feed));
+		return read(output);
+	}
+
+	private void writeTrip(String shape, String... points) throws IOException {
+		write("trips.txt", "route_id,service_id,trip_id,shape_id", "R,SV,T,"
+				+ shape);
+		write("stop_times.txt",
+				"trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+				"T,08:00:00,08:00:00,S1,1", "T,08:10:00,08:10:00,S2,2");
+		String[] lines = new String[points.length + 1];
+		lines[0] = "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence";
+		System.arraycopy(points, 0, lines, 1, points.length);
+		write("shapes.txt", lines);
+	}
+
+	private void write(String file, String... lines) throws IOException {
+		StringBuilder contents = new StringBuilder();
+		for (String line : lines)
+			contents.append(line).append('\n');
+		Files.write(new File(feed, file).toPath(), contents.toString()
+				.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static Map<String, String> read(File folder) throws IOException {
+		Map<String, String> files = new TreeMap<>();
+		for (File file : folder.listFiles())
+			files.put(file.getName(), new String(Files.readAllBytes(file
+					.toPath()), StandardCharsets.UTF_8));
+		return files;
+	}
+}
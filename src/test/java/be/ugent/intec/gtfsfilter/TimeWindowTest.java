@@ -0,0 +1,186 @@
+package be.ugent.intec.gtfsfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+/**
+ * Filters a small feed on windows of the day. T1 runs from 08:00 to 08:30
+ * with an untimed stop in between, T2 runs from 23:30 to 25:30 every day, T3
+ * runs from 24:30 to 25:00 only on service day 2013-03-04, and T4 is a
+ * ten-minute template that starts every half hour from 06:00 up to 07:00.
+ */
+public class TimeWindowTest {
+
+	private static final int HOUR = 60 * 60, MINUTE = 60;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File feed;
+
+	@Before
+	public void writeFeed() throws IOException {
+		feed = folder.newFolder("feed");
+		write("agency.txt", "agency_id,agency_name,agency_url,agency_timezone",
+				"A,Agency,http://example.com,Europe/Brussels");
+		write("stops.txt", "stop_id,stop_name,stop_lat,stop_lon",
+				"S1,One,51.0,3.0", "S2,Two,51.1,3.1", "S3,Three,51.2,3.2");
+		write("routes.txt",
+				"route_id,agency_id,route_short_name,route_long_name,route_type",
+				"R,A,1,Bus,3");
+		write("trips.txt", "route_id,service_id,trip_id", "R,SV1,T1",
+				"R,SV1,T2", "R,SV2,T3", "R,SV1,T4");
+		write("stop_times.txt",
+				"trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+				"T1,08:00:00,08:00:00,S1,1", "T1,,,S2,2",
+				"T1,08:30:00,08:30:00,S3,3", "T2,23:30:00,23:30:00,S1,1",
+				"T2,25:30:00,25:30:00,S2,2", "T3,24:30:00,24:30:00,S2,1",
+				"T3,25:00:00,25:00:00,S3,2", "T4,00:00:00,00:00:00,S1,1",
+				"T4,00:10:00,00:10:00,S3,2");
+		write("frequencies.txt",
+				"trip_id,start_time,end_time,headway_secs",
+				"T4,06:00:00,07:00:00,1800");
+		write("calendar.txt",
+				"service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date",
+				"SV1,1,1,1,1,1,1,1,20130301,20130331");
+		write("calendar_dates.txt", "service_id,date,exception_type",
+				"SV2,20130304,1");
+	}
+
+	@Test
+	public void keepsTheTripsUnderWay() throws IOException {
+		assertEquals(Arrays.asList("T1"), trips(window(8, 10, 8, 20)));
+		assertEquals(Arrays.asList("T1"), trips(window(7, 0, 8, 0)));
+		assertEquals(Arrays.asList(), trips(window(9, 0, 12, 0)));
+	}
+
+	@Test
+	public void matchesTimesPastMidnight() throws IOException {
+		// 24:30 is half past midnight on the day after the service day
+		assertEquals(Arrays.asList("T2", "T3"), trips(window(0, 30, 0, 45)));
+		assertEquals(Arrays.asList("T2"), trips(window(1, 15, 2, 0)));
+		assertEquals(Arrays.asList("T2"), trips(window(23, 40, 23, 50)));
+	}
+
+	@Test
+	public void wrapsAroundMidnight() throws IOException {
+		assertEquals(Arrays.asList("T2", "T3"), trips(window(23, 45, 0, 35)));
+		assertEquals(Arrays.asList("T2"), trips(window(22, 0, 0, 10)));
+		assertEquals(Arrays.asList("T1", "T2", "T3", "T4"),
+				trips(window(8, 20, 8, 0)));
+	}
+
+	@Test
+	public void matchesTheInstancesOfFrequencies() throws IOException {
+		assertEquals(Arrays.asList("T4"), trips(window(6, 5, 6, 6)));
+		assertEquals(Arrays.asList("T4"), trips(window(6, 35, 6, 36)));
+		// between the instances and after the last one
+		assertEquals(Arrays.asList(), trips(window(6, 15, 6, 25)));
+		assertEquals(Arrays.asList(), trips(window(6, 45, 7, 30)));
+
+		TimeWindowDaoFilter filter = window(6, 35, 6, 36);
+		assertEquals(1, filter.getAllFrequencies().size());
+		// the template keeps all of its stop times, even with -i
+		assertEquals(Arrays.asList("S1", "S3"),
+				stops(new TimeWindowDaoFilter(read(), 6 * HOUR + 35 * MINUTE,
+						6 * HOUR + 36 * MINUTE, true)));
+	}
+
+	@Test
+	public void placesUntimedStopsBetweenTheirNeighbours() throws IOException {
+		TimeWindowDaoFilter filter = new TimeWindowDaoFilter(read(), 8 * HOUR
+				+ 10 * MINUTE, 8 * HOUR + 20 * MINUTE, true);
+
+		assertEquals(Arrays.asList("T1"), trips(filter));
+		assertEquals(Arrays.asList("S2"), stops(filter));
+
+		filter = new TimeWindowDaoFilter(read(), 8 * HOUR + 30 * MINUTE,
+				9 * HOUR, true);
+		assertEquals(Arrays.asList("S2", "S3"), stops(filter));
+	}
+
+	@Test
+	public void matchesTheServiceDayOfTheWindow() throws IOException {
+		ServiceDate day = new ServiceDate(2013, 3, 5);
+		TimeWindowDaoFilter filter = new TimeWindowDaoFilter(read(),
+				30 * MINUTE, 45 * MINUTE, false, day, day);
+
+		// T3 runs on service day 2013-03-04, so half past midnight on the 5th
+		assertEquals(Arrays.asList("T2", "T3"), trips(filter));
+		assertEquals(new ServiceDate(2013, 3, 4), filter.getFirstServiceDate());
+		assertEquals(day, filter.getLastServiceDate());
+
+		day = new ServiceDate(2013, 3, 4);
+		filter = new TimeWindowDaoFilter(read(), 30 * MINUTE, 45 * MINUTE,
+				false, day, day);
+		assertEquals(Arrays.asList("T2"), trips(filter));
+
+		// a window across midnight reaches into the day after the timespan
+		filter = new TimeWindowDaoFilter(read(), 23 * HOUR, 30 * MINUTE,
+				false, day, day);
+		assertEquals(new ServiceDate(2013, 3, 3), filter.getFirstServiceDate());
+		assertEquals(new ServiceDate(2013, 3, 5), filter.getLastServiceDate());
+	}
+
+	@Test
+	public void hasNoServiceDatesWithoutTimespan() throws IOException {
+		TimeWindowDaoFilter filter = window(8, 0, 9, 0);
+
+		assertNull(filter.getFirstServiceDate());
+		assertNull(filter.getLastServiceDate());
+	}
+
+	private TimeWindowDaoFilter window(int fromHour, int fromMinute,
+			int toHour, int toMinute) throws IOException {
+		return new TimeWindowDaoFilter(read(), fromHour * HOUR + fromMinute
+				* MINUTE, toHour * HOUR + toMinute * MINUTE, false);
+	}
+
+	private static List<String> trips(TimeWindowDaoFilter filter) {
+		List<String> ids = new ArrayList<>();
+		for (Trip trip : filter.getAllTrips())
+			ids.add(trip.getId().getId());
+		return ids;
+	}
+
+	private static List<String> stops(TimeWindowDaoFilter filter) {
+		List<String> ids = new ArrayList<>();
+		for (StopTime stopTime : filter.getAllStopTimes())
+			ids.add(stopTime.getStop().getId().getId());
+		return ids;
+	}
+
+	private InsertionOrderedGtfsDao read() throws IOException {
+		InsertionOrderedGtfsDao dao = new InsertionOrderedGtfsDao();
+		GtfsReader reader = new GtfsReader();
+		reader.setInputLocation(feed);
+		reader.setEntityStore(dao);
+		reader.run();
+		return dao;
+	}
+
+	private void write(String file, String... lines) throws IOException {
+		StringBuilder contents = new StringBuilder();
+		for (String line : lines)
+			contents.append(line).append('\n');
+		Files.write(new File(feed, file).toPath(), contents.toString()
+				.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,174 @@
+package be.ugent.intec.gtfsfilter.columnar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+import org.onebusaway.gtfs.serialization.GtfsWriter;
+
+import be.ugent.intec.gtfsfilter.InsertionOrderedGtfsDao;
+
+/**
+ * Saves snapshots of a small feed and checks that the daos they load write
+ * the same feed as a fresh parse.
+ */
+public class FeedSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File feed, snapshot;
+
+	@Before
+	public void writeFeed() throws IOException {
+		feed = folder.newFolder("feed");
+		snapshot = FeedSnapshot.locationFor(feed);
+		write("agency.txt", "agency_id,agency_name,agency_url,agency_timezone",
+				"A,Agency,http://example.com,Europe/Brussels",
+				"B,Trams,http://example.com,Europe/Brussels");
+		write("stops.txt",
+				"stop_id,stop_name,stop_lat,stop_lon,zone_id,location_type,parent_station",
+				"S1,One,51.0,3.0,Z1,0,P1", "S2,Tw\u00e9\u00e9,51.1,3.1,Z1,0,",
+				"S3,\"Three, Four\",51.2,3.2,Z2,0,", "P1,Station,50.9,2.9,,1,");
+		write("routes.txt",
+				"route_id,agency_id,route_short_name,route_long_name,route_type",
+				"R1,A,1,Bus,3", "R2,B,2,Tram,0");
+		write("trips.txt", "route_id,service_id,trip_id,shape_id",
+				"R1,SV1,T1,SH1", "R2,SV2,T2,", "R1,SV1,T3,SH1");
+		write("stop_times.txt",
+				"trip_id,arrival_time,departure_time,stop_id,stop_sequence,stop_headsign,pickup_type,shape_dist_traveled",
+				"T1,08:00:00,08:00:00,S1,1,,0,0",
+				"T1,,,S2,2,Centrum,1,1.5",
+				"T1,08:10:00,08:11:00,S3,3,,0,3.25",
+				"T2,25:00:00,25:00:00,S2,1,,,",
+				"T2,25:10:00,25:10:00,S3,2,,,",
+				"T3,00:00:00,00:00:00,S1,1,,,",
+				"T3,00:05:00,00:05:00,S3,2,,,");
+		write("frequencies.txt", "trip_id,start_time,end_time,headway_secs",
+				"T3,06:00:00,07:00:00,600");
+		write("shapes.txt",
+				"shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence,shape_dist_traveled",
+				"SH1,51.0,3.0,1,0", "SH1,51.15,3.15,2,1.7",
+				"SH1,51.2,3.2,3,3.25");
+		write("calendar.txt",
+				"service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date",
+				"SV1,1,1,1,1,1,0,0,20130101,20131231");
+		write("calendar_dates.txt", "service_id,date,exception_type",
+				"SV1,20130501,2", "SV2,20130505,1");
+		write("transfers.txt",
+				"from_stop_id,to_stop_id,transfer_type,min_transfer_time",
+				"S1,S2,2,120");
+		write("fare_attributes.txt",
+				"fare_id,price,currency_type,payment_method,transfers",
+				"F1,2.0,EUR,0,0");
+		write("fare_rules.txt", "fare_id,route_id,origin_id,destination_id",
+				"F1,R1,Z1,Z2");
+	}
+
+	@Test
+	public void loadsWhatWasParsed() throws IOException {
+		checkRoundTrip(new InsertionOrderedGtfsDao(),
+				new InsertionOrderedGtfsDao());
+	}
+
+	@Test
+	public void loadsWhatWasParsedIntoColumns() throws IOException {
+		checkRoundTrip(new ColumnarGtfsDao(), new ColumnarGtfsDao());
+	}
+
+	@Test
+	public void loadsIntoTheOtherDao() throws IOException {
+		checkRoundTrip(new ColumnarGtfsDao(), new InsertionOrderedGtfsDao());
+		checkRoundTrip(new InsertionOrderedGtfsDao(), new ColumnarGtfsDao());
+	}
+
+	@Test
+	public void deletesTheSnapshotOfOtherInput() throws IOException {
+		long checksum = FeedSnapshot.checksum(feed);
+		FeedSnapshot.save(snapshot, checksum, parse(new ColumnarGtfsDao()));
+
+		write("calendar_dates.txt", "service_id,date,exception_type",
+				"SV1,20130502,2", "SV2,20130505,1");
+		long changed = FeedSnapshot.checksum(feed);
+		assertTrue(checksum != changed);
+
+		ColumnarGtfsDao dao = new ColumnarGtfsDao();
+		assertFalse(FeedSnapshot.load(snapshot, changed, dao));
+		assertFalse(snapshot.exists());
+		assertTrue(dao.getAllStopTimes().isEmpty());
+		assertFalse(FeedSnapshot.load(snapshot, changed, dao));
+	}
+
+	@Test
+	public void ignoresOtherFilesInTheFolder() throws IOException {
+		long checksum = FeedSnapshot.checksum(feed);
+		Files.write(new File(feed, "notes.md").toPath(), new byte[] { 1 });
+
+		assertEquals(checksum, FeedSnapshot.checksum(feed));
+	}
+
+	/**
+	 * Saves a snapshot of the feed as parsed into the first dao, loads it into
+	 * the second one and checks that both write the same files as a fresh
+	 * parse.
+	 */
+	private void checkRoundTrip(InsertionOrderedGtfsDao parsed,
+			InsertionOrderedGtfsDao loaded) throws IOException {
+		long checksum = FeedSnapshot.checksum(feed);
+		FeedSnapshot.save(snapshot, checksum, parse(parsed));
+		assertTrue(FeedSnapshot.load(snapshot, checksum, loaded));
+		assertTrue(snapshot.exists());
+
+		Map<String, String> expected = write(
+				parse(new InsertionOrderedGtfsDao()), "expected");
+		assertEquals(expected, write(loaded, "loaded"));
+		assertEquals(expected, write(parsed, "parsed"));
+	}
+
+	private InsertionOrderedGtfsDao parse(InsertionOrderedGtfsDao dao)
+			throws IOException {
+		GtfsReader reader = new GtfsReader();
+		reader.setInputLocation(feed);
+		reader.setEntityStore(dao);
+		reader.run();
+		return dao;
+	}
+
+	private Map<String, String> write(InsertionOrderedGtfsDao dao, String name)
+			throws IOException {
+		File output = new File(folder.getRoot(), name);
+		if (output.exists())
+			for (File file : output.listFiles())
+				file.delete();
+		GtfsWriter writer = new GtfsWriter();
+		writer.setOutputLocation(output);
+		writer.run(dao);
+		writer.close();
+
+		Map<String, String> files = new TreeMap<>();
+		for (File file : output.listFiles())
+			files.put(file.getName(), new String(Files.readAllBytes(file
+					.toPath()), StandardCharsets.UTF_8));
+		return files;
+	}
+
+	private void write(String file, String... lines) throws IOException {
+		StringBuilder contents = new StringBuilder();
+		for (String line : lines)
+			contents.append(line).append('\n');
+		Files.write(new File(feed, file).toPath(), contents.toString()
+				.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,120 @@
+package be.ugent.intec.gtfsfilter.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Trip;
+
+/**
+ * Prunes a small graph of stops, stop times, trips and routes with every
+ * orphan policy. Trip T0 stops at S0 and S1, trip T1 at S1 and S2; S3 is not
+ * served and route R2 has no trips.
+ */
+public class PruningTest {
+
+	private static final int[] STOP_TIME_TRIPS = { 0, 0, 1, 1 };
+	private static final int[] STOP_TIME_STOPS = { 0, 1, 1, 2 };
+	private static final int[] TRIP_ROUTES = { 0, 1 };
+
+	@Test
+	public void removesOrphansWithoutSeeds() {
+		Selection selection = graph(ReferenceGraph.ABANDONED_REMOVED).prune(
+				all()).run();
+
+		assertEquals(bits(0, 1), selection.getRoutes());
+		assertEquals(bits(0, 1), selection.getTrips());
+		assertEquals(bits(0, 1, 2, 3), selection.getStops());
+	}
+
+	@Test
+	public void removesAbandonedStops() {
+		Selection selection = graph(ReferenceGraph.ABANDONED_REMOVED)
+				.prune(all()).retain(Trip.class, bits(0)).run();
+
+		assertEquals(bits(0, 1), selection.getStopTimes());
+		// S2 lost its only trip, S3 never had one
+		assertEquals(bits(0, 1, 3), selection.getStops());
+		assertEquals(bits(0), selection.getRoutes());
+	}
+
+	@Test
+	public void keepsOrphans() {
+		Selection selection = graph(ReferenceGraph.ORPHANS_KEPT).prune(all())
+				.retain(Trip.class, bits(0)).run();
+
+		assertEquals(bits(0, 1, 2, 3), selection.getStops());
+	}
+
+	@Test
+	public void removesOrphansOnRequest() {
+		Selection selection = graph(ReferenceGraph.ABANDONED_REMOVED)
+				.prune(all()).removeOrphans(Stop.class).run();
+
+		assertEquals(bits(0, 1, 2), selection.getStops());
+		assertEquals(bits(0, 1, 2, 3), selection.getStopTimes());
+	}
+
+	@Test
+	public void removesTheReferrersOfRemovedStops() {
+		Selection selection = graph(ReferenceGraph.ABANDONED_REMOVED)
+				.prune(all()).retain(Stop.class, bits(2, 3)).run();
+
+		// T0 has no stop times left, so it goes with its route
+		assertEquals(bits(3), selection.getStopTimes());
+		assertEquals(bits(1), selection.getTrips());
+		assertEquals(bits(1), selection.getRoutes());
+		assertEquals(bits(2, 3), selection.getStops());
+	}
+
+	@Test
+	public void spreadsLaterRemovals() {
+		Pruning pruning = graph(ReferenceGraph.ABANDONED_REMOVED).prune(all());
+		pruning.retain(Route.class, bits(0, 2)).run();
+		Selection selection = pruning.retain(Stop.class, bits(1, 2, 3)).run();
+
+		assertEquals(bits(1), selection.getStopTimes());
+		assertEquals(bits(0), selection.getTrips());
+		assertEquals(bits(1, 3), selection.getStops());
+	}
+
+	private static ReferenceGraph graph(int stopOrphans) {
+		int[] sizes = new int[ReferenceGraph.KINDS];
+		sizes[Selection.STOPS] = 4;
+		sizes[Selection.STOP_TIMES] = 4;
+		sizes[Selection.TRIPS] = 2;
+		sizes[Selection.ROUTES] = 3;
+		ReferenceGraph graph = new ReferenceGraph(sizes);
+		graph.addEdge(Selection.STOP_TIMES, STOP_TIME_TRIPS, Selection.TRIPS,
+				true, true);
+		graph.addEdge(Selection.STOP_TIMES, STOP_TIME_STOPS, Selection.STOPS,
+				true, true);
+		graph.addEdge(Selection.TRIPS, TRIP_ROUTES, Selection.ROUTES, true,
+				true);
+		graph.setOrphans(Selection.STOPS, stopOrphans);
+		graph.setOrphans(Selection.TRIPS, ReferenceGraph.ORPHANS_REMOVED);
+		graph.setOrphans(Selection.ROUTES, ReferenceGraph.ORPHANS_REMOVED);
+		return graph;
+	}
+
+	private static Selection all() {
+		BitSet[] selected = new BitSet[Selection.TYPES.length];
+		for (int kind = 0; kind < selected.length; kind++)
+			selected[kind] = new BitSet();
+		selected[Selection.STOPS].set(0, 4);
+		selected[Selection.STOP_TIMES].set(0, 4);
+		selected[Selection.TRIPS].set(0, 2);
+		selected[Selection.ROUTES].set(0, 3);
+		return new Selection(selected);
+	}
+
+	private static BitSet bits(int... ordinals) {
+		BitSet bits = new BitSet();
+		for (int ordinal : ordinals)
+			bits.set(ordinal);
+		return bits;
+	}
+}
@@ -0,0 +1,238 @@
+package be.ugent.intec.gtfsfilter.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+/**
+ * Checks the service bitmaps against a plain expansion of the calendars, one
+ * day at a time.
+ */
+public class ServiceDaysTest {
+
+	private static final int SERVICES = 20;
+	private static final ServiceDate FIRST = new ServiceDate(2012, 12, 1);
+	private static final int DAYS = 500;
+
+	@Test
+	public void numbersTheDays() {
+		GregorianCalendar calendar = new GregorianCalendar(
+				TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(1899, Calendar.DECEMBER, 25);
+		// across the leap years 1900 (not one), 2000 (one) and 2100 (not one)
+		for (int i = 0; i < 80000; i++) {
+			ServiceDate date = new ServiceDate(calendar);
+			int day = (int) (calendar.getTimeInMillis() / 86400000L);
+			assertEquals(date.toString(), day, ServiceDays.dayNumber(date));
+			assertEquals(date, ServiceDays.serviceDate(day));
+			calendar.add(Calendar.DAY_OF_MONTH, 1);
+		}
+		assertEquals(0, ServiceDays.dayNumber(new ServiceDate(1970, 1, 1)));
+	}
+
+	@Test
+	public void runsOnTheWeekdaysOfTheCalendar() {
+		// 2013-03-04 was a monday
+		ServiceDate monday = new ServiceDate(2013, 3, 4);
+		List<ServiceCalendar> calendars = new ArrayList<>();
+		int[] calendarServices = new int[7];
+		for (int weekday = 0; weekday < 7; weekday++) {
+			boolean[] flags = new boolean[7];
+			flags[weekday] = true;
+			calendars.add(calendar(flags, monday, shift(monday, 13)));
+			calendarServices[weekday] = weekday;
+		}
+		ServiceDays days = new ServiceDays(7, calendars, calendarServices,
+				Collections.<ServiceCalendarDate> emptyList(), new int[0]);
+
+		int first = ServiceDays.dayNumber(monday);
+		for (int service = 0; service < 7; service++)
+			for (int day = first - 1; day <= first + 14; day++)
+				assertEquals(day + " " + service, day >= first
+						&& day < first + 14 && (day - first) % 7 == service,
+						days.runs(service, day));
+	}
+
+	@Test
+	public void addsWhatItRemoves() {
+		ServiceDate date = new ServiceDate(2013, 3, 5);
+		ServiceDays days = new ServiceDays(2,
+				Collections.singletonList(calendar(new boolean[] { true,
+						true, true, true, true, true, true }, shift(date, -7),
+						shift(date, 7))), new int[] { 0 }, list(
+						calendarDate(date, 2), calendarDate(date, 1),
+						calendarDate(shift(date, 1), 2),
+						calendarDate(shift(date, 30), 1),
+						calendarDate(date, 1), calendarDate(date, 2)),
+				new int[] { 0, 0, 0, 0, 1, 1 });
+
+		int day = ServiceDays.dayNumber(date);
+		// removed and added, in either order, still runs
+		assertTrue(days.runs(0, day));
+		assertTrue(days.runs(1, day));
+		assertFalse(days.runs(0, day + 1));
+		assertTrue(days.runs(0, day + 30));
+		assertFalse(days.runs(0, day + 29));
+		// service 1 only has the exceptions
+		assertFalse(days.runs(1, day - 1));
+		assertFalse(days.runs(1, day + 1));
+	}
+
+	@Test
+	public void expandsLikeTheCalendars() {
+		Random random = new Random(42);
+		for (int round = 0; round < 20; round++) {
+			List<ServiceCalendar> calendars = new ArrayList<>();
+			List<Integer> calendarServices = new ArrayList<>();
+			List<ServiceCalendarDate> dates = new ArrayList<>();
+			List<Integer> dateServices = new ArrayList<>();
+			for (int service = 0; service < SERVICES; service++) {
+				if (random.nextInt(4) > 0) {
+					boolean[] flags = new boolean[7];
+					for (int i = 0; i < 7; i++)
+						flags[i] = random.nextBoolean();
+					int start = random.nextInt(DAYS);
+					int end = start + random.nextInt(DAYS - start);
+					calendars.add(calendar(flags, shift(FIRST, start),
+							shift(FIRST, end)));
+					calendarServices.add(service);
+				}
+				for (int i = random.nextInt(30); i > 0; i--) {
+					int day = random.nextInt(DAYS);
+					dates.add(calendarDate(shift(FIRST, day),
+							random.nextBoolean() ? 1 : 2));
+					dateServices.add(service);
+				}
+			}
+			ServiceDays days = new ServiceDays(SERVICES, calendars,
+					ints(calendarServices), dates, ints(dateServices));
+
+			boolean[][] expected = expand(calendars, calendarServices, dates,
+					dateServices);
+			int first = ServiceDays.dayNumber(FIRST);
+			for (int service = 0; service < SERVICES; service++)
+				for (int day = -5; day < DAYS + 5; day++)
+					assertEquals(service + " " + shift(FIRST, day),
+							day >= 0 && day < DAYS && expected[service][day],
+							days.runs(service, first + day));
+
+			for (int i = 0; i < 200; i++) {
+				int from = random.nextInt(DAYS + 20) - 10;
+				int to = from + random.nextInt(40);
+				BitSet services = days.getServices(shift(FIRST, from),
+						shift(FIRST, to));
+				for (int service = 0; service < SERVICES; service++) {
+					boolean runs = false;
+					for (int day = Math.max(0, from); day <= Math.min(to,
+							DAYS - 1); day++)
+						runs |= expected[service][day];
+					assertEquals(runs, days.runsBetween(service, first + from,
+							first + to));
+					assertEquals(runs, services.get(service));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return per service and day from FIRST, whether the service runs, found
+	 *         by walking every calendar one day at a time
+	 */
+	private static boolean[][] expand(List<ServiceCalendar> calendars,
+			List<Integer> calendarServices, List<ServiceCalendarDate> dates,
+			List<Integer> dateServices) {
+		boolean[][] runs = new boolean[SERVICES][DAYS];
+		for (int i = 0; i < calendars.size(); i++) {
+			ServiceCalendar calendar = calendars.get(i);
+			Calendar day = calendar.getStartDate().getAsCalendar(
+					TimeZone.getTimeZone("UTC"));
+			Calendar end = calendar.getEndDate().getAsCalendar(
+					TimeZone.getTimeZone("UTC"));
+			int[] flags = { calendar.getSunday(), calendar.getMonday(),
+					calendar.getTuesday(), calendar.getWednesday(),
+					calendar.getThursday(), calendar.getFriday(),
+					calendar.getSaturday() };
+			for (; !day.after(end); day.add(Calendar.DAY_OF_MONTH, 1))
+				if (flags[day.get(Calendar.DAY_OF_WEEK) - 1] == 1)
+					runs[calendarServices.get(i)][daysFrom(new ServiceDate(
+							day))] = true;
+		}
+		boolean[][] added = new boolean[SERVICES][DAYS];
+		for (int i = 0; i < dates.size(); i++) {
+			int service = dateServices.get(i);
+			int day = daysFrom(dates.get(i).getDate());
+			if (dates.get(i).getExceptionType() == 1)
+				added[service][day] = true;
+			else if (!added[service][day])
+				runs[service][day] = false;
+		}
+		for (int service = 0; service < SERVICES; service++)
+			for (int day = 0; day < DAYS; day++)
+				runs[service][day] |= added[service][day];
+		return runs;
+	}
+
+	private static ServiceDate shift(ServiceDate date, int days) {
+		Calendar calendar = date.getAsCalendar(TimeZone.getTimeZone("UTC"));
+		calendar.add(Calendar.DAY_OF_MONTH, days);
+		return new ServiceDate(calendar);
+	}
+
+	private static int daysFrom(ServiceDate date) {
+		Calendar first = FIRST.getAsCalendar(TimeZone.getTimeZone("UTC"));
+		Calendar day = date.getAsCalendar(TimeZone.getTimeZone("UTC"));
+		return (int) Math.round((day.getTimeInMillis() - first
+				.getTimeInMillis()) / 86400000.0);
+	}
+
+	private static ServiceCalendar calendar(boolean[] weekdays,
+			ServiceDate start, ServiceDate end) {
+		ServiceCalendar calendar = new ServiceCalendar();
+		calendar.setMonday(weekdays[0] ? 1 : 0);
+		calendar.setTuesday(weekdays[1] ? 1 : 0);
+		calendar.setWednesday(weekdays[2] ? 1 : 0);
+		calendar.setThursday(weekdays[3] ? 1 : 0);
+		calendar.setFriday(weekdays[4] ? 1 : 0);
+		calendar.setSaturday(weekdays[5] ? 1 : 0);
+		calendar.setSunday(weekdays[6] ? 1 : 0);
+		calendar.setStartDate(start);
+		calendar.setEndDate(end);
+		return calendar;
+	}
+
+	private static ServiceCalendarDate calendarDate(ServiceDate date, int type) {
+		ServiceCalendarDate calendarDate = new ServiceCalendarDate();
+		calendarDate.setDate(date);
+		calendarDate.setExceptionType(type);
+		return calendarDate;
+	}
+
+	private static List<ServiceCalendarDate> list(
+			ServiceCalendarDate... calendarDates) {
+		List<ServiceCalendarDate> list = new ArrayList<>();
+		Collections.addAll(list, calendarDates);
+		return list;
+	}
+
+	private static int[] ints(List<Integer> values) {
+		int[] ints = new int[values.size()];
+		for (int i = 0; i < ints.length; i++)
+			ints[i] = values.get(i);
+		return ints;
+	}
+}
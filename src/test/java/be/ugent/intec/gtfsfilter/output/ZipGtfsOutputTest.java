@@ -0,0 +1,122 @@
+package be.ugent.intec.gtfsfilter.output;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes archives with {@link ZipGtfsOutput} and reads them back with
+ * {@link ZipFile}.
+ */
+public class ZipGtfsOutputTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsBackTheFiles() throws IOException {
+		byte[] stops = "stop_id,stop_name\nS1,Gent-Sint-Pieters\n"
+				.getBytes(StandardCharsets.UTF_8);
+		// random bytes don't compress, and span many chunks of the queue
+		byte[] stopTimes = new byte[20 * QueuedFile.CHUNK_SIZE + 123];
+		new Random(1).nextBytes(stopTimes);
+
+		File archive = new File(folder.getRoot(), "feed.zip");
+		try (GtfsOutput output = new ZipGtfsOutput(archive)) {
+			write(output, "stops.txt", stops);
+			OutputStream out = output.create("stop_times.txt");
+			for (byte b : stopTimes)
+				out.write(b);
+			out.close();
+			write(output, "halte_\u00e9.txt", stops);
+			write(output, "empty.txt", new byte[0]);
+		}
+
+		try (ZipFile zip = new ZipFile(archive)) {
+			List<String> names = new ArrayList<>();
+			for (Enumeration<? extends ZipEntry> e = zip.entries(); e
+					.hasMoreElements();)
+				names.add(e.nextElement().getName());
+			assertEquals(Arrays.asList("stops.txt", "stop_times.txt",
+					"halte_\u00e9.txt", "empty.txt"), names);
+			assertArrayEquals(stops, read(zip, "stops.txt"));
+			assertArrayEquals(stopTimes, read(zip, "stop_times.txt"));
+			assertArrayEquals(stops, read(zip, "halte_\u00e9.txt"));
+			assertArrayEquals(new byte[0], read(zip, "empty.txt"));
+			assertEquals(stopTimes.length, zip.getEntry("stop_times.txt")
+					.getSize());
+		}
+		assertEquals(Collections.singletonList(archive),
+				Arrays.asList(folder.getRoot().listFiles()));
+	}
+
+	@Test
+	public void leavesOutDiscardedFiles() throws IOException {
+		File archive = new File(folder.getRoot(), "feed.zip");
+		try (GtfsOutput output = new ZipGtfsOutput(archive)) {
+			write(output, "trips.txt", bytes("trip_id\nT1\n"));
+			write(output, "stops.txt", bytes("stop_id\nS1\n"));
+			output.discard("trips.txt");
+			output.discard("shapes.txt");
+			write(output, "trips.txt", bytes("trip_id\nT2\n"));
+		}
+
+		try (ZipFile zip = new ZipFile(archive)) {
+			assertEquals(2, zip.size());
+			assertArrayEquals(bytes("stop_id\nS1\n"), read(zip, "stops.txt"));
+			assertArrayEquals(bytes("trip_id\nT2\n"), read(zip, "trips.txt"));
+			assertNull(zip.getEntry("shapes.txt"));
+		}
+		assertEquals(1, folder.getRoot().listFiles().length);
+	}
+
+	@Test
+	public void writesAnEmptyArchive() throws IOException {
+		File archive = new File(folder.getRoot(), "sub/feed.zip");
+		new ZipGtfsOutput(archive).close();
+
+		try (ZipFile zip = new ZipFile(archive)) {
+			assertEquals(0, zip.size());
+		}
+	}
+
+	private static void write(GtfsOutput output, String file, byte[] contents)
+			throws IOException {
+		try (OutputStream out = output.create(file)) {
+			out.write(contents);
+		}
+	}
+
+	private static byte[] read(ZipFile zip, String file) throws IOException {
+		ByteArrayOutputStream contents = new ByteArrayOutputStream();
+		try (InputStream in = zip.getInputStream(zip.getEntry(file))) {
+			byte[] buffer = new byte[8192];
+			for (int n; (n = in.read(buffer)) > 0;)
+				contents.write(buffer, 0, n);
+		}
+		return contents.toByteArray();
+	}
+
+	private static byte[] bytes(String contents) {
+		return contents.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,124 @@
+package be.ugent.intec.gtfsfilter.spatial;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Queries trees of random stops with boxes, circles and polygons, and checks
+ * that they find the same stops as testing every stop against the region.
+ * The coordinates are rounded to a grid, so that stops share coordinates and
+ * lie on the edges of the boxes.
+ */
+public class StopTreeTest {
+
+	private static final int[] SIZES = { 0, 1, 15, 16, 17, 256, 1000, 5000 };
+	private static final int REGIONS = 50;
+
+	@Test
+	public void queriesBoxes() {
+		Random random = new Random(1);
+		for (int size : SIZES) {
+			Stops stops = new Stops(random, size);
+			for (int i = 0; i < REGIONS; i++) {
+				double lat1 = coordinate(random, 51), lat2 = coordinate(random,
+						51);
+				double lon1 = coordinate(random, 3), lon2 = coordinate(random, 3);
+				stops.check(new BoxRegion(Math.min(lat1, lat2), Math.min(lon1,
+						lon2), Math.max(lat1, lat2), Math.max(lon1, lon2)));
+			}
+			stops.check(new BoxRegion(50, 2, 53, 5));
+			stops.check(new BoxRegion(60, 10, 61, 11));
+		}
+	}
+
+	@Test
+	public void queriesCircles() {
+		Random random = new Random(2);
+		for (int size : SIZES) {
+			Stops stops = new Stops(random, size);
+			for (int i = 0; i < REGIONS; i++)
+				stops.check(new CircleRegion(coordinate(random, 51), coordinate(
+						random, 3), random.nextInt(50000)));
+			stops.check(new CircleRegion(51.5, 3.5, 200000));
+		}
+	}
+
+	@Test
+	public void queriesPolygons() {
+		Random random = new Random(3);
+		for (int size : SIZES) {
+			Stops stops = new Stops(random, size);
+			for (int i = 0; i < REGIONS; i++) {
+				double lat = coordinate(random, 51), lon = coordinate(random, 3);
+				List<List<double[]>> polygons = new ArrayList<>();
+				// the hole stays inside the outer ring, whose edges keep at
+				// least a tenth of its radius from the centre
+				polygons.add(Arrays.asList(ring(random, lat, lon, 0.3),
+						ring(random, lat, lon, 0.015)));
+				polygons.add(Arrays.asList(ring(random, coordinate(random, 51),
+						coordinate(random, 3), 0.2)));
+				stops.check(new PolygonRegion(polygons));
+			}
+		}
+	}
+
+	/**
+	 * @return a star shaped ring around the given centre, as lon0, lat0, lon1,
+	 *         lat1, ...
+	 */
+	private static double[] ring(Random random, double lat, double lon,
+			double radius) {
+		int corners = 3 + random.nextInt(8);
+		double[] ring = new double[2 * corners];
+		for (int i = 0; i < corners; i++) {
+			double angle = 2 * Math.PI * i / corners;
+			double r = radius * (0.2 + random.nextDouble());
+			ring[2 * i] = lon + r * Math.cos(angle);
+			ring[2 * i + 1] = lat + r * Math.sin(angle);
+		}
+		return ring;
+	}
+
+	/**
+	 * @return a coordinate on a grid of a thousandth of a degree, between from
+	 *         and from + 1
+	 */
+	private static double coordinate(Random random, int from) {
+		return from + random.nextInt(1001) / 1000.0;
+	}
+
+	private static class Stops {
+		private final double[] lats, lons;
+		private final StopTree tree;
+
+		Stops(Random random, int size) {
+			lats = new double[size];
+			lons = new double[size];
+			for (int i = 0; i < size; i++) {
+				// every tenth stop shares the coordinates of an earlier one
+				int copy = i > 0 && i % 10 == 0 ? random.nextInt(i) : -1;
+				lats[i] = copy < 0 ? coordinate(random, 51) : lats[copy];
+				lons[i] = copy < 0 ? coordinate(random, 3) : lons[copy];
+			}
+			tree = new StopTree(lats, lons);
+			assertEquals(size, tree.size());
+		}
+
+		void check(Region region) {
+			BitSet expected = new BitSet();
+			for (int i = 0; i < lats.length; i++)
+				if (region.contains(lats[i], lons[i]))
+					expected.set(i);
+			BitSet result = new BitSet();
+			tree.query(region, result);
+			assertEquals(lats.length + " stops in " + region, expected, result);
+		}
+	}
+}